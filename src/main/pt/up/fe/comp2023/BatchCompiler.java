@@ -0,0 +1,209 @@
+package pt.up.fe.comp2023;
+
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Compiles many .jmm files in a single JVM, on a bounded pool of worker threads.
+ */
+public class BatchCompiler {
+    private final Map<String, String> config;
+    private final int jobs;
+    private final BuildCache cache;
+
+    public BatchCompiler(Map<String, String> config) {
+        this.config = config;
+        this.cache = BuildCache.fromConfig(config);
+        this.jobs = config.containsKey("jobs")
+                ? Math.max(1, Integer.parseInt(config.get("jobs")))
+                : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Compiles every unit described by `inputs`, writing its .class file, and its .j file if `jasmin` is set.
+     *
+     * @param inputs a directory, a glob or a manifest file listing one path per line
+     */
+    public Summary compile(String inputs) {
+        return compile(collectInputs(inputs));
+    }
+
+    public Summary compile(List<File> files) {
+        var start = System.nanoTime();
+        var executor = Executors.newFixedThreadPool(Math.max(1, Math.min(jobs, files.size())));
+
+        try {
+            List<Future<Unit>> futures = new ArrayList<>();
+            for (var file : files)
+                futures.add(executor.submit(() -> compileUnit(file)));
+
+            // Results are gathered in input order, so the summary does not depend on scheduling
+            List<Unit> units = new ArrayList<>();
+            for (int i = 0; i < files.size(); ++i)
+                units.add(getUnit(files.get(i), futures.get(i)));
+
+            return new Summary(units, (System.nanoTime() - start) / 1_000_000);
+        } finally {
+            executor.shutdown();
+
+            if (cache != null)
+                cache.evict();
+        }
+    }
+
+    private Unit getUnit(File file, Future<Unit> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Unit.failed(file, Report.newError(Stage.GENERATION, -1, -1, "Interrupted while compiling", e));
+        } catch (ExecutionException e) {
+            var cause = e.getCause() instanceof Exception ex ? ex : e;
+            return Unit.failed(file, Report.newError(Stage.GENERATION, -1, -1, "Exception during compilation: " + cause.getMessage(), cause));
+        }
+    }
+
+    private Unit compileUnit(File file) {
+        Map<String, String> unitConfig = new HashMap<>(config);
+        unitConfig.remove("batch");
+        unitConfig.put("inputFile", file.getPath());
+
+        List<Report> reports = new ArrayList<>();
+        var classFileResult = Launcher.compile(SpecsIo.read(file), unitConfig, stageReports -> {
+            reports.addAll(stageReports);
+            return stageReports.stream().anyMatch(r -> r.getType() == ReportType.ERROR);
+        });
+
+        if (classFileResult == null)
+            return new Unit(file, reports, null, null);
+
+        var outputDir = config.containsKey("outputDir") ? new File(config.get("outputDir")) : file.getAbsoluteFile().getParentFile();
+        File jasminFile = null;
+
+        if (Boolean.parseBoolean(config.get("jasmin")) && classFileResult.getJasminCode() != null) {
+            jasminFile = new File(outputDir, classFileResult.getClassName() + ".j");
+            SpecsIo.write(jasminFile, classFileResult.getJasminCode());
+        }
+
+        try {
+            return new Unit(file, reports, jasminFile, classFileResult.write(outputDir));
+        } catch (RuntimeException e) {
+            reports.add(Report.newError(Stage.GENERATION, -1, -1, "Could not write the class file of '" + file + "'", e));
+            return new Unit(file, reports, jasminFile, null);
+        }
+    }
+
+    /**
+     * @param inputs a directory (every .jmm file below it), a glob or a manifest file
+     * @return the files to compile, in a deterministic order
+     */
+    public static List<File> collectInputs(String inputs) {
+        var path = Path.of(inputs);
+
+        if (Files.isDirectory(path))
+            return walk(path, p -> p.toString().endsWith(".jmm"));
+
+        if (inputs.chars().anyMatch(c -> "*?[{".indexOf(c) >= 0)) {
+            var matcher = FileSystems.getDefault().getPathMatcher("glob:" + inputs);
+            return walk(globRoot(inputs), matcher::matches);
+        }
+
+        if (!Files.isRegularFile(path))
+            throw new RuntimeException("Expected a directory, a glob or a manifest file, got '" + inputs + "'.");
+
+        if (inputs.endsWith(".jmm"))
+            return List.of(path.toFile());
+
+        // Manifest: one path per line, relative to the manifest itself
+        var parent = path.toAbsolutePath().getParent();
+        return SpecsIo.read(path.toFile()).lines()
+                .map(String::strip)
+                .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                .map(line -> parent.resolve(line).normalize().toFile())
+                .toList();
+    }
+
+    /**
+     * @return the longest leading run of path segments of `glob` without glob metacharacters
+     */
+    private static Path globRoot(String glob) {
+        var segments = glob.split("[/\\\\]");
+        var root = new StringBuilder(glob.startsWith("/") ? "/" : "");
+
+        for (int i = 0; i < segments.length - 1; ++i) {
+            if (segments[i].chars().anyMatch(c -> "*?[{".indexOf(c) >= 0))
+                break;
+            root.append(segments[i]).append('/');
+        }
+
+        return Path.of(root.toString());
+    }
+
+    private static List<File> walk(Path root, Predicate<Path> filter) {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(filter)
+                    .sorted()
+                    .map(Path::toFile)
+                    .toList();
+        } catch (IOException e) {
+            throw new RuntimeException("Could not list files in '" + root + "'.", e);
+        }
+    }
+
+    public record Unit(File file, List<Report> reports, File jasminFile, File classFile) {
+        static Unit failed(File file, Report report) {
+            return new Unit(file, new ArrayList<>(List.of(report)), null, null);
+        }
+
+        public boolean succeeded() {
+            return classFile != null;
+        }
+    }
+
+    public record Summary(List<Unit> units, long elapsedMillis) {
+        public boolean hasErrors() {
+            return units.stream().anyMatch(unit -> !unit.succeeded());
+        }
+
+        /**
+         * Prints the reports of every unit, in input order, followed by a one line summary.
+         */
+        public void print(Map<String, String> config, PrintStream out, PrintStream err) {
+            var debug = Boolean.parseBoolean(config.get("debug"));
+
+            for (var unit : units) {
+                if (unit.reports().stream().noneMatch(r -> debug || r.getType() != ReportType.DEBUG))
+                    continue;
+
+                out.println("==> " + unit.file());
+                Launcher.reports(config, unit.reports(), out, err);
+            }
+
+            var failed = units.stream().filter(unit -> !unit.succeeded()).count();
+            out.println("Compiled " + (units.size() - failed) + "/" + units.size() + " units in " + elapsedMillis + " ms"
+                    + (failed > 0 ? ", " + failed + " failed" : ""));
+
+            if (debug)
+                out.println(ParserCache.getStats());
+        }
+    }
+}
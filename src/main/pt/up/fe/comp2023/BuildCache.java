@@ -0,0 +1,316 @@
+package pt.up.fe.comp2023;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of compilation outputs, keyed by a hash of everything the output depends on.
+ * <p>
+ * Every entry is a directory named after its key. Entries are written to a temporary directory and then moved into
+ * place, so concurrent compilations never observe a partial entry. Eviction removes entries not used for longer than
+ * the maximum age, and then the least recently used ones until the cache fits its maximum size, as well as temporary
+ * directories left by compilations that stopped while writing an entry.
+ */
+public class BuildCache {
+    private static final String CLASS_NAME = "class-name";
+    private static final String JASMIN = "code.j";
+    private static final String CLASS_FILE = "code.class";
+
+    private static final long DEFAULT_MAX_SIZE_MB = 256;
+    private static final long DEFAULT_MAX_AGE_DAYS = 30;
+
+    private static final String TEMP_PREFIX = ".tmp-";
+    // Temporary directories older than this are no longer being written by any compilation
+    private static final Duration TEMP_MAX_AGE = Duration.ofHours(1);
+    private static final int MOVE_ATTEMPTS = 3;
+
+    private final Path dir;
+    private final long maxSize;
+    private final Duration maxAge;
+
+    public BuildCache(Path dir, long maxSize, Duration maxAge) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @return the cache configured by `--cache-dir`, or `null` if caching is disabled
+     */
+    public static BuildCache fromConfig(Map<String, String> config) {
+        if (!config.containsKey("cacheDir"))
+            return null;
+
+        var maxSize = Long.parseLong(config.getOrDefault("cacheMaxSize", String.valueOf(DEFAULT_MAX_SIZE_MB)));
+        var maxAge = Long.parseLong(config.getOrDefault("cacheMaxAge", String.valueOf(DEFAULT_MAX_AGE_DAYS)));
+
+        return new BuildCache(Path.of(config.get("cacheDir")), maxSize * 1024 * 1024, Duration.ofDays(maxAge));
+    }
+
+    /**
+     * @return the key of the compilation of `code` with `config`, by this version of the compiler
+     */
+    public static String key(String code, Map<String, String> config) {
+        return key(CompilerVersion.HASH, code, config);
+    }
+
+    /**
+     * @return the key of the compilation of `code` with `config`, by the compiler whose classes and libraries hash to
+     * `compilerVersion`
+     */
+    public static String key(String compilerVersion, String code, Map<String, String> config) {
+        return hash(compilerVersion,
+                config.getOrDefault("optimize", "false"),
+                config.getOrDefault("registerAllocation", "-1"),
+                config.getOrDefault("regalloc", "graph"),
+                config.getOrDefault("ollir", "text"),
+                config.getOrDefault("jasmin", "false"),
+                // The class file names its source file
+                config.getOrDefault("inputFile", ""),
+                code);
+    }
+
+    private static String hash(String... parts) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+
+            for (var part : parts) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * @return the cached outputs of the compilation with the given key, or `null` if there are none
+     */
+    public Entry get(String key) {
+        var entry = dir.resolve(key);
+
+        if (!Files.isDirectory(entry))
+            return null;
+
+        try {
+            var jasmin = entry.resolve(JASMIN);
+            var result = new Entry(Files.readString(entry.resolve(CLASS_NAME)),
+                    Files.isRegularFile(jasmin) ? Files.readString(jasmin) : null, Files.readAllBytes(entry.resolve(CLASS_FILE)));
+            touch(entry);
+            return result;
+        } catch (IOException e) {
+            // Evicted while being read
+            return null;
+        }
+    }
+
+    public void put(String key, Entry entry) {
+        Map<String, byte[]> files = new HashMap<>();
+        files.put(CLASS_NAME, entry.className().getBytes(StandardCharsets.UTF_8));
+        files.put(CLASS_FILE, entry.classFile());
+
+        if (entry.jasminCode() != null)
+            files.put(JASMIN, entry.jasminCode().getBytes(StandardCharsets.UTF_8));
+
+        write(key, files);
+    }
+
+    private void write(String key, Map<String, byte[]> files) {
+        var entry = dir.resolve(key);
+
+        try {
+            Files.createDirectories(dir);
+            var temp = Files.createTempDirectory(dir, TEMP_PREFIX);
+
+            for (var file : files.entrySet())
+                Files.write(temp.resolve(file.getKey()), file.getValue());
+
+            moveIntoPlace(temp, entry);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write build cache entry '" + entry + "'", e);
+        }
+    }
+
+    /**
+     * Moves the entry written to `temp` into place, unless another compilation stored the same entry first. When that
+     * entry is evicted before it can be seen, the move is tried again.
+     */
+    private static void moveIntoPlace(Path temp, Path entry) throws IOException {
+        for (int attempt = 1; ; ++attempt) {
+            try {
+                Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+                return;
+            } catch (AtomicMoveNotSupportedException e) {
+                moveNonAtomically(temp, entry);
+                return;
+            } catch (FileAlreadyExistsException e) {
+                // Another compilation stored the same entry first
+                delete(temp);
+                return;
+            } catch (IOException e) {
+                // Renaming onto an existing entry fails with a generic error on some systems
+                if (Files.isDirectory(entry)) {
+                    delete(temp);
+                    return;
+                }
+
+                if (attempt == MOVE_ATTEMPTS)
+                    throw e;
+            }
+        }
+    }
+
+    /**
+     * Moves the complete entry written to `temp` into place on a file system that cannot rename atomically, where an
+     * entry another compilation moved into place first is kept instead.
+     */
+    private static void moveNonAtomically(Path temp, Path entry) throws IOException {
+        try {
+            Files.move(temp, entry);
+        } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+            if (!Files.isDirectory(entry))
+                throw e;
+
+            delete(temp);
+        }
+    }
+
+    /**
+     * Removes entries older than the maximum age, and then the least recently used entries until the cache is no
+     * larger than its maximum size. Entries that another compilation evicts or replaces meanwhile are skipped.
+     */
+    public void evict() {
+        if (!Files.isDirectory(dir))
+            return;
+
+        record CacheEntry(Path path, long size, FileTime lastUsed) {
+        }
+
+        var oldestTemp = FileTime.fromMillis(System.currentTimeMillis() - TEMP_MAX_AGE.toMillis());
+
+        List<CacheEntry> entries = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(dir)) {
+            for (var path : paths.toList()) {
+                try {
+                    if (!path.getFileName().toString().startsWith(TEMP_PREFIX))
+                        entries.add(new CacheEntry(path, size(path), Files.getLastModifiedTime(path)));
+                    else if (Files.getLastModifiedTime(path).compareTo(oldestTemp) < 0)
+                        delete(path);
+                } catch (NoSuchFileException e) {
+                    // Evicted, replaced or moved into place by another compilation since it was listed
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not list build cache '" + dir + "'", e);
+        }
+
+        entries.sort(Comparator.comparing(CacheEntry::lastUsed));
+
+        var oldest = FileTime.fromMillis(System.currentTimeMillis() - maxAge.toMillis());
+        var totalSize = entries.stream().mapToLong(CacheEntry::size).sum();
+
+        for (var entry : entries) {
+            if (entry.lastUsed().compareTo(oldest) >= 0 && totalSize <= maxSize)
+                break;
+
+            delete(entry.path());
+            totalSize -= entry.size();
+        }
+    }
+
+    private static void touch(Path entry) throws IOException {
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+    }
+
+    private static long size(Path entry) throws IOException {
+        try (Stream<Path> files = Files.walk(entry)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        } catch (UncheckedIOException e) {
+            // Thrown while walking, for files that are removed meanwhile
+            throw e.getCause();
+        }
+    }
+
+    private static void delete(Path path) {
+        try (Stream<Path> files = Files.walk(path)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).toList())
+                Files.deleteIfExists(file);
+        } catch (IOException | UncheckedIOException ignored) {
+            // Removed concurrently, or will be retried by the next eviction
+        }
+    }
+
+    /**
+     * @param locations the jars and class directories of the compiler and its libraries
+     * @return a hash of the contents of every file in `locations`, skipping those that do not exist
+     */
+    public static String compilerVersion(Collection<Path> locations) throws IOException, NoSuchAlgorithmException {
+        List<String> parts = new ArrayList<>();
+
+        for (var location : locations) {
+            if (!Files.exists(location))
+                continue;
+
+            try (Stream<Path> files = Files.walk(location)) {
+                for (var file : files.filter(Files::isRegularFile).sorted().toList())
+                    parts.add(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file))));
+            }
+        }
+
+        return hash(parts.toArray(String[]::new));
+    }
+
+    /**
+     * @param jasminCode the Jasmin code of the class, or `null` if it was not requested
+     */
+    public record Entry(String className, String jasminCode, byte[] classFile) {
+    }
+
+    /**
+     * Hash of the classes of the compiler itself and of every jar and directory on its classpath, such as the OLLIR,
+     * Jasmin and ANTLR libraries, so that rebuilding the compiler or upgrading a library invalidates every entry.
+     */
+    private static class CompilerVersion {
+        private static final String HASH = compute();
+
+        private static String compute() {
+            try {
+                Set<Path> locations = new LinkedHashSet<>();
+                locations.add(Path.of(BuildCache.class.getProtectionDomain().getCodeSource().getLocation().toURI()));
+                for (var element : System.getProperty("java.class.path").split(File.pathSeparator))
+                    if (!element.isEmpty())
+                        locations.add(Path.of(element).toAbsolutePath().normalize());
+
+                return compilerVersion(locations);
+            } catch (Exception e) {
+                // Without a version every entry would be reused across compiler changes, so never reuse them
+                return String.valueOf(System.nanoTime());
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package pt.up.fe.comp2023;
+
+/**
+ * State owned by a single compilation: the counters used to generate unique temporaries and labels.
+ * <p>
+ * Each compilation must use its own context, so that concurrent compilations in the same JVM neither interfere with
+ * each other nor depend on what was compiled before them.
+ */
+public class CompilationContext {
+    private int temporaryVarCounter = 0;
+    private int ifLabelCounter = 0;
+    private int whileLabelCounter = 0;
+    private int doWhileLabelCounter = 0;
+    private int forLabelCounter = 0;
+    private int forEachLabelCounter = 0;
+    private int switchLabelCounter = 0;
+    private int conditionalCounter = 0;
+
+    public String getNextTemp() {
+        return "__temp__" + temporaryVarCounter++;
+    }
+
+    public String[] getNextIfLabels() {
+        return new String[] { "__else__" + ifLabelCounter, "__endif__" + ifLabelCounter++ };
+    }
+
+    public String[] getNextWhileLabels() {
+        return new String[] { "__while__" + whileLabelCounter, "__endwhile__" + whileLabelCounter++ };
+    }
+
+    public String[] getNextDoWhileLabels() {
+        return new String[] { "__dowhile__" + doWhileLabelCounter, "__enddowhile__" + doWhileLabelCounter++ };
+    }
+
+    public String[] getNextForLabels() {
+        return new String[] { "__for__" + forLabelCounter, "__endfor__" + forLabelCounter++ };
+    }
+
+    public String[] getNextForEachLabels() {
+        return new String[] {
+            "__foreach__" + forEachLabelCounter,
+            "__endforeach__" + forEachLabelCounter,
+            "__foreacharray__" + forEachLabelCounter,
+            "__foreachlength__" + forEachLabelCounter,
+            "__foreachindex__" + forEachLabelCounter++
+        };
+    }
+
+    public String[] getNextSwitchLabels() {
+        return new String[] { "__switch__" + switchLabelCounter + "_", "__endswitch__" + switchLabelCounter++ };
+    }
+
+    /**
+     * @return the index used to build the labels of the next comparison emitted by the backend
+     */
+    public int getNextConditional() {
+        return conditionalCounter++;
+    }
+}
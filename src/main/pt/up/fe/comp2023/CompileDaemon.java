@@ -0,0 +1,338 @@
+package pt.up.fe.comp2023;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Long-lived compiler that serves compile requests from a local socket, so that repeated compilations reuse a warm JVM.
+ * <p>
+ * Requests compile and write files as the user running the daemon, so only that user may send them. A Unix domain
+ * socket must be in a directory that only its owner can access, such as {@code ~/.jmm}, and is only moved to its path
+ * once its own permissions are set. On a TCP port, which any local user can connect to, each request must start with
+ * a token that the daemon generates when it starts and writes, before binding the port, to a file only its owner can
+ * read, {@code ~/.jmm/daemon-<port>.token}.
+ * <p>
+ * The protocol is line based. A request is the token, on TCP only, and the working directory of the client, followed
+ * by one argument per line (the same arguments accepted by {@link Launcher}) and ended by an empty line. The response
+ * streams lines prefixed by their kind: {@code O} for standard output, {@code E} for standard error, {@code A} for the
+ * path of a generated artifact and, last, {@code X} with the exit status. A request whose only argument is
+ * {@code --shutdown} stops the daemon, {@code --parser-cache-stats} prints the size of the shared {@link ParserCache}
+ * and {@code --parser-cache-reset} empties it.
+ */
+public class CompileDaemon {
+    private static final int SOCKET_TYPE = 0140000;
+    private static final int FILE_TYPE_MASK = 0170000;
+
+    private final SocketAddress address;
+    // Token that requests on a TCP port must start with, or `null` on a Unix domain socket
+    private final String token;
+    private final Path tokenFile;
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+    private ServerSocketChannel server;
+    private volatile boolean running = true;
+
+    /**
+     * @param address a TCP port, bound on the loopback interface, or the path of a Unix domain socket
+     */
+    public CompileDaemon(String address) {
+        var isPort = address.chars().allMatch(Character::isDigit);
+
+        this.address = isPort
+                ? new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address))
+                : UnixDomainSocketAddress.of(address);
+        this.token = isPort ? newToken() : null;
+        this.tokenFile = isPort ? Path.of(System.getProperty("user.home"), ".jmm", "daemon-" + address + ".token") : null;
+    }
+
+    private static String newToken() {
+        var bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    public void serve() {
+        var isUnix = address instanceof UnixDomainSocketAddress;
+        var bound = false;
+        var tokenWritten = false;
+
+        try {
+            server = ServerSocketChannel.open(isUnix ? StandardProtocolFamily.UNIX : StandardProtocolFamily.INET);
+
+            if (isUnix) {
+                var path = ((UnixDomainSocketAddress) address).getPath();
+                checkOwnerOnlyDirectory(path);
+                removeStaleSocket(path);
+                bindUnix(path);
+            } else {
+                // Clients read the token once the port accepts connections, so it is written before binding
+                checkPortFree();
+                writeToken();
+                tokenWritten = true;
+                server.bind(address);
+            }
+            bound = true;
+
+            // The first compilation should not pay for filling the prediction caches
+            ParserCache.warmUp();
+            System.out.println("Listening on " + address);
+
+            while (running) {
+                var channel = server.accept();
+                connections.submit(() -> handle(channel));
+            }
+        } catch (IOException e) {
+            if (running)
+                throw new RuntimeException("Could not serve compile requests on " + address, e);
+        } finally {
+            connections.shutdown();
+
+            // The socket and token file of another daemon on the same address are not this one's to remove
+            try {
+                if (server != null)
+                    server.close();
+                if (bound && isUnix && isSocket(((UnixDomainSocketAddress) address).getPath()))
+                    Files.delete(((UnixDomainSocketAddress) address).getPath());
+                if (tokenWritten)
+                    Files.deleteIfExists(tokenFile);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Binds the socket to a temporary name next to `path`, restricts it to its owner and only then moves it to `path`,
+     * so that it is never reachable there with the default permissions.
+     */
+    private void bindUnix(Path path) throws IOException {
+        var temporary = path.resolveSibling("." + path.getFileName() + ".tmp-" + ProcessHandle.current().pid());
+        Files.deleteIfExists(temporary);
+
+        try {
+            server.bind(UnixDomainSocketAddress.of(temporary));
+            Files.setPosixFilePermissions(temporary, PosixFilePermissions.fromString("rw-------"));
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Refuses a port another daemon listens on, whose token file would otherwise be replaced by this one's.
+     */
+    private void checkPortFree() {
+        try {
+            SocketChannel.open(address).close();
+        } catch (IOException e) {
+            return;
+        }
+
+        throw new RuntimeException("Another daemon is already listening on " + address);
+    }
+
+    /**
+     * Refuses a socket whose directory other users can access, as they could connect to it while it is bound with the
+     * default permissions.
+     */
+    private static void checkOwnerOnlyDirectory(Path path) throws IOException {
+        var directory = path.toAbsolutePath().getParent();
+        if (!Files.isDirectory(directory))
+            throw new RuntimeException("Cannot listen on '" + path + "', as '" + directory + "' is not a directory");
+
+        var permissions = Files.getPosixFilePermissions(directory);
+        if (permissions.stream().anyMatch(permission -> !permission.name().startsWith("OWNER_")))
+            throw new RuntimeException("Cannot listen on '" + path + "', as other users can access '" + directory
+                    + "'; use a directory only you can access, such as ~/.jmm");
+    }
+
+    /**
+     * Removes the socket left at `path` by a daemon that did not exit cleanly, refusing to remove anything else.
+     */
+    private static void removeStaleSocket(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS))
+            return;
+
+        if (!isSocket(path))
+            throw new RuntimeException("Cannot listen on '" + path + "', which exists and is not a socket");
+
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(path)).close();
+        } catch (IOException e) {
+            // Nothing listens on it anymore
+            Files.delete(path);
+            return;
+        }
+
+        throw new RuntimeException("Another daemon is already listening on '" + path + "'");
+    }
+
+    private static boolean isSocket(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS))
+            return false;
+
+        var mode = (int) Files.getAttribute(path, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+        return (mode & FILE_TYPE_MASK) == SOCKET_TYPE;
+    }
+
+    /**
+     * Writes the token to a file that only the owner of the daemon can read, created with those permissions so that it
+     * is never readable by anyone else.
+     */
+    private void writeToken() throws IOException {
+        Files.createDirectories(tokenFile.getParent(),
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        Files.deleteIfExists(tokenFile);
+        Files.createFile(tokenFile, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        Files.writeString(tokenFile, token + "\n", UTF_8);
+    }
+
+    private void stop() throws IOException {
+        running = false;
+        server.close();
+    }
+
+    private void handle(SocketChannel channel) {
+        try (channel;
+             var reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), UTF_8));
+             var writer = new PrintWriter(new OutputStreamWriter(Channels.newOutputStream(channel), UTF_8), true)) {
+            if (token != null) {
+                var requestToken = reader.readLine();
+
+                if (requestToken == null || !MessageDigest.isEqual(token.getBytes(UTF_8), requestToken.getBytes(UTF_8))) {
+                    writer.println("E Invalid daemon token, expected the one in " + tokenFile);
+                    writer.println("X 2");
+                    return;
+                }
+            }
+
+            var workingDir = reader.readLine();
+            if (workingDir == null)
+                return;
+
+            List<String> args = new ArrayList<>();
+            for (var line = reader.readLine(); line != null && !line.isEmpty(); line = reader.readLine())
+                args.add(line);
+
+            if (args.equals(List.of("--shutdown"))) {
+                writer.println("X 0");
+                stop();
+                return;
+            }
+
+            if (args.equals(List.of("--parser-cache-stats"))) {
+                writer.println("O " + ParserCache.getStats());
+                writer.println("X 0");
+                return;
+            }
+
+            if (args.equals(List.of("--parser-cache-reset"))) {
+                ParserCache.reset();
+                writer.println("O " + ParserCache.getStats());
+                writer.println("X 0");
+                return;
+            }
+
+            int status;
+            try (var out = new PrintStream(new LineOutputStream("O", writer), true, UTF_8);
+                 var err = new PrintStream(new LineOutputStream("E", writer), true, UTF_8)) {
+                status = compile(Path.of(workingDir), args, out, err, writer);
+            }
+
+            writer.println("X " + status);
+        } catch (IOException e) {
+            System.err.println("Could not handle compile request: " + e.getMessage());
+        }
+    }
+
+    private int compile(Path workingDir, List<String> args, PrintStream out, PrintStream err, PrintWriter writer) {
+        var config = Launcher.parseArgs(args.toArray(String[]::new), err);
+
+        // Relative paths are relative to the client, not to the daemon
+        for (var key : List.of("inputFile", "batch", "outputDir"))
+            config.computeIfPresent(key, (k, path) -> workingDir.resolve(path).toString());
+
+        if (!config.containsKey("inputFile") && !config.containsKey("batch")) {
+            err.println("Missing input file.");
+            return 1;
+        }
+
+        try {
+            var compiler = new BatchCompiler(config);
+            var summary = config.containsKey("batch")
+                    ? compiler.compile(config.get("batch"))
+                    : compiler.compile(List.of(new File(config.get("inputFile"))));
+
+            summary.print(config, out, err);
+
+            for (var unit : summary.units()) {
+                if (unit.jasminFile() != null)
+                    writer.println("A " + unit.jasminFile().getAbsolutePath());
+                if (unit.classFile() != null)
+                    writer.println("A " + unit.classFile().getAbsolutePath());
+            }
+
+            return summary.hasErrors() ? 1 : 0;
+        } catch (RuntimeException e) {
+            err.println(e.getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * Forwards every complete line written to it to the client, prefixed by its kind.
+     */
+    private static class LineOutputStream extends OutputStream {
+        private final String prefix;
+        private final PrintWriter writer;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        LineOutputStream(String prefix, PrintWriter writer) {
+            this.prefix = prefix;
+            this.writer = writer;
+        }
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                writer.println(prefix + " " + line.toString(UTF_8).replace("\r", ""));
+                line.reset();
+            } else {
+                line.write(b);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (line.size() > 0)
+                write('\n');
+        }
+    }
+}
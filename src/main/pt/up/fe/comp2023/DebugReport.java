@@ -0,0 +1,64 @@
+package pt.up.fe.comp2023;
+
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp.jmm.report.Stage;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A DEBUG report whose message, usually a dump of a whole AST or class, is only computed the first time it is read.
+ * <p>
+ * DEBUG reports are only printed with `-d`, so {@link #add} does not even create them otherwise. A message that dumps
+ * something a later stage changes must still be computed where it is reported, as it would be read after the change,
+ * which {@link #addSnapshot} does.
+ */
+public class DebugReport extends Report {
+    private Supplier<String> supplier;
+    private String message;
+
+    public DebugReport(Stage stage, Supplier<String> supplier) {
+        super(ReportType.DEBUG, stage, -1, -1, null);
+        this.supplier = supplier;
+    }
+
+    public static boolean isEnabled(Map<String, String> config) {
+        return Boolean.parseBoolean(config.get("debug"));
+    }
+
+    /**
+     * Adds a report with the message of `supplier` to `reports`, only if debug output is enabled in `config`.
+     */
+    public static void add(Collection<Report> reports, Map<String, String> config, Stage stage, Supplier<String> supplier) {
+        if (isEnabled(config))
+            reports.add(new DebugReport(stage, supplier));
+    }
+
+    /**
+     * Adds a report with the message of `supplier`, computed right away, to `reports`, only if debug output is enabled
+     * in `config`, for dumps of something a later stage changes.
+     */
+    public static void addSnapshot(Collection<Report> reports, Map<String, String> config, Stage stage, Supplier<String> supplier) {
+        if (isEnabled(config)) {
+            var message = supplier.get();
+            reports.add(new DebugReport(stage, () -> message));
+        }
+    }
+
+    @Override
+    public synchronized String getMessage() {
+        if (supplier != null) {
+            message = supplier.get();
+            supplier = null;
+        }
+
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return getType() + "@" + getStage() + ", line " + getLine() + ", col " + getColumn() + ": " + getMessage();
+    }
+}
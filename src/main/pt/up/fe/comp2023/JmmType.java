@@ -0,0 +1,190 @@
+package pt.up.fe.comp2023;
+
+import pt.up.fe.comp.jmm.analysis.table.Type;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static pt.up.fe.comp2023.Constants.*;
+import static pt.up.fe.comp2023.Utils.in;
+
+/**
+ * Canonical representation of the type of an expression.
+ * <p>
+ * Types are interned, so there is a single instance per type name and they can be compared by reference. Nodes store
+ * their type in the `type` attribute as a {@link JmmType}, whose {@link #toString()} is the usual type name, so
+ * `node.get("type")` keeps working for code that only needs the name.
+ * <p>
+ * Types are only interned while they are used, so that compilers serving many compilations do not keep the name of
+ * every class they have seen. The types below are always used, and a type named after a class of some compilation is
+ * forgotten once no node or table of any compilation uses it.
+ */
+public final class JmmType {
+    private static final Map<String, TypeReference> types = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<JmmType> unusedTypes = new ReferenceQueue<>();
+
+    public static final JmmType INT = of("int");
+    public static final JmmType BOOLEAN = of("boolean");
+    public static final JmmType CHAR = of("char");
+    public static final JmmType FLOAT = of("float");
+    public static final JmmType DOUBLE = of("double");
+    public static final JmmType VOID = of("void");
+    public static final JmmType OBJECT = of("Object");
+    public static final JmmType STRING = of("String");
+    public static final JmmType INT_ARRAY = of("int[]");
+
+    /**
+     * Type of expressions whose type cannot be known, such as calls to imported methods. Matches any type.
+     */
+    public static final JmmType ANY = of("*");
+
+    /**
+     * Type of expressions with semantic errors.
+     */
+    public static final JmmType UNKNOWN = of("{unknown}");
+
+    private final String name;
+    private final JmmType elementType;
+    private final boolean isInteger;
+    private final boolean isFloat;
+    private final boolean isPrimitive;
+    private final String ollirType;
+    private volatile JmmType arrayType;
+
+    private JmmType(String name) {
+        this.name = name;
+        this.elementType = name.endsWith("[]") ? of(name.substring(0, name.length() - 2)) : null;
+        this.isInteger = in(INTEGER_TYPES, name);
+        this.isFloat = in(FLOAT_TYPES, name);
+        this.isPrimitive = in(PRIMITIVE_TYPES, name);
+        this.ollirType = computeOllirType(name);
+    }
+
+    /**
+     * @return the type called `name`, such as `int`, `int[]` or `String`
+     */
+    public static JmmType of(String name) {
+        removeUnusedTypes();
+
+        while (true) {
+            var reference = types.get(name);
+            var type = reference == null ? null : reference.get();
+
+            if (type != null)
+                return type;
+
+            // Not computeIfAbsent, since creating an array type interns its element type too
+            var newType = new JmmType(name);
+            var newReference = new TypeReference(newType);
+
+            if (reference == null ? types.putIfAbsent(name, newReference) == null : types.replace(name, reference, newReference))
+                return newType;
+        }
+    }
+
+    private static void removeUnusedTypes() {
+        TypeReference reference;
+
+        while ((reference = (TypeReference) unusedTypes.poll()) != null)
+            types.remove(reference.name, reference);
+    }
+
+    public static JmmType of(Type type) {
+        var elementType = of(type.getName());
+        return type.isArray() ? elementType.getArrayType() : elementType;
+    }
+
+    /**
+     * @return the type of `node`, or `null` if it has none
+     */
+    public static JmmType of(JmmNode node) {
+        var type = node.getOptionalObject("type").orElse(null);
+
+        if (type == null || type instanceof JmmType)
+            return (JmmType) type;
+
+        return of(type.toString());
+    }
+
+    public static void set(JmmNode node, JmmType type) {
+        node.putObject("type", type);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isArray() {
+        return elementType != null;
+    }
+
+    /**
+     * @return the type of the elements of this array type, or `null` if this is not an array type
+     */
+    public JmmType getElementType() {
+        return elementType;
+    }
+
+    public JmmType getArrayType() {
+        if (arrayType == null)
+            arrayType = of(name + "[]");
+
+        return arrayType;
+    }
+
+    public boolean isAny() {
+        return this == ANY;
+    }
+
+    public boolean isInteger() {
+        return isInteger;
+    }
+
+    public boolean isFloat() {
+        return isFloat;
+    }
+
+    public boolean isPrimitive() {
+        return isPrimitive;
+    }
+
+    public String getOllirType() {
+        return ollirType;
+    }
+
+    private static String computeOllirType(String type) {
+        StringBuilder s = new StringBuilder();
+
+        while (type.contains("[]")) {
+            s.append("array.");
+            type = type.replace("[]", "");
+        }
+
+        return s.append(switch (type) {
+            case "void" -> "V";
+            case "byte", "short", "int", "long", "float", "double", "Integer" -> "i32";
+            case "boolean" -> "bool";
+            default -> type;
+        }).toString();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Reference to an interned type, which is cleared once the type is no longer used.
+     */
+    private static class TypeReference extends WeakReference<JmmType> {
+        private final String name;
+
+        TypeReference(JmmType type) {
+            super(type, unusedTypes);
+            this.name = type.name;
+        }
+    }
+}
@@ -1,22 +1,27 @@
 package pt.up.fe.comp2023;
 
 import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
-import pt.up.fe.comp.jmm.jasmin.JasminResult;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
 import pt.up.fe.comp.jmm.parser.JmmParserResult;
 import pt.up.fe.comp.jmm.report.Report;
 import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp.jmm.report.Stage;
 import pt.up.fe.comp2023.analysis.Analyzer;
 import pt.up.fe.comp2023.backend.Backend;
+import pt.up.fe.comp2023.backend.ClassFileResult;
 import pt.up.fe.comp2023.backend.JasminOptimizer;
 import pt.up.fe.comp2023.optimization.Optimizer;
 import pt.up.fe.specs.util.SpecsIo;
 import pt.up.fe.specs.util.SpecsSystem;
 
 import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 
 public class Launcher {
 
@@ -25,7 +30,32 @@ public class Launcher {
         SpecsSystem.programStandardInit();
 
         // Parse arguments as a map with predefined options
-        var config = parseArgs(args);
+        var config = parseArgs(args, System.err);
+
+        if (config.containsKey("parserCacheStates"))
+            ParserCache.setMaxStates(Integer.parseInt(config.get("parserCacheStates")));
+
+        // Daemon mode stays resident and serves compile requests from a socket
+        if (config.containsKey("daemon")) {
+            new CompileDaemon(config.get("daemon")).serve();
+            return;
+        }
+
+        if (!config.containsKey("inputFile") && !config.containsKey("batch")) {
+            System.err.println("Missing input file.");
+            System.exit(1);
+        }
+
+        // Batch mode compiles every unit on a worker pool instead of running a single program
+        if (config.containsKey("batch")) {
+            var summary = new BatchCompiler(config).compile(config.get("batch"));
+            summary.print(config, System.out, System.err);
+
+            if (summary.hasErrors())
+                System.exit(1);
+
+            return;
+        }
 
         // Get input file
         File inputFile = new File(config.get("inputFile"));
@@ -38,6 +68,50 @@ public class Launcher {
         // Read contents of input file
         String code = SpecsIo.read(inputFile);
 
+        ClassFileResult classFileResult = compile(code, config, reports -> reports(config, reports));
+
+        var cache = BuildCache.fromConfig(config);
+        if (cache != null)
+            cache.evict();
+
+        if (classFileResult == null) return;
+
+        classFileResult.run(System.in, System.out, System.err);
+    }
+
+    /**
+     * Runs every compilation stage over `code`, handing the reports of each stage to `reports`.
+     *
+     * @param reports consumes the reports of a stage and returns `true` if compilation should stop
+     * @return the generated class, or `null` if some stage stopped the compilation
+     */
+    static ClassFileResult compile(String code, Map<String, String> config, Predicate<Collection<Report>> reports) {
+        // Unchanged sources skip every stage
+        BuildCache cache = BuildCache.fromConfig(config);
+        String cacheKey = cache == null ? null : BuildCache.key(code, config);
+
+        if (cache != null) {
+            var entry = cache.get(cacheKey);
+
+            if (entry != null) {
+                List<Report> cachedReports = new ArrayList<>();
+                DebugReport.add(cachedReports, config, Stage.GENERATION, () -> "Loaded " + entry.className() + " from build cache");
+                reports.test(cachedReports);
+
+                return new ClassFileResult(entry.className(), entry.classFile(), entry.jasminCode(), cachedReports, config);
+            }
+        }
+
+        // Only compilations without errors or warnings are cached, since their reports are not
+        List<Report> allReports = new ArrayList<>();
+        Predicate<Collection<Report>> stageReports = cache == null ? reports : r -> {
+            allReports.addAll(r);
+            return reports.test(r);
+        };
+
+        // Counters for temporaries and labels, shared by every stage of this compilation only
+        CompilationContext context = new CompilationContext();
+
         // Instantiate JmmParser
         SimpleParser parser = new SimpleParser();
 
@@ -45,38 +119,44 @@ public class Launcher {
         JmmParserResult parserResult = parser.parse(code, config);
 
         // Check if there are parsing errors
-        if (reports(config, parserResult.getReports())) return;
+        if (stageReports.test(parserResult.getReports())) return null;
 
         // ... add remaining stages
         Analyzer analyzer = new Analyzer();
         JmmSemanticsResult semanticsResult = analyzer.semanticAnalysis(parserResult);
 
-        if (reports(config, semanticsResult.getReports())) return;
+        if (stageReports.test(semanticsResult.getReports())) return null;
 
-        Optimizer optimizer = new Optimizer();
+        Optimizer optimizer = new Optimizer(context);
 
         semanticsResult = optimizer.optimize(semanticsResult);
         OllirResult ollirResult = optimizer.toOllir(semanticsResult);
         ollirResult = optimizer.optimize(ollirResult);
 
-        if (reports(config, ollirResult.getReports())) return;
+        if (stageReports.test(ollirResult.getReports())) return null;
 
-        Backend backend = new Backend();
-        JasminResult jasminResult = backend.toJasmin(ollirResult);
+        // The class file is generated directly, and its Jasmin code only printed when needed
+        Backend backend = new Backend(context);
+        ClassFileResult classFileResult = backend.toClassFile(ollirResult);
 
-        if (reports(config, jasminResult.getReports()) || code == null) return;
+        if (stageReports.test(classFileResult.getReports()) || code == null) return null;
 
         if (config.get("optimize").equals("true")) {
             JasminOptimizer jasminOptimizer = new JasminOptimizer();
 
-            jasminResult = jasminOptimizer.optimize(jasminResult);
-            if (reports(config, jasminResult.getReports())) return;
+            classFileResult = jasminOptimizer.optimize(classFileResult);
+            if (stageReports.test(classFileResult.getReports())) return null;
+        }
+
+        if (cache != null && allReports.stream().allMatch(r -> r.getType() == ReportType.DEBUG)) {
+            var jasminCode = Boolean.parseBoolean(config.get("jasmin")) ? classFileResult.getJasminCode() : null;
+            cache.put(cacheKey, new BuildCache.Entry(classFileResult.getClassName(), jasminCode, classFileResult.getClassFile()));
         }
 
-        jasminResult.run();
+        return classFileResult;
     }
 
-    private static Map<String, String> parseArgs(String[] args) {
+    static Map<String, String> parseArgs(String[] args, PrintStream err) {
         // Default config
         Map<String, String> config = new HashMap<>();
         config.put("optimize", "false");
@@ -88,40 +168,61 @@ public class Launcher {
                 config.put("optimize", "true");
             else if (arg.startsWith("-r=") || arg.startsWith("--registers="))
                 config.put("registerAllocation", arg.split("=")[1]);
+            else if (arg.startsWith("--regalloc="))
+                config.put("regalloc", arg.split("=")[1]);
+            else if (arg.startsWith("--ollir="))
+                config.put("ollir", arg.split("=")[1]);
             else if (arg.equals("-d") || arg.equals("--debug"))
                 config.put("debug", "true");
             else if (arg.startsWith("-i=") || arg.startsWith("--input="))
                 config.put("inputFile", arg.split("=")[1]);
+            else if (arg.startsWith("-b=") || arg.startsWith("--batch="))
+                config.put("batch", arg.split("=")[1]);
+            else if (arg.startsWith("-j=") || arg.startsWith("--jobs="))
+                config.put("jobs", arg.split("=")[1]);
+            else if (arg.equals("--jasmin"))
+                config.put("jasmin", "true");
+            else if (arg.startsWith("--output="))
+                config.put("outputDir", arg.split("=")[1]);
+            else if (arg.startsWith("--cache-dir="))
+                config.put("cacheDir", arg.split("=")[1]);
+            else if (arg.startsWith("--cache-max-size="))
+                config.put("cacheMaxSize", arg.split("=")[1]);
+            else if (arg.startsWith("--cache-max-age="))
+                config.put("cacheMaxAge", arg.split("=")[1]);
+            else if (arg.startsWith("--parser-cache-states="))
+                config.put("parserCacheStates", arg.split("=")[1]);
+            else if (arg.startsWith("--daemon="))
+                config.put("daemon", arg.split("=")[1]);
             else
-                System.err.println("Unknown argument '" + arg + "'.");
-        }
-
-        if (!config.containsKey("inputFile")) {
-            System.err.println("Missing input file.");
-            System.exit(1);
+                err.println("Unknown argument '" + arg + "'.");
         }
 
         return config;
     }
 
-    private static boolean reports(Map<String, String> config, Collection<Report> reports) {
+    static boolean reports(Map<String, String> config, Collection<Report> reports) {
+        return reports(config, reports, System.out, System.err);
+    }
+
+    static boolean reports(Map<String, String> config, Collection<Report> reports, PrintStream out, PrintStream err) {
         boolean hasErrors = false;
         boolean debug = Boolean.parseBoolean(config.get("debug"));
 
         for (Report report : reports) {
             hasErrors |= report.getType() == ReportType.ERROR;
-            var out = report.getType() == ReportType.ERROR || report.getType() == ReportType.WARNING ? System.err : System.out;
+            var stream = report.getType() == ReportType.ERROR || report.getType() == ReportType.WARNING ? err : out;
             var type = report.getType().toString().toUpperCase();
             var stage = report.getStage().toString().toUpperCase();
             var line = report.getLine() == -1 ? "" : ":" + report.getLine();
             var column = report.getColumn() == -1 ? "" : ":" + report.getColumn();
 
             if (debug || report.getType() != ReportType.DEBUG)
-                out.println(type + "@" + stage + line + column + " " + report.getMessage());
+                stream.println(type + "@" + stage + line + column + " " + report.getMessage());
         }
 
-        System.out.flush();
-        System.err.flush();
+        out.flush();
+        err.flush();
 
         return hasErrors;
     }
@@ -0,0 +1,143 @@
+package pt.up.fe.comp2023;
+
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.LexerATNSimulator;
+import org.antlr.v4.runtime.atn.ParserATNSimulator;
+import org.antlr.v4.runtime.atn.PredictionContextCache;
+import org.antlr.v4.runtime.dfa.DFA;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Prediction caches (DFAs and prediction contexts) shared by every lexer and parser in the JVM.
+ * <p>
+ * ANTLR builds these caches lazily while parsing, so later parses predict faster than the first ones. They are never
+ * trimmed, so after the cache grows past its maximum number of DFA states it is replaced by an empty one. Parsers
+ * still running keep using the cache they started with.
+ */
+public class ParserCache {
+    private static final int DEFAULT_MAX_STATES = 100_000;
+
+    /**
+     * Program using most of the grammar, parsed to fill the caches before the first real compilation.
+     */
+    private static final String WARM_UP_PROGRAM = """
+            import io;
+            import java.util.List;
+
+            class WarmUp extends Object {
+                int field;
+                int[] array;
+
+                public WarmUp() {
+                }
+
+                public int method(int a, boolean b, int[] c, WarmUp d) {
+                    int i;
+                    i = 0;
+                    while (i < c.length && !b) {
+                        if (a * (i + 1) - c[i] / 2 >= this.method(a - 1, b || false, c, d) % 3) {
+                            c[i] = c[i] + new WarmUp().field;
+                        } else {
+                            io.println(a << 2 == 1 ? -a : ~a);
+                        }
+                        i++;
+                    }
+                    do { a += 1; } while (a <= 10);
+                    for (int j = 0; j != 10; j = j + 1) { continue; }
+                    for (int k : c) { break; }
+                    switch (a) { case 1: return 1; default: array = new int[a]; }
+                    return a;
+                }
+
+                public static void main(String[] args) {
+                    io.println(new WarmUp().method(1, true, new int[2], null));
+                }
+            }
+            """;
+
+    private static final AtomicReference<Snapshot> current = new AtomicReference<>(new Snapshot());
+    private static final AtomicInteger resets = new AtomicInteger();
+    private static volatile int maxStates = DEFAULT_MAX_STATES;
+
+    /**
+     * The caches of one generation. Replaced as a whole, so that lexers and parsers never see a partially reset cache.
+     */
+    private static class Snapshot {
+        private final DFA[] lexerDfa = newDfa(JavammLexer._ATN);
+        private final DFA[] parserDfa = newDfa(JavammParser._ATN);
+        private final PredictionContextCache contextCache = new PredictionContextCache();
+
+        private static DFA[] newDfa(ATN atn) {
+            var dfa = new DFA[atn.getNumberOfDecisions()];
+            for (int i = 0; i < dfa.length; ++i)
+                dfa[i] = new DFA(atn.getDecisionState(i), i);
+
+            return dfa;
+        }
+    }
+
+    /**
+     * Makes `lexer` and `parser` use the shared caches.
+     */
+    public static void attach(JavammLexer lexer, JavammParser parser) {
+        var snapshot = current.get();
+
+        lexer.setInterpreter(new LexerATNSimulator(lexer, lexer.getATN(), snapshot.lexerDfa, snapshot.contextCache));
+        parser.setInterpreter(new ParserATNSimulator(parser, parser.getATN(), snapshot.parserDfa, snapshot.contextCache));
+    }
+
+    /**
+     * Replaces the caches by empty ones if they grew past the maximum number of DFA states.
+     */
+    public static void trim() {
+        var snapshot = current.get();
+
+        if (countStates(snapshot.lexerDfa) + countStates(snapshot.parserDfa) > maxStates && current.compareAndSet(snapshot, new Snapshot()))
+            resets.incrementAndGet();
+    }
+
+    /**
+     * Replaces the caches by empty ones.
+     */
+    public static void reset() {
+        current.set(new Snapshot());
+        resets.incrementAndGet();
+    }
+
+    /**
+     * Fills the caches by parsing a program that uses most of the grammar.
+     */
+    public static void warmUp() {
+        new SimpleParser().parse(WARM_UP_PROGRAM, new HashMap<>());
+    }
+
+    public static void setMaxStates(int maxStates) {
+        ParserCache.maxStates = maxStates;
+    }
+
+    public static Stats getStats() {
+        var snapshot = current.get();
+
+        return new Stats(countStates(snapshot.lexerDfa), countStates(snapshot.parserDfa), snapshot.contextCache.size(),
+                maxStates, resets.get());
+    }
+
+    private static int countStates(DFA[] dfa) {
+        var states = 0;
+        for (var decision : dfa)
+            states += decision.states.size();
+
+        return states;
+    }
+
+    public record Stats(int lexerStates, int parserStates, int contexts, int maxStates, int resets) {
+        @Override
+        public String toString() {
+            return "Parser cache: " + lexerStates + " lexer DFA states, " + parserStates + " parser DFA states, "
+                    + contexts + " prediction contexts (limit " + maxStates + " states, " + resets + " resets)";
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package pt.up.fe.comp2023;
 
 import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BailErrorStrategy;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 import pt.up.fe.comp.jmm.ast.antlr.AntlrParser;
 import pt.up.fe.comp.jmm.parser.JmmParser;
 import pt.up.fe.comp.jmm.parser.JmmParserResult;
@@ -34,6 +38,28 @@ public class SimpleParser implements JmmParser {
 
     @Override
     public JmmParserResult parse(String jmmCode, String startingRule, Map<String, String> config) {
+        // SLL prediction is much cheaper and succeeds on almost every input, full LL is only needed to decide
+        // whether the input really has a syntax error, and to report it
+        try {
+            if (!config.getOrDefault("sllParsing", "true").equals("true"))
+                return parse(jmmCode, startingRule, config, PredictionMode.LL);
+
+            try {
+                return parse(jmmCode, startingRule, config, PredictionMode.SLL);
+            } catch (ParseCancellationException e) {
+                return parse(jmmCode, startingRule, config, PredictionMode.LL);
+            }
+        } finally {
+            ParserCache.trim();
+        }
+    }
+
+    /**
+     * Parses `jmmCode` with the given prediction mode. In SLL mode, the parser bails out on the first syntax error.
+     *
+     * @throws ParseCancellationException if SLL parsing failed and the input must be parsed again with LL
+     */
+    private JmmParserResult parse(String jmmCode, String startingRule, Map<String, String> config, PredictionMode mode) {
         try {
             // Convert code string into a character stream
             var input = new ANTLRInputStream(jmmCode);
@@ -47,6 +73,16 @@ public class SimpleParser implements JmmParser {
             // Transforms tokens into a parse tree
             var parser = new pt.up.fe.comp2023.JavammParser(tokens);
 
+            // Reuse the predictions made by previous parses
+            ParserCache.attach(lex, parser);
+            parser.getInterpreter().setPredictionMode(mode);
+
+            if (mode == PredictionMode.SLL) {
+                // Errors are reported by the LL parse, if this one fails
+                parser.removeErrorListeners();
+                parser.setErrorHandler(new BailErrorStrategy());
+            }
+
             // Convert ANTLR CST to JmmNode AST
             return AntlrParser.parse(lex, parser, startingRule)
                     // If there were no errors and a root node was generated, create a JmmParserResult with the node
@@ -56,8 +92,24 @@ public class SimpleParser implements JmmParser {
                             "There were " + parser.getNumberOfSyntaxErrors() + " syntax errors during parsing, terminating")));
 
         } catch (Exception e) {
+            // The parser bailed out, try again with full LL
+            if (mode == PredictionMode.SLL && isBailOut(e))
+                throw new ParseCancellationException(e);
+
             // There was an uncaught exception during parsing, create an error JmmParserResult without root node
             return JmmParserResult.newError(Report.newError(Stage.SYNTATIC, -1, -1, "Exception during parsing", e));
         }
     }
+
+    /**
+     * @return `true` if `e` was thrown by the {@link BailErrorStrategy}, possibly wrapped by the reflective invocation
+     * of the starting rule
+     */
+    private static boolean isBailOut(Throwable e) {
+        for (var cause = e; cause != null; cause = cause.getCause())
+            if (cause instanceof ParseCancellationException && cause.getCause() instanceof RecognitionException)
+                return true;
+
+        return false;
+    }
 }
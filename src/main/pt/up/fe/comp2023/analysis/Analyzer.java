@@ -2,21 +2,29 @@ package pt.up.fe.comp2023.analysis;
 
 import pt.up.fe.comp.jmm.analysis.JmmAnalysis;
 import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.parser.JmmParserResult;
 import pt.up.fe.comp.jmm.report.Report;
 import pt.up.fe.comp.jmm.report.ReportType;
 import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2023.DebugReport;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class Analyzer implements JmmAnalysis {
     @Override
     public JmmSemanticsResult semanticAnalysis(JmmParserResult jmmParserResult) {
         var table = new JmmSymbolTable(jmmParserResult.getRootNode());
+        var config = jmmParserResult.getConfig();
         List<Report> reports = new ArrayList<>();
 
-        reports.add(new Report(ReportType.DEBUG, Stage.SEMANTIC, -1, -1, "Generated AST:\n" + jmmParserResult.getRootNode().toTree()));
+        // The tree is annotated by the analysis, so it is dumped here instead of when the report is printed
+        DebugReport.addSnapshot(reports, config, Stage.SEMANTIC, () -> "Generated AST:\n" + jmmParserResult.getRootNode().toTree());
 
         var main = table.getMethod("main");
         if (main != null) {
@@ -28,17 +36,42 @@ public class Analyzer implements JmmAnalysis {
                 reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, -1, -1, "The main method must be public and static"));
         }
 
-        new SemanticAnalysisVisitor(table, reports).visit(jmmParserResult.getRootNode());
+        // Method bodies only depend on the symbol table, so each one is analysed in parallel with its own visitor
+        Map<JmmNode, ForkJoinTask<List<Report>>> analyzedMethods = new IdentityHashMap<>();
+        for (var method : getMethods(jmmParserResult.getRootNode())) {
+            analyzedMethods.put(method, ForkJoinPool.commonPool().submit(() -> {
+                List<Report> methodReports = new ArrayList<>();
+                new SemanticAnalysisVisitor(table, methodReports).visit(method);
+                return methodReports;
+            }));
+        }
+
+        new SemanticAnalysisVisitor(table, reports, analyzedMethods).visit(jmmParserResult.getRootNode());
 
-        reports.add(new Report(ReportType.DEBUG, Stage.SEMANTIC, -1, -1, "Annotated AST:\n" + jmmParserResult.getRootNode().toTree()));
-        reports.add(new Report(ReportType.DEBUG, Stage.SEMANTIC, -1, -1, "Generated symbol table:\n" + table.print()));
+        // Likewise, the tree is changed again by the optimizations, while the symbol table is not
+        DebugReport.addSnapshot(reports, config, Stage.SEMANTIC, () -> "Annotated AST:\n" + jmmParserResult.getRootNode().toTree());
+        DebugReport.add(reports, config, Stage.SEMANTIC, () -> "Generated symbol table:\n" + table.print());
 
         return new JmmSemanticsResult(
             jmmParserResult.getRootNode(),
             table,
             reports,
-            jmmParserResult.getConfig()
+            config
         );
     }
 
+    /**
+     * @return the method and constructor declarations below `node`
+     */
+    private static List<JmmNode> getMethods(JmmNode node) {
+        List<JmmNode> methods = new ArrayList<>();
+
+        if (node.getKind().equals("MethodDeclaration") || node.getKind().equals("ConstructorDeclaration"))
+            methods.add(node);
+        else
+            for (var child : node.getChildren())
+                methods.addAll(getMethods(child));
+
+        return methods;
+    }
 }
@@ -6,14 +6,22 @@ import pt.up.fe.comp.jmm.analysis.table.Type;
 import pt.up.fe.comp.jmm.ast.JmmNode;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Optional;
 
 public class JmmSymbolTable implements SymbolTable {
     private final List<String> imports = new ArrayList<>();
     private final List<Symbol> fields = new ArrayList<>();
     private final List<Method> methods = new ArrayList<>();
+    private final List<String> methodNames = new ArrayList<>();
+
+    // Indexes by name, keeping the first declaration of each name like a linear search would
+    private final Map<String, String> importsBySimpleName = new HashMap<>();
+    private final Map<String, Symbol> fieldsByName = new HashMap<>();
+    private final Map<String, Method> methodsByName = new HashMap<>();
 
     private String className;
     private String superName;
@@ -26,7 +34,21 @@ public class JmmSymbolTable implements SymbolTable {
 
     @Override
     public List<String> getImports() {
-        return imports;
+        return Collections.unmodifiableList(imports);
+    }
+
+    /**
+     * @return the full name of the import whose last segment is `simpleName`, or `null` if there is none
+     */
+    public String getImport(String simpleName) {
+        return importsBySimpleName.get(simpleName);
+    }
+
+    /**
+     * @return `true` if some import ends with `simpleName`
+     */
+    public boolean isImported(String simpleName) {
+        return importsBySimpleName.containsKey(simpleName);
     }
 
     @Override
@@ -44,44 +66,55 @@ public class JmmSymbolTable implements SymbolTable {
     }
 
     public Method getMethod(String s) {
-        return methods.stream().filter(m -> m.getName().equals(s)).findFirst().orElse(null);
+        return s == null ? null : methodsByName.get(s);
     }
 
     @Override
     public List<Symbol> getFields() {
-        return fields;
+        return Collections.unmodifiableList(fields);
+    }
+
+    /**
+     * @return the field called `name`, or `null` if there is none
+     */
+    public Symbol getField(String name) {
+        return fieldsByName.get(name);
     }
 
     @Override
     public List<String> getMethods() {
-        return methods.stream().map(Method::getName).collect(Collectors.toList());
+        return Collections.unmodifiableList(methodNames);
     }
 
     @Override
     public Type getReturnType(String s) {
-        return methods.stream().filter(m -> Objects.equals(m.getName(), s)).findFirst().map(Method::getReturnType).orElse(null);
+        return Optional.ofNullable(getMethod(s)).map(Method::getReturnType).orElse(null);
     }
 
     @Override
     public List<Symbol> getParameters(String s) {
-        return methods.stream().filter(m -> Objects.equals(m.getName(), s)).findFirst().map(Method::getParameters).orElse(null);
+        return Optional.ofNullable(getMethod(s)).map(Method::getParameters).orElse(null);
     }
 
     @Override
     public List<Symbol> getLocalVariables(String s) {
-        return methods.stream().filter(m -> Objects.equals(m.getName(), s)).findFirst().map(Method::getLocalVariables).orElse(null);
+        return Optional.ofNullable(getMethod(s)).map(Method::getLocalVariables).orElse(null);
     }
 
     public void addImport(String fullImport) {
         imports.add(fullImport);
+        importsBySimpleName.putIfAbsent(fullImport.substring(fullImport.lastIndexOf('.') + 1), fullImport);
     }
 
     public void addField(Symbol field) {
         fields.add(field);
+        fieldsByName.putIfAbsent(field.getName(), field);
     }
 
     public void addMethod(Method method) {
         methods.add(method);
+        methodNames.add(method.getName());
+        methodsByName.putIfAbsent(method.getName(), method);
     }
 
     public void setClassName(String className) {
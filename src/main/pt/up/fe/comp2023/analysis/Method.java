@@ -4,7 +4,10 @@ import pt.up.fe.comp.jmm.analysis.table.Symbol;
 import pt.up.fe.comp.jmm.analysis.table.Type;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
@@ -16,13 +19,17 @@ public class Method {
 
     private List<Symbol> localVariables;
 
+    // Scope of the method, by name, keeping the first declaration of each name like a linear search would
+    private final Map<String, Symbol> parametersByName = new HashMap<>();
+    private final Map<String, Symbol> localVariablesByName = new HashMap<>();
+
     private Set<String> modifiers;
 
     public Method(String name, Type returnType, List<Symbol> parameters, List<Symbol> localVariables, Set<String> modifiers) {
         this.name = name;
         this.returnType = returnType;
-        this.parameters = parameters;
-        this.localVariables = localVariables;
+        setParameters(parameters);
+        setLocalVariables(localVariables);
     }
 
     public Method(String name, Type returnType, List<Symbol> parameters, List<Symbol> localVariables) {
@@ -58,19 +65,47 @@ public class Method {
     }
 
     public List<Symbol> getParameters() {
-        return parameters;
+        return Collections.unmodifiableList(parameters);
     }
 
     public void setParameters(List<Symbol> parameters) {
-        this.parameters = parameters;
+        this.parameters = new ArrayList<>();
+        parametersByName.clear();
+        parameters.forEach(this::addParameter);
+    }
+
+    public void addParameter(Symbol parameter) {
+        parameters.add(parameter);
+        parametersByName.putIfAbsent(parameter.getName(), parameter);
+    }
+
+    /**
+     * @return the parameter called `name`, or `null` if there is none
+     */
+    public Symbol getParameter(String name) {
+        return parametersByName.get(name);
     }
 
     public List<Symbol> getLocalVariables() {
-        return localVariables;
+        return Collections.unmodifiableList(localVariables);
     }
 
     public void setLocalVariables(List<Symbol> localVariables) {
-        this.localVariables = localVariables;
+        this.localVariables = new ArrayList<>();
+        localVariablesByName.clear();
+        localVariables.forEach(this::addLocalVariable);
+    }
+
+    public void addLocalVariable(Symbol localVariable) {
+        localVariables.add(localVariable);
+        localVariablesByName.putIfAbsent(localVariable.getName(), localVariable);
+    }
+
+    /**
+     * @return the local variable called `name`, or `null` if there is none
+     */
+    public Symbol getLocalVariable(String name) {
+        return localVariablesByName.get(name);
     }
 
     public Set<String> getModifiers() {
@@ -5,12 +5,16 @@ import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.report.Report;
 import pt.up.fe.comp.jmm.report.ReportType;
 import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2023.JmmType;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinTask;
 
 import static pt.up.fe.comp2023.Constants.*;
 import static pt.up.fe.comp2023.Utils.in;
@@ -18,10 +22,23 @@ import static pt.up.fe.comp2023.Utils.in;
 class SemanticAnalysisVisitor extends AJmmVisitor<String, String> {
     private final List<Report> reports;
     private final JmmSymbolTable table;
+    // Results of typesMatch, by both types
+    private final Map<JmmType, Map<JmmType, Boolean>> typesMatchResults = new HashMap<>();
+
+    // Reports of the methods analysed by other visitors, to be merged when their node is reached
+    private final Map<JmmNode, ForkJoinTask<List<Report>>> analyzedMethods;
 
     SemanticAnalysisVisitor(JmmSymbolTable table, List<Report> reports) {
+        this(table, reports, Map.of());
+    }
+
+    /**
+     * @param analyzedMethods the method nodes that this visitor must not visit, with the tasks analysing them
+     */
+    SemanticAnalysisVisitor(JmmSymbolTable table, List<Report> reports, Map<JmmNode, ForkJoinTask<List<Report>>> analyzedMethods) {
         this.table = table;
         this.reports = reports;
+        this.analyzedMethods = analyzedMethods;
         buildVisitor();
     }
 
@@ -64,6 +81,13 @@ class SemanticAnalysisVisitor extends AJmmVisitor<String, String> {
 
     @Override
     public String visit(JmmNode jmmNode, String data) {
+        var methodReports = analyzedMethods.get(jmmNode);
+        if (methodReports != null) {
+            // Reports are merged where the method would have been visited, so they stay in source order
+            reports.addAll(methodReports.join());
+            return data;
+        }
+
         data = jmmNode.getOptional("methodName").orElse(jmmNode.getKind().equals("ConstructorDeclaration") ? "<constructor>" : data);
 
         for (var child : jmmNode.getChildren())
@@ -77,7 +101,7 @@ class SemanticAnalysisVisitor extends AJmmVisitor<String, String> {
     }
 
     protected String checkThis(JmmNode node, String context) {
-        node.put("type", table.getClassName());
+        JmmType.set(node, JmmType.of(table.getClassName()));
         var method = table.getMethod(context);
         if (method == null)
             error(node, "Cannot use 'this' outside a method");
@@ -88,56 +112,48 @@ class SemanticAnalysisVisitor extends AJmmVisitor<String, String> {
 
     protected String checkDeclared(JmmNode node, String context) {
         var id = node.get("id");
-        String type = null;
+        JmmType type = null;
         var method = table.getMethod(context);
         var isStatic = method != null && method.getModifiers().contains("static");
 
-        for (var imp : table.getImports()) {
-            var split = imp.split("\\.");
-            if (split[split.length - 1].equals(id)) {
-                type = id;
-                node.put("origin", "import");
-                break;
-            }
+        if (table.isImported(id)) {
+            type = JmmType.of(id);
+            node.put("origin", "import");
         }
         // TODO: static fields
-        if (!isStatic)
-            for (var field : table.getFields())
-                if (field.getName().equals(id)) {
-                    type = field.getType().print();
-                    node.put("origin", "field");
-                    break;
-                }
-        for (var parameter : table.getParametersTry(context).orElse(new ArrayList<>()))
-            if (parameter.getName().equals(id)) {
-                type = parameter.getType().print();
-                node.put("origin", "parameter");
-                break;
-            }
-        for (var local : table.getLocalVariablesTry(context).orElse(new ArrayList<>()))
-            if (local.getName().equals(id)) {
-                type = local.getType().print();
-                node.put("origin", "local");
-                break;
-            }
+        var field = isStatic ? null : table.getField(id);
+        if (field != null) {
+            type = JmmType.of(field.getType());
+            node.put("origin", "field");
+        }
+        var parameter = method == null ? null : method.getParameter(id);
+        if (parameter != null) {
+            type = JmmType.of(parameter.getType());
+            node.put("origin", "parameter");
+        }
+        var local = method == null ? null : method.getLocalVariable(id);
+        if (local != null) {
+            type = JmmType.of(local.getType());
+            node.put("origin", "local");
+        }
 
         if (in(UNIVERSAL_IMPORTS, id)) {
-            type = id;
+            type = JmmType.of(id);
             node.put("origin", "import");
         }
 
         if (type == null) {
             error(node, "Cannot access variable '" + id + "' without declaration");
-            type = "{unknown}";
+            type = JmmType.UNKNOWN;
         }
 
-        node.put("type", type);
+        JmmType.set(node, type);
 
-        if (node.getKind().equals("VariableDeclaration") && node.get("type").equals("void"))
+        if (node.getKind().equals("VariableDeclaration") && type == JmmType.VOID)
             error(node, "Cannot declare variable of type 'void'");
 
         if (node.getNumChildren() > 1) {
-            var expType = node.getJmmChild(1).get("type");
+            var expType = JmmType.of(node.getJmmChild(1));
 
             if (!typesMatch(type, expType))
                 error(node, "Cannot assign expression of type '" + expType + "' to variable '" + id + "' of type '" + type + "'");
@@ -150,54 +166,54 @@ class SemanticAnalysisVisitor extends AJmmVisitor<String, String> {
 
     protected String checkUnary(JmmNode node, String context) {
         var child = node.getJmmChild(0);
-        var type = child.get("type");
+        var type = JmmType.of(child);
         var op = node.get("op");
 
-        if (!(typesMatch(type, "int") && in(INTEGER_OPS, op)
-                || typesMatch(type, "float") && in(FLOAT_OPS, op)
-                || typesMatch(type, "boolean") && in(BOOLEAN_OPS, op)
+        if (!(typesMatch(type, JmmType.INT) && in(INTEGER_OPS, op)
+                || typesMatch(type, JmmType.FLOAT) && in(FLOAT_OPS, op)
+                || typesMatch(type, JmmType.BOOLEAN) && in(BOOLEAN_OPS, op)
                 || in(UNIVERSAL_OPS, op)))
             error(node, "Cannot use '" + op + "' on expression of type '" + type + "'");
 
         if ((op.equals("++") || op.equals("--")) && child.getOptional("canAssign").isEmpty())
             error(node, "Cannot use '" + op + "' on this expression");
 
-        node.put("type", type);
+        JmmType.set(node, type);
 
         return context;
     }
 
     protected String checkBinary(JmmNode node, String context) {
-        var type1 = node.getJmmChild(0).get("type");
-        var type2 = node.getJmmChild(1).get("type");
+        var type1 = JmmType.of(node.getJmmChild(0));
+        var type2 = JmmType.of(node.getJmmChild(1));
         var op = node.get("op");
 
-        if (!(typesMatch(type1, "int") && typesMatch(type2, "int") && in(INTEGER_OPS, op)
-                || typesMatch(type1, "float") && (typesMatch(type2, "float") || typesMatch(type2, "int")) && in(FLOAT_OPS, op)
-                || typesMatch(type1, "boolean") && typesMatch(type2, "boolean") && in(BOOLEAN_OPS, op)
-                || typesMatch(type1, "String") && typesMatch(type2, "String") && op.equals("+")
+        if (!(typesMatch(type1, JmmType.INT) && typesMatch(type2, JmmType.INT) && in(INTEGER_OPS, op)
+                || typesMatch(type1, JmmType.FLOAT) && (typesMatch(type2, JmmType.FLOAT) || typesMatch(type2, JmmType.INT)) && in(FLOAT_OPS, op)
+                || typesMatch(type1, JmmType.BOOLEAN) && typesMatch(type2, JmmType.BOOLEAN) && in(BOOLEAN_OPS, op)
+                || typesMatch(type1, JmmType.STRING) && typesMatch(type2, JmmType.STRING) && op.equals("+")
                 || (typesMatch(type1, type2) || typesMatch(type2, type1)) && in(UNIVERSAL_OPS, op)))
             error(node, "Cannot use '" + op + "' on expressions of type '" + type1 + "' and '" + type2 + "'");
 
-        node.put("type", type2.equals("*") ? type2 : type1);
+        JmmType.set(node, type2.isAny() ? type2 : type1);
         if (in(COMPARISON_OPS, op))
-            node.put("type", "boolean");
+            JmmType.set(node, JmmType.BOOLEAN);
 
         return context;
     }
 
     protected String checkTernary(JmmNode node, String context) {
-        var type1 = node.getJmmChild(0).get("type");
-        var type2 = node.getJmmChild(1).get("type");
-        var type3 = node.getJmmChild(2).get("type");
+        var type1 = JmmType.of(node.getJmmChild(0));
+        var type2 = JmmType.of(node.getJmmChild(1));
+        var type3 = JmmType.of(node.getJmmChild(2));
 
-        if (!typesMatch(type1, "boolean"))
+        if (!typesMatch(type1, JmmType.BOOLEAN))
             error(node, "Cannot use expression of type '" + type1 + "' as ternary expression");
 
         if (!(typesMatch(type2, type3) || typesMatch(type3, type2)))
             error(node, "Cannot use expressions of type '" + type2 + "' and '" + type3 + "' as ternary arms");
 
-        node.put("type", type2);
+        JmmType.set(node, type2);
 
         return context;
     }
@@ -206,32 +222,32 @@ class SemanticAnalysisVisitor extends AJmmVisitor<String, String> {
         var value = node.get("value");
 
         if (value.equals("false") || value.equals("true"))
-            node.put("type", "boolean");
+            JmmType.set(node, JmmType.BOOLEAN);
         else if (value.equals("null"))
-            node.put("type", "Object");
+            JmmType.set(node, JmmType.OBJECT);
         else if (value.startsWith("\""))
-            node.put("type", "String");
+            JmmType.set(node, JmmType.STRING);
         else if (value.startsWith("'"))
-            node.put("type", "char");
+            JmmType.set(node, JmmType.CHAR);
         else if (value.contains("."))
-            node.put("type", "double");
+            JmmType.set(node, JmmType.DOUBLE);
         else
-            node.put("type", "int");
+            JmmType.set(node, JmmType.INT);
 
         return context;
     }
 
     protected String checkArrayAccess(JmmNode node, String context) {
-        var type1 = node.getJmmChild(0).get("type");
-        var type2 = node.getJmmChild(1).get("type");
+        var type1 = JmmType.of(node.getJmmChild(0));
+        var type2 = JmmType.of(node.getJmmChild(1));
 
-        if (!type1.endsWith("[]") && !type1.equals("*"))
+        if (!type1.isArray() && !type1.isAny())
             error(node, "Cannot index expression of type '" + type1 + "'");
 
-        if (!typesMatch(type2, "int"))
+        if (!typesMatch(type2, JmmType.INT))
             error(node, "Cannot use expression of type '" + type2 + "' as index");
 
-        node.put("type", type1.endsWith("[]") ? type1.substring(0, type1.length() - 2) : "*");
+        JmmType.set(node, type1.isArray() ? type1.getElementType() : JmmType.ANY);
         node.put("canAssign", "true");
 
         return context;
@@ -240,82 +256,83 @@ class SemanticAnalysisVisitor extends AJmmVisitor<String, String> {
     protected String checkPropertyAccess(JmmNode node, String context) {
         node.put("canAssign", "true");
 
-        var type = node.getJmmChild(0).get("type");
+        var type = JmmType.of(node.getJmmChild(0));
         var prop = node.get("member");
 
-        if (typesMatch(type, table.getClassName())) {
-            var field = table.getFields().stream().filter(s -> s.getName().equals(prop)).findFirst();
+        if (typesMatch(type, JmmType.of(table.getClassName()))) {
+            var field = Optional.ofNullable(table.getField(prop));
 
             if (field.isEmpty() && table.getSuper().isEmpty()) {
                 error(node, "Cannot access property '" + prop + "' on object of type '" + type + "'");
-                node.put("type", "*");
+                JmmType.set(node, JmmType.ANY);
             } else if (field.isPresent()) {
-                node.put("type", field.get().getType().print());
+                JmmType.set(node, JmmType.of(field.get().getType()));
             } else {
-                node.put("type", "*");
+                JmmType.set(node, JmmType.ANY);
             }
-        } else if (type.endsWith("[]")) {
+        } else if (type.isArray()) {
             if (prop.equals("length")) {
-                node.put("type", "int");
+                JmmType.set(node, JmmType.INT);
             } else {
                 error(node, "Cannot access property '" + prop + "' on object of type '" + type + "'");
-                node.put("type", "{unknown}");
+                JmmType.set(node, JmmType.UNKNOWN);
             }
         } else {
-            node.put("type", "*");
+            JmmType.set(node, JmmType.ANY);
         }
 
         return context;
     }
 
     protected String checkExplicitPriority(JmmNode node, String context) {
-        node.put("type", node.getJmmChild(0).get("type"));
+        JmmType.set(node, JmmType.of(node.getJmmChild(0)));
         if (node.getJmmChild(0).getOptional("canAssign").isPresent())
             node.put("canAssign", "true");
         return context;
     }
 
     protected String checkAssignment(JmmNode node, String context) {
-        var type1 = node.getJmmChild(0).get("type");
-        var type2 = node.getJmmChild(1).get("type");
+        var type1 = JmmType.of(node.getJmmChild(0));
+        var type2 = JmmType.of(node.getJmmChild(1));
         var op = node.get("op");
 
-        if (!(typesMatch(type1, "int") && typesMatch(type2, "int") && in(INTEGER_OPS, op)
-                || typesMatch(type1, "float") && (typesMatch(type2, "float") || typesMatch(type2, "int")) && in(FLOAT_OPS, op)
-                || typesMatch(type1, type2) && (in(UNIVERSAL_OPS, op) || type1.equals("String") && op.equals("+="))))
+        if (!(typesMatch(type1, JmmType.INT) && typesMatch(type2, JmmType.INT) && in(INTEGER_OPS, op)
+                || typesMatch(type1, JmmType.FLOAT) && (typesMatch(type2, JmmType.FLOAT) || typesMatch(type2, JmmType.INT)) && in(FLOAT_OPS, op)
+                || typesMatch(type1, type2) && (in(UNIVERSAL_OPS, op) || type1 == JmmType.STRING && op.equals("+="))))
             error(node, "Cannot assign expression of type '" + type2 + "' to expression of type '" + type1 + "' with operation '" + op + "'");
 
         if (node.getJmmChild(0).getOptional("canAssign").isEmpty())
             error(node, "Cannot assign to that expression");
 
-        node.put("type", type1);
+        JmmType.set(node, type1);
 
         return context;
     }
 
     protected String checkMethodCall(JmmNode node, String context) {
-        String type = table.getClassName();
+        var classType = JmmType.of(table.getClassName());
+        var type = classType;
         var method = node.get("member");
-        List<String> actual = new ArrayList<>();
+        List<JmmType> actual = new ArrayList<>();
 
         for (var child : node.getChildren()) {
             if (child.getKind().equals("ArgumentList")) {
-                actual = child.getChildren().stream().map(n -> n.get("type")).toList();
+                actual = child.getChildren().stream().map(JmmType::of).toList();
             } else {
-                type = child.get("type");
+                type = JmmType.of(child);
             }
         }
 
-        node.put("type", "*");
+        JmmType.set(node, JmmType.ANY);
 
-        if (in(PRIMITIVE_TYPES, type))
+        if (type.isPrimitive())
             error(node, "Cannot call method '" + method + "' on expression of type '" + type + "'");
 
-        if (table.getClassName().equals(type)) {
-            if (table.getMethods().contains(method)) {
-                var expected = table.getParameters(method).stream().map(s -> s.getType().print()).toList();
+        if (type == classType) {
+            if (table.getMethod(method) != null) {
+                var expected = table.getParameters(method).stream().map(s -> JmmType.of(s.getType())).toList();
 
-                node.put("type", table.getReturnType(method).print());
+                JmmType.set(node, JmmType.of(table.getReturnType(method)));
 
                 if (expected.size() != actual.size())
                     error(node, "Cannot call '" + type + "::" + method + "' with " + actual.size() + " arguments, expected " + expected.size());
@@ -333,18 +350,18 @@ class SemanticAnalysisVisitor extends AJmmVisitor<String, String> {
 
     protected String checkNewObject(JmmNode node, String context) {
         var id = node.get("id");
-        node.put("type", id);
+        JmmType.set(node, JmmType.of(id));
 
         return context;
     }
 
     protected String checkNewArray(JmmNode node, String context) {
-        var type = node.getJmmChild(0).get("type");
-        var index = node.getJmmChild(1).get("type");
+        var type = JmmType.of(node.getJmmChild(0));
+        var index = JmmType.of(node.getJmmChild(1));
 
-        node.put("type", type + "[]");
+        JmmType.set(node, type.getArrayType());
 
-        if (!typesMatch(index, "int"))
+        if (!typesMatch(index, JmmType.INT))
             error(node, "Cannot create new array with expression of type '" + index + "' as length");
 
         return context;
@@ -386,11 +403,11 @@ class SemanticAnalysisVisitor extends AJmmVisitor<String, String> {
     }
 
     protected String checkReturn(JmmNode node, String context) {
-        var returnType = table.getReturnType(context).print();
-        var type = "void";
+        var returnType = JmmType.of(table.getReturnType(context));
+        var type = JmmType.VOID;
 
         if (node.getNumChildren() > 0)
-            type = node.getJmmChild(0).get("type");
+            type = JmmType.of(node.getJmmChild(0));
 
         if (!typesMatch(returnType, type))
             error(node, "Cannot return expression of type '" + type + "' in method with return type '" + returnType + "'");
@@ -420,24 +437,24 @@ class SemanticAnalysisVisitor extends AJmmVisitor<String, String> {
     }
 
     protected String checkIf(JmmNode node, String context) {
-        var type = node.getJmmChild(0).get("type");
-        if (!typesMatch(type, "boolean"))
+        var type = JmmType.of(node.getJmmChild(0));
+        if (!typesMatch(type, JmmType.BOOLEAN))
             error(node, "Cannot use expression of type '" + type + "' inside if statement");
 
         return context;
     }
 
     protected String checkWhile(JmmNode node, String context) {
-        var type = node.getJmmChild(0).get("type");
-        if (!typesMatch(type, "boolean"))
+        var type = JmmType.of(node.getJmmChild(0));
+        if (!typesMatch(type, JmmType.BOOLEAN))
             error(node, "Cannot use expression of type '" + type + "' inside while statement");
 
         return context;
     }
 
     protected String checkDo(JmmNode node, String context) {
-        var type = node.getJmmChild(1).get("type");
-        if (!typesMatch(type, "boolean"))
+        var type = JmmType.of(node.getJmmChild(1));
+        if (!typesMatch(type, JmmType.BOOLEAN))
             error(node, "Cannot use expression of type '" + type + "' inside do statement");
 
         return context;
@@ -448,26 +465,26 @@ class SemanticAnalysisVisitor extends AJmmVisitor<String, String> {
     }
 
     protected String checkForTerminal(JmmNode node, String context) {
-        var type = node.getJmmChild(0).get("type");
-        if (!typesMatch(type, "boolean"))
+        var type = JmmType.of(node.getJmmChild(0));
+        if (!typesMatch(type, JmmType.BOOLEAN))
             error(node, "Cannot use expression of type '" + type + "' as for statement terminal");
 
         return context;
     }
 
     protected String checkForEach(JmmNode node, String context) {
-        var type = node.getJmmChild(0).get("type");
-        var expressionType = node.getJmmChild(1).get("type");
+        var type = JmmType.of(node.getJmmChild(0));
+        var expressionType = JmmType.of(node.getJmmChild(1));
 
-        if (!typesMatch(expressionType, type + "[]"))
+        if (!typesMatch(expressionType, type.getArrayType()))
             error(node, "Cannot use expression of type '" + expressionType + "' as array of '" + type + "' in for each statement");
 
         return context;
     }
 
     protected String checkSwitch(JmmNode node, String context) {
-        var type = node.getJmmChild(0).get("type");
-        if (!in(PRIMITIVE_TYPES, type) && !type.equals("String"))
+        var type = JmmType.of(node.getJmmChild(0));
+        if (!type.isPrimitive() && type != JmmType.STRING)
             error(node, "Cannot use expression of type '" + type + "' inside switch statement");
 
         return context;
@@ -476,7 +493,7 @@ class SemanticAnalysisVisitor extends AJmmVisitor<String, String> {
     protected String checkCase(JmmNode node, String context) {
         var switchNode = node.getJmmParent();
         var switchExpression = switchNode.getJmmChild(0);
-        var switchType = switchExpression.get("type");
+        var switchType = JmmType.of(switchExpression);
 
         var casesOpt = switchNode.getOptionalObject("cases");
         if (casesOpt.isEmpty()) {
@@ -492,13 +509,13 @@ class SemanticAnalysisVisitor extends AJmmVisitor<String, String> {
         cases.add(value);
 
         checkLiteral(node, context);
-        var type = node.get("type");
+        var type = JmmType.of(node);
 
         if (!typesMatch(type, switchType))
             error(node, "Cannot use expression of type '" + type + "' in case inside switch statement with expression of type '" + switchType + "'");
 
-        if (switchType.equals("*"))
-            switchExpression.put("type", type);
+        if (switchType.isAny())
+            JmmType.set(switchExpression, type);
 
         return context;
     }
@@ -516,12 +533,9 @@ class SemanticAnalysisVisitor extends AJmmVisitor<String, String> {
 
     protected String checkComplexType(JmmNode node, String context) {
         var type = node.get("id");
-        node.put("type", type);
+        JmmType.set(node, JmmType.of(type));
 
-        if (!type.equals(table.getClassName()) && !in(UNIVERSAL_IMPORTS, type) && table.getImports().stream().map(i -> {
-            var split = i.split("\\.");
-            return split[split.length - 1];
-        }).noneMatch(i -> i.equals(type)))
+        if (!type.equals(table.getClassName()) && !in(UNIVERSAL_IMPORTS, type) && !table.isImported(type))
             error(node, "Cannot use '" + type + "' as a type without importing it");
 
         return context;
@@ -530,27 +544,29 @@ class SemanticAnalysisVisitor extends AJmmVisitor<String, String> {
     /**
      * @return `true` if `type1` matches `type2`
      */
-    private boolean typesMatch(String type1, String type2) {
+    private boolean typesMatch(JmmType type1, JmmType type2) {
+        // Expressions only have a handful of distinct types, so each pair is only computed once
+        return typesMatchResults.computeIfAbsent(type1, type -> new HashMap<>())
+                .computeIfAbsent(type2, type -> computeTypesMatch(type1, type2));
+    }
+
+    private boolean computeTypesMatch(JmmType type1, JmmType type2) {
         // Either is wildcard
-        return type1.equals("*") || type2.equals("*")
+        return type1.isAny() || type2.isAny()
             // Both ints
-            || in(INTEGER_TYPES, type1) && in(INTEGER_TYPES, type2)
+            || type1.isInteger() && type2.isInteger()
             // Both floats
-            || in(FLOAT_TYPES, type1) && in(FLOAT_TYPES, type2)
+            || type1.isFloat() && type2.isFloat()
             // First is Object and second is not primitive
-            || type1.equals("Object") && !in(PRIMITIVE_TYPES, type2)
+            || type1 == JmmType.OBJECT && !type2.isPrimitive()
             // Both are imported
-            || table.getImports().stream().map(i -> {
-                var split = i.split("\\.");
-                return split[split.length - 1];
-            }).collect(Collectors.toSet()).containsAll(List.of(type1, type2))
+            || table.isImported(type1.getName()) && table.isImported(type2.getName())
             // First is superclass of second
-            || table.getSuper() != null && table.getSuper().equals(type1) && table.getClassName().equals(type2)
+            || table.getSuper() != null && table.getSuper().equals(type1.getName()) && table.getClassName().equals(type2.getName())
             // Both equal
-            || type1.equals(type2);
+            || type1 == type2;
     }
 
-
     private void error(JmmNode node, String message) {
         reports.add(new Report(
             ReportType.ERROR,
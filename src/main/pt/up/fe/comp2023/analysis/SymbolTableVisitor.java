@@ -4,6 +4,7 @@ import pt.up.fe.comp.jmm.analysis.table.Symbol;
 import pt.up.fe.comp.jmm.analysis.table.Type;
 import pt.up.fe.comp.jmm.ast.AJmmVisitor;
 import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp2023.JmmType;
 
 import java.util.List;
 import java.util.TreeSet;
@@ -119,7 +120,7 @@ class SymbolTableVisitor extends AJmmVisitor<Object, Object> {
         if (node.getJmmParent().getKind().equals("MethodDeclaration") && context instanceof Method)
             ((Method) context).setReturnType(type);
 
-        node.put("type", type.print());
+        JmmType.set(node, JmmType.of(type));
 
         return type;
     }
@@ -135,7 +136,7 @@ class SymbolTableVisitor extends AJmmVisitor<Object, Object> {
 
             Symbol parameter = new Symbol(type, params.get(i).toString());
 
-            method.getParameters().add(parameter);
+            method.addParameter(parameter);
         }
 
         return method.getParameters();
@@ -144,7 +145,7 @@ class SymbolTableVisitor extends AJmmVisitor<Object, Object> {
     private Symbol visitVariable(JmmNode node, Object context) {
         var symbol = new Symbol((Type) visit(node.getJmmChild(0)), node.get("id"));
 
-        if (context instanceof Method) ((Method) context).getLocalVariables().add(symbol);
+        if (context instanceof Method) ((Method) context).addLocalVariable(symbol);
         else table.addField(symbol);
 
         return symbol;
@@ -157,7 +158,7 @@ class SymbolTableVisitor extends AJmmVisitor<Object, Object> {
         var id = node.get("id");
 
         var symbol = new Symbol(type, id);
-        ((Method) context).getLocalVariables().add(symbol);
+        ((Method) context).addLocalVariable(symbol);
 
         for (var child : node.getChildren())
             visit(child, context);
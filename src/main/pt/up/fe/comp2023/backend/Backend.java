@@ -5,12 +5,17 @@ import pt.up.fe.comp.jmm.jasmin.JasminBackend;
 import pt.up.fe.comp.jmm.jasmin.JasminResult;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
 import pt.up.fe.comp.jmm.report.Report;
-import pt.up.fe.comp.jmm.report.ReportType;
 import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2023.CompilationContext;
+import pt.up.fe.comp2023.DebugReport;
 
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Generates the JVM code of an OLLIR class as a {@link JvmClass}, which is either written directly as a class file
+ * ({@link #toClassFile}) or printed as Jasmin assembly ({@link #toJasmin}).
+ */
 public class Backend implements JasminBackend {
 
     private static final int DEFAULT_METHOD_STACK_SIZE = 0; // TODO: this is a hack, this value should be 0, it is making an unrelated test fail
@@ -18,173 +23,167 @@ public class Backend implements JasminBackend {
     private boolean debugMode;
     private boolean optimize;
 
+    private final CompilationContext context;
+
+    // state of the method being generated, reset at the start of every method
+    private List<JvmInstruction> code = new ArrayList<>();
     private int currentMethodStackSize = Backend.DEFAULT_METHOD_STACK_SIZE;
     private int currentMethodStackSizeLimit = Backend.DEFAULT_METHOD_STACK_SIZE;
-    private int currentConditional = 0;
     private boolean conditionalOptimized = false;
     private int assignmentRegister = -1;
 
+    public Backend() {
+        this(new CompilationContext());
+    }
+
+    public Backend(CompilationContext context) {
+        this.context = context;
+    }
+
     @Override
     public JasminResult toJasmin(OllirResult ollirResult) {
 
-        var config = ollirResult.getConfig();
         var reports = new ArrayList<Report>();
+        var jvmClass = this.buildJvmClass(ollirResult, reports);
 
-        this.debugMode = Boolean.parseBoolean(config.get("debug"));
-        this.optimize = Boolean.parseBoolean(config.get("optimize"));
+        var jasminCode = jvmClass == null ? "" : jvmClass.toJasmin();
 
-        var ollirClass = ollirResult.getOllirClass();
+        DebugReport.add(reports, ollirResult.getConfig(), Stage.GENERATION, () -> "Generated Jasmin:\n" + jasminCode);
 
-        var jasminCode = this.buildJasminCode(ollirClass, reports, config.get("inputFile"));
+        return new JasminResult(ollirResult.getOllirClass().getClassName(), jasminCode, reports, ollirResult.getConfig());
+    }
 
-        reports.add(new Report(ReportType.DEBUG, Stage.GENERATION, -1, -1, "Generated Jasmin:\n" + jasminCode));
+    /**
+     * Generates the class without printing it as Jasmin, which is only done for the debug output.
+     */
+    public ClassFileResult toClassFile(OllirResult ollirResult) {
 
-        return new JasminResult(ollirClass.getClassName(), jasminCode, reports, config);
-    }
+        var reports = new ArrayList<Report>();
+        var jvmClass = this.buildJvmClass(ollirResult, reports);
+
+        if (jvmClass == null) {
+            reports.add(Report.newError(Stage.GENERATION, -1, -1, "Class has no name", new Exception("Class has no name")));
+            return new ClassFileResult(null, reports, ollirResult.getConfig());
+        }
 
-    private String buildJasminCode(ClassUnit ollirClass, List<Report> reports, String fileName) {
-        var jasminCode = this.buildJasminClass(ollirClass, reports, fileName);
+        DebugReport.add(reports, ollirResult.getConfig(), Stage.GENERATION, () -> "Generated Jasmin:\n" + jvmClass.toJasmin());
 
-        return "; class " + ollirClass.getClassName() + ", transpiled to jasmin\n" + jasminCode;
+        return new ClassFileResult(jvmClass, reports, ollirResult.getConfig());
     }
 
-    private String buildJasminClass(ClassUnit ollirClass, List<Report> reports, String fileName) {
+    private JvmClass buildJvmClass(OllirResult ollirResult, List<Report> reports) {
+
+        var config = ollirResult.getConfig();
+
+        this.debugMode = Boolean.parseBoolean(config.get("debug"));
+        this.optimize = Boolean.parseBoolean(config.get("optimize"));
+
+        return this.buildJvmClass(ollirResult.getOllirClass(), reports, config.get("inputFile"));
+    }
 
-        StringBuilder sb = new StringBuilder();
+    private JvmClass buildJvmClass(ClassUnit ollirClass, List<Report> reports, String fileName) {
 
         var className = ollirClass.getClassName();
 
-        if (className == null) return "";
+        if (className == null) return null;
 
         if (fileName != null) {
             if (!fileName.equals(className.concat(".jmm")) && this.debugMode) {
                 reports.add(Report.newWarn(Stage.GENERATION, -1, -1, "Top level classes should have the same name as the file they are defined in: expected '" + fileName + "', got '" + className + ".jmm'", new Exception("Top level classes should have the same name as the file they are defined in")));
             }
-
-            sb.append(".source ").append(fileName).append('\n');
         }
 
-        sb.append(".class ");
-
         var classAccessModifier = ollirClass.getClassAccessModifier();
         String modifier = classAccessModifier.name().toLowerCase();
         if (classAccessModifier == AccessModifiers.DEFAULT)
             modifier = "public"; // HACK: this is made so the tests pass, it should not be like this
-        sb.append(modifier);
-        sb.append(' ').append(className).append('\n');
 
         var superName = Optional.ofNullable(ollirClass.getSuperClass()).orElse("java.lang.Object").replaceAll("\\.", "/");
-        sb.append(".super ").append(superName).append("\n");
         this.superClassName = superName;
 
-        sb.append('\n');
-
+        var fields = new ArrayList<JvmClass.Field>();
         for (Field field : ollirClass.getFields())
-            sb.append(this.buildJasminClassField(field, reports)).append('\n');
+            fields.add(this.buildJvmField(field, reports));
 
-        sb.append('\n');
-
-        for (Method method : ollirClass.getMethods())
-            sb.append(this.buildJasminMethod(method, reports)).append('\n');
+        var methods = new ArrayList<JvmClass.Method>();
+        for (Method method : ollirClass.getMethods()) {
+            var jvmMethod = this.buildJvmMethod(method, reports);
+            if (jvmMethod != null) methods.add(jvmMethod);
+        }
 
-        return sb.toString();
+        return new JvmClass(className, superName, fileName, List.of(modifier), fields, methods);
     }
 
-    private String buildJasminClassField(Field field, List<Report> reports) {
-
-        StringBuilder sb = new StringBuilder();
+    private JvmClass.Field buildJvmField(Field field, List<Report> reports) {
 
-        sb.append(".field ");
+        var modifiers = new ArrayList<String>();
 
         var accessModifier = field.getFieldAccessModifier();
-        sb.append(accessModifier == AccessModifiers.DEFAULT ? "" : accessModifier.name().toLowerCase().concat(" "));
-
-        if (field.isFinalField()) sb.append("static ");
-
-        if (field.isFinalField()) sb.append("final ");
-
-        sb.append(field.getFieldName()).append(' ');
+        if (accessModifier != AccessModifiers.DEFAULT) modifiers.add(accessModifier.name().toLowerCase());
 
-        sb.append(this.buildJasminTypeDescriptor(field.getFieldType(), reports));
+        if (field.isFinalField()) modifiers.add("static");
 
-        if (field.isInitialized()) {
+        if (field.isFinalField()) modifiers.add("final");
 
-            // TODO: needs better handling
+        // TODO: needs better handling
+        var initialValue = field.isInitialized() ? String.valueOf(field.getInitialValue()) : null;
 
-            sb.append(" = ").append(field.getInitialValue());
-        }
-
-        return sb.toString();
+        return new JvmClass.Field(modifiers, field.getFieldName(), this.buildTypeDescriptor(field.getFieldType(), reports), initialValue);
     }
 
-    private String buildJasminMethod(Method method, List<Report> reports) {
+    private JvmClass.Method buildJvmMethod(Method method, List<Report> reports) {
 
         // FIXME: should this be placed in a different function ?
         if (method.isConstructMethod()) {
             if (method.isStaticMethod()) { // constructor cannot be static
                 reports.add(Report.newWarn(Stage.GENERATION, -1, -1, "Cannot generate static constructor(" + method.getMethodName() + ")", new Exception("Cannot generate static constructor")));
-                return "";
+                return null;
             } else if (method.isFinalMethod()) {
                 reports.add(Report.newWarn(Stage.GENERATION, -1, -1, "Cannot generate final constructor(" + method.getMethodName() + ")", new Exception("Cannot generate final constructor")));
-                return "";
+                return null;
             }
         }
 
         if (this.debugMode) method.show();
 
-        StringBuilder sb = new StringBuilder();
-
-        sb.append(".method ");
-
-        sb.append(this.buildJasminMethodHeader(method, reports));
+        this.resetMethodState();
 
-        var bodyCode = this.buildJasminMethodBody(method, reports);
+        var modifiers = new ArrayList<String>();
 
-        if (!method.isConstructMethod()) {
+        var accessModifier = method.getMethodAccessModifier();
+        if (accessModifier != AccessModifiers.DEFAULT) modifiers.add(accessModifier.name().toLowerCase());
 
-            var varTable = method.getVarTable();
+        if (method.isStaticMethod()) modifiers.add("static");
 
-            // we need as many locals as there are different registers used in the method
-            var localRegs = new HashSet<Integer>();
-            varTable.values().forEach(descriptor -> localRegs.add(descriptor.getVirtualReg()));
+        if (method.isFinalMethod()) modifiers.add("final");
 
-            var numLocals = localRegs.size();
+        var name = method.isConstructMethod() ? "<init>" : method.getMethodName();
 
-            // if the "this" reference is not used in the method, it will not be loaded into the varTable
-            if (!method.isStaticMethod() && !method.getVarTable().containsKey("this")) numLocals++;
+        this.emitMethodBody(method, reports);
 
-            // TODO: change when optimizing
-            sb.append("\t.limit locals ").append(numLocals).append('\n');
-            sb.append("\t.limit stack ").append(this.currentMethodStackSizeLimit).append('\n');
+        var varTable = method.getVarTable();
 
-            this.currentMethodStackSizeLimit = Backend.DEFAULT_METHOD_STACK_SIZE;
-            this.currentMethodStackSize = Backend.DEFAULT_METHOD_STACK_SIZE;
-        }
+        // we need as many locals as there are different registers used in the method
+        var localRegs = new HashSet<Integer>();
+        varTable.values().forEach(descriptor -> localRegs.add(descriptor.getVirtualReg()));
 
-        sb.append(bodyCode);
+        var numLocals = localRegs.size();
 
-        sb.append(".end method\n");
+        // if the "this" reference is not used in the method, it will not be loaded into the varTable
+        if (!method.isStaticMethod() && !method.getVarTable().containsKey("this")) numLocals++;
 
-        return sb.toString();
+        // constructors leave their limits to Jasmin, but the class file always needs them
+        return new JvmClass.Method(modifiers, name, this.buildMethodDescriptor(method, reports), numLocals,
+                this.currentMethodStackSizeLimit, !method.isConstructMethod(), this.code);
     }
 
-    private String buildJasminMethodHeader(Method method, List<Report> reports) {
+    private String buildMethodDescriptor(Method method, List<Report> reports) {
         var sb = new StringBuilder();
 
-        var accessModifier = method.getMethodAccessModifier();
-        sb.append(accessModifier == AccessModifiers.DEFAULT ? "" : accessModifier.name().toLowerCase().concat(" "));
-
-        if (method.isStaticMethod()) sb.append("static ");
-
-        if (method.isFinalMethod()) sb.append("final ");
-
-        if (method.isConstructMethod()) sb.append("<init>");
-        else sb.append(method.getMethodName());
-
         sb.append('(');
 
         for (var param : method.getParams())
-            sb.append(this.buildJasminTypeDescriptor(param.getType(), reports));
+            sb.append(this.buildTypeDescriptor(param.getType(), reports));
 
         sb.append(")");
 
@@ -193,15 +192,12 @@ public class Backend implements JasminBackend {
 
         // even though constructors return void, short-circuit the check
         if (method.isConstructMethod() || isVoid) sb.append('V');
-        else sb.append(this.buildJasminTypeDescriptor(methodReturnType, reports));
-        sb.append('\n');
+        else sb.append(this.buildTypeDescriptor(methodReturnType, reports));
 
         return sb.toString();
     }
 
-    private String buildJasminMethodBody(Method method, List<Report> reports) {
-
-        var sb = new StringBuilder();
+    private void emitMethodBody(Method method, List<Report> reports) {
 
         boolean hasReturn = false;
         var varTable = method.getVarTable();
@@ -211,57 +207,66 @@ public class Backend implements JasminBackend {
             if (instruction.getInstType() == InstructionType.RETURN) hasReturn = true;
 
             var labels = method.getLabels(instruction);
-            labels.forEach(label -> sb.append(label).append(":\n"));
+            labels.forEach(label -> this.emit(new JvmInstruction.Label(label)));
 
-            sb.append(this.buildJasminInstruction(instruction, varTable, reports)).append('\n');
+            this.emitInstruction(instruction, varTable, reports);
 
             if (instruction.getInstType() == InstructionType.CALL && ((CallInstruction) instruction).getReturnType().getTypeOfElement() != ElementType.VOID) {
-                sb.append("\tpop\n");
+                this.emit(new JvmInstruction.Simple("pop"));
                 this.changeCurrentMethodStackSizeLimit(-1);
             }
         }
         if (!hasReturn) { // default to have a return
             if (!(method.isConstructMethod() || method.getReturnType().getTypeOfElement() == ElementType.VOID)) {
                 reports.add(Report.newWarn(Stage.GENERATION, -1, -1, "Non-void function must have a return type", new Exception("Non-void function must have a return type")));
-                return "";
+                this.code.clear();
+                return;
             }
 
             var instruction = new ReturnInstruction();
             instruction.setReturnType(new Type(ElementType.VOID));
 
-            sb.append(this.buildJasminInstruction(instruction, varTable, reports)).append('\n');
+            this.emitInstruction(instruction, varTable, reports);
         }
-
-        return sb.toString();
     }
 
-    private String buildJasminInstruction(Instruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
+    private void emit(JvmInstruction instruction) {
+        this.code.add(instruction);
+    }
 
-        var sb = new StringBuilder();
+    private void emitInstruction(Instruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
 
-        var instructionCode = switch (instruction.getInstType()) {
-            case ASSIGN -> this.buildJasminAssignInstruction((AssignInstruction) instruction, varTable, reports);
-            case CALL -> this.buildJasminCallInstruction((CallInstruction) instruction, varTable, reports);
-            case GOTO -> this.buildJasminGotoInstruction((GotoInstruction) instruction, varTable, reports);
-            case BRANCH -> this.buildJasminBranchInstruction((CondBranchInstruction) instruction, varTable, reports);
-            case RETURN -> this.buildJasminReturnInstruction((ReturnInstruction) instruction, varTable, reports);
-            case PUTFIELD -> this.buildJasminPutfieldOperation((PutFieldInstruction) instruction, varTable, reports);
-            case GETFIELD -> this.buildJasminGetfieldOperation((GetFieldInstruction) instruction, varTable, reports);
+        switch (instruction.getInstType()) {
+            case ASSIGN -> this.emitAssignInstruction((AssignInstruction) instruction, varTable, reports);
+            case CALL -> this.emitCallInstruction((CallInstruction) instruction, varTable, reports);
+            case GOTO -> this.emitGotoInstruction((GotoInstruction) instruction, varTable, reports);
+            case BRANCH -> this.emitBranchInstruction((CondBranchInstruction) instruction, varTable, reports);
+            case RETURN -> this.emitReturnInstruction((ReturnInstruction) instruction, varTable, reports);
+            case PUTFIELD -> this.emitPutfieldOperation((PutFieldInstruction) instruction, varTable, reports);
+            case GETFIELD -> this.emitGetfieldOperation((GetFieldInstruction) instruction, varTable, reports);
             case UNARYOPER ->
-                    this.buildJasminUnaryOperatorInstruction((UnaryOpInstruction) instruction, varTable, reports);
+                    this.emitUnaryOperatorInstruction((UnaryOpInstruction) instruction, varTable, reports);
             case BINARYOPER ->
-                    this.buildJasminBinaryOperatorInstruction((BinaryOpInstruction) instruction, varTable, reports);
-            case NOPER -> this.buildJasminSingleOpInstruction((SingleOpInstruction) instruction, varTable, reports);
-        };
-
-        sb.append(instructionCode);
-
-        return sb.toString();
+                    this.emitBinaryOperatorInstruction((BinaryOpInstruction) instruction, varTable, reports);
+            case NOPER -> this.emitSingleOpInstruction((SingleOpInstruction) instruction, varTable, reports);
+        }
     }
 
-    private String buildJasminAssignInstruction(AssignInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
+    /**
+     * @return `i` for ints and booleans, `a` for references, or `null` for void, after reporting it
+     */
+    private String typePrefix(Type type, String voidMessage, List<Report> reports) {
+        return switch (type.getTypeOfElement()) {
+            case INT32, BOOLEAN -> "i";
+            case ARRAYREF, OBJECTREF, STRING, THIS, CLASS -> "a";
+            case VOID -> {
+                reports.add(Report.newWarn(Stage.GENERATION, -1, -1, voidMessage, new Exception(voidMessage)));
+                yield null;
+            }
+        };
+    }
 
-        var sb = new StringBuilder();
+    private void emitAssignInstruction(AssignInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
 
         Operand op = (Operand) instruction.getDest();
 
@@ -272,88 +277,67 @@ public class Backend implements JasminBackend {
 
         if (op instanceof ArrayOperand arr) {
 
-            sb.append("\taload").append(regNum < 4 ? '_' : ' ').append(regNum).append('\n');
+            this.emit(new JvmInstruction.Local("aload", regNum));
             this.changeCurrentMethodStackSizeLimit(1);
 
             for (var elem : arr.getIndexOperands()) {
-                sb.append('\t').append(this.buildJasminLoadElementInstruction(elem, varTable, reports)).append("\n");
+                this.emitLoadElementInstruction(elem, varTable, reports);
             }
 
             // we need to load the rhs here because of the stack limits
-            sb.append(this.buildJasminInstruction(instruction.getRhs(), varTable, reports)).append('\n');
-
-            sb.append('\t');
-            switch (arr.getType().getTypeOfElement()) {
-                case INT32, BOOLEAN -> sb.append('i');
-                case ARRAYREF, OBJECTREF, STRING, THIS, CLASS -> sb.append('a');
-                case VOID ->
-                        reports.add(Report.newWarn(Stage.GENERATION, -1, -1, "Cannot load void variable", new Exception("Cannot load void variable")));
-            }
-            sb.append("astore");
+            this.emitInstruction(instruction.getRhs(), varTable, reports);
+
+            var prefix = this.typePrefix(arr.getType(), "Cannot load void variable", reports);
+            this.emit(new JvmInstruction.Simple((prefix == null ? "" : prefix) + "astore"));
             this.changeCurrentMethodStackSizeLimit(-1);
         } else {
-            sb.append(this.buildJasminInstruction(instruction.getRhs(), varTable, reports)).append('\n');
-
-            sb.append('\t');
-            switch (instruction.getTypeOfAssign().getTypeOfElement()) {
-                case INT32, BOOLEAN -> sb.append('i');
-                case ARRAYREF, OBJECTREF, STRING, CLASS, THIS -> sb.append('a');
-                case VOID ->
-                        reports.add(Report.newWarn(Stage.GENERATION, -1, -1, "Cannot assign to void variable", new Exception("Cannot assign to void variable")));
-            }
-            sb.append("store");
+            this.emitInstruction(instruction.getRhs(), varTable, reports);
 
-            sb.append(regNum < 4 ? '_' : ' ').append(regNum);
+            var prefix = this.typePrefix(instruction.getTypeOfAssign(), "Cannot assign to void variable", reports);
+            this.emit(new JvmInstruction.Local((prefix == null ? "" : prefix) + "store", regNum));
 
             this.changeCurrentMethodStackSizeLimit(-1);
         }
-
-        return sb.toString();
     }
 
-    private String buildJasminIntegerPushInstruction(int value) {
-        var sb = new StringBuilder();
+    private JvmInstruction buildIntegerPushInstruction(int value) {
         if (value < -1) {
-            sb.append("ldc ").append(value);
+            return new JvmInstruction.Ldc(value);
         } else if (value == -1) {
-            sb.append("iconst_m1");
+            return new JvmInstruction.Simple("iconst_m1");
         } else if (value < 6) {
-            sb.append("iconst_").append(value);
+            return new JvmInstruction.Simple("iconst_" + value);
         } else if (value < 128) {
-            sb.append("bipush ").append(value);
+            return new JvmInstruction.Push("bipush", value);
         } else if (value < 32768) {
-            sb.append("sipush ").append(value);
+            return new JvmInstruction.Push("sipush", value);
         } else {
-            sb.append("ldc ").append(value);
+            return new JvmInstruction.Ldc(value);
         }
-        return sb.toString();
     }
 
-    private String buildJasminLoadLiteralInstruction(LiteralElement literal, HashMap<String, Descriptor> varTable, List<Report> reports) {
-        var sb = new StringBuilder();
+    private void emitLoadLiteralInstruction(LiteralElement literal, HashMap<String, Descriptor> varTable, List<Report> reports) {
 
         switch (literal.getType().getTypeOfElement()) {
             case INT32, BOOLEAN -> {
                 var value = literal.getLiteral();
 
-                sb.append(this.buildJasminIntegerPushInstruction(Integer.parseInt(value)));
+                this.emit(this.buildIntegerPushInstruction(Integer.parseInt(value)));
             }
-            case STRING -> sb.append("ldc ").append(literal.getLiteral());
+            case STRING -> this.emit(new JvmInstruction.Ldc(literal.getLiteral()));
             case ARRAYREF, OBJECTREF, THIS, CLASS, VOID ->
                     reports.add(Report.newWarn(Stage.GENERATION, -1, -1, "Cannot load void variable", new Exception("Cannot load void variable")));
         }
 
         this.changeCurrentMethodStackSizeLimit(1);
-
-        return sb.toString();
     }
 
-    private String buildJasminLoadOperandInstruction(Operand op, HashMap<String, Descriptor> varTable, List<Report> reports) {
-        var sb = new StringBuilder();
+    private void emitLoadOperandInstruction(Operand op, HashMap<String, Descriptor> varTable, List<Report> reports) {
 
         if (op.getName().equals("false") || op.getName().equals("true")) {
             // "true" and "false" get parsed as operands when they really should be literals, this is a hacky way of fixing that
-            return this.buildJasminLoadLiteralInstruction(new LiteralElement(op.getName().equals("true") ? "1" : "0", new Type(ElementType.BOOLEAN)), varTable, reports);
+            this.emitLoadLiteralInstruction(new LiteralElement(op.getName().equals("true") ? "1" : "0", new Type(ElementType.BOOLEAN)), varTable, reports);
+            return;
         }
 
         var argDescriptor = varTable.get(op.getName());
@@ -362,56 +346,43 @@ public class Backend implements JasminBackend {
         // TODO: can be better (?)
         if (op instanceof ArrayOperand arr) {
 
-            sb.append("aload").append(argRegNum < 4 ? '_' : ' ').append(argRegNum).append('\n');
+            this.emit(new JvmInstruction.Local("aload", argRegNum));
             this.changeCurrentMethodStackSizeLimit(1);
 
             for (var elem : arr.getIndexOperands()) {
-                sb.append('\t').append(this.buildJasminLoadElementInstruction(elem, varTable, reports)).append("\n");
+                this.emitLoadElementInstruction(elem, varTable, reports);
             }
 
-            sb.append('\t');
-
-            switch (arr.getType().getTypeOfElement()) {
-                case INT32, BOOLEAN -> sb.append('i');
-                case ARRAYREF, OBJECTREF, STRING, THIS, CLASS -> sb.append('a');
-                case VOID ->
-                        reports.add(Report.newWarn(Stage.GENERATION, -1, -1, "Cannot load void variable", new Exception("Cannot load void variable")));
-            }
-            sb.append("aload");
+            var prefix = this.typePrefix(arr.getType(), "Cannot load void variable", reports);
+            this.emit(new JvmInstruction.Simple((prefix == null ? "" : prefix) + "aload"));
 
             this.changeCurrentMethodStackSizeLimit(1);
         } else {
-            switch (op.getType().getTypeOfElement()) {
-                case INT32, BOOLEAN -> sb.append('i');
-                case ARRAYREF, OBJECTREF, STRING, THIS, CLASS -> sb.append('a');
-                case VOID ->
-                        reports.add(Report.newWarn(Stage.GENERATION, -1, -1, "Cannot load void variable", new Exception("Cannot load void variable")));
-            }
-
-            sb.append("load");
-
-            sb.append(argRegNum < 4 ? '_' : ' ').append(argRegNum);
+            var prefix = this.typePrefix(op.getType(), "Cannot load void variable", reports);
+            this.emit(new JvmInstruction.Local((prefix == null ? "" : prefix) + "load", argRegNum));
 
             this.changeCurrentMethodStackSizeLimit(1);
         }
-
-        return sb.toString();
     }
 
-    private String buildJasminLoadElementInstruction(Element elem, HashMap<String, Descriptor> varTable, List<Report> reports) {
-        var sb = new StringBuilder();
+    private void emitLoadElementInstruction(Element elem, HashMap<String, Descriptor> varTable, List<Report> reports) {
 
         if (elem.isLiteral()) {
-            sb.append(this.buildJasminLoadLiteralInstruction((LiteralElement) elem, varTable, reports));
+            this.emitLoadLiteralInstruction((LiteralElement) elem, varTable, reports);
         } else {
-            sb.append(this.buildJasminLoadOperandInstruction((Operand) elem, varTable, reports));
+            this.emitLoadOperandInstruction((Operand) elem, varTable, reports);
         }
+    }
 
-        return sb.toString();
+    private String buildInvokeDescriptor(CallInstruction instruction, List<Report> reports) {
+        var sb = new StringBuilder("(");
+
+        instruction.getListOfOperands().forEach((op) -> sb.append(this.buildTypeDescriptor(op.getType(), reports)));
+
+        return sb.append(')').append(this.buildTypeDescriptor(instruction.getReturnType(), reports)).toString();
     }
 
-    private String buildJasminCallInstruction(CallInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
-        var sb = new StringBuilder();
+    private void emitCallInstruction(CallInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
 
         // taken from https://github.com/PedroJSilva2001/feup-comp-jmm-compiler/blob/master/src/pt/up/fe/comp/jmm/jasmin/JasminBackender.java#L447
         AtomicInteger stackSizeVariation = new AtomicInteger(-1);
@@ -422,23 +393,17 @@ public class Backend implements JasminBackend {
                 LiteralElement methodName = (LiteralElement) instruction.getSecondArg();
 
                 // load the object reference onto the stack
-                sb.append('\t').append(this.buildJasminLoadOperandInstruction(calledObject, varTable, reports)).append('\n');
+                this.emitLoadOperandInstruction(calledObject, varTable, reports);
                 stackSizeVariation.getAndIncrement();
 
                 // load args
                 instruction.getListOfOperands().forEach((arg) -> {
-                    sb.append('\t').append(this.buildJasminLoadElementInstruction(arg, varTable, reports)).append('\n');
+                    this.emitLoadElementInstruction(arg, varTable, reports);
                     stackSizeVariation.incrementAndGet();
                 });
 
-                sb.append('\t').append("invokevirtual ").append(((ClassType) calledObject.getType()).getName()).append('/').append(methodName.getLiteral().replaceAll("\"", "")).append('(');
-
-                instruction.getListOfOperands().forEach((op) -> {
-                    var opType = this.buildJasminTypeDescriptor(op.getType(), reports);
-                    sb.append(opType);
-                });
-
-                sb.append(')').append(this.buildJasminTypeDescriptor(instruction.getReturnType(), reports));
+                this.emit(new JvmInstruction.Invoke("invokevirtual", ((ClassType) calledObject.getType()).getName(),
+                        methodName.getLiteral().replaceAll("\"", ""), this.buildInvokeDescriptor(instruction, reports)));
 
                 if (instruction.getReturnType().getTypeOfElement() == ElementType.VOID) {
                     stackSizeVariation.getAndDecrement();
@@ -450,31 +415,23 @@ public class Backend implements JasminBackend {
                 Operand calledObject = (Operand) instruction.getFirstArg();
                 LiteralElement methodName = (LiteralElement) instruction.getSecondArg();
 
-                sb.append('\t').append(this.buildJasminLoadOperandInstruction(calledObject, varTable, reports)).append('\n');
+                this.emitLoadOperandInstruction(calledObject, varTable, reports);
                 stackSizeVariation.getAndIncrement();
 
                 // load args
                 instruction.getListOfOperands().forEach((arg) -> {
-                    sb.append('\t').append(this.buildJasminLoadElementInstruction(arg, varTable, reports)).append('\n');
+                    this.emitLoadElementInstruction(arg, varTable, reports);
                     stackSizeVariation.incrementAndGet();
                 });
 
-                sb.append('\t').append("invokespecial ");
-
                 // TODO: perhaps RTE
                 String objectName = ((ClassType) calledObject.getType()).getName();
                 if (Objects.equals(calledObject.getName(), ElementType.THIS.toString().toLowerCase())) {
                     objectName = this.superClassName;
                 }
 
-                sb.append(objectName).append('/').append(methodName.getLiteral().replaceAll("\"", "")).append('(');
-
-                instruction.getListOfOperands().forEach((op) -> {
-                    var opType = this.buildJasminTypeDescriptor(op.getType(), reports);
-                    sb.append(opType);
-                });
-
-                sb.append(')').append(this.buildJasminTypeDescriptor(instruction.getReturnType(), reports));
+                this.emit(new JvmInstruction.Invoke("invokespecial", objectName,
+                        methodName.getLiteral().replaceAll("\"", ""), this.buildInvokeDescriptor(instruction, reports)));
 
                 if (instruction.getReturnType().getTypeOfElement() == ElementType.VOID) {
                     stackSizeVariation.getAndDecrement();
@@ -486,7 +443,7 @@ public class Backend implements JasminBackend {
 
                 // load args
                 instruction.getListOfOperands().forEach((arg) -> {
-                    sb.append('\t').append(this.buildJasminLoadElementInstruction(arg, varTable, reports)).append('\n');
+                    this.emitLoadElementInstruction(arg, varTable, reports);
                     stackSizeVariation.getAndIncrement();
                 });
 
@@ -495,14 +452,8 @@ public class Backend implements JasminBackend {
                     className = ((ClassType) calledObject.getType()).getName();
                 }
 
-                sb.append('\t').append("invokestatic ").append(className).append('/').append(methodName.getLiteral().replaceAll("\"", "")).append('(');
-
-                instruction.getListOfOperands().forEach((op) -> {
-                    var opType = this.buildJasminTypeDescriptor(op.getType(), reports);
-                    sb.append(opType);
-                });
-
-                sb.append(')').append(this.buildJasminTypeDescriptor(instruction.getReturnType(), reports));
+                this.emit(new JvmInstruction.Invoke("invokestatic", className,
+                        methodName.getLiteral().replaceAll("\"", ""), this.buildInvokeDescriptor(instruction, reports)));
 
                 if (instruction.getReturnType().getTypeOfElement() == ElementType.VOID) {
                     stackSizeVariation.getAndDecrement();
@@ -513,29 +464,26 @@ public class Backend implements JasminBackend {
 
                 var className = objectClass.getName();
 
-                sb.append('\t');
                 if ("array".equals(className)) {
 
                     // there should only be one other operand, the array size. Load it and assume this is ok
                     var sizeOperand = instruction.getListOfOperands().get(0);
-                    sb.append(this.buildJasminLoadElementInstruction(sizeOperand, varTable, reports)).append('\n');
+                    this.emitLoadElementInstruction(sizeOperand, varTable, reports);
 
-                    sb.append("\tnewarray").append(' ');
                     var elementType = ((ArrayType) instruction.getReturnType()).getElementType().getTypeOfElement();
 
                     if (elementType == ElementType.INT32) {
-                        sb.append("int");
+                        this.emit(new JvmInstruction.TypeInstruction("newarray", "int"));
                     } else {
                         reports.add(Report.newWarn(Stage.GENERATION, -1, -1, "Only int arrays are supported", new Exception("Only int arrays are supported")));
-                        return "";
+                        return;
                     }
                 } else {
-                    sb.append("new ").append(className);
+                    this.emit(new JvmInstruction.TypeInstruction("new", className));
                     this.changeCurrentMethodStackSizeLimit(1);
                 }
 
-                sb.append('\n');
-                sb.append("\tdup");
+                this.emit(new JvmInstruction.Simple("dup"));
 
                 this.changeCurrentMethodStackSizeLimit(1);
 
@@ -544,180 +492,158 @@ public class Backend implements JasminBackend {
                 Operand op = (Operand) instruction.getFirstArg();
 
                 // load the object reference onto the stack
-                sb.append('\t').append(this.buildJasminLoadOperandInstruction(op, varTable, reports)).append('\n');
+                this.emitLoadOperandInstruction(op, varTable, reports);
 
-                sb.append("\tarraylength");
+                this.emit(new JvmInstruction.Simple("arraylength"));
 
             }
             case ldc -> {
                 var literal = (LiteralElement) instruction.getFirstArg();
 
-                sb.append('\t').append(this.buildJasminLoadLiteralInstruction(literal, varTable, reports));
+                this.emitLoadLiteralInstruction(literal, varTable, reports);
             }
         }
 
         this.changeCurrentMethodStackSizeLimit(-stackSizeVariation.get());
-
-        return sb.toString();
     }
 
-    private String buildJasminGotoInstruction(GotoInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
-        return "\tgoto " + instruction.getLabel();
+    private void emitGotoInstruction(GotoInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
+        this.emit(new JvmInstruction.Jump("goto", instruction.getLabel()));
     }
 
-    private String buildJasminBranchInstruction(CondBranchInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
-
-        var sb = new StringBuilder();
+    private void emitBranchInstruction(CondBranchInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
 
         var cond = instruction.getCondition();
 
-        var inst = switch (cond.getInstType()) {
+        if (cond instanceof BinaryOpInstruction comparison && this.emitCompareAndJump(comparison, instruction.getLabel(), varTable, reports))
+            return;
+
+        switch (cond.getInstType()) {
             case UNARYOPER ->
-                    this.buildJasminUnaryOperatorInstruction((UnaryOpInstruction) cond, varTable, reports) + " "; // negated boolean
+                    this.emitUnaryOperatorInstruction((UnaryOpInstruction) cond, varTable, reports); // negated boolean
             case BINARYOPER ->
-                    this.buildJasminBinaryOperatorInstruction((BinaryOpInstruction) cond, varTable, reports) + " "; // conditional expression
+                    this.emitBinaryOperatorInstruction((BinaryOpInstruction) cond, varTable, reports); // conditional expression
             case NOPER ->
-                    this.buildJasminSingleOpInstruction((SingleOpInstruction) cond, varTable, reports); // direct boolean
-            default -> "nop ; this should have been an expression instruction\n\t";
-        };
-
-        sb.append(inst);
+                    this.emitSingleOpInstruction((SingleOpInstruction) cond, varTable, reports); // direct boolean
+            default -> this.emit(new JvmInstruction.Simple("nop")); // this should have been an expression instruction
+        }
 
         if (!this.conditionalOptimized) {
-            sb.append("\n\t").append("ifne");
+            this.emit(new JvmInstruction.Jump("ifne", instruction.getLabel()));
         } else {
+            // the condition already ends with the jump, which only lacks its target
+            var jump = (JvmInstruction.Jump) this.code.remove(this.code.size() - 1);
+            this.emit(jump.withLabel(instruction.getLabel()));
             this.conditionalOptimized = false;
         }
+    }
 
-        sb.append(' ').append(instruction.getLabel());
+    /**
+     * Emits a comparison that is the condition of a branch as a single jump, without materializing its boolean result.
+     *
+     * @return whether the comparison was emitted, which it isn't if the condition is not a comparison
+     */
+    private boolean emitCompareAndJump(BinaryOpInstruction comparison, String label, HashMap<String, Descriptor> varTable, List<Report> reports) {
+
+        var suffix = switch (comparison.getOperation().getOpType()) {
+            case LTH -> "lt";
+            case GTH -> "gt";
+            case EQ -> "eq";
+            case NEQ -> "ne";
+            case LTE -> "le";
+            case GTE -> "ge";
+            default -> null;
+        };
+        if (suffix == null) return false;
 
-        return sb.toString();
-    }
+        this.emitLoadElementInstruction(comparison.getLeftOperand(), varTable, reports);
+
+        if (comparison.getRightOperand() instanceof LiteralElement literal && literal.getType().getTypeOfElement() == ElementType.INT32 && Integer.parseInt(literal.getLiteral()) == 0) {
+            this.emit(new JvmInstruction.Jump("if" + suffix, label));
+            this.changeCurrentMethodStackSizeLimit(-1);
+        } else {
+            this.emitLoadElementInstruction(comparison.getRightOperand(), varTable, reports);
+            this.emit(new JvmInstruction.Jump("if_icmp" + suffix, label));
+            this.changeCurrentMethodStackSizeLimit(-2);
+        }
 
-    private String buildJasminReturnInstruction(ReturnInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
+        return true;
+    }
 
-        var sb = new StringBuilder();
+    private void emitReturnInstruction(ReturnInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
 
         if (instruction.hasReturnValue()) {
-            sb.append('\t');
-            sb.append(this.buildJasminLoadElementInstruction(instruction.getOperand(), varTable, reports));
-            sb.append('\n');
+            this.emitLoadElementInstruction(instruction.getOperand(), varTable, reports);
         }
 
-        sb.append('\t');
-        switch (instruction.getReturnType().getTypeOfElement()) {
-            case INT32:
-            case BOOLEAN:
-                sb.append('i');
-                break;
-            case ARRAYREF:
-            case OBJECTREF:
-            case STRING:
-            case THIS:
-            case CLASS:
-                sb.append('a');
-                break;
-            case VOID:
-                // Do nothing
-                break;
-        }
-        sb.append("return");
+        var prefix = switch (instruction.getReturnType().getTypeOfElement()) {
+            case INT32, BOOLEAN -> "i";
+            case ARRAYREF, OBJECTREF, STRING, THIS, CLASS -> "a";
+            case VOID -> "";
+        };
+        this.emit(new JvmInstruction.Simple(prefix + "return"));
         this.changeCurrentMethodStackSizeLimit(-1);
-
-        return sb.toString();
     }
 
-    private String buildJasminPutfieldOperation(PutFieldInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
-
-        var sb = new StringBuilder();
+    private void emitPutfieldOperation(PutFieldInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
 
         var firstOperand = (Operand) instruction.getFirstOperand();
         var secondOperand = (Operand) instruction.getSecondOperand();
 
-        sb.append('\t').append(this.buildJasminLoadOperandInstruction(firstOperand, varTable, reports)).append('\n');
-
-        sb.append('\t');
-        sb.append(this.buildJasminLoadElementInstruction(instruction.getThirdOperand(), varTable, reports));
-        sb.append('\n');
+        this.emitLoadOperandInstruction(firstOperand, varTable, reports);
 
-        sb.append("\tputfield ");
+        this.emitLoadElementInstruction(instruction.getThirdOperand(), varTable, reports);
 
         String className = ((ClassType) firstOperand.getType()).getName();
 
-        sb.append(className);
-        sb.append('/');
-
-        sb.append(secondOperand.getName());
-        sb.append(' ').append(this.buildJasminTypeDescriptor(secondOperand.getType(), reports));
+        this.emit(new JvmInstruction.FieldAccess("putfield", className, secondOperand.getName(),
+                this.buildTypeDescriptor(secondOperand.getType(), reports)));
 
         this.changeCurrentMethodStackSizeLimit(-2); // this is correct if we do not invoke this with array operands
-
-        return sb.toString();
     }
 
-    private String buildJasminGetfieldOperation(GetFieldInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
-        var sb = new StringBuilder();
+    private void emitGetfieldOperation(GetFieldInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
 
         var firstOperand = (Operand) instruction.getFirstOperand();
         var secondOperand = (Operand) instruction.getSecondOperand();
 
-        sb.append('\t').append(this.buildJasminLoadOperandInstruction(firstOperand, varTable, reports)).append('\n');
-
-        sb.append("\tgetfield ");
+        this.emitLoadOperandInstruction(firstOperand, varTable, reports);
 
         String className = ((ClassType) firstOperand.getType()).getName();
 
-        sb.append(className);
-        sb.append('/');
-
-        sb.append(secondOperand.getName());
-        sb.append(' ').append(this.buildJasminTypeDescriptor(instruction.getFieldType(), reports));
+        this.emit(new JvmInstruction.FieldAccess("getfield", className, secondOperand.getName(),
+                this.buildTypeDescriptor(instruction.getFieldType(), reports)));
 
         this.changeCurrentMethodStackSizeLimit(1);
-
-        return sb.toString();
     }
 
-    private String buildJasminUnaryOperatorInstruction(UnaryOpInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
-        var sb = new StringBuilder();
+    private void emitUnaryOperatorInstruction(UnaryOpInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
 
         Operation operation = instruction.getOperation();
 
-        var dType = switch (operation.getTypeInfo().getTypeOfElement()) {
-            case INT32, BOOLEAN -> "i";
-            case ARRAYREF, OBJECTREF, STRING, CLASS, THIS -> "a";
-            case VOID -> {
-                reports.add(Report.newWarn(Stage.GENERATION, -1, -1, "Cannot perform binary operation on void type", new Exception("Cannot perform binary operation on void type")));
-                yield "marker";
-            }
-        };
-        if ("marker".equals(dType)) return "";
+        if (this.typePrefix(operation.getTypeInfo(), "Cannot perform binary operation on void type", reports) == null)
+            return;
 
-        sb.append('\t');
-        sb.append(this.buildJasminLoadElementInstruction(instruction.getOperand(), varTable, reports));
-        sb.append('\n');
+        this.emitLoadElementInstruction(instruction.getOperand(), varTable, reports);
 
-        sb.append('\t');
         switch (operation.getOpType()) {
             default -> {
             }
-            case LTH -> sb.append("iflt");
-            case GTH -> sb.append("ifgt");
-            case EQ -> sb.append("ifeq");
-            case NEQ -> sb.append("ifne");
-            case LTE -> sb.append("ifle");
-            case GTE -> sb.append("ifge");
-            case NOT -> sb.append("not");
+            case LTH -> this.emit(new JvmInstruction.Jump("iflt", null));
+            case GTH -> this.emit(new JvmInstruction.Jump("ifgt", null));
+            case EQ -> this.emit(new JvmInstruction.Jump("ifeq", null));
+            case NEQ -> this.emit(new JvmInstruction.Jump("ifne", null));
+            case LTE -> this.emit(new JvmInstruction.Jump("ifle", null));
+            case GTE -> this.emit(new JvmInstruction.Jump("ifge", null));
+            case NOT -> this.emit(new JvmInstruction.Simple("not"));
             case NOTB -> {
-                sb.append(this.buildJasminIntegerPushInstruction(1)).append('\n');
-                sb.append("\tixor");
+                this.emit(this.buildIntegerPushInstruction(1));
+                this.emit(new JvmInstruction.Simple("ixor"));
             }
         }
-
-        return sb.toString();
     }
 
-    private boolean optimizeJasminBinaryOpInstruction(BinaryOpInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports, StringBuilder sb) {
+    private boolean optimizeBinaryOpInstruction(BinaryOpInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
 
         // if (!this.optimize) return false;
 
@@ -727,8 +653,9 @@ public class Backend implements JasminBackend {
             if (reg != this.assignmentRegister)
                 return false; // we can only use iinc if we are performing a "a++" kind of operation
 
-            sb.append("\tiinc ").append(reg).append(instruction.getOperation().getOpType() == OperationType.SUB ? " -" : " ").append(literal.getLiteral()).append('\n');
-            sb.append(this.buildJasminLoadOperandInstruction(op, varTable, reports));
+            var increment = (instruction.getOperation().getOpType() == OperationType.SUB ? -1 : 1) * Integer.parseInt(literal.getLiteral());
+            this.emit(new JvmInstruction.Iinc(reg, increment));
+            this.emitLoadOperandInstruction(op, varTable, reports);
 
             this.assignmentRegister = -1;
 
@@ -739,27 +666,28 @@ public class Backend implements JasminBackend {
             if (reg != this.assignmentRegister)
                 return false; // we can only use iinc if we are performing a "++a" kind of operation
 
-            sb.append("\tiinc ").append(reg).append(' ').append(literal.getLiteral()).append('\n');
-            sb.append(this.buildJasminLoadOperandInstruction(op, varTable, reports));
+            this.emit(new JvmInstruction.Iinc(reg, Integer.parseInt(literal.getLiteral())));
+            this.emitLoadOperandInstruction(op, varTable, reports);
 
             this.assignmentRegister = -1;
 
             return true;
         } else if (instruction.getOperation().getOpType() == OperationType.GTE && instruction.getLeftOperand() instanceof Operand op && op.getType().getTypeOfElement() == ElementType.INT32 && instruction.getRightOperand() instanceof LiteralElement literal && literal.getType().getTypeOfElement() == ElementType.INT32 && Integer.parseInt(literal.getLiteral()) == 0) { // a >= 0
-            sb.append('\t').append(this.buildJasminLoadOperandInstruction(op, varTable, new ArrayList<>())).append('\n');
-            sb.append("\tifge");
+            this.emitLoadOperandInstruction(op, varTable, new ArrayList<>());
+            this.emit(new JvmInstruction.Jump("ifge", null));
 
             this.conditionalOptimized = true;
 
             return true;
         } else if (instruction.getOperation().getOpType() == OperationType.LTH && instruction.getLeftOperand() instanceof Operand op && op.getType().getTypeOfElement() == ElementType.INT32 && instruction.getRightOperand() instanceof LiteralElement literal && literal.getType().getTypeOfElement() == ElementType.INT32 && Integer.parseInt(literal.getLiteral()) == 0) { // a < 0
 
-            String bodyLabel = "__comparison_if_body_iflt__" + this.currentConditional, afterLabel = "__comparison_after_iflt__" + this.currentConditional++;
+            int conditional = this.context.getNextConditional();
+            String bodyLabel = "__comparison_if_body_iflt__" + conditional, afterLabel = "__comparison_after_iflt__" + conditional;
 
-            sb.append('\t').append(this.buildJasminLoadOperandInstruction(op, varTable, new ArrayList<>())).append('\n');
-            sb.append("\tiflt ").append(bodyLabel).append('\n');
+            this.emitLoadOperandInstruction(op, varTable, new ArrayList<>());
+            this.emit(new JvmInstruction.Jump("iflt", bodyLabel));
 
-            sb.append(this.buildJasminBooleanResult(bodyLabel, afterLabel));
+            this.emitBooleanResult(bodyLabel, afterLabel);
 
             return true;
         }
@@ -767,118 +695,100 @@ public class Backend implements JasminBackend {
         return false;
     }
 
-    private String buildJasminBinaryArithmeticExpression(BinaryOpInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
-
-        var sb = new StringBuilder();
+    private void emitBinaryArithmeticExpression(BinaryOpInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
 
         var operation = instruction.getOperation();
 
         var opType = operation.getOpType();
-        var dType = switch (operation.getTypeInfo().getTypeOfElement()) {
-            case INT32, BOOLEAN -> "i";
-            case ARRAYREF, OBJECTREF, STRING, CLASS, THIS -> "a";
-            case VOID -> {
-                reports.add(Report.newWarn(Stage.GENERATION, -1, -1, "Cannot perform binary operation on void type", new Exception("Cannot perform binary operation on void type")));
-                yield "marker";
-            }
-        };
-        if ("marker".equals(dType)) return "";
+        var dType = this.typePrefix(operation.getTypeInfo(), "Cannot perform binary operation on void type", reports);
+        if (dType == null) return;
 
         switch (opType) {
 
-            case ADD -> sb.append(dType).append("add");
-            case SUB -> sb.append(dType).append("sub");
-            case MUL -> sb.append(dType).append("mul");
-            case DIV -> sb.append(dType).append("div");
+            case ADD -> this.emit(new JvmInstruction.Simple(dType + "add"));
+            case SUB -> this.emit(new JvmInstruction.Simple(dType + "sub"));
+            case MUL -> this.emit(new JvmInstruction.Simple(dType + "mul"));
+            case DIV -> this.emit(new JvmInstruction.Simple(dType + "div"));
             case SHR, SHL, SHRR -> {
                 reports.add(Report.newWarn(Stage.GENERATION, -1, -1, "Unsupported arithmetic operation", new Exception("Unsupported arithmetic operation")));
-                return "";
+                return;
             }
-            case XOR -> sb.append(dType).append("xor");
-            case AND, ANDB -> sb.append(dType).append("and");
-            case OR, ORB -> sb.append(dType).append("or");
+            case XOR -> this.emit(new JvmInstruction.Simple(dType + "xor"));
+            case AND, ANDB -> this.emit(new JvmInstruction.Simple(dType + "and"));
+            case OR, ORB -> this.emit(new JvmInstruction.Simple(dType + "or"));
             default -> {
                 reports.add(Report.newWarn(Stage.GENERATION, -1, -1, "Invalid arithmetic operation", new Exception("Invalid arithmetic operation")));
-                return "";
+                return;
             }
         }
         this.changeCurrentMethodStackSizeLimit(-1);
-
-        return sb.toString();
     }
 
-    private String buildJasminBinaryConditionalExpression(BinaryOpInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
-
-        var sb = new StringBuilder();
+    private void emitBinaryConditionalExpression(BinaryOpInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
 
         var opType = instruction.getOperation().getOpType();
 
-        String bodyLabel = "__comparison_if_body__" + this.currentConditional, afterLabel = "__comparison_after__" + this.currentConditional++;
-        switch (opType) {
-            case LTH -> sb.append("if_icmplt ");
-            case GTH -> sb.append("if_icmpgt ");
-            case EQ -> sb.append("if_icmpeq ");
-            case NEQ -> sb.append("if_icmpne ");
-            case LTE -> sb.append("if_icmple ");
-            case GTE -> sb.append("if_icmpge ");
-            case NOTB -> sb.append("ifle"); // bruh
-            case NOT -> sb.append("not"); // bruh
+        int conditional = this.context.getNextConditional();
+        String bodyLabel = "__comparison_if_body__" + conditional, afterLabel = "__comparison_after__" + conditional;
+        var jump = switch (opType) {
+            case LTH -> "if_icmplt";
+            case GTH -> "if_icmpgt";
+            case EQ -> "if_icmpeq";
+            case NEQ -> "if_icmpne";
+            case LTE -> "if_icmple";
+            case GTE -> "if_icmpge";
+            case NOTB -> "ifle"; // bruh
+            case NOT -> "not"; // bruh
             default -> {
                 reports.add(Report.newWarn(Stage.GENERATION, -1, -1, "Unknown conditional operator: " + opType.name(), new Exception("Unknown conditional operator: " + opType.name())));
-                return "";
+                yield null;
             }
-        }
-        this.changeCurrentMethodStackSizeLimit(-2);
-        sb.append(bodyLabel).append('\n');
+        };
+        if (jump == null) return;
 
-        sb.append(this.buildJasminBooleanResult(bodyLabel, afterLabel));
+        this.emit(new JvmInstruction.Jump(jump, bodyLabel));
+        this.changeCurrentMethodStackSizeLimit(-2);
 
-        return sb.toString();
+        this.emitBooleanResult(bodyLabel, afterLabel);
     }
 
-    private String buildJasminBooleanResult(String bodyLabel, String afterLabel) {
+    private void emitBooleanResult(String bodyLabel, String afterLabel) {
         this.changeCurrentMethodStackSizeLimit(1);
-        return '\t' + this.buildJasminIntegerPushInstruction(0) + '\n' + '\t' + "goto " + afterLabel + '\n' + bodyLabel + ":\n" + '\t' + this.buildJasminIntegerPushInstruction(1) + '\n' + afterLabel + ':';
+        this.emit(this.buildIntegerPushInstruction(0));
+        this.emit(new JvmInstruction.Jump("goto", afterLabel));
+        this.emit(new JvmInstruction.Label(bodyLabel));
+        this.emit(this.buildIntegerPushInstruction(1));
+        this.emit(new JvmInstruction.Label(afterLabel));
     }
 
-    private String buildJasminBinaryOperatorInstruction(BinaryOpInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
-
-        var sb = new StringBuilder();
+    private void emitBinaryOperatorInstruction(BinaryOpInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
 
         var operation = instruction.getOperation();
 
-        if (!this.optimizeJasminBinaryOpInstruction(instruction, varTable, reports, sb)) {
-            sb.append('\t');
-            sb.append(this.buildJasminLoadElementInstruction(instruction.getLeftOperand(), varTable, reports));
-            sb.append('\n');
+        if (!this.optimizeBinaryOpInstruction(instruction, varTable, reports)) {
+            this.emitLoadElementInstruction(instruction.getLeftOperand(), varTable, reports);
 
-            sb.append('\t');
-            sb.append(this.buildJasminLoadElementInstruction(instruction.getRightOperand(), varTable, reports));
-            sb.append('\n');
-
-            sb.append('\t');
+            this.emitLoadElementInstruction(instruction.getRightOperand(), varTable, reports);
 
             switch (operation.getOpType()) {
                 case ADD, SUB, MUL, DIV, SHR, SHL, SHRR, XOR, AND, ANDB, OR, ORB ->
-                        sb.append(this.buildJasminBinaryArithmeticExpression(instruction, varTable, reports));
+                        this.emitBinaryArithmeticExpression(instruction, varTable, reports);
                 case LTH, GTH, EQ, NEQ, LTE, GTE, NOTB, NOT ->
-                        sb.append(this.buildJasminBinaryConditionalExpression(instruction, varTable, reports));
+                        this.emitBinaryConditionalExpression(instruction, varTable, reports);
             }
 
             this.changeCurrentMethodStackSizeLimit(-1);
         }
-
-        return sb.toString();
     }
 
-    private String buildJasminSingleOpInstruction(SingleOpInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
-        return '\t' + this.buildJasminLoadElementInstruction(instruction.getSingleOperand(), varTable, reports);
+    private void emitSingleOpInstruction(SingleOpInstruction instruction, HashMap<String, Descriptor> varTable, List<Report> reports) {
+        this.emitLoadElementInstruction(instruction.getSingleOperand(), varTable, reports);
     }
 
-    private String buildJasminTypeDescriptor(Type type, List<Report> reports) {
+    private String buildTypeDescriptor(Type type, List<Report> reports) {
         return switch (type.getTypeOfElement()) {
-            case ARRAYREF -> this.buildJasminArrayTypeDescriptor((ArrayType) type, reports);
-            case OBJECTREF, CLASS, THIS -> this.buildJasminClassTypeDescriptor((ClassType) type, reports);
+            case ARRAYREF -> this.buildArrayTypeDescriptor((ArrayType) type, reports);
+            case OBJECTREF, CLASS, THIS -> this.buildClassTypeDescriptor((ClassType) type, reports);
             case INT32 -> "I";
             case BOOLEAN -> "Z";
             case STRING -> "Ljava/lang/String;";
@@ -886,14 +796,22 @@ public class Backend implements JasminBackend {
         };
     }
 
-    private String buildJasminArrayTypeDescriptor(ArrayType type, List<Report> reports) {
-        return "[".repeat(Math.max(0, type.getNumDimensions())) + this.buildJasminTypeDescriptor(type.getElementType(), reports);
+    private String buildArrayTypeDescriptor(ArrayType type, List<Report> reports) {
+        return "[".repeat(Math.max(0, type.getNumDimensions())) + this.buildTypeDescriptor(type.getElementType(), reports);
     }
 
-    private String buildJasminClassTypeDescriptor(ClassType type, List<Report> reports) {
+    private String buildClassTypeDescriptor(ClassType type, List<Report> reports) {
         return "L" + type.getName() + ";";
     }
 
+    private void resetMethodState() {
+        this.code = new ArrayList<>();
+        this.currentMethodStackSize = Backend.DEFAULT_METHOD_STACK_SIZE;
+        this.currentMethodStackSizeLimit = Backend.DEFAULT_METHOD_STACK_SIZE;
+        this.conditionalOptimized = false;
+        this.assignmentRegister = -1;
+    }
+
     private void changeCurrentMethodStackSizeLimit(int variation) {
         this.currentMethodStackSize += variation;
         this.currentMethodStackSizeLimit = Math.max(this.currentMethodStackSizeLimit, this.currentMethodStackSize);
@@ -0,0 +1,134 @@
+package pt.up.fe.comp2023.backend;
+
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.StageResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The class file generated for a class, written by {@link ClassFileWriter} when first needed.
+ * <p>
+ * Its Jasmin code is only a debug artifact, printed on demand. A result loaded from the build cache has no
+ * {@link JvmClass}, only the class file and, if it was stored, the Jasmin code.
+ */
+public class ClassFileResult implements StageResult {
+
+    /**
+     * The time {@link #run()} and {@link #run(String)} give a program. A program still running after that is left running
+     * in the background, and once {@link ClassRunner#MAX_RUNAWAY_THREADS} such programs are, further runs fail until
+     * some of them end.
+     */
+    private static final long TIMEOUT_MS = 5_000;
+
+    private final String className;
+    private final JvmClass jvmClass;
+    private final List<Report> reports;
+    private final Map<String, String> config;
+    private byte[] classFile;
+    private String jasminCode;
+
+    public ClassFileResult(JvmClass jvmClass, List<Report> reports, Map<String, String> config) {
+        this.className = jvmClass == null ? null : jvmClass.name();
+        this.jvmClass = jvmClass;
+        this.reports = reports;
+        this.config = config;
+    }
+
+    public ClassFileResult(String className, byte[] classFile, String jasminCode, List<Report> reports, Map<String, String> config) {
+        this.className = className;
+        this.jvmClass = null;
+        this.classFile = classFile;
+        this.jasminCode = jasminCode;
+        this.reports = reports;
+        this.config = config;
+    }
+
+    public String getClassName() {
+        return this.className;
+    }
+
+    /**
+     * @return the generated code, or `null` if this result was loaded from the build cache
+     */
+    public JvmClass getJvmClass() {
+        return this.jvmClass;
+    }
+
+    public synchronized byte[] getClassFile() {
+        if (this.classFile == null)
+            this.classFile = ClassFileWriter.write(this.jvmClass);
+
+        return this.classFile;
+    }
+
+    /**
+     * @return the class as Jasmin assembly, or `null` if this result was loaded from the build cache without it
+     */
+    public synchronized String getJasminCode() {
+        if (this.jasminCode == null && this.jvmClass != null)
+            this.jasminCode = this.jvmClass.toJasmin();
+
+        return this.jasminCode;
+    }
+
+    @Override
+    public List<Report> getReports() {
+        return this.reports;
+    }
+
+    @Override
+    public Map<String, String> getConfig() {
+        return this.config;
+    }
+
+    /**
+     * Writes the class file to `outputDir`.
+     *
+     * @return the class file
+     */
+    public File write(File outputDir) {
+        var file = new File(outputDir, this.className + ".class");
+
+        try {
+            Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+            Files.write(file.toPath(), this.getClassFile());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write class file '" + file + "'", e);
+        }
+
+        return file;
+    }
+
+    /**
+     * Runs the class in this JVM, with the compiled Java-- libraries available and no input.
+     *
+     * @return the output printed by the program, followed by its errors
+     */
+    public String run() {
+        return this.run("");
+    }
+
+    /**
+     * Runs the class in this JVM, with the compiled Java-- libraries available and `input` as its standard input.
+     *
+     * @return the output printed by the program, followed by its errors
+     */
+    public String run(String input) {
+        return ClassRunner.getLibsRunner().run(this.className, this.getClassFile(), input, TIMEOUT_MS);
+    }
+
+    /**
+     * Runs the class in this JVM until it ends, reading its standard input from `in` and writing its output to `out`
+     * and its errors to `err`.
+     */
+    public void run(InputStream in, PrintStream out, PrintStream err) {
+        ClassRunner.getLibsRunner().run(this.className, this.getClassFile(), in, out, err, 0);
+    }
+}
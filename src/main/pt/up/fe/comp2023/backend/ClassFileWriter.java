@@ -0,0 +1,489 @@
+package pt.up.fe.comp2023.backend;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * Writes a {@link JvmClass} as a class file, without going through Jasmin assembly.
+ * <p>
+ * Class files are written with version 49 (Java 5), like the Jasmin assembler does, so the JVM verifies them by type
+ * inference and they need no `StackMapTable`. Each method is assembled in two passes: the first lays out the code and
+ * finds the offset of every label, and the second writes it.
+ */
+public class ClassFileWriter {
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int MAJOR_VERSION = 49;
+
+    private static final int ACC_SUPER = 0x0020;
+    private static final Map<String, Integer> ACCESS_FLAGS = Map.of(
+            "public", 0x0001,
+            "private", 0x0002,
+            "protected", 0x0004,
+            "static", 0x0008,
+            "final", 0x0010);
+
+    private static final Map<String, Integer> OPCODES = new HashMap<>();
+    private static final int WIDE = 0xc4;
+    private static final int LDC_W = 0x13;
+    private static final int T_INT = 10;
+
+    static {
+        String[] simple = {
+                "nop", "aconst_null", "iconst_m1", "iconst_0", "iconst_1", "iconst_2", "iconst_3", "iconst_4", "iconst_5"
+        };
+        for (int i = 0; i < simple.length; ++i)
+            OPCODES.put(simple[i], i);
+
+        OPCODES.putAll(Map.of("bipush", 0x10, "sipush", 0x11, "ldc", 0x12, "iload", 0x15, "aload", 0x19,
+                "iaload", 0x2e, "aaload", 0x32, "istore", 0x36, "astore", 0x3a, "iastore", 0x4f));
+        OPCODES.putAll(Map.of("aastore", 0x53, "pop", 0x57, "dup", 0x59, "iadd", 0x60, "isub", 0x64, "imul", 0x68,
+                "idiv", 0x6c, "irem", 0x70, "ineg", 0x74, "iand", 0x7e));
+        OPCODES.putAll(Map.of("ior", 0x80, "ixor", 0x82, "iinc", 0x84, "ifeq", 0x99, "ifne", 0x9a, "iflt", 0x9b,
+                "ifge", 0x9c, "ifgt", 0x9d, "ifle", 0x9e, "if_icmpeq", 0x9f));
+        OPCODES.putAll(Map.of("if_icmpne", 0xa0, "if_icmplt", 0xa1, "if_icmpge", 0xa2, "if_icmpgt", 0xa3,
+                "if_icmple", 0xa4, "goto", 0xa7, "ireturn", 0xac, "areturn", 0xb0, "return", 0xb1, "getfield", 0xb4));
+        OPCODES.putAll(Map.of("putfield", 0xb5, "invokevirtual", 0xb6, "invokespecial", 0xb7, "invokestatic", 0xb8,
+                "new", 0xbb, "newarray", 0xbc, "arraylength", 0xbe));
+    }
+
+    private final ConstantPool constantPool = new ConstantPool();
+
+    public static byte[] write(JvmClass jvmClass) {
+        return new ClassFileWriter().writeClass(jvmClass);
+    }
+
+    private byte[] writeClass(JvmClass jvmClass) {
+        // The constant pool comes first in the file but is filled while writing the rest
+        var body = new Output();
+
+        body.u2(accessFlags(jvmClass.modifiers()) | ACC_SUPER);
+        body.u2(constantPool.classRef(jvmClass.name()));
+        body.u2(constantPool.classRef(jvmClass.superName()));
+        body.u2(0);
+
+        body.u2(jvmClass.fields().size());
+        for (var field : jvmClass.fields())
+            writeField(field, body);
+
+        body.u2(jvmClass.methods().size());
+        for (var method : jvmClass.methods())
+            writeMethod(method, body);
+
+        if (jvmClass.sourceFile() != null) {
+            body.u2(1);
+            body.u2(constantPool.utf8("SourceFile"));
+            body.u4(2);
+            body.u2(constantPool.utf8(jvmClass.sourceFile()));
+        } else {
+            body.u2(0);
+        }
+
+        var out = new Output();
+        out.u4(MAGIC);
+        out.u2(0);
+        out.u2(MAJOR_VERSION);
+        constantPool.write(out);
+        out.bytes(body.toByteArray());
+
+        return out.toByteArray();
+    }
+
+    private static int accessFlags(List<String> modifiers) {
+        var flags = 0;
+
+        for (var modifier : modifiers) {
+            if (!ACCESS_FLAGS.containsKey(modifier))
+                throw new RuntimeException("Unknown modifier '" + modifier + "'");
+
+            flags |= ACCESS_FLAGS.get(modifier);
+        }
+
+        return flags;
+    }
+
+    private void writeField(JvmClass.Field field, Output out) {
+        out.u2(accessFlags(field.modifiers()));
+        out.u2(constantPool.utf8(field.name()));
+        out.u2(constantPool.utf8(field.descriptor()));
+
+        if (field.initialValue() == null) {
+            out.u2(0);
+            return;
+        }
+
+        var value = field.descriptor().equals("Ljava/lang/String;")
+                ? constantPool.string(unquote(field.initialValue()))
+                : constantPool.integer(Integer.parseInt(field.initialValue()));
+
+        out.u2(1);
+        out.u2(constantPool.utf8("ConstantValue"));
+        out.u4(2);
+        out.u2(value);
+    }
+
+    private void writeMethod(JvmClass.Method method, Output out) {
+        var code = assemble(method);
+
+        out.u2(accessFlags(method.modifiers()));
+        out.u2(constantPool.utf8(method.name()));
+        out.u2(constantPool.utf8(method.descriptor()));
+
+        out.u2(1);
+        out.u2(constantPool.utf8("Code"));
+        out.u4(12 + code.length);
+        out.u2(method.maxStack());
+        out.u2(method.maxLocals());
+        out.u4(code.length);
+        out.bytes(code);
+        out.u2(0); // exception table
+        out.u2(0); // attributes
+    }
+
+    private byte[] assemble(JvmClass.Method method) {
+        var code = method.code();
+        var offsets = new int[code.size() + 1];
+        Map<String, Integer> labels = new HashMap<>();
+
+        for (int i = 0; i < code.size(); ++i) {
+            var instruction = code.get(i);
+
+            if (instruction instanceof JvmInstruction.Label label)
+                labels.put(label.name(), offsets[i]);
+
+            offsets[i + 1] = offsets[i] + size(instruction);
+        }
+
+        var out = new Output();
+        for (int i = 0; i < code.size(); ++i)
+            writeInstruction(code.get(i), offsets[i], labels, out, method);
+
+        return out.toByteArray();
+    }
+
+    private static int opcode(JvmInstruction instruction) {
+        var opcode = OPCODES.get(instruction.opcode());
+
+        if (opcode == null)
+            throw new RuntimeException("Unknown instruction '" + instruction.toJasmin() + "'");
+
+        return opcode;
+    }
+
+    private static boolean isWide(int value) {
+        return value > 255;
+    }
+
+    private int size(JvmInstruction instruction) {
+        if (instruction instanceof JvmInstruction.Label)
+            return 0;
+        if (instruction instanceof JvmInstruction.Simple)
+            return 1;
+        if (instruction instanceof JvmInstruction.Local local)
+            return local.register() < 4 ? 1 : isWide(local.register()) ? 4 : 2;
+        if (instruction instanceof JvmInstruction.Push push)
+            return push.opcode().equals("bipush") ? 2 : 3;
+        if (instruction instanceof JvmInstruction.Ldc ldc)
+            return isWide(constant(ldc)) ? 3 : 2;
+        if (instruction instanceof JvmInstruction.Iinc iinc)
+            return isWideIinc(iinc) ? 6 : 3;
+        if (instruction instanceof JvmInstruction.TypeInstruction type && type.opcode().equals("newarray"))
+            return 2;
+
+        // Jumps, invocations, field accesses and new
+        return 3;
+    }
+
+    private static boolean isWideIinc(JvmInstruction.Iinc iinc) {
+        return isWide(iinc.register()) || iinc.increment() != (byte) iinc.increment();
+    }
+
+    private int constant(JvmInstruction.Ldc ldc) {
+        if (ldc.constant() instanceof Integer value)
+            return constantPool.integer(value);
+
+        return constantPool.string(unquote(ldc.constant().toString()));
+    }
+
+    private void writeInstruction(JvmInstruction instruction, int offset, Map<String, Integer> labels, Output out,
+                                  JvmClass.Method method) {
+        if (instruction instanceof JvmInstruction.Label)
+            return;
+
+        if (instruction instanceof JvmInstruction.Simple) {
+            out.u1(opcode(instruction));
+        } else if (instruction instanceof JvmInstruction.Local local) {
+            var register = local.register();
+            var opcode = opcode(local);
+
+            if (register < 4) {
+                // iload_0 and the like come in groups of four, one group per opcode
+                var base = switch (local.opcode()) {
+                    case "iload" -> 0x1a;
+                    case "aload" -> 0x2a;
+                    case "istore" -> 0x3b;
+                    default -> 0x4b;
+                };
+                out.u1(base + register);
+            } else if (isWide(register)) {
+                out.u1(WIDE);
+                out.u1(opcode);
+                out.u2(register);
+            } else {
+                out.u1(opcode);
+                out.u1(register);
+            }
+        } else if (instruction instanceof JvmInstruction.Push push) {
+            out.u1(opcode(push));
+            if (push.opcode().equals("bipush"))
+                out.u1(push.value());
+            else
+                out.u2(push.value());
+        } else if (instruction instanceof JvmInstruction.Ldc ldc) {
+            var index = constant(ldc);
+            if (isWide(index)) {
+                out.u1(LDC_W);
+                out.u2(index);
+            } else {
+                out.u1(opcode(ldc));
+                out.u1(index);
+            }
+        } else if (instruction instanceof JvmInstruction.Iinc iinc) {
+            if (isWideIinc(iinc)) {
+                out.u1(WIDE);
+                out.u1(opcode(iinc));
+                out.u2(iinc.register());
+                out.u2(iinc.increment());
+            } else {
+                out.u1(opcode(iinc));
+                out.u1(iinc.register());
+                out.u1(iinc.increment());
+            }
+        } else if (instruction instanceof JvmInstruction.Jump jump) {
+            var target = labels.get(jump.label());
+            if (target == null)
+                throw new RuntimeException("Undefined label '" + jump.label() + "' in method " + method.name());
+
+            var branch = target - offset;
+            if (branch != (short) branch)
+                throw new RuntimeException("Branch to '" + jump.label() + "' in method " + method.name() + " is too far");
+
+            out.u1(opcode(jump));
+            out.u2(branch);
+        } else if (instruction instanceof JvmInstruction.Invoke invoke) {
+            out.u1(opcode(invoke));
+            out.u2(constantPool.methodRef(invoke.owner(), invoke.name(), invoke.descriptor()));
+        } else if (instruction instanceof JvmInstruction.FieldAccess access) {
+            out.u1(opcode(access));
+            out.u2(constantPool.fieldRef(access.owner(), access.name(), access.descriptor()));
+        } else if (instruction instanceof JvmInstruction.TypeInstruction type) {
+            out.u1(opcode(type));
+
+            if (!type.opcode().equals("newarray"))
+                out.u2(constantPool.classRef(type.type()));
+            else if (type.type().equals("int"))
+                out.u1(T_INT);
+            else
+                throw new RuntimeException("Unsupported array type '" + type.type() + "'");
+        }
+    }
+
+    /**
+     * @return the value of a string literal in quotes, with its escape sequences replaced as in Java, where `\s` is a
+     * space, `\\uXXXX` a UTF-16 code unit and an octal escape has up to three digits if the first is at most 3
+     */
+    private static String unquote(String literal) {
+        if (literal.length() < 2 || !literal.startsWith("\"") || !literal.endsWith("\""))
+            return literal;
+
+        var sb = new StringBuilder();
+        var end = literal.length() - 1;
+
+        for (int i = 1; i < end; ++i) {
+            var c = literal.charAt(i);
+
+            if (c != '\\' || i + 1 >= end) {
+                sb.append(c);
+                continue;
+            }
+
+            c = literal.charAt(++i);
+
+            if (c == 'u' && i + 4 < end) {
+                sb.append((char) Integer.parseInt(literal.substring(i + 1, i + 5), 16));
+                i += 4;
+            } else if (isOctalDigit(c)) {
+                int value = c - '0';
+                int digits = c <= '3' ? 3 : 2;
+
+                for (int d = 1; d < digits && i + 1 < end && isOctalDigit(literal.charAt(i + 1)); ++d)
+                    value = value * 8 + literal.charAt(++i) - '0';
+
+                sb.append((char) value);
+            } else {
+                sb.append(switch (c) {
+                    case 't' -> '\t';
+                    case 'b' -> '\b';
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    case 'f' -> '\f';
+                    case 's' -> ' ';
+                    default -> c;
+                });
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static boolean isOctalDigit(char c) {
+        return c >= '0' && c <= '7';
+    }
+
+    /**
+     * Constant pool of the class being written, where each constant is added once.
+     */
+    private static class ConstantPool {
+        private static final int UTF8 = 1;
+        private static final int INTEGER = 3;
+        private static final int CLASS = 7;
+        private static final int STRING = 8;
+        private static final int FIELD_REF = 9;
+        private static final int METHOD_REF = 10;
+        private static final int NAME_AND_TYPE = 12;
+
+        private final Output entries = new Output();
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private int count = 1;
+
+        private Integer find(int tag, String key) {
+            return indexes.get(tag + ":" + key);
+        }
+
+        private int add(int tag, String key) {
+            indexes.put(tag + ":" + key, count);
+            return count++;
+        }
+
+        int utf8(String value) {
+            var index = find(UTF8, value);
+            if (index != null)
+                return index;
+
+            entries.u1(UTF8);
+            entries.utf(value);
+            return add(UTF8, value);
+        }
+
+        int integer(int value) {
+            var index = find(INTEGER, String.valueOf(value));
+            if (index != null)
+                return index;
+
+            entries.u1(INTEGER);
+            entries.u4(value);
+            return add(INTEGER, String.valueOf(value));
+        }
+
+        int classRef(String name) {
+            var internalName = name.replace('.', '/');
+            var index = find(CLASS, internalName);
+            if (index != null)
+                return index;
+
+            var nameIndex = utf8(internalName);
+            entries.u1(CLASS);
+            entries.u2(nameIndex);
+            return add(CLASS, internalName);
+        }
+
+        int string(String value) {
+            var index = find(STRING, value);
+            if (index != null)
+                return index;
+
+            var valueIndex = utf8(value);
+            entries.u1(STRING);
+            entries.u2(valueIndex);
+            return add(STRING, value);
+        }
+
+        private int nameAndType(String name, String descriptor) {
+            var key = name + ":" + descriptor;
+            var index = find(NAME_AND_TYPE, key);
+            if (index != null)
+                return index;
+
+            var nameIndex = utf8(name);
+            var descriptorIndex = utf8(descriptor);
+            entries.u1(NAME_AND_TYPE);
+            entries.u2(nameIndex);
+            entries.u2(descriptorIndex);
+            return add(NAME_AND_TYPE, key);
+        }
+
+        private int memberRef(int tag, String owner, String name, String descriptor) {
+            var key = owner + "." + name + ":" + descriptor;
+            var index = find(tag, key);
+            if (index != null)
+                return index;
+
+            var classIndex = classRef(owner);
+            var nameAndTypeIndex = nameAndType(name, descriptor);
+            entries.u1(tag);
+            entries.u2(classIndex);
+            entries.u2(nameAndTypeIndex);
+            return add(tag, key);
+        }
+
+        int fieldRef(String owner, String name, String descriptor) {
+            return memberRef(FIELD_REF, owner, name, descriptor);
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            return memberRef(METHOD_REF, owner, name, descriptor);
+        }
+
+        void write(Output out) {
+            out.u2(count);
+            out.bytes(entries.toByteArray());
+        }
+    }
+
+    private static class Output {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream data = new DataOutputStream(bytes);
+
+        void u1(int value) {
+            bytes.write(value);
+        }
+
+        void u2(int value) {
+            bytes.write(value >>> 8);
+            bytes.write(value);
+        }
+
+        void u4(int value) {
+            u2(value >>> 16);
+            u2(value);
+        }
+
+        void utf(String value) {
+            try {
+                data.writeUTF(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void bytes(byte[] value) {
+            bytes.writeBytes(value);
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
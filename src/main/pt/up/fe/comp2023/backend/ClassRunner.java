@@ -0,0 +1,339 @@
+package pt.up.fe.comp2023.backend;
+
+import pt.up.fe.comp.TestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs generated classes inside this JVM instead of starting a new one for each program.
+ * <p>
+ * Each run defines its class in a new {@link ClassLoader}, discarded when the run ends. The Java-- libraries are read
+ * once and shared by every run, but each loader defines its own copy of them: `io` only has package-private methods,
+ * which a class can only call from the same loader, and keeps the numbers it reads in static fields, which would
+ * otherwise carry over from one run to the next.
+ * <p>
+ * `System.in`, `System.out` and `System.err` are replaced by streams that forward to the input, output and error of the
+ * run the current thread belongs to, and to the original streams for every other thread, so several programs may run
+ * at once.
+ * <p>
+ * A program that does not finish within its timeout cannot be stopped safely, so its thread is left running without
+ * any input or output. Each runner keeps at most {@link #MAX_RUNAWAY_THREADS} of these threads alive, and refuses new
+ * runs until some of them end.
+ */
+public class ClassRunner {
+
+    /**
+     * The number of programs that timed out and are still running after which a runner refuses new runs.
+     */
+    public static final int MAX_RUNAWAY_THREADS = 4;
+
+    private static ClassRunner libsRunner;
+
+    private static final InheritableThreadLocal<RunStreams> RUN_STREAMS = new InheritableThreadLocal<>();
+    private static final AtomicInteger RUN_COUNTER = new AtomicInteger();
+
+    private static RoutingOutput routingOut;
+    private static RoutingOutput routingErr;
+    private static RoutingInput routingIn;
+
+    private final Map<String, byte[]> libraries;
+    private final int maxRunawayThreads;
+    private final Set<Thread> runawayThreads = new HashSet<>();
+
+    /**
+     * @param libraryDir a directory with the compiled classes the programs may use
+     */
+    public ClassRunner(File libraryDir) {
+        this(libraryDir, MAX_RUNAWAY_THREADS);
+    }
+
+    /**
+     * @param libraryDir        a directory with the compiled classes the programs may use
+     * @param maxRunawayThreads the number of programs that timed out and are still running after which new runs are
+     *                          refused
+     */
+    public ClassRunner(File libraryDir, int maxRunawayThreads) {
+        this.libraries = readLibraries(libraryDir);
+        this.maxRunawayThreads = maxRunawayThreads;
+    }
+
+    /**
+     * @return a runner for programs that use the Java-- libraries in {@link TestUtils#getLibsClasspath()}
+     */
+    public static synchronized ClassRunner getLibsRunner() {
+        if (libsRunner == null)
+            libsRunner = new ClassRunner(new File(TestUtils.getLibsClasspath()));
+
+        return libsRunner;
+    }
+
+    private static Map<String, byte[]> readLibraries(File libraryDir) {
+        var libraries = new HashMap<String, byte[]>();
+        var files = libraryDir.listFiles((dir, name) -> name.endsWith(".class"));
+
+        if (files == null)
+            return libraries;
+
+        for (var file : files) {
+            var name = file.getName().substring(0, file.getName().length() - ".class".length());
+
+            try {
+                libraries.put(name, Files.readAllBytes(file.toPath()));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read library class '" + file + "'", e);
+            }
+        }
+
+        return libraries;
+    }
+
+    /**
+     * Runs the main method of a class with `input` as its standard input.
+     *
+     * @param timeoutMs the time the program may take, or 0 to wait until it ends
+     * @return the output printed by the program, followed by what it printed to the standard error, as returned by
+     * {@link pt.up.fe.comp.jmm.jasmin.JasminResult#run()}
+     */
+    public String run(String className, byte[] classFile, String input, long timeoutMs) {
+        var output = new ByteArrayOutputStream();
+        var error = new ByteArrayOutputStream();
+        var in = new ByteArrayInputStream(input.getBytes());
+
+        this.run(className, classFile, in, new PrintStream(output, true), new PrintStream(error, true), timeoutMs);
+
+        var out = output.toString();
+        var err = error.toString();
+
+        if (err.isEmpty())
+            return out;
+
+        return out + (out.isEmpty() || out.endsWith("\n") ? "" : "\n") + err;
+    }
+
+    /**
+     * Runs the main method of a class, reading its standard input from `in` and writing its standard output to `out`
+     * and its standard error to `err`.
+     * <p>
+     * Like the `java` launcher, uncaught exceptions are printed to the standard error.
+     *
+     * @param timeoutMs the time the program may take, or 0 to wait until it ends
+     * @throws IllegalStateException if too many programs that timed out are still running
+     */
+    public void run(String className, byte[] classFile, InputStream in, PrintStream out, PrintStream err, long timeoutMs) {
+        this.checkRunawayThreads(className);
+        installStreams();
+
+        var streams = new RunStreams(routingIn.resolve(in), routingOut.resolve(out), routingErr.resolve(err));
+        var loader = new RunLoader(className, classFile, this.libraries);
+
+        var thread = new Thread(() -> {
+            RUN_STREAMS.set(streams);
+            try {
+                invokeMain(loader, className);
+            } finally {
+                streams.out.flush();
+                streams.err.flush();
+            }
+        }, "jmm-run-" + RUN_COUNTER.incrementAndGet() + "-" + className);
+
+        thread.setDaemon(true);
+        thread.start();
+
+        try {
+            thread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (thread.isAlive()) {
+            // The thread cannot be stopped safely, so it is left to run without any input or output
+            streams.detach();
+            thread.interrupt();
+            this.addRunawayThread(thread);
+            throw new RuntimeException("Program " + className + " did not finish within " + timeoutMs + " ms");
+        }
+    }
+
+    private synchronized void checkRunawayThreads(String className) {
+        this.runawayThreads.removeIf(thread -> !thread.isAlive());
+
+        if (this.runawayThreads.size() >= this.maxRunawayThreads)
+            throw new IllegalStateException("Cannot run program " + className + ": " + this.runawayThreads.size()
+                    + " programs that timed out are still running");
+    }
+
+    private synchronized void addRunawayThread(Thread thread) {
+        this.runawayThreads.add(thread);
+    }
+
+    private static void invokeMain(ClassLoader loader, String className) {
+        try {
+            var main = loader.loadClass(className).getMethod("main", String[].class);
+
+            if (!Modifier.isStatic(main.getModifiers()))
+                throw new NoSuchMethodException("main");
+
+            main.invoke(null, (Object) new String[0]);
+        } catch (NoSuchMethodException e) {
+            System.err.println("Error: Main method not found in class " + className);
+        } catch (InvocationTargetException e) {
+            System.err.print("Exception in thread \"main\" ");
+            e.getCause().printStackTrace();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            System.err.println("Error: Could not load class " + className);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Replaces `System.in`, `System.out` and `System.err` by the routing streams, unless some other code replaced them
+     * since.
+     */
+    private static synchronized void installStreams() {
+        if (System.out != routingOut) {
+            routingOut = new RoutingOutput(System.out, streams -> streams.out);
+            System.setOut(routingOut);
+        }
+
+        if (System.err != routingErr) {
+            routingErr = new RoutingOutput(System.err, streams -> streams.err);
+            System.setErr(routingErr);
+        }
+
+        if (System.in != routingIn) {
+            routingIn = new RoutingInput(System.in);
+            System.setIn(routingIn);
+        }
+    }
+
+    private static class RunStreams {
+        private final InputStream in;
+        private final PrintStream out;
+        private final PrintStream err;
+        private volatile boolean detached;
+
+        private RunStreams(InputStream in, PrintStream out, PrintStream err) {
+            this.in = in;
+            this.out = out;
+            this.err = err;
+        }
+
+        private void detach() {
+            this.detached = true;
+        }
+    }
+
+    private static class RunLoader extends ClassLoader {
+        private final String className;
+        private final byte[] classFile;
+        private final Map<String, byte[]> libraries;
+
+        private RunLoader(String className, byte[] classFile, Map<String, byte[]> libraries) {
+            super("jmm-run", ClassLoader.getPlatformClassLoader());
+            this.className = className;
+            this.classFile = classFile;
+            this.libraries = libraries;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            var bytes = name.equals(this.className) ? this.classFile : this.libraries.get(name);
+
+            if (bytes == null)
+                throw new ClassNotFoundException(name);
+
+            return this.defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private static class RoutingOutput extends PrintStream {
+        private final PrintStream fallback;
+
+        private RoutingOutput(PrintStream fallback, Function<RunStreams, PrintStream> target) {
+            super(new OutputStream() {
+                @Override
+                public void write(int b) {
+                    var streams = RUN_STREAMS.get();
+                    if (streams == null)
+                        fallback.write(b);
+                    else if (!streams.detached)
+                        target.apply(streams).write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    var streams = RUN_STREAMS.get();
+                    if (streams == null)
+                        fallback.write(b, off, len);
+                    else if (!streams.detached)
+                        target.apply(streams).write(b, off, len);
+                }
+
+                @Override
+                public void flush() {
+                    var streams = RUN_STREAMS.get();
+                    if (streams == null)
+                        fallback.flush();
+                    else if (!streams.detached)
+                        target.apply(streams).flush();
+                }
+            }, true);
+            this.fallback = fallback;
+        }
+
+        private PrintStream resolve(PrintStream out) {
+            return out == this ? this.fallback : out;
+        }
+    }
+
+    private static class RoutingInput extends InputStream {
+        private final InputStream fallback;
+
+        private RoutingInput(InputStream fallback) {
+            this.fallback = fallback;
+        }
+
+        private InputStream current() {
+            var streams = RUN_STREAMS.get();
+            if (streams == null)
+                return this.fallback;
+
+            return streams.detached ? InputStream.nullInputStream() : streams.in;
+        }
+
+        private InputStream resolve(InputStream in) {
+            return in == this ? this.fallback : in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return this.current().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return this.current().read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return this.current().available();
+        }
+    }
+}
@@ -1,61 +1,270 @@
 package pt.up.fe.comp2023.backend;
 
-import pt.up.fe.comp.jmm.jasmin.JasminResult;
 import pt.up.fe.comp.jmm.report.Report;
-import pt.up.fe.comp.jmm.report.ReportType;
 import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2023.DebugReport;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.regex.Pattern;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 
+/**
+ * Peephole optimizer over the instructions of each method, in a single pass.
+ * <p>
+ * Instructions are moved one by one to the optimized code, and after each one the patterns of {@link #PATTERNS} are
+ * matched against the last instructions moved. A pattern that matches takes its instructions back and puts its
+ * replacement in front of the instructions still to move, so that patterns also apply to the code they produce.
+ * Labels end every window, since they can be jumped to. Jumps are threaded as they are moved, and code that can't be
+ * reached, after a `goto` or a return and before the next label, is dropped.
+ */
 public class JasminOptimizer {
 
-    private final Pattern gotoPattern = Pattern.compile("\\s*goto\\s+(\\w+)(\\n(\\w+:\\n)+\\1:)");
-    private final Pattern loadStorePattern = Pattern.compile("\\s*([ia])load[\\s_](\\d+)\\n\\s*\\1store[\\s_]\\2\\n");
+    /**
+     * A rewrite of the last `window` instructions, which returns their replacement, or `null` if it doesn't apply.
+     */
+    private record Pattern(int window, Function<List<JvmInstruction>, List<JvmInstruction>> rewrite) {
+    }
+
+    private static final List<Pattern> PATTERNS = List.of(
+            new Pattern(2, JasminOptimizer::loadThenStore),
+            new Pattern(2, JasminOptimizer::storeThenLoad),
+            new Pattern(2, JasminOptimizer::constantBranch),
+            new Pattern(3, JasminOptimizer::constantComparison));
+
+    public ClassFileResult optimize(ClassFileResult classFileResult) {
 
-    public JasminResult optimize(JasminResult jasminResult) {
+        var jvmClass = classFileResult.getJvmClass();
 
-        String jasminCode = jasminResult.getJasminCode();
+        var methods = jvmClass.methods().stream()
+                .map(this::performOptimization)
+                .toList();
 
-        jasminCode = this.performOptimization(jasminCode);
+        var optimizedClass = jvmClass.withMethods(methods);
 
         var reports = new ArrayList<Report>();
-        reports.add(new Report(ReportType.DEBUG, Stage.GENERATION, -1, -1, "Optimized Jasmin:\n" + jasminCode));
+        DebugReport.add(reports, classFileResult.getConfig(), Stage.GENERATION, () -> "Optimized Jasmin:\n" + optimizedClass.toJasmin());
 
-        return new JasminResult(jasminResult.getClassName(), jasminCode, reports, jasminResult.getConfig());
+        return new ClassFileResult(optimizedClass, reports, classFileResult.getConfig());
     }
 
-    private String performOptimization(String jasminCode) {
+    private JvmClass.Method performOptimization(JvmClass.Method method) {
+
+        var peephole = new Peephole(method.code());
+        var optimizedCode = peephole.run();
+
+        // A `dup` keeps a value on the stack one instruction longer than the load it replaced
+        var maxStack = peephole.duplicated ? method.maxStack() + 1 : method.maxStack();
+
+        return method.withCode(optimizedCode, maxStack);
+    }
+
+    private static class Peephole {
+        private final Deque<JvmInstruction> input;
+        private final List<JvmInstruction> output;
+        private final Map<String, String> jumpTargets;
+        private boolean unreachable;
+        private boolean duplicated;
+
+        private Peephole(List<JvmInstruction> code) {
+            this.input = new ArrayDeque<>(code);
+            this.output = new ArrayList<>(code.size());
+            this.jumpTargets = threadJumps(code);
+        }
+
+        private List<JvmInstruction> run() {
+            while (!this.input.isEmpty()) {
+                var instruction = this.input.poll();
+
+                if (instruction instanceof JvmInstruction.Label label) {
+                    this.unreachable = false;
+                    this.stripJumpTo(label);
+                } else if (this.unreachable) {
+                    continue;
+                } else if (instruction instanceof JvmInstruction.Jump jump && this.jumpTargets.containsKey(jump.label())) {
+                    instruction = jump.withLabel(this.jumpTargets.get(jump.label()));
+                }
 
-        boolean codeChanged;
-        do {
-            int initialLength = jasminCode.length();
+                this.output.add(instruction);
+                this.unreachable = endsFlow(instruction);
 
-            jasminCode = this.stripRedundantStackOps(jasminCode);
-            jasminCode = this.stripNoopGoto(jasminCode);
+                this.matchPatterns();
+            }
 
-            int finalLength = jasminCode.length();
+            return this.output;
+        }
 
-            codeChanged = finalLength != initialLength;
-        } while (codeChanged);
+        private void matchPatterns() {
+            for (var pattern : PATTERNS) {
+                if (this.output.size() < pattern.window())
+                    continue;
 
-        return jasminCode;
+                var window = this.output.subList(this.output.size() - pattern.window(), this.output.size());
+                var replacement = pattern.rewrite().apply(window);
+
+                if (replacement == null)
+                    continue;
+
+                if (replacement.stream().anyMatch(instruction -> "dup".equals(instruction.opcode())))
+                    this.duplicated = true;
+
+                window.clear();
+                for (int i = replacement.size() - 1; i >= 0; --i)
+                    this.input.push(replacement.get(i));
+
+                // The replaced instructions may have ended the flow, but the ones before them didn't
+                this.unreachable = false;
+                return;
+            }
+        }
+
+        /**
+         * Removes a `goto` to `label` that is only separated from it by other labels.
+         */
+        private void stripJumpTo(JvmInstruction.Label label) {
+            int i = this.output.size() - 1;
+            while (i >= 0 && this.output.get(i) instanceof JvmInstruction.Label)
+                --i;
+
+            if (i >= 0 && this.output.get(i) instanceof JvmInstruction.Jump jump && jump.opcode().equals("goto")
+                    && label.name().equals(jump.label()))
+                this.output.remove(i);
+        }
     }
 
-    private String stripRedundantStackOps(String jasminCode) {
-        var matcher = loadStorePattern.matcher(jasminCode);
+    /**
+     * Maps each label followed by a `goto` to the label the chain of `goto`s starting there ends in.
+     */
+    private static Map<String, String> threadJumps(List<JvmInstruction> code) {
+        var gotos = new HashMap<String, String>();
+        var labels = new ArrayList<String>();
+
+        for (var instruction : code) {
+            if (instruction instanceof JvmInstruction.Label label) {
+                labels.add(label.name());
+                continue;
+            }
+
+            if (instruction instanceof JvmInstruction.Jump jump && jump.opcode().equals("goto") && jump.label() != null)
+                labels.forEach(name -> gotos.put(name, jump.label()));
+
+            labels.clear();
+        }
+
+        var targets = new HashMap<String, String>();
+        for (var label : gotos.keySet()) {
+            var visited = new HashSet<String>();
+            var target = label;
+
+            // A chain that loops back never leaves it, so it is left as it is
+            while (gotos.containsKey(target) && visited.add(target))
+                target = gotos.get(target);
+
+            if (!target.equals(label) && !visited.contains(target))
+                targets.put(label, target);
+        }
+
+        return targets;
+    }
+
+    private static boolean endsFlow(JvmInstruction instruction) {
+        var opcode = instruction.opcode();
+        return opcode != null && (opcode.equals("goto") || opcode.endsWith("return") || opcode.equals("athrow"));
+    }
+
+    /**
+     * `xload r; xstore r` does nothing.
+     */
+    private static List<JvmInstruction> loadThenStore(List<JvmInstruction> window) {
+        if (window.get(0) instanceof JvmInstruction.Local load && load.isLoad()
+                && window.get(1) instanceof JvmInstruction.Local store && !store.isLoad()
+                && load.register() == store.register() && load.isInt() == store.isInt())
+            return List.of();
+
+        return null;
+    }
+
+    /**
+     * `xstore r; xload r` becomes `dup; xstore r`, which keeps the value on the stack instead of reloading it.
+     */
+    private static List<JvmInstruction> storeThenLoad(List<JvmInstruction> window) {
+        if (window.get(0) instanceof JvmInstruction.Local store && !store.isLoad()
+                && window.get(1) instanceof JvmInstruction.Local load && load.isLoad()
+                && load.register() == store.register() && load.isInt() == store.isInt())
+            return List.of(new JvmInstruction.Simple("dup"), store);
+
+        return null;
+    }
+
+    /**
+     * A comparison of a constant with zero becomes a `goto` if it holds, and is removed otherwise.
+     */
+    private static List<JvmInstruction> constantBranch(List<JvmInstruction> window) {
+        var value = intConstant(window.get(0));
+
+        if (value == null || !(window.get(1) instanceof JvmInstruction.Jump jump) || jump.label() == null)
+            return null;
+
+        var taken = switch (jump.opcode()) {
+            case "ifeq" -> value == 0;
+            case "ifne" -> value != 0;
+            case "iflt" -> value < 0;
+            case "ifge" -> value >= 0;
+            case "ifgt" -> value > 0;
+            case "ifle" -> value <= 0;
+            default -> null;
+        };
+
+        return branch(taken, jump);
+    }
+
+    /**
+     * A comparison of two constants becomes a `goto` if it holds, and is removed otherwise.
+     */
+    private static List<JvmInstruction> constantComparison(List<JvmInstruction> window) {
+        var left = intConstant(window.get(0));
+        var right = intConstant(window.get(1));
+
+        if (left == null || right == null || !(window.get(2) instanceof JvmInstruction.Jump jump) || jump.label() == null)
+            return null;
+
+        var taken = switch (jump.opcode()) {
+            case "if_icmpeq" -> left.equals(right);
+            case "if_icmpne" -> !left.equals(right);
+            case "if_icmplt" -> left < right;
+            case "if_icmpge" -> left >= right;
+            case "if_icmpgt" -> left > right;
+            case "if_icmple" -> left <= right;
+            default -> null;
+        };
+
+        return branch(taken, jump);
+    }
 
-        jasminCode = matcher.replaceAll("\n");
+    private static List<JvmInstruction> branch(Boolean taken, JvmInstruction.Jump jump) {
+        if (taken == null)
+            return null;
 
-        return jasminCode;
+        return taken ? List.of(new JvmInstruction.Jump("goto", jump.label())) : List.of();
     }
 
-    private String stripNoopGoto(String jasminCode) {
-        var matcher = gotoPattern.matcher(jasminCode);
+    /**
+     * @return the integer `instruction` pushes, or `null` if it isn't an integer constant
+     */
+    private static Integer intConstant(JvmInstruction instruction) {
+        if (instruction instanceof JvmInstruction.Push push)
+            return push.value();
 
-        jasminCode = matcher.replaceAll("$2");
+        if (instruction instanceof JvmInstruction.Ldc ldc && ldc.constant() instanceof Integer value)
+            return value;
 
-        return jasminCode;
+        if (instruction instanceof JvmInstruction.Simple simple && simple.opcode().startsWith("iconst_"))
+            return simple.opcode().equals("iconst_m1") ? -1 : Integer.parseInt(simple.opcode().substring("iconst_".length()));
 
+        return null;
     }
 }
@@ -0,0 +1,90 @@
+package pt.up.fe.comp2023.backend;
+
+import java.util.List;
+
+/**
+ * A class generated by {@link Backend}, ready to be written as a class file by {@link ClassFileWriter} or printed as
+ * Jasmin assembly.
+ *
+ * @param sourceFile the name of the source file, or `null` if unknown
+ * @param superName  the internal name of the superclass, such as `java/lang/Object`
+ */
+public record JvmClass(String name, String superName, String sourceFile, List<String> modifiers, List<Field> fields,
+                       List<Method> methods) {
+
+    /**
+     * @param initialValue the constant the field is initialized with, or `null`
+     */
+    public record Field(List<String> modifiers, String name, String descriptor, String initialValue) {
+        public String toJasmin() {
+            var sb = new StringBuilder(".field ");
+
+            modifiers.forEach(modifier -> sb.append(modifier).append(' '));
+            sb.append(name).append(' ').append(descriptor);
+
+            if (initialValue != null)
+                sb.append(" = ").append(initialValue);
+
+            return sb.toString();
+        }
+    }
+
+    /**
+     * @param declareLimits whether the Jasmin code declares `maxLocals` and `maxStack`, which constructors leave to
+     *                      the assembler; the class file always declares them
+     */
+    public record Method(List<String> modifiers, String name, String descriptor, int maxLocals, int maxStack,
+                         boolean declareLimits, List<JvmInstruction> code) {
+
+        public Method withCode(List<JvmInstruction> code, int maxStack) {
+            return new Method(modifiers, name, descriptor, maxLocals, maxStack, declareLimits, code);
+        }
+
+        public String toJasmin() {
+            var sb = new StringBuilder(".method ");
+
+            modifiers.forEach(modifier -> sb.append(modifier).append(' '));
+            sb.append(name).append(descriptor).append('\n');
+
+            if (declareLimits) {
+                sb.append("\t.limit locals ").append(maxLocals).append('\n');
+                sb.append("\t.limit stack ").append(maxStack).append('\n');
+            }
+
+            for (var instruction : code) {
+                if (!(instruction instanceof JvmInstruction.Label))
+                    sb.append('\t');
+
+                sb.append(instruction.toJasmin()).append('\n');
+            }
+
+            return sb.append(".end method\n").toString();
+        }
+    }
+
+    public JvmClass withMethods(List<Method> methods) {
+        return new JvmClass(name, superName, sourceFile, modifiers, fields, methods);
+    }
+
+    public String toJasmin() {
+        var sb = new StringBuilder("; class ").append(name).append(", transpiled to jasmin\n");
+
+        if (sourceFile != null)
+            sb.append(".source ").append(sourceFile).append('\n');
+
+        sb.append(".class ");
+        modifiers.forEach(modifier -> sb.append(modifier).append(' '));
+        sb.append(name).append('\n');
+        sb.append(".super ").append(superName).append("\n\n");
+
+        for (var field : fields)
+            sb.append(field.toJasmin()).append('\n');
+
+        sb.append('\n');
+
+        for (var method : methods)
+            sb.append(method.toJasmin()).append('\n');
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,145 @@
+package pt.up.fe.comp2023.backend;
+
+/**
+ * A JVM instruction, or a label, of a method generated by {@link Backend}.
+ * <p>
+ * Instructions keep their operands apart, so that {@link ClassFileWriter} can assemble them without parsing and
+ * {@link JasminOptimizer} can match them without regular expressions. {@link #toJasmin()} prints them as Jasmin
+ * assembly.
+ */
+public sealed interface JvmInstruction {
+
+    String toJasmin();
+
+    /**
+     * @return the mnemonic of the instruction, such as `iload` or `goto`, or `null` for labels
+     */
+    String opcode();
+
+    /**
+     * A label, which is not an instruction but names the position of the next one.
+     */
+    record Label(String name) implements JvmInstruction {
+        @Override
+        public String opcode() {
+            return null;
+        }
+
+        @Override
+        public String toJasmin() {
+            return name + ":";
+        }
+    }
+
+    /**
+     * An instruction without operands, such as `iadd`, `dup` or `iconst_1`.
+     */
+    record Simple(String opcode) implements JvmInstruction {
+        @Override
+        public String toJasmin() {
+            return opcode;
+        }
+    }
+
+    /**
+     * A load or store of a local variable, such as `iload` or `astore`, which uses the short form for registers 0 to 3.
+     */
+    record Local(String opcode, int register) implements JvmInstruction {
+        public boolean isLoad() {
+            return opcode.endsWith("load");
+        }
+
+        /**
+         * @return whether the variable holds an int (or boolean) rather than a reference
+         */
+        public boolean isInt() {
+            return opcode.charAt(0) == 'i';
+        }
+
+        @Override
+        public String toJasmin() {
+            return opcode + (register < 4 ? '_' : ' ') + register;
+        }
+    }
+
+    /**
+     * `bipush` or `sipush` of a small integer.
+     */
+    record Push(String opcode, int value) implements JvmInstruction {
+        @Override
+        public String toJasmin() {
+            return opcode + " " + value;
+        }
+    }
+
+    /**
+     * `ldc` of an `Integer`, or of a `String` given as its quoted literal.
+     */
+    record Ldc(Object constant) implements JvmInstruction {
+        @Override
+        public String opcode() {
+            return "ldc";
+        }
+
+        @Override
+        public String toJasmin() {
+            return "ldc " + constant;
+        }
+    }
+
+    record Iinc(int register, int increment) implements JvmInstruction {
+        @Override
+        public String opcode() {
+            return "iinc";
+        }
+
+        @Override
+        public String toJasmin() {
+            return "iinc " + register + " " + increment;
+        }
+    }
+
+    /**
+     * A conditional or unconditional branch to `label`.
+     */
+    record Jump(String opcode, String label) implements JvmInstruction {
+        public Jump withLabel(String label) {
+            return new Jump(opcode, label);
+        }
+
+        @Override
+        public String toJasmin() {
+            return label == null ? opcode : opcode + " " + label;
+        }
+    }
+
+    /**
+     * A method invocation, where `owner` is the internal name of the class and `descriptor` the method descriptor.
+     */
+    record Invoke(String opcode, String owner, String name, String descriptor) implements JvmInstruction {
+        @Override
+        public String toJasmin() {
+            return opcode + " " + owner + "/" + name + descriptor;
+        }
+    }
+
+    /**
+     * A field access, such as `getfield`, where `descriptor` is the type descriptor of the field.
+     */
+    record FieldAccess(String opcode, String owner, String name, String descriptor) implements JvmInstruction {
+        @Override
+        public String toJasmin() {
+            return opcode + " " + owner + "/" + name + " " + descriptor;
+        }
+    }
+
+    /**
+     * An instruction taking a type: `new` of a class, or `newarray` of a primitive type such as `int`.
+     */
+    record TypeInstruction(String opcode, String type) implements JvmInstruction {
+        @Override
+        public String toJasmin() {
+            return opcode + " " + type;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package pt.up.fe.comp2023.optimization;
+
+import pt.up.fe.comp.jmm.ast.JmmNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs the AST passes to a fixed point, in parallel for each method.
+ * <p>
+ * The passes never look across method boundaries, so the tree is split into independent work items: each method or
+ * constructor, and each subtree outside them (such as field declarations). Each item runs its own fixed point on the
+ * common fork-join pool, with its own pass instances, so per-method state such as the propagated variables is never
+ * shared. Items only rewrite nodes inside themselves and are deterministic, so the result is the same as rerunning
+ * every pass over the whole tree until none of them reports a change.
+ */
+public class ASTOptimizer {
+    private int rounds = 0;
+    private int passRuns = 0;
+    private int visitedNodes = 0;
+
+    public void optimize(JmmNode root) {
+        List<ForkJoinTask<Stats>> tasks = new ArrayList<>();
+        for (var item : getWorkItems(root))
+            tasks.add(ForkJoinPool.commonPool().submit(() -> optimizeItem(item)));
+
+        for (var task : tasks) {
+            var stats = task.join();
+            rounds = Math.max(rounds, stats.rounds());
+            passRuns += stats.passRuns();
+            visitedNodes += stats.visitedNodes();
+        }
+    }
+
+    private static Stats optimizeItem(JmmNode item) {
+        var passes = new ASTPass[]{
+                new ASTSimplificationVisitor(),
+                new ConstantFoldingVisitor(),
+                new ConstantPropagationVisitor()
+        };
+
+        var rounds = 0;
+        var passRuns = 0;
+
+        // An item whose round made no rewrite at all would make none in any later round either
+        var cont = true;
+        while (cont) {
+            cont = false;
+            ++rounds;
+
+            var changesBefore = getChanges(passes);
+
+            for (var pass : passes) {
+                cont |= pass.visit(item);
+                ++passRuns;
+            }
+
+            if (getChanges(passes) == changesBefore)
+                break;
+        }
+
+        var visitedNodes = 0;
+        for (var pass : passes)
+            visitedNodes += pass.getVisitedNodes();
+
+        return new Stats(rounds, passRuns, visitedNodes);
+    }
+
+    /**
+     * @return the methods and constructors below `node`, and the maximal subtrees that contain none
+     */
+    private static List<JmmNode> getWorkItems(JmmNode node) {
+        List<JmmNode> items = new ArrayList<>();
+
+        if (isMethod(node) || !containsMethod(node)) {
+            items.add(node);
+            return items;
+        }
+
+        for (var child : node.getChildren())
+            items.addAll(getWorkItems(child));
+
+        return items;
+    }
+
+    private static boolean isMethod(JmmNode node) {
+        return node.getKind().equals("MethodDeclaration") || node.getKind().equals("ConstructorDeclaration");
+    }
+
+    private static boolean containsMethod(JmmNode node) {
+        if (isMethod(node))
+            return true;
+
+        for (var child : node.getChildren())
+            if (containsMethod(child))
+                return true;
+
+        return false;
+    }
+
+    private static int getChanges(ASTPass[] passes) {
+        var changes = 0;
+        for (var pass : passes)
+            changes += pass.getChanges();
+
+        return changes;
+    }
+
+    /**
+     * @return the largest number of rounds any work item took to reach its fixed point
+     */
+    public int getRounds() {
+        return rounds;
+    }
+
+    /**
+     * @return the number of times a pass visited a work item
+     */
+    public int getPassRuns() {
+        return passRuns;
+    }
+
+    public int getVisitedNodes() {
+        return visitedNodes;
+    }
+
+    private record Stats(int rounds, int passRuns, int visitedNodes) {
+    }
+}
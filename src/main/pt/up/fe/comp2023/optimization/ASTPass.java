@@ -0,0 +1,19 @@
+package pt.up.fe.comp2023.optimization;
+
+import pt.up.fe.comp.jmm.ast.JmmVisitor;
+
+/**
+ * AST rewrite visited by the {@link ASTOptimizer}. Visiting returns `true` if the pass made a change that may enable
+ * further rewrites.
+ */
+public interface ASTPass extends JmmVisitor<Void, Boolean> {
+    /**
+     * @return the number of rewrites made so far, including those not reported by the result of visiting
+     */
+    int getChanges();
+
+    /**
+     * @return the number of nodes visited so far
+     */
+    int getVisitedNodes();
+}
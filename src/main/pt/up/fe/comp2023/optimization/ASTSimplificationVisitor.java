@@ -3,7 +3,10 @@ package pt.up.fe.comp2023.optimization;
 import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.ast.PostorderJmmVisitor;
 
-public class ASTSimplificationVisitor extends PostorderJmmVisitor<Void, Boolean> {
+public class ASTSimplificationVisitor extends PostorderJmmVisitor<Void, Boolean> implements ASTPass {
+    private int changes = 0;
+    private int visitedNodes = 0;
+
     public ASTSimplificationVisitor() {
         super();
         buildVisitor();
@@ -21,12 +24,29 @@ public class ASTSimplificationVisitor extends PostorderJmmVisitor<Void, Boolean>
         setReduceSimple(Boolean::logicalOr);
     }
 
+    @Override
+    public Boolean visit(JmmNode jmmNode, Void data) {
+        ++visitedNodes;
+        return super.visit(jmmNode, data);
+    }
+
+    @Override
+    public int getChanges() {
+        return changes;
+    }
+
+    @Override
+    public int getVisitedNodes() {
+        return visitedNodes;
+    }
+
     private Boolean visitOther(JmmNode node, Void context) {
         return false;
     }
 
     protected Boolean visitExplicitPriority(JmmNode node, Void context) {
         node.replace(node.getJmmChild(0));
+        ++changes;
         return false;
     }
 
@@ -36,12 +56,13 @@ public class ASTSimplificationVisitor extends PostorderJmmVisitor<Void, Boolean>
         var otherwise = node.getJmmChild(2);
 
         if (condition.getKind().equals("LiteralExpression")) {
-            var value = condition.get("value");
+            var value = ConstantValue.of(condition);
 
-            if (value.equals("true"))
+            if (value == ConstantValue.TRUE)
                 node.replace(then);
             else
                 node.replace(otherwise);
+            ++changes;
 
             return true;
         }
@@ -58,6 +79,7 @@ public class ASTSimplificationVisitor extends PostorderJmmVisitor<Void, Boolean>
 
         for (int i = parent.getNumChildren() - 1; i > nodeIndex; --i)
             parent.removeJmmChild(i);
+        ++changes;
 
         return true;
     }
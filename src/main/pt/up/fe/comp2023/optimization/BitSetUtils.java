@@ -0,0 +1,72 @@
+package pt.up.fe.comp2023.optimization;
+
+/**
+ * Operations on fixed-size bitsets stored in `long[]` arrays, with bit `i` at bit `i % 64` of word `i / 64`.
+ */
+public final class BitSetUtils {
+
+    public static int words(int bits) {
+        return (bits + 63) >>> 6;
+    }
+
+    public static boolean get(long[] set, int bit) {
+        return (set[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    public static void set(long[] set, int bit) {
+        set[bit >>> 6] |= 1L << bit;
+    }
+
+    /**
+     * Tests a bit of a set with more than `Integer.MAX_VALUE` bits.
+     */
+    public static boolean get(long[] set, long bit) {
+        return (set[(int) (bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    public static void set(long[] set, long bit) {
+        set[(int) (bit >>> 6)] |= 1L << bit;
+    }
+
+    public static void clear(long[] set, int bit) {
+        set[bit >>> 6] &= ~(1L << bit);
+    }
+
+    /**
+     * Adds the elements of `other` to `set`.
+     */
+    public static void or(long[] set, long[] other) {
+        for (int i = 0; i < set.length; ++i)
+            set[i] |= other[i];
+    }
+
+    public static int cardinality(long[] set) {
+        int count = 0;
+
+        for (var word : set)
+            count += Long.bitCount(word);
+
+        return count;
+    }
+
+    /**
+     * @return the first element of `set` not smaller than `from`, or -1 if there is none
+     */
+    public static int nextSetBit(long[] set, int from) {
+        int i = from >>> 6;
+
+        if (i >= set.length)
+            return -1;
+
+        long word = set[i] & (-1L << from);
+
+        while (true) {
+            if (word != 0)
+                return (i << 6) + Long.numberOfTrailingZeros(word);
+            if (++i == set.length)
+                return -1;
+
+            word = set[i];
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package pt.up.fe.comp2023.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fuses comparisons into the branches that test them. A comparison stored in a temporary that is only read by the
+ * branch right after it, such as
+ * <pre>
+ * t.bool :=.bool a.i32 &lt;.bool b.i32;
+ * if (!.bool t.bool) goto L;
+ * </pre>
+ * becomes a single branch on the comparison, inverted if the branch tested its negation, and the temporary is removed:
+ * <pre>
+ * if (a.i32 &gt;=.bool b.i32) goto L;
+ * </pre>
+ * The backend then emits a single compare-and-jump instruction instead of materializing the boolean.
+ */
+public class BranchFusion {
+    private int fusedBranches = 0;
+
+    public void optimize(ClassUnit ollirClass) {
+        for (var method : ollirClass.getMethods())
+            optimize(method);
+    }
+
+    public void optimize(Method method) {
+        var instructions = method.getInstructions();
+        var labels = method.getLabels();
+        var references = countReferences(method);
+
+        for (int i = 0; i + 1 < instructions.size(); ++i) {
+            if (!(instructions.get(i) instanceof AssignInstruction assign)
+                    || !(instructions.get(i + 1) instanceof CondBranchInstruction branch)
+                    || labels.containsValue(branch))
+                continue;
+
+            var fused = fuse(assign, branch);
+            // The assignment and the branch must be the only references to the temporary
+            if (fused == null || references.get(((Operand) assign.getDest()).getName()) != 2)
+                continue;
+
+            fused.setLabel(branch.getLabel());
+
+            for (var label : labels.entrySet())
+                if (label.getValue() == assign)
+                    label.setValue(fused);
+
+            instructions.set(i, fused);
+            instructions.remove(i + 1);
+            removeVariable(method, ((Operand) assign.getDest()).getName());
+
+            ++fusedBranches;
+        }
+    }
+
+    public int getFusedBranches() {
+        return fusedBranches;
+    }
+
+    /**
+     * @return a branch on the comparison `assign` stores, if `branch` only tests the variable it is stored in or its
+     * negation, or `null` otherwise
+     */
+    private static CondBranchInstruction fuse(AssignInstruction assign, CondBranchInstruction branch) {
+        if (!(assign.getDest() instanceof Operand dest) || dest instanceof ArrayOperand
+                || !(assign.getRhs() instanceof BinaryOpInstruction comparison)
+                || inverse(comparison.getOperation().getOpType()) == null)
+            return null;
+
+        var condition = branch.getCondition();
+        var opType = comparison.getOperation().getOpType();
+
+        if (condition instanceof UnaryOpInstruction not && not.getOperation().getOpType() == OperationType.NOTB
+                && isVariable(not.getOperand(), dest))
+            opType = inverse(opType);
+        else if (!(condition instanceof SingleOpInstruction test && isVariable(test.getSingleOperand(), dest)))
+            return null;
+
+        var operation = new Operation(opType, comparison.getOperation().getTypeInfo());
+        return new OpCondInstruction(new BinaryOpInstruction(comparison.getLeftOperand(), operation, comparison.getRightOperand()));
+    }
+
+    private static OperationType inverse(OperationType opType) {
+        return switch (opType) {
+            case LTH -> OperationType.GTE;
+            case GTE -> OperationType.LTH;
+            case GTH -> OperationType.LTE;
+            case LTE -> OperationType.GTH;
+            case EQ -> OperationType.NEQ;
+            case NEQ -> OperationType.EQ;
+            default -> null;
+        };
+    }
+
+    private static boolean isVariable(Element element, Operand variable) {
+        return element instanceof Operand operand && !(operand instanceof ArrayOperand)
+                && operand.getName().equals(variable.getName());
+    }
+
+    /**
+     * @return how many times each variable is assigned or read in the method
+     */
+    private static Map<String, Integer> countReferences(Method method) {
+        Map<String, Integer> references = new HashMap<>();
+
+        for (var instruction : method.getInstructions()) {
+            if (instruction instanceof AssignInstruction assign && assign.getDest() instanceof Operand dest)
+                references.merge(dest.getName(), 1, Integer::sum);
+
+            for (var element : SSAForm.getUsedElements(instruction))
+                if (element instanceof Operand operand)
+                    references.merge(operand.getName(), 1, Integer::sum);
+        }
+
+        return references;
+    }
+
+    /**
+     * Removes a local variable from the variable table, moving the variables in the registers after it down by one,
+     * since the backend reserves as many locals as there are registers in use.
+     */
+    private static void removeVariable(Method method, String name) {
+        Map<String, Descriptor> varTable = method.getVarTable();
+        var removed = varTable.get(name);
+
+        if (removed == null || removed.getScope() != VarScope.LOCAL)
+            return;
+
+        varTable.remove(name);
+
+        var register = removed.getVirtualReg();
+        if (varTable.values().stream().anyMatch(descriptor -> descriptor.getVirtualReg() == register))
+            return;
+
+        for (var descriptor : varTable.values())
+            if (descriptor.getScope() == VarScope.LOCAL && descriptor.getVirtualReg() > register)
+                descriptor.setVirtualReg(descriptor.getVirtualReg() - 1);
+    }
+}
@@ -2,8 +2,12 @@ package pt.up.fe.comp2023.optimization;
 
 import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.ast.PostorderJmmVisitor;
+import pt.up.fe.comp2023.JmmType;
+
+public class ConstantFoldingVisitor extends PostorderJmmVisitor<Void, Boolean> implements ASTPass {
+    private int changes = 0;
+    private int visitedNodes = 0;
 
-public class ConstantFoldingVisitor extends PostorderJmmVisitor<Void, Boolean> {
     public ConstantFoldingVisitor() {
         super();
         buildVisitor();
@@ -19,6 +23,30 @@ public class ConstantFoldingVisitor extends PostorderJmmVisitor<Void, Boolean> {
         setReduceSimple(Boolean::logicalOr);
     }
 
+    @Override
+    public Boolean visit(JmmNode jmmNode, Void data) {
+        ++visitedNodes;
+        return super.visit(jmmNode, data);
+    }
+
+    @Override
+    public int getChanges() {
+        return changes;
+    }
+
+    @Override
+    public int getVisitedNodes() {
+        return visitedNodes;
+    }
+
+    /**
+     * @return the type of the operation `node`, which differs from the type of its operands for comparisons
+     */
+    private static JmmType typeOf(JmmNode node, JmmNode operand) {
+        var type = JmmType.of(node);
+        return type == null || type.isAny() || type == JmmType.UNKNOWN ? JmmType.of(operand) : type;
+    }
+
     private Boolean visitOther(JmmNode node, Void context) {
         return false;
     }
@@ -30,13 +58,13 @@ public class ConstantFoldingVisitor extends PostorderJmmVisitor<Void, Boolean> {
         if (!left.getKind().equals("LiteralExpression") || !right.getKind().equals("LiteralExpression"))
             return false;
 
-        var leftValue = left.get("value");
-        var leftType = left.get("type");
-        var rightValue = right.get("value");
-        var op = node.get("op");
+        var value = ConstantUtils.calculate(ConstantValue.of(left), ConstantValue.of(right), node.get("op"));
 
-        left.put("value", ConstantUtils.calculate(leftValue, rightValue, op, leftType));
-        node.replace(left);
+        if (value == null)
+            return false;
+
+        node.replace(ConstantUtils.literal(value, typeOf(node, left)));
+        ++changes;
 
         return true;
     }
@@ -47,12 +75,13 @@ public class ConstantFoldingVisitor extends PostorderJmmVisitor<Void, Boolean> {
         if (!child.getKind().equals("LiteralExpression"))
             return false;
 
-        var value = child.get("value");
-        var type = child.get("type");
-        var op = node.get("op");
+        var value = ConstantUtils.calculate(ConstantValue.of(child), node.get("op"));
 
-        child.put("value", ConstantUtils.calculate(value, op, type));
-        node.replace(child);
+        if (value == null)
+            return false;
+
+        node.replace(ConstantUtils.literal(value, typeOf(node, child)));
+        ++changes;
 
         return true;
     }
@@ -65,8 +94,13 @@ public class ConstantFoldingVisitor extends PostorderJmmVisitor<Void, Boolean> {
         if (!first.getKind().equals("LiteralExpression"))
             return false;
 
-        var firstValue = Boolean.parseBoolean(first.get("value"));
-        node.replace(firstValue ? second : third);
+        var firstValue = ConstantValue.of(first);
+
+        if (!firstValue.isBoolean())
+            return false;
+
+        node.replace(firstValue.asBoolean() ? second : third);
+        ++changes;
 
         return true;
     }
@@ -2,26 +2,22 @@ package pt.up.fe.comp2023.optimization;
 
 import pt.up.fe.comp.jmm.ast.AJmmVisitor;
 import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp2023.JmmType;
 
 import java.util.*;
 
-public class ConstantPropagationVisitor extends AJmmVisitor<Void, Boolean> {
+public class ConstantPropagationVisitor extends AJmmVisitor<Void, Boolean> implements ASTPass {
     private final Map<String, Variable> variables = new TreeMap<>();
+    private final Map<JmmNode, Set<String>> loopModifiedVariables = new IdentityHashMap<>();
+    private int controlFlowDepth = 0;
+    private int changes = 0;
+    private int visitedNodes = 0;
 
     public ConstantPropagationVisitor() {
         super();
         buildVisitor();
     }
 
-    private boolean isInControlFlow(JmmNode node) {
-        return node.getAncestor("IfStatement").isPresent()
-            || node.getAncestor("WhileStatement").isPresent()
-            || node.getAncestor("DoStatement").isPresent()
-            || node.getAncestor("ForStatement").isPresent()
-            || node.getAncestor("ForEachStatement").isPresent()
-            || node.getAncestor("SwitchStatement").isPresent();
-    }
-
     @Override
     protected void buildVisitor() {
         addVisit("AssignmentExpression", this::visitAssignment);
@@ -43,6 +39,22 @@ public class ConstantPropagationVisitor extends AJmmVisitor<Void, Boolean> {
         setDefaultVisit(this::visitChildren);
     }
 
+    @Override
+    public Boolean visit(JmmNode jmmNode, Void data) {
+        ++visitedNodes;
+        return super.visit(jmmNode, data);
+    }
+
+    @Override
+    public int getChanges() {
+        return changes;
+    }
+
+    @Override
+    public int getVisitedNodes() {
+        return visitedNodes;
+    }
+
     private Boolean visitChildren(JmmNode node, Void context) {
         boolean r = false;
 
@@ -56,14 +68,24 @@ public class ConstantPropagationVisitor extends AJmmVisitor<Void, Boolean> {
         var r = visitChildren(node, context);
 
         for (var var : variables.values())
-            if (var.usages == 0 && var.node != null)
+            if (var.usages == 0 && var.node != null) {
                 var.node.delete();
+                ++changes;
+            }
 
         variables.clear();
+        loopModifiedVariables.clear();
 
         return r;
     }
 
+    /**
+     * @return whether the node being visited is inside a conditional or a loop
+     */
+    private boolean isInControlFlow() {
+        return controlFlowDepth > 0;
+    }
+
     private Boolean visitAssignment(JmmNode node, Void context) {
         var left = node.getJmmChild(0);
         var right = node.getJmmChild(1);
@@ -80,8 +102,10 @@ public class ConstantPropagationVisitor extends AJmmVisitor<Void, Boolean> {
         var var = variables.get(id);
 
         if (var != null) {
-            if (var.usages == 0 && var.node != null && op.equals("="))
+            if (var.usages == 0 && var.node != null && op.equals("=")) {
                 var.node.delete();
+                ++changes;
+            }
 
             variables.remove(id);
         }
@@ -89,18 +113,23 @@ public class ConstantPropagationVisitor extends AJmmVisitor<Void, Boolean> {
         if (!right.getKind().equals("LiteralExpression"))
             return r;
 
-        var value = right.get("value");
+        var value = ConstantValue.of(right);
 
         if (!op.equals("=")) {
-            var type = right.get("type");
+            var type = JmmType.of(right);
             var leftValue = var == null ? ConstantUtils.defaultValue(type) : var.value;
 
-            value = ConstantUtils.calculate(leftValue, value, op.replace("=", ""), type);
+            value = ConstantUtils.calculate(leftValue, value, op.replace("=", ""));
+
+            if (value == null)
+                return r;
+
             node.put("op", "=");
             right.replace(ConstantUtils.literal(value, type));
+            ++changes;
         }
 
-        if (!origin.equals("local") || isInControlFlow(node))
+        if (!origin.equals("local") || isInControlFlow())
             return r;
 
         variables.put(id, new Variable(node.getJmmParent().getKind().equals("ExpressionStatement") ? node.getJmmParent() : null, value));
@@ -112,13 +141,15 @@ public class ConstantPropagationVisitor extends AJmmVisitor<Void, Boolean> {
         var id = node.get("id");
         var var = variables.get(id);
         var origin = node.get("origin");
-        var type = node.get("type");
+        var type = JmmType.of(node);
         var value = ConstantUtils.defaultValue(type);
         var r = false;
 
         if (var != null) {
-            if (var.usages == 0 && var.node != null)
+            if (var.usages == 0 && var.node != null) {
                 var.node.delete();
+                ++changes;
+            }
 
             variables.remove(id);
         }
@@ -131,10 +162,10 @@ public class ConstantPropagationVisitor extends AJmmVisitor<Void, Boolean> {
             if (!right.getKind().equals("LiteralExpression"))
                 return false;
 
-            value = right.get("value");
+            value = ConstantValue.of(right);
         }
 
-        if (!origin.equals("local") || isInControlFlow(node))
+        if (!origin.equals("local") || isInControlFlow())
             return false;
 
         variables.put(id, new Variable(node.getJmmParent().getJmmParent(), value));
@@ -162,12 +193,15 @@ public class ConstantPropagationVisitor extends AJmmVisitor<Void, Boolean> {
         if (var == null)
             return false;
 
-        node.replace(ConstantUtils.literal(var.value, node.get("type")));
+        node.replace(ConstantUtils.literal(var.value, JmmType.of(node)));
+        ++changes;
 
         return true;
     }
 
     protected Boolean visitConditional(JmmNode node, Void context) {
+        ++controlFlowDepth;
+
         var condition = node.getJmmChild(0);
         var r = visit(condition, context);
 
@@ -207,43 +241,59 @@ public class ConstantPropagationVisitor extends AJmmVisitor<Void, Boolean> {
                     variables.put(key, var);
             }
 
+        --controlFlowDepth;
+
         return r;
     }
 
     protected Boolean visitLoop(JmmNode node, Void context) {
-        var modifiedVariables = modifiedVariables(node);
+        var modifiedVariables = loopModifiedVariables.get(node);
+
+        if (modifiedVariables == null)
+            modifiedVariables = modifiedVariables(node);
+
         modifiedVariables.forEach(variables::remove);
 
-        return visitChildren(node, context);
+        ++controlFlowDepth;
+        var r = visitChildren(node, context);
+        --controlFlowDepth;
+
+        return r;
     }
 
+    /**
+     * Collects the variables modified in `node` in a single walk, also storing the set of every loop inside it, so that
+     * nested loops are not walked again when they are visited.
+     * <p>
+     * Rewrites done by this pass only replace expressions with literals or delete statements outside control flow, so
+     * the stored sets stay valid until the end of the method.
+     */
     private Set<String> modifiedVariables(JmmNode node) {
         var r = new HashSet<String>();
-        Stack<JmmNode> stack = new Stack<>();
-        stack.push(node);
-
-        while (!stack.isEmpty()) {
-            var n = stack.pop();
-
-            switch (n.getKind()) {
-                case "VariableDeclaration" -> r.add(n.get("id"));
-                case "AssignmentExpression" -> {
-                    var left = n.getJmmChild(0);
-
-                    if (left.getKind().equals("IdentifierExpression"))
-                        r.add(left.get("id"));
-                }
-                case "UnaryPreOp", "UnaryPostOp" -> {
-                    var child = n.getJmmChild(0);
-
-                    if (child.getKind().equals("IdentifierExpression")
-                        && (n.get("op").equals("++") || n.get("op").equals("--")))
-                        r.add(child.get("id"));
-                }
+
+        switch (node.getKind()) {
+            case "VariableDeclaration" -> r.add(node.get("id"));
+            case "AssignmentExpression" -> {
+                var left = node.getJmmChild(0);
+
+                if (left.getKind().equals("IdentifierExpression"))
+                    r.add(left.get("id"));
+            }
+            case "UnaryPreOp", "UnaryPostOp" -> {
+                var child = node.getJmmChild(0);
+
+                if (child.getKind().equals("IdentifierExpression")
+                    && (node.get("op").equals("++") || node.get("op").equals("--")))
+                    r.add(child.get("id"));
             }
+        }
+
+        for (var child : node.getChildren())
+            r.addAll(modifiedVariables(child));
 
-            for (var child : n.getChildren())
-                stack.push(child);
+        switch (node.getKind()) {
+            case "WhileStatement", "DoStatement", "ForStatement", "ForEachStatement" ->
+                loopModifiedVariables.put(node, r);
         }
 
         return r;
@@ -251,10 +301,10 @@ public class ConstantPropagationVisitor extends AJmmVisitor<Void, Boolean> {
 
     private static class Variable {
         public final JmmNode node;
-        public final String value;
+        public final ConstantValue value;
         public int usages;
 
-        public Variable(JmmNode node, String value) {
+        public Variable(JmmNode node, ConstantValue value) {
             this.node = node;
             this.value = value;
             this.usages = 0;
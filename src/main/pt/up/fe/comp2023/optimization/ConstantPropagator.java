@@ -0,0 +1,535 @@
+package pt.up.fe.comp2023.optimization;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp2023.optimization.SSAForm.Block;
+import pt.up.fe.comp2023.optimization.SSAForm.Phi;
+import pt.up.fe.comp2023.optimization.SSAForm.Value;
+
+import java.util.*;
+
+/**
+ * Sparse conditional constant propagation (Wegman and Zadeck) on the SSA form of OLLIR methods.
+ * <p>
+ * Unlike the constant propagation on the AST, values flow through branches and loop headers: a phi function only
+ * merges the values of the edges found to be executable, and a branch on a constant only makes one of its edges
+ * executable. Afterwards, uses of constant variables are replaced by literals, constant branches become gotos or are
+ * removed, unreachable blocks are removed, and stores of literals to variables that are never read are dropped.
+ */
+public class ConstantPropagator {
+    private static final int UNDEFINED = 0;
+    private static final int CONSTANT = 1;
+    private static final int OVERDEFINED = 2;
+
+    private SSAForm ssa;
+    private int[] states;
+    private int[] constants;
+    private Set<Block> executableBlocks;
+    private Map<Block, boolean[]> executableIncoming;
+    private Deque<Value> valueWorklist;
+    private Deque<Block[]> edgeWorklist;
+
+    private int propagatedConstants = 0;
+    private int foldedBranches = 0;
+    private int removedInstructions = 0;
+
+    public void optimize(ClassUnit ollirClass) {
+        for (var method : ollirClass.getMethods())
+            optimize(method);
+    }
+
+    public void optimize(Method method) {
+        try {
+            method.checkLabels();
+        } catch (OllirErrorException e) {
+            // Jumps to missing labels, leave it for the backend to report
+            return;
+        }
+
+        ssa = new SSAForm(method);
+        propagate();
+        rewrite(method);
+    }
+
+    public int getPropagatedConstants() {
+        return propagatedConstants;
+    }
+
+    public int getFoldedBranches() {
+        return foldedBranches;
+    }
+
+    public int getRemovedInstructions() {
+        return removedInstructions;
+    }
+
+    private void propagate() {
+        var values = ssa.getValues();
+        states = new int[values.size()];
+        constants = new int[values.size()];
+        executableBlocks = Collections.newSetFromMap(new IdentityHashMap<>());
+        executableIncoming = new IdentityHashMap<>();
+        valueWorklist = new ArrayDeque<>();
+        edgeWorklist = new ArrayDeque<>();
+
+        // Parameters and variables read before being assigned can hold anything
+        for (var value : values)
+            if (value.isEntryValue())
+                states[value.getId()] = OVERDEFINED;
+
+        var entry = ssa.getBlocks().get(0);
+        executableBlocks.add(entry);
+        for (var successor : entry.getSuccessors())
+            edgeWorklist.add(new Block[]{entry, successor});
+
+        while (!edgeWorklist.isEmpty() || !valueWorklist.isEmpty()) {
+            while (!edgeWorklist.isEmpty()) {
+                var edge = edgeWorklist.pop();
+                visitEdge(edge[0], edge[1]);
+            }
+
+            while (!valueWorklist.isEmpty()) {
+                var value = valueWorklist.pop();
+
+                for (var phi : value.getPhiUsers())
+                    if (executableBlocks.contains(phi.getBlock()))
+                        visitPhi(phi);
+
+                for (var instruction : value.getUsers())
+                    if (executableBlocks.contains(ssa.getBlock(instruction)))
+                        visitInstruction(instruction);
+            }
+        }
+    }
+
+    private void visitEdge(Block from, Block to) {
+        var incoming = executableIncoming.computeIfAbsent(to, b -> new boolean[b.getPredecessors().size()]);
+        var isNew = false;
+
+        for (int i = 0; i < incoming.length; ++i) {
+            if (to.getPredecessors().get(i) == from && !incoming[i]) {
+                incoming[i] = true;
+                isNew = true;
+            }
+        }
+
+        if (!isNew)
+            return;
+
+        for (var phi : to.getPhis())
+            visitPhi(phi);
+
+        if (executableBlocks.add(to)) {
+            for (var instruction : to.getInstructions())
+                visitInstruction(instruction);
+
+            var last = to.getLastInstruction();
+            if (!(last instanceof CondBranchInstruction))
+                for (var successor : to.getSuccessors())
+                    edgeWorklist.add(new Block[]{to, successor});
+        }
+    }
+
+    private void visitPhi(Phi phi) {
+        var incoming = executableIncoming.get(phi.getBlock());
+        var value = phi.getValue();
+
+        for (int i = 0; i < incoming.length; ++i) {
+            var operand = phi.getOperand(i);
+            if (incoming[i] && operand != null)
+                lower(value, states[operand.getId()], constants[operand.getId()]);
+        }
+    }
+
+    private void visitInstruction(Instruction instruction) {
+        var defined = ssa.getDefinedValue(instruction);
+
+        if (defined != null) {
+            var rhs = ((AssignInstruction) instruction).getRhs();
+            var state = evaluateState(rhs);
+            lower(defined, state, state == CONSTANT ? evaluateConstant(rhs) : 0);
+        } else if (instruction instanceof CondBranchInstruction branch) {
+            var block = ssa.getBlock(instruction);
+            var state = evaluateState(branch.getCondition());
+            var successors = block.getSuccessors();
+
+            // The first successor is the jump target, the second one the fall-through
+            if (state == OVERDEFINED) {
+                for (var successor : successors)
+                    edgeWorklist.add(new Block[]{block, successor});
+            } else if (state == CONSTANT) {
+                var taken = evaluateConstant(branch.getCondition()) != 0;
+                if (taken)
+                    edgeWorklist.add(new Block[]{block, successors.get(0)});
+                else if (successors.size() > 1)
+                    edgeWorklist.add(new Block[]{block, successors.get(1)});
+            }
+        }
+    }
+
+    private void lower(Value value, int state, int constant) {
+        var id = value.getId();
+
+        if (state == UNDEFINED || states[id] == OVERDEFINED)
+            return;
+
+        if (state == CONSTANT && states[id] == CONSTANT && constants[id] == constant)
+            return;
+
+        if (state == CONSTANT && states[id] == UNDEFINED) {
+            states[id] = CONSTANT;
+            constants[id] = constant;
+        } else {
+            states[id] = OVERDEFINED;
+        }
+
+        valueWorklist.add(value);
+    }
+
+    private int stateOf(Element element) {
+        if (element instanceof LiteralElement literal)
+            return isIntegerType(literal.getType()) ? CONSTANT : OVERDEFINED;
+
+        if (isBooleanOperand(element))
+            return CONSTANT;
+
+        var value = ssa.getUseValue(element);
+        return value == null ? OVERDEFINED : states[value.getId()];
+    }
+
+    private int constantOf(Element element) {
+        if (element instanceof LiteralElement literal)
+            return Integer.parseInt(literal.getLiteral());
+
+        if (isBooleanOperand(element))
+            return ((Operand) element).getName().equals("true") ? 1 : 0;
+
+        return constants[ssa.getUseValue(element).getId()];
+    }
+
+    /**
+     * @return `true` if `element` is `true` or `false`, which the OLLIR parser reads as operands
+     */
+    private static boolean isBooleanOperand(Element element) {
+        return element instanceof Operand operand && !(operand instanceof ArrayOperand)
+                && (operand.getName().equals("true") || operand.getName().equals("false"));
+    }
+
+    private static boolean isIntegerType(Type type) {
+        return type.getTypeOfElement() == ElementType.INT32 || type.getTypeOfElement() == ElementType.BOOLEAN;
+    }
+
+    private int evaluateState(Instruction instruction) {
+        if (instruction instanceof SingleOpInstruction sop)
+            return stateOf(sop.getSingleOperand());
+
+        if (instruction instanceof UnaryOpInstruction unop) {
+            if (unop.getOperation().getOpType() != OperationType.NOTB)
+                return OVERDEFINED;
+
+            return stateOf(unop.getOperand());
+        }
+
+        if (instruction instanceof BinaryOpInstruction binop) {
+            var left = stateOf(binop.getLeftOperand());
+            var right = stateOf(binop.getRightOperand());
+
+            if (left == OVERDEFINED || right == OVERDEFINED)
+                return OVERDEFINED;
+            if (left == UNDEFINED || right == UNDEFINED)
+                return UNDEFINED;
+
+            return fold(binop.getOperation().getOpType(), constantOf(binop.getLeftOperand()),
+                    constantOf(binop.getRightOperand())) == null ? OVERDEFINED : CONSTANT;
+        }
+
+        return OVERDEFINED;
+    }
+
+    /**
+     * @return the value of `instruction`, which {@link #evaluateState} must have found to be constant
+     */
+    private int evaluateConstant(Instruction instruction) {
+        if (instruction instanceof SingleOpInstruction sop)
+            return constantOf(sop.getSingleOperand());
+
+        if (instruction instanceof UnaryOpInstruction unop)
+            return constantOf(unop.getOperand()) == 0 ? 1 : 0;
+
+        var binop = (BinaryOpInstruction) instruction;
+        return fold(binop.getOperation().getOpType(), constantOf(binop.getLeftOperand()),
+                constantOf(binop.getRightOperand()));
+    }
+
+    /**
+     * @return the result of the operation, or `null` if it cannot be computed at compile time
+     */
+    private static Integer fold(OperationType op, int left, int right) {
+        return switch (op) {
+            case ADD -> left + right;
+            case SUB -> left - right;
+            case MUL -> left * right;
+            case DIV -> right == 0 ? null : left / right;
+            case AND, ANDB -> left & right;
+            case OR, ORB -> left | right;
+            case XOR -> left ^ right;
+            case LTH -> left < right ? 1 : 0;
+            case GTH -> left > right ? 1 : 0;
+            case EQ -> left == right ? 1 : 0;
+            case NEQ -> left != right ? 1 : 0;
+            case LTE -> left <= right ? 1 : 0;
+            case GTE -> left >= right ? 1 : 0;
+            default -> null;
+        };
+    }
+
+    /**
+     * @return a literal holding `value`, or `null` if `type` cannot hold it
+     */
+    private static LiteralElement literal(int value, Type type) {
+        if (type.getTypeOfElement() == ElementType.BOOLEAN && value != 0 && value != 1)
+            return null;
+
+        return new LiteralElement(String.valueOf(value), new Type(type.getTypeOfElement()));
+    }
+
+    private void rewrite(Method method) {
+        var labels = method.getLabels();
+        var instructions = method.getInstructions();
+
+        // Decide what to do with every instruction before changing anything, so an unexpected jump leaves it untouched
+        Map<Instruction, Instruction> replacements = new IdentityHashMap<>();
+        Set<Instruction> unreachable = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<Instruction> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (var instruction : instructions) {
+            if (!executableBlocks.contains(ssa.getBlock(instruction))) {
+                unreachable.add(instruction);
+                continue;
+            }
+
+            if (instruction instanceof CondBranchInstruction branch && evaluateState(branch.getCondition()) == CONSTANT) {
+                if (evaluateConstant(branch.getCondition()) != 0)
+                    replacements.put(instruction, new GotoInstruction(branch.getLabel()));
+                else
+                    removed.add(instruction);
+            }
+
+            var defined = ssa.getDefinedValue(instruction);
+            if (defined != null && states[defined.getId()] == CONSTANT && !isLiteral(((AssignInstruction) instruction).getRhs())) {
+                var assign = (AssignInstruction) instruction;
+                var literal = literal(constants[defined.getId()], assign.getDest().getType());
+
+                if (literal != null)
+                    replacements.put(instruction, new AssignInstruction(assign.getDest(), assign.getTypeOfAssign(),
+                            new SingleOpInstruction(literal)));
+            }
+        }
+
+        // A non-void method must keep a return, even one that can never be reached
+        if (method.getReturnType().getTypeOfElement() != ElementType.VOID) {
+            Instruction lastReturn = null;
+            for (var instruction : instructions)
+                if (instruction instanceof ReturnInstruction && !unreachable.contains(instruction))
+                    lastReturn = instruction;
+
+            if (lastReturn == null)
+                for (var instruction : instructions)
+                    if (instruction instanceof ReturnInstruction)
+                        lastReturn = instruction;
+
+            unreachable.remove(lastReturn);
+        }
+
+        var kept = keptInstructions(instructions, unreachable, removed, labels);
+        Set<Instruction> keptSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        keptSet.addAll(kept);
+
+        var newLabels = moveLabels(labels, instructions, keptSet, replacements);
+        for (var instruction : kept) {
+            var target = getJumpLabel(replacements.getOrDefault(instruction, instruction));
+            if (target != null && newLabels.get(target) == null)
+                return;
+        }
+
+        for (var instruction : kept) {
+            if (instruction instanceof CondBranchInstruction && replacements.containsKey(instruction))
+                ++foldedBranches;
+            else if (replacements.containsKey(instruction))
+                ++propagatedConstants;
+            else
+                replaceConstantUses(instruction);
+        }
+
+        for (var instruction : removed)
+            if (instruction instanceof CondBranchInstruction && !keptSet.contains(instruction))
+                ++foldedBranches;
+        removedInstructions += instructions.size() - kept.size();
+
+        instructions.clear();
+        for (var instruction : kept)
+            instructions.add(replacements.getOrDefault(instruction, instruction));
+
+        labels.clear();
+        labels.putAll(newLabels);
+
+        removeDeadStores(method);
+    }
+
+    /**
+     * @return the instructions left after removing the given ones, except removed instructions that have labels but no
+     * following instruction to move them to
+     */
+    private static List<Instruction> keptInstructions(List<Instruction> instructions, Set<Instruction> unreachable,
+                                                      Set<Instruction> removed, Map<String, Instruction> labels) {
+        Set<Instruction> labeled = Collections.newSetFromMap(new IdentityHashMap<>());
+        labeled.addAll(labels.values());
+
+        LinkedList<Instruction> kept = new LinkedList<>();
+        var hasNext = false;
+
+        for (int i = instructions.size() - 1; i >= 0; --i) {
+            var instruction = instructions.get(i);
+
+            if (unreachable.contains(instruction))
+                continue;
+
+            if (removed.contains(instruction) && (hasNext || !labeled.contains(instruction)))
+                continue;
+
+            kept.addFirst(instruction);
+            hasNext = true;
+        }
+
+        return kept;
+    }
+
+    /**
+     * @return the labels after the rewrite: labels of replaced instructions go to their replacement, labels of removed
+     * reachable instructions go to the next instruction kept, and labels of unreachable instructions are dropped
+     */
+    private Map<String, Instruction> moveLabels(Map<String, Instruction> labels, List<Instruction> instructions,
+                                                Set<Instruction> kept, Map<Instruction, Instruction> replacements) {
+        Map<Instruction, Instruction> moved = new IdentityHashMap<>();
+        Instruction next = null;
+
+        for (int i = instructions.size() - 1; i >= 0; --i) {
+            var instruction = instructions.get(i);
+
+            if (kept.contains(instruction))
+                next = replacements.getOrDefault(instruction, instruction);
+            else if (!executableBlocks.contains(ssa.getBlock(instruction)))
+                continue;
+
+            moved.put(instruction, next);
+        }
+
+        Map<String, Instruction> newLabels = new HashMap<>();
+        for (var label : labels.entrySet())
+            if (moved.get(label.getValue()) != null)
+                newLabels.put(label.getKey(), moved.get(label.getValue()));
+
+        return newLabels;
+    }
+
+    private static String getJumpLabel(Instruction instruction) {
+        if (instruction instanceof GotoInstruction jump)
+            return jump.getLabel();
+        if (instruction instanceof CondBranchInstruction branch)
+            return branch.getLabel();
+
+        return null;
+    }
+
+    private static boolean isLiteral(Instruction instruction) {
+        return instruction instanceof SingleOpInstruction sop
+                && (sop.getSingleOperand() instanceof LiteralElement || isBooleanOperand(sop.getSingleOperand()));
+    }
+
+    private void replaceConstantUses(Instruction instruction) {
+        if (instruction instanceof AssignInstruction assign) {
+            if (assign.getDest() instanceof ArrayOperand array)
+                replaceConstantIndexes(array);
+
+            replaceConstantUses(assign.getRhs());
+        } else if (instruction instanceof CallInstruction call) {
+            var operands = call.getListOfOperands();
+            if (operands != null)
+                for (int i = 0; i < operands.size(); ++i)
+                    operands.set(i, replaceConstantUse(operands.get(i)));
+        } else if (instruction instanceof ReturnInstruction ret) {
+            if (ret.hasReturnValue())
+                ret.setOperand(replaceConstantUse(ret.getOperand()));
+        } else if (instruction instanceof UnaryOpInstruction unop) {
+            unop.setOperand(replaceConstantUse(unop.getOperand()));
+        } else if (instruction instanceof BinaryOpInstruction binop) {
+            binop.setLeftOperand(replaceConstantUse(binop.getLeftOperand()));
+            binop.setRightOperand(replaceConstantUse(binop.getRightOperand()));
+        } else if (instruction instanceof SingleOpInstruction sop) {
+            sop.setSingleOperand(replaceConstantUse(sop.getSingleOperand()));
+        } else if (instruction instanceof CondBranchInstruction branch) {
+            replaceConstantUses(branch.getCondition());
+        } else if (instruction instanceof PutFieldInstruction put) {
+            put.setThirdOperand(replaceConstantUse(put.getThirdOperand()));
+        }
+    }
+
+    private Element replaceConstantUse(Element element) {
+        if (element instanceof ArrayOperand array) {
+            replaceConstantIndexes(array);
+            return array;
+        }
+
+        var value = ssa.getUseValue(element);
+        if (value == null || states[value.getId()] != CONSTANT)
+            return element;
+
+        var literal = literal(constants[value.getId()], element.getType());
+        if (literal == null)
+            return element;
+
+        ++propagatedConstants;
+        return literal;
+    }
+
+    private void replaceConstantIndexes(ArrayOperand array) {
+        var indexes = array.getIndexOperands();
+        for (int i = 0; i < indexes.size(); ++i)
+            indexes.set(i, replaceConstantUse(indexes.get(i)));
+    }
+
+    /**
+     * Removes stores of literals to tracked variables that are no longer read anywhere in the method.
+     */
+    private void removeDeadStores(Method method) {
+        var instructions = method.getInstructions();
+
+        Set<String> read = new HashSet<>();
+        for (var instruction : instructions)
+            for (var element : SSAForm.getUsedElements(instruction))
+                if (element instanceof Operand operand)
+                    read.add(operand.getName());
+
+        Set<Instruction> labeled = Collections.newSetFromMap(new IdentityHashMap<>());
+        labeled.addAll(method.getLabels().values());
+
+        for (int i = instructions.size() - 1; i >= 0; --i) {
+            if (!(instructions.get(i) instanceof AssignInstruction assign) || !isLiteral(assign.getRhs())
+                    || !(assign.getDest() instanceof Operand dest) || dest instanceof ArrayOperand
+                    || !ssa.isTracked(dest.getName()) || read.contains(dest.getName()))
+                continue;
+
+            if (labeled.contains(assign)) {
+                if (i + 1 == instructions.size())
+                    continue;
+
+                for (var label : method.getLabels().entrySet())
+                    if (label.getValue() == assign)
+                        label.setValue(instructions.get(i + 1));
+                labeled.add(instructions.get(i + 1));
+            }
+
+            instructions.remove(i);
+            ++removedInstructions;
+        }
+    }
+}
@@ -2,100 +2,121 @@ package pt.up.fe.comp2023.optimization;
 
 import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.ast.JmmNodeImpl;
-import pt.up.fe.comp2023.Constants;
-import pt.up.fe.comp2023.Utils;
+import pt.up.fe.comp2023.JmmType;
 
 public final class ConstantUtils {
-    public static String calculate(String left, String right, String op, String type) {
-        if (Utils.in(Constants.INTEGER_TYPES, type)) {
-            var leftInt = Integer.parseInt(left);
-            var rightInt = Integer.parseInt(right);
+    /**
+     * @return the result of `left op right`, or `null` if it cannot be computed at compile time
+     */
+    public static ConstantValue calculate(ConstantValue left, ConstantValue right, String op) {
+        if (left.getKind() != right.getKind())
+            return null;
 
-            return String.valueOf(switch (op) {
-                case "+" -> leftInt + rightInt;
-                case "-" -> leftInt - rightInt;
-                case "*" -> leftInt * rightInt;
-                case "/" -> leftInt / rightInt;
-                case "%" -> leftInt % rightInt;
-                case "<<" -> leftInt << rightInt;
-                case ">>" -> leftInt >> rightInt;
-                case ">>>" -> leftInt >>> rightInt;
-                case "&" -> leftInt & rightInt;
-                case "|" -> leftInt | rightInt;
-                case "^" -> leftInt ^ rightInt;
-                case "<" -> leftInt < rightInt;
-                case ">" -> leftInt > rightInt;
-                case "<=" -> leftInt <= rightInt;
-                case ">=" -> leftInt >= rightInt;
-                case "==" -> leftInt == rightInt;
-                case "!=" -> leftInt != rightInt;
-                default -> throw new RuntimeException("Unknown operator: " + op);
-            });
-        } else if (type.equals("boolean")) {
-            var leftBool = Boolean.parseBoolean(left);
-            var rightBool = Boolean.parseBoolean(right);
+        switch (left.getKind()) {
+            case INT -> {
+                var leftInt = left.asInt();
+                var rightInt = right.asInt();
 
-            return String.valueOf(switch (op) {
-                case "&&" -> leftBool && rightBool;
-                case "||" -> leftBool || rightBool;
-                case "&" -> leftBool & rightBool;
-                case "|" -> leftBool | rightBool;
-                case "^" -> leftBool ^ rightBool;
-                case "==" -> leftBool == rightBool;
-                case "!=" -> leftBool != rightBool;
-                default -> throw new RuntimeException("Unknown operator: " + op);
-            });
-        } else if (type.equals("String")) {
-            return String.valueOf(switch (op) {
-                case "+" -> left.substring(0, left.length() - 1) + right.substring(1);
-                case "==" -> left.equals(right);
-                case "!=" -> !left.equals(right);
-                default -> throw new RuntimeException("Unknown operator: " + op);
-            });
-        } else {
-            throw new RuntimeException("Unknown type: " + type);
+                if (rightInt == 0 && (op.equals("/") || op.equals("%")))
+                    return null;
+
+                return switch (op) {
+                    case "+" -> ConstantValue.ofInt(leftInt + rightInt);
+                    case "-" -> ConstantValue.ofInt(leftInt - rightInt);
+                    case "*" -> ConstantValue.ofInt(leftInt * rightInt);
+                    case "/" -> ConstantValue.ofInt(leftInt / rightInt);
+                    case "%" -> ConstantValue.ofInt(leftInt % rightInt);
+                    case "<<" -> ConstantValue.ofInt(leftInt << rightInt);
+                    case ">>" -> ConstantValue.ofInt(leftInt >> rightInt);
+                    case ">>>" -> ConstantValue.ofInt(leftInt >>> rightInt);
+                    case "&" -> ConstantValue.ofInt(leftInt & rightInt);
+                    case "|" -> ConstantValue.ofInt(leftInt | rightInt);
+                    case "^" -> ConstantValue.ofInt(leftInt ^ rightInt);
+                    case "<" -> ConstantValue.ofBoolean(leftInt < rightInt);
+                    case ">" -> ConstantValue.ofBoolean(leftInt > rightInt);
+                    case "<=" -> ConstantValue.ofBoolean(leftInt <= rightInt);
+                    case ">=" -> ConstantValue.ofBoolean(leftInt >= rightInt);
+                    case "==" -> ConstantValue.ofBoolean(leftInt == rightInt);
+                    case "!=" -> ConstantValue.ofBoolean(leftInt != rightInt);
+                    default -> throw new RuntimeException("Unknown operator: " + op);
+                };
+            }
+            case BOOLEAN -> {
+                var leftBool = left.asBoolean();
+                var rightBool = right.asBoolean();
+
+                return ConstantValue.ofBoolean(switch (op) {
+                    case "&&" -> leftBool && rightBool;
+                    case "||" -> leftBool || rightBool;
+                    case "&" -> leftBool & rightBool;
+                    case "|" -> leftBool | rightBool;
+                    case "^" -> leftBool ^ rightBool;
+                    case "==" -> leftBool == rightBool;
+                    case "!=" -> leftBool != rightBool;
+                    default -> throw new RuntimeException("Unknown operator: " + op);
+                });
+            }
+            case STRING -> {
+                var leftString = left.toString();
+                var rightString = right.toString();
+
+                return switch (op) {
+                    case "+" -> ConstantValue.ofString(leftString.substring(0, leftString.length() - 1) + rightString.substring(1));
+                    case "==" -> ConstantValue.ofBoolean(leftString.equals(rightString));
+                    case "!=" -> ConstantValue.ofBoolean(!leftString.equals(rightString));
+                    default -> throw new RuntimeException("Unknown operator: " + op);
+                };
+            }
+            default -> {
+                return null;
+            }
         }
     }
 
-    public static String calculate(String value, String op, String type) {
-        if (Utils.in(Constants.INTEGER_TYPES, type)) {
-            var intVal = Integer.parseInt(value);
-
-            return String.valueOf(switch (op) {
-                case "~" -> ~intVal;
-                case "+" -> intVal;
-                case "-" -> -intVal;
-                case "++" -> intVal + 1;
-                case "--" -> intVal - 1;
-                default -> throw new RuntimeException("Unknown operator: " + op);
-            });
-        } else if (type.equals("boolean")) {
-            var boolVal = Boolean.parseBoolean(value);
+    /**
+     * @return the result of `op value`, or `null` if it cannot be computed at compile time
+     */
+    public static ConstantValue calculate(ConstantValue value, String op) {
+        switch (value.getKind()) {
+            case INT -> {
+                var intVal = value.asInt();
 
-            return String.valueOf(switch (op) {
-                case "!" -> !boolVal;
-                default -> throw new RuntimeException("Unknown operator: " + op);
-            });
-        } else {
-            throw new RuntimeException("Unknown type: " + type);
+                return ConstantValue.ofInt(switch (op) {
+                    case "~" -> ~intVal;
+                    case "+" -> intVal;
+                    case "-" -> -intVal;
+                    case "++" -> intVal + 1;
+                    case "--" -> intVal - 1;
+                    default -> throw new RuntimeException("Unknown operator: " + op);
+                });
+            }
+            case BOOLEAN -> {
+                return ConstantValue.ofBoolean(switch (op) {
+                    case "!" -> !value.asBoolean();
+                    default -> throw new RuntimeException("Unknown operator: " + op);
+                });
+            }
+            default -> {
+                return null;
+            }
         }
     }
 
-    public static String defaultValue(String type) {
-        if (Utils.in(Constants.INTEGER_TYPES, type))
-            return "0";
-        else if (type.equals("boolean"))
-            return "false";
-        else if (type.equals("String"))
-            return "\"\"";
+    public static ConstantValue defaultValue(JmmType type) {
+        if (type.isInteger())
+            return ConstantValue.ofInt(0);
+        else if (type == JmmType.BOOLEAN)
+            return ConstantValue.FALSE;
+        else if (type == JmmType.STRING)
+            return ConstantValue.ofString("\"\"");
         else
-            return "null";
+            return ConstantValue.NULL;
     }
 
-    public static JmmNode literal(String value, String type) {
+    public static JmmNode literal(ConstantValue value, JmmType type) {
         var literalNode = new JmmNodeImpl("LiteralExpression");
-        literalNode.put("value", value);
-        literalNode.put("type", type);
+        ConstantValue.set(literalNode, value);
+        JmmType.set(literalNode, type);
         return literalNode;
     }
 }
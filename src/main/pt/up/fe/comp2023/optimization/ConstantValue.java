@@ -0,0 +1,156 @@
+package pt.up.fe.comp2023.optimization;
+
+import pt.up.fe.comp.jmm.ast.JmmNode;
+
+import java.util.Objects;
+
+/**
+ * Value of a literal, as seen by constant folding and propagation.
+ * <p>
+ * Integers and booleans are kept as primitives, so chains of folds never parse or format text. Literals whose value is
+ * not tracked, such as floating point numbers, characters and `null`, are {@link Kind#UNKNOWN} and only keep their
+ * source text. Literal nodes store their value in the `value` attribute as a {@link ConstantValue}, whose
+ * {@link #toString()} is the literal as written in source code, so `node.get("value")` keeps working and the value is
+ * only formatted when OLLIR is emitted.
+ */
+public final class ConstantValue {
+    public enum Kind {
+        INT, BOOLEAN, STRING, UNKNOWN
+    }
+
+    public static final ConstantValue TRUE = new ConstantValue(Kind.BOOLEAN, 1, null);
+    public static final ConstantValue FALSE = new ConstantValue(Kind.BOOLEAN, 0, null);
+    public static final ConstantValue NULL = new ConstantValue(Kind.UNKNOWN, 0, "null");
+
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1024;
+    private static final ConstantValue[] INT_CACHE = new ConstantValue[CACHE_HIGH - CACHE_LOW + 1];
+
+    static {
+        for (int i = 0; i < INT_CACHE.length; ++i)
+            INT_CACHE[i] = new ConstantValue(Kind.INT, i + CACHE_LOW, null);
+    }
+
+    private final Kind kind;
+    private final int intValue;
+    private final String text;
+
+    private ConstantValue(Kind kind, int intValue, String text) {
+        this.kind = kind;
+        this.intValue = intValue;
+        this.text = text;
+    }
+
+    public static ConstantValue ofInt(int value) {
+        if (value >= CACHE_LOW && value <= CACHE_HIGH)
+            return INT_CACHE[value - CACHE_LOW];
+
+        return new ConstantValue(Kind.INT, value, null);
+    }
+
+    public static ConstantValue ofBoolean(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    /**
+     * @param literal the string literal, including its quotes
+     */
+    public static ConstantValue ofString(String literal) {
+        return new ConstantValue(Kind.STRING, 0, literal);
+    }
+
+    /**
+     * @return the value of a literal whose value is not tracked, written as `text` in source code
+     */
+    public static ConstantValue unknown(String text) {
+        return text.equals("null") ? NULL : new ConstantValue(Kind.UNKNOWN, 0, text);
+    }
+
+    /**
+     * @return the value of the literal written as `text` in source code
+     */
+    public static ConstantValue parse(String text) {
+        if (text.equals("true"))
+            return TRUE;
+        if (text.equals("false"))
+            return FALSE;
+        if (text.startsWith("\""))
+            return ofString(text);
+
+        if (!text.isEmpty() && text.chars().allMatch(Character::isDigit)) {
+            try {
+                return ofInt(Integer.parseInt(text));
+            } catch (NumberFormatException e) {
+                // Out of range, leave it to the backend
+            }
+        }
+
+        return unknown(text);
+    }
+
+    /**
+     * @return the value of the literal `node`, parsing its `value` attribute only the first time
+     */
+    public static ConstantValue of(JmmNode node) {
+        var value = node.getObject("value");
+
+        if (value instanceof ConstantValue constant)
+            return constant;
+
+        var constant = parse(value.toString());
+        set(node, constant);
+        return constant;
+    }
+
+    public static void set(JmmNode node, ConstantValue value) {
+        node.putObject("value", value);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public boolean isInt() {
+        return kind == Kind.INT;
+    }
+
+    public boolean isBoolean() {
+        return kind == Kind.BOOLEAN;
+    }
+
+    public boolean isString() {
+        return kind == Kind.STRING;
+    }
+
+    public int asInt() {
+        return intValue;
+    }
+
+    public boolean asBoolean() {
+        return intValue != 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof ConstantValue other))
+            return false;
+
+        return kind == other.kind && intValue == other.intValue && Objects.equals(text, other.text);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(kind, intValue, text);
+    }
+
+    @Override
+    public String toString() {
+        return switch (kind) {
+            case INT -> Integer.toString(intValue);
+            case BOOLEAN -> intValue != 0 ? "true" : "false";
+            case STRING, UNKNOWN -> text;
+        };
+    }
+}
@@ -0,0 +1,390 @@
+package pt.up.fe.comp2023.optimization;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Coloring of an {@link InterferenceGraph} with at most `k` colors by iterated register coalescing (George and Appel):
+ * nodes are simplified, copies are coalesced when the Briggs or George tests show it is safe, copies are frozen when
+ * nothing else can be done, and potential spills are chosen by cost. Colors are then assigned optimistically, so a
+ * potential spill only becomes an actual spill if no color is left for it.
+ * <p>
+ * Precolored nodes keep their color and are never simplified, coalesced into other nodes or spilled.
+ */
+public class GraphColoring implements RegisterAssignment {
+    private static final int PRECOLORED = 0;
+    private static final int INITIAL = 1;
+    private static final int SIMPLIFY = 2;
+    private static final int FREEZE = 3;
+    private static final int SPILL = 4;
+    private static final int SPILLED = 5;
+    private static final int COALESCED = 6;
+    private static final int COLORED = 7;
+    private static final int SELECT = 8;
+    private static final int ABSENT = 9;
+
+    private static final int MOVE_WORKLIST = 0;
+    private static final int MOVE_ACTIVE = 1;
+    private static final int MOVE_COALESCED = 2;
+    private static final int MOVE_CONSTRAINED = 3;
+    private static final int MOVE_FROZEN = 4;
+
+    private final InterferenceGraph graph;
+    private final int k;
+    private final double[] spillCosts;
+    private final int[] state;
+    private final int[] degree;
+    private final int[] alias;
+    private final int[] colors;
+    private final List<List<Integer>> moveLists = new ArrayList<>();
+    private final List<int[]> moves = new ArrayList<>();
+    private final List<Integer> moveStates = new ArrayList<>();
+
+    private final Deque<Integer> simplifyWorklist = new ArrayDeque<>();
+    private final Deque<Integer> worklistMoves = new ArrayDeque<>();
+    private final Deque<Integer> selectStack = new ArrayDeque<>();
+    private final List<Integer> spilledNodes = new ArrayList<>();
+    private int coalescedMoves = 0;
+
+    /**
+     * @param graph      the interference graph, which gains the edges of coalesced nodes
+     * @param k          the number of colors
+     * @param nodes      the nodes to color
+     * @param precolored the color of each node, or -1 if it must be chosen
+     * @param spillCosts the cost of spilling each node, where cheaper nodes are spilled first
+     */
+    public GraphColoring(InterferenceGraph graph, int k, long[] nodes, int[] precolored, double[] spillCosts) {
+        var size = graph.size();
+
+        this.graph = graph;
+        this.k = k;
+        this.spillCosts = spillCosts;
+        this.state = new int[size];
+        this.degree = new int[size];
+        this.alias = new int[size];
+        this.colors = Arrays.copyOf(precolored, size);
+
+        for (int n = 0; n < size; ++n) {
+            if (precolored[n] >= 0)
+                state[n] = PRECOLORED;
+            else
+                state[n] = BitSetUtils.get(nodes, n) ? INITIAL : ABSENT;
+
+            degree[n] = state[n] == PRECOLORED ? Integer.MAX_VALUE / 2 : graph.getDegree(n);
+            alias[n] = n;
+            moveLists.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Adds a copy between `destination` and `source`, to be coalesced if possible.
+     */
+    public void addMove(int destination, int source) {
+        if (state[destination] == ABSENT || state[source] == ABSENT || destination == source)
+            return;
+
+        var move = moves.size();
+        moves.add(new int[] { destination, source });
+        moveStates.add(MOVE_WORKLIST);
+        moveLists.get(destination).add(move);
+        moveLists.get(source).add(move);
+        worklistMoves.add(move);
+    }
+
+    @Override
+    public boolean color() {
+        makeWorklist();
+
+        while (true) {
+            if (!simplifyWorklist.isEmpty())
+                simplify();
+            else if (!worklistMoves.isEmpty())
+                coalesce();
+            else if (freeze())
+                continue;
+            else if (!selectSpill())
+                break;
+        }
+
+        assignColors();
+
+        return spilledNodes.isEmpty();
+    }
+
+    @Override
+    public int getColor(int node) {
+        return colors[node];
+    }
+
+    public List<Integer> getSpilledNodes() {
+        return spilledNodes;
+    }
+
+    /**
+     * @return the node `node` was coalesced into, or `node` itself
+     */
+    public int getAlias(int node) {
+        while (state[node] == COALESCED)
+            node = alias[node];
+
+        return node;
+    }
+
+    public int getCoalescedMoves() {
+        return coalescedMoves;
+    }
+
+    private void makeWorklist() {
+        for (int n = 0; n < state.length; ++n) {
+            if (state[n] != INITIAL)
+                continue;
+
+            if (degree[n] >= k)
+                state[n] = SPILL;
+            else if (isMoveRelated(n))
+                state[n] = FREEZE;
+            else
+                pushSimplify(n);
+        }
+    }
+
+    private void pushSimplify(int node) {
+        state[node] = SIMPLIFY;
+        simplifyWorklist.push(node);
+    }
+
+    private boolean isAdjacent(int node) {
+        return state[node] != SELECT && state[node] != COALESCED;
+    }
+
+    private boolean isMoveRelated(int node) {
+        for (var move : moveLists.get(node)) {
+            var moveState = moveStates.get(move);
+            if (moveState == MOVE_WORKLIST || moveState == MOVE_ACTIVE)
+                return true;
+        }
+
+        return false;
+    }
+
+    private void simplify() {
+        var node = simplifyWorklist.pop();
+
+        if (state[node] != SIMPLIFY)
+            return;
+
+        state[node] = SELECT;
+        selectStack.push(node);
+
+        for (int i = 0; i < graph.getDegree(node); ++i) {
+            var neighbor = graph.getNeighbor(node, i);
+            if (isAdjacent(neighbor))
+                decrementDegree(neighbor);
+        }
+    }
+
+    private void decrementDegree(int node) {
+        if (state[node] == PRECOLORED || state[node] == ABSENT)
+            return;
+
+        if (degree[node]-- != k)
+            return;
+
+        enableMoves(node);
+        for (int i = 0; i < graph.getDegree(node); ++i) {
+            var neighbor = graph.getNeighbor(node, i);
+            if (isAdjacent(neighbor))
+                enableMoves(neighbor);
+        }
+
+        if (state[node] == SPILL) {
+            if (isMoveRelated(node))
+                state[node] = FREEZE;
+            else
+                pushSimplify(node);
+        }
+    }
+
+    private void enableMoves(int node) {
+        for (var move : moveLists.get(node))
+            if (moveStates.get(move) == MOVE_ACTIVE) {
+                moveStates.set(move, MOVE_WORKLIST);
+                worklistMoves.add(move);
+            }
+    }
+
+    private void coalesce() {
+        var move = worklistMoves.poll();
+
+        if (moveStates.get(move) != MOVE_WORKLIST)
+            return;
+
+        var x = getAlias(moves.get(move)[0]);
+        var y = getAlias(moves.get(move)[1]);
+        var u = state[y] == PRECOLORED ? y : x;
+        var v = state[y] == PRECOLORED ? x : y;
+
+        if (u == v) {
+            moveStates.set(move, MOVE_COALESCED);
+            ++coalescedMoves;
+            addWorklist(u);
+        } else if (state[v] == PRECOLORED || graph.interferes(u, v)) {
+            moveStates.set(move, MOVE_CONSTRAINED);
+            addWorklist(u);
+            addWorklist(v);
+        } else if (state[u] == PRECOLORED ? georgeTest(u, v) : briggsTest(u, v)) {
+            moveStates.set(move, MOVE_COALESCED);
+            ++coalescedMoves;
+            combine(u, v);
+            addWorklist(u);
+        } else {
+            moveStates.set(move, MOVE_ACTIVE);
+        }
+    }
+
+    private void addWorklist(int node) {
+        if (state[node] == FREEZE && !isMoveRelated(node) && degree[node] < k)
+            pushSimplify(node);
+    }
+
+    /**
+     * @return whether every neighbor of `v` is harmless to precolored `u`, so they can be coalesced
+     */
+    private boolean georgeTest(int u, int v) {
+        for (int i = 0; i < graph.getDegree(v); ++i) {
+            var t = graph.getNeighbor(v, i);
+
+            if (isAdjacent(t) && degree[t] >= k && state[t] != PRECOLORED && !graph.interferes(t, u))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return whether the node combining `u` and `v` would have fewer than `k` neighbors of significant degree
+     */
+    private boolean briggsTest(int u, int v) {
+        var significant = 0;
+        var seen = new long[BitSetUtils.words(state.length)];
+
+        for (var node : new int[] { u, v })
+            for (int i = 0; i < graph.getDegree(node); ++i) {
+                var t = graph.getNeighbor(node, i);
+
+                if (!isAdjacent(t) || BitSetUtils.get(seen, t))
+                    continue;
+
+                BitSetUtils.set(seen, t);
+                if (degree[t] >= k && ++significant >= k)
+                    return false;
+            }
+
+        return true;
+    }
+
+    private void combine(int u, int v) {
+        state[v] = COALESCED;
+        alias[v] = u;
+        moveLists.get(u).addAll(moveLists.get(v));
+        enableMoves(v);
+
+        for (int i = 0; i < graph.getDegree(v); ++i) {
+            var t = graph.getNeighbor(v, i);
+
+            if (!isAdjacent(t))
+                continue;
+
+            if (!graph.interferes(t, u)) {
+                graph.addEdge(t, u);
+                if (state[t] != PRECOLORED)
+                    ++degree[t];
+                if (state[u] != PRECOLORED)
+                    ++degree[u];
+            }
+
+            decrementDegree(t);
+        }
+
+        if (degree[u] >= k && state[u] == FREEZE)
+            state[u] = SPILL;
+    }
+
+    private boolean freeze() {
+        for (int node = 0; node < state.length; ++node)
+            if (state[node] == FREEZE) {
+                pushSimplify(node);
+                freezeMoves(node);
+                return true;
+            }
+
+        return false;
+    }
+
+    private void freezeMoves(int u) {
+        for (var move : moveLists.get(u)) {
+            var moveState = moveStates.get(move);
+            if (moveState != MOVE_WORKLIST && moveState != MOVE_ACTIVE)
+                continue;
+
+            var x = moves.get(move)[0];
+            var y = moves.get(move)[1];
+            var v = getAlias(y) == getAlias(u) ? getAlias(x) : getAlias(y);
+
+            moveStates.set(move, MOVE_FROZEN);
+
+            if (state[v] == FREEZE && !isMoveRelated(v) && degree[v] < k)
+                pushSimplify(v);
+        }
+    }
+
+    private boolean selectSpill() {
+        var best = -1;
+
+        for (int node = 0; node < state.length; ++node)
+            if (state[node] == SPILL && (best < 0
+                    || spillCosts[node] / degree[node] < spillCosts[best] / degree[best]))
+                best = node;
+
+        if (best < 0)
+            return false;
+
+        pushSimplify(best);
+        freezeMoves(best);
+        return true;
+    }
+
+    private void assignColors() {
+        while (!selectStack.isEmpty()) {
+            var node = selectStack.pop();
+            var usedColors = new boolean[k];
+
+            for (int i = 0; i < graph.getDegree(node); ++i) {
+                var neighbor = getAlias(graph.getNeighbor(node, i));
+                var neighborColor = colors[neighbor];
+
+                if ((state[neighbor] == COLORED || state[neighbor] == PRECOLORED) && neighborColor >= 0 && neighborColor < k)
+                    usedColors[neighborColor] = true;
+            }
+
+            var color = 0;
+            while (color < k && usedColors[color])
+                ++color;
+
+            if (color == k) {
+                state[node] = SPILLED;
+                spilledNodes.add(node);
+            } else {
+                state[node] = COLORED;
+                colors[node] = color;
+            }
+        }
+
+        for (int node = 0; node < state.length; ++node)
+            if (state[node] == COALESCED)
+                colors[node] = colors[getAlias(node)];
+    }
+}
@@ -0,0 +1,131 @@
+package pt.up.fe.comp2023.optimization;
+
+import java.util.Arrays;
+
+/**
+ * Interference graph of the variables of a method, numbered as in {@link LivenessAnalysis}.
+ * <p>
+ * Edges are kept both in a triangular bit matrix, for constant time membership tests, and in adjacency lists, for
+ * iterating the neighbors of a variable. Edges are undirected and added at most once.
+ * <p>
+ * The matrix has a bit for each pair of variables, indexed by a `long`, in the largest array the JVM allocates at most,
+ * which holds the pairs of at most {@link #MAX_SIZE} variables.
+ */
+public class InterferenceGraph {
+    private static final long MAX_WORDS = Integer.MAX_VALUE - 8;
+    public static final int MAX_SIZE = maxSize();
+
+    private final int size;
+    private final long[] matrix;
+    private final int[][] neighbors;
+    private final int[] degrees;
+
+    public InterferenceGraph(int size) {
+        if (size > MAX_SIZE)
+            throw new IllegalArgumentException("Cannot build the interference graph of " + size
+                    + " variables, as its bit matrix holds at most " + MAX_SIZE);
+
+        this.size = size;
+        this.matrix = new long[(int) words(size)];
+        this.neighbors = new int[size][];
+        this.degrees = new int[size];
+
+        Arrays.fill(neighbors, new int[0]);
+    }
+
+    /**
+     * Builds the graph in a single pass over the instructions: each variable defined by an instruction interferes
+     * with the variables live after it, and the variables live at the start of the method, such as parameters,
+     * interfere with each other. The destination of a copy does not interfere with its source, so that the copy can be
+     * coalesced.
+     */
+    public static InterferenceGraph build(LivenessAnalysis liveness) {
+        var graph = new InterferenceGraph(liveness.getVariables().size());
+        var instructions = liveness.getInstructions().size();
+
+        for (int i = 0; i < instructions; ++i) {
+            var out = liveness.getLiveOut(i);
+            var defs = liveness.getDefs(i);
+            var source = liveness.getMoveSource(i);
+
+            for (int d = BitSetUtils.nextSetBit(defs, 0); d >= 0; d = BitSetUtils.nextSetBit(defs, d + 1))
+                for (int v = BitSetUtils.nextSetBit(out, 0); v >= 0; v = BitSetUtils.nextSetBit(out, v + 1))
+                    if (v != source)
+                        graph.addEdge(d, v);
+        }
+
+        if (instructions > 0) {
+            var in = liveness.getLiveIn(0);
+
+            for (int a = BitSetUtils.nextSetBit(in, 0); a >= 0; a = BitSetUtils.nextSetBit(in, a + 1))
+                for (int b = BitSetUtils.nextSetBit(in, a + 1); b >= 0; b = BitSetUtils.nextSetBit(in, b + 1))
+                    graph.addEdge(a, b);
+        }
+
+        return graph;
+    }
+
+    /**
+     * @return the number of words of the matrix of `size` variables
+     */
+    private static long words(long size) {
+        return (size * (size - 1) / 2 + 63) >>> 6;
+    }
+
+    private static int maxSize() {
+        var size = (int) Math.sqrt(2.0 * 64 * MAX_WORDS);
+        while (words(size) > MAX_WORDS)
+            --size;
+
+        return size;
+    }
+
+    private static long bit(int a, int b) {
+        return a > b ? (long) a * (a - 1) / 2 + b : (long) b * (b - 1) / 2 + a;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean interferes(int a, int b) {
+        return a != b && BitSetUtils.get(matrix, bit(a, b));
+    }
+
+    public void addEdge(int a, int b) {
+        if (a == b)
+            return;
+
+        var bit = bit(a, b);
+        if (BitSetUtils.get(matrix, bit))
+            return;
+
+        BitSetUtils.set(matrix, bit);
+        addNeighbor(a, b);
+        addNeighbor(b, a);
+    }
+
+    private void addNeighbor(int variable, int neighbor) {
+        var list = neighbors[variable];
+
+        if (degrees[variable] == list.length)
+            neighbors[variable] = list = Arrays.copyOf(list, Math.max(4, list.length * 2));
+
+        list[degrees[variable]++] = neighbor;
+    }
+
+    public int getDegree(int variable) {
+        return degrees[variable];
+    }
+
+    /**
+     * @return the `i`-th neighbor of `variable`, for `i` smaller than its degree
+     */
+    public int getNeighbor(int variable, int i) {
+        return neighbors[variable][i];
+    }
+
+    public int[] getNeighbors(int variable) {
+        return Arrays.copyOf(neighbors[variable], degrees[variable]);
+    }
+}
@@ -0,0 +1,167 @@
+package pt.up.fe.comp2023.optimization;
+
+import java.util.*;
+
+/**
+ * Linear scan register allocation (Poletto and Sarkar), for methods too large for {@link GraphColoring}.
+ * <p>
+ * Each variable gets a single live interval over the instruction order, from the first to the last point where it is
+ * live, where instruction `i` reads its operands at point `2i` and writes its result at point `2i + 1`. Intervals are
+ * visited by start, registers are freed when an interval ends, and the destination of a copy takes the register of its
+ * source when the source ends at the copy. When more than `k` registers would be needed, the interval with the lowest
+ * spill cost for its length is spilled. Precolored variables keep their register, which no overlapping interval may
+ * take.
+ */
+public class LinearScan implements RegisterAssignment {
+    private final int k;
+    private final int[] colors;
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] hints;
+    private final double[] spillCosts;
+    private final List<Integer> intervals = new ArrayList<>();
+    private final Map<Integer, List<Integer>> fixedIntervals = new HashMap<>();
+
+    /**
+     * @param liveness   the liveness of the method
+     * @param k          the number of registers
+     * @param nodes      the variables to assign registers to
+     * @param precolored the register of each variable, or -1 if it must be chosen
+     * @param spillCosts the cost of spilling each variable, where cheaper variables are spilled first
+     */
+    public LinearScan(LivenessAnalysis liveness, int k, long[] nodes, int[] precolored, double[] spillCosts) {
+        var size = liveness.getVariables().size();
+
+        this.k = k;
+        this.colors = Arrays.copyOf(precolored, size);
+        this.starts = new int[size];
+        this.ends = new int[size];
+        this.hints = new int[size];
+        this.spillCosts = spillCosts;
+
+        Arrays.fill(starts, Integer.MAX_VALUE);
+        Arrays.fill(ends, -1);
+        Arrays.fill(hints, -1);
+        buildIntervals(liveness);
+
+        for (int node = 0; node < size; ++node) {
+            if (ends[node] < 0)
+                continue;
+
+            if (precolored[node] >= 0)
+                fixedIntervals.computeIfAbsent(precolored[node], register -> new ArrayList<>()).add(node);
+            else if (BitSetUtils.get(nodes, node))
+                intervals.add(node);
+        }
+    }
+
+    private void extend(int node, int point) {
+        starts[node] = Math.min(starts[node], point);
+        ends[node] = Math.max(ends[node], point);
+    }
+
+    private void buildIntervals(LivenessAnalysis liveness) {
+        for (int i = 0; i < liveness.getInstructions().size(); ++i) {
+            var in = liveness.getLiveIn(i);
+            var out = liveness.getLiveOut(i);
+            var defs = liveness.getDefs(i);
+
+            for (int v = BitSetUtils.nextSetBit(in, 0); v >= 0; v = BitSetUtils.nextSetBit(in, v + 1))
+                extend(v, 2 * i);
+            for (int v = BitSetUtils.nextSetBit(out, 0); v >= 0; v = BitSetUtils.nextSetBit(out, v + 1))
+                extend(v, 2 * i + 1);
+            for (int v = BitSetUtils.nextSetBit(defs, 0); v >= 0; v = BitSetUtils.nextSetBit(defs, v + 1))
+                extend(v, 2 * i + 1);
+
+            var source = liveness.getMoveSource(i);
+            if (source >= 0)
+                hints[BitSetUtils.nextSetBit(defs, 0)] = source;
+        }
+    }
+
+    private boolean overlaps(int a, int b) {
+        return starts[a] <= ends[b] && starts[b] <= ends[a];
+    }
+
+    /**
+     * @return whether `node` may take `register` without overlapping the variables precolored with it
+     */
+    private boolean isAllowed(int node, int register) {
+        for (var fixed : fixedIntervals.getOrDefault(register, List.of()))
+            if (overlaps(node, fixed))
+                return false;
+
+        return true;
+    }
+
+    private double spillPriority(int node) {
+        return spillCosts[node] / (ends[node] - starts[node] + 1);
+    }
+
+    @Override
+    public boolean color() {
+        intervals.sort(Comparator.comparingInt((Integer node) -> starts[node]).thenComparingInt(node -> node));
+
+        var active = new PriorityQueue<Integer>(Comparator.comparingInt((Integer node) -> ends[node]).thenComparingInt(node -> node));
+        var free = new TreeSet<Integer>(fixedIntervals.keySet());
+        var nextRegister = fixedIntervals.keySet().stream().mapToInt(Integer::intValue).max().orElse(-1) + 1;
+        var spilled = false;
+
+        for (int node : intervals) {
+            while (!active.isEmpty() && ends[active.peek()] < starts[node])
+                free.add(colors[active.poll()]);
+
+            var register = -1;
+            var hint = hints[node];
+
+            if (hint >= 0 && colors[hint] >= 0 && free.contains(colors[hint]) && isAllowed(node, colors[hint]))
+                register = colors[hint];
+
+            // Only the registers of precolored variables can be disallowed, so this stops after a few of them
+            for (var it = free.iterator(); register < 0 && it.hasNext(); ) {
+                var candidate = it.next();
+                if (isAllowed(node, candidate))
+                    register = candidate;
+            }
+
+            while (register < 0 && nextRegister < k) {
+                if (isAllowed(node, nextRegister))
+                    register = nextRegister;
+                else
+                    free.add(nextRegister);
+
+                ++nextRegister;
+            }
+
+            if (register >= 0) {
+                free.remove(register);
+                colors[node] = register;
+                active.add(node);
+                continue;
+            }
+
+            // Spill the cheapest of the new interval and the active ones whose register it may take
+            spilled = true;
+            int victim = node;
+
+            for (var other : active)
+                if (isAllowed(node, colors[other]) && spillPriority(other) < spillPriority(victim))
+                    victim = other;
+
+            if (victim == node)
+                continue;
+
+            active.remove(victim);
+            colors[node] = colors[victim];
+            colors[victim] = -1;
+            active.add(node);
+        }
+
+        return !spilled;
+    }
+
+    @Override
+    public int getColor(int node) {
+        return colors[node];
+    }
+}
@@ -0,0 +1,306 @@
+package pt.up.fe.comp2023.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Live variable analysis of the instructions of a method.
+ * <p>
+ * Local variables and parameters are numbered, and the uses, definitions, live-ins and live-outs of each instruction are
+ * bitsets over those numbers (see {@link BitSetUtils}). Uses and definitions are computed once, and the fixed point is
+ * reached with a worklist ordered by a postorder of the control flow graph, so that, being a backward analysis, an
+ * instruction is usually visited after its successors.
+ */
+public class LivenessAnalysis {
+    private final List<Instruction> instructions;
+    private final List<String> variables = new ArrayList<>();
+    private final Map<String, Integer> variableIndexes = new HashMap<>();
+    private final int[][] successors;
+    private final int[][] predecessors;
+    private final long[][] uses;
+    private final long[][] defs;
+    private final long[][] liveIns;
+    private final long[][] liveOuts;
+    private final int[] moveSources;
+    private int visitedInstructions = 0;
+
+    public LivenessAnalysis(Method method) {
+        this.instructions = method.getInstructions();
+
+        var varTable = method.getVarTable();
+        varTable.entrySet().stream()
+                .filter(entry -> entry.getValue().getScope() != VarScope.FIELD)
+                .sorted(Comparator.comparingInt((Map.Entry<String, Descriptor> entry) -> entry.getValue().getVirtualReg())
+                        .thenComparing(Map.Entry::getKey))
+                .forEach(entry -> {
+                    variableIndexes.put(entry.getKey(), variables.size());
+                    variables.add(entry.getKey());
+                });
+
+        int n = instructions.size();
+        int words = BitSetUtils.words(variables.size());
+
+        successors = new int[n][];
+        predecessors = new int[n][];
+        uses = new long[n][words];
+        defs = new long[n][words];
+        liveIns = new long[n][words];
+        liveOuts = new long[n][words];
+        moveSources = new int[n];
+
+        for (int i = 0; i < n; ++i) {
+            addUses(instructions.get(i), uses[i]);
+            addDefs(instructions.get(i), defs[i]);
+            moveSources[i] = moveSource(instructions.get(i));
+        }
+
+        buildSuccessors(method);
+        solve();
+    }
+
+    public List<Instruction> getInstructions() {
+        return instructions;
+    }
+
+    /**
+     * @return the variables, indexed by their number in the bitsets
+     */
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    /**
+     * @return the number of `variable` in the bitsets, or -1 if it is not a local variable or parameter
+     */
+    public int getVariableIndex(String variable) {
+        return variableIndexes.getOrDefault(variable, -1);
+    }
+
+    /**
+     * The returned bitsets belong to the analysis and must not be modified.
+     */
+    public long[] getUses(int instruction) {
+        return uses[instruction];
+    }
+
+    public long[] getDefs(int instruction) {
+        return defs[instruction];
+    }
+
+    public long[] getLiveIn(int instruction) {
+        return liveIns[instruction];
+    }
+
+    public long[] getLiveOut(int instruction) {
+        return liveOuts[instruction];
+    }
+
+    public int[] getSuccessors(int instruction) {
+        return successors[instruction];
+    }
+
+    /**
+     * @return the variable copied by `instruction` if it is a copy between two variables of the same type, such as
+     * `a.i32 :=.i32 b.i32`, or -1 otherwise
+     */
+    public int getMoveSource(int instruction) {
+        return moveSources[instruction];
+    }
+
+    /**
+     * @return how many times an instruction was visited until the fixed point was reached
+     */
+    public int getVisitedInstructions() {
+        return visitedInstructions;
+    }
+
+    /**
+     * @return the names of the variables in `set`
+     */
+    public Set<String> toNames(long[] set) {
+        Set<String> names = new HashSet<>();
+
+        for (int i = BitSetUtils.nextSetBit(set, 0); i >= 0; i = BitSetUtils.nextSetBit(set, i + 1))
+            names.add(variables.get(i));
+
+        return names;
+    }
+
+    private void addVariable(Element element, long[] set) {
+        if (element instanceof Operand operand) {
+            var index = variableIndexes.get(operand.getName());
+
+            if (index != null)
+                BitSetUtils.set(set, index);
+        }
+    }
+
+    private void addUses(Instruction instruction, long[] set) {
+        for (var element : SSAForm.getUsedElements(instruction))
+            addVariable(element, set);
+
+        // Storing into an array element reads the array reference
+        if (instruction instanceof AssignInstruction assign) {
+            if (assign.getDest() instanceof ArrayOperand array)
+                addVariable(array, set);
+
+            instruction = assign.getRhs();
+        }
+
+        // The object a method or field is accessed on, which is not a value for SSAForm
+        if (instruction instanceof CallInstruction call) {
+            if (call.getInvocationType() != CallType.invokestatic && call.getInvocationType() != CallType.NEW)
+                addVariable(call.getFirstArg(), set);
+        } else if (instruction instanceof GetFieldInstruction get) {
+            addVariable(get.getFirstOperand(), set);
+        } else if (instruction instanceof PutFieldInstruction put) {
+            addVariable(put.getFirstOperand(), set);
+        }
+    }
+
+    private void addDefs(Instruction instruction, long[] set) {
+        if (instruction instanceof AssignInstruction assign && !(assign.getDest() instanceof ArrayOperand))
+            addVariable(assign.getDest(), set);
+    }
+
+    private int moveSource(Instruction instruction) {
+        if (!(instruction instanceof AssignInstruction assign) || !(assign.getRhs() instanceof SingleOpInstruction sop))
+            return -1;
+
+        if (!(assign.getDest() instanceof Operand dest) || dest instanceof ArrayOperand
+                || !(sop.getSingleOperand() instanceof Operand source) || source instanceof ArrayOperand)
+            return -1;
+
+        if (dest.getType().getTypeOfElement() != source.getType().getTypeOfElement()
+                || getVariableIndex(dest.getName()) < 0)
+            return -1;
+
+        return getVariableIndex(source.getName());
+    }
+
+    private void buildSuccessors(Method method) {
+        int n = instructions.size();
+        Map<Instruction, Integer> indexes = new IdentityHashMap<>();
+
+        for (int i = 0; i < n; ++i)
+            indexes.put(instructions.get(i), i);
+
+        var labels = method.getLabels();
+        int[] predecessorCounts = new int[n];
+
+        for (int i = 0; i < n; ++i) {
+            var instruction = instructions.get(i);
+            var next = i + 1 < n ? i + 1 : -1;
+
+            var targets = switch (instruction.getInstType()) {
+                case GOTO -> new int[] { indexOf(labels.get(((GotoInstruction) instruction).getLabel()), indexes) };
+                case BRANCH -> new int[] { indexOf(labels.get(((CondBranchInstruction) instruction).getLabel()), indexes), next };
+                case RETURN -> new int[0];
+                default -> new int[] { next };
+            };
+
+            successors[i] = Arrays.stream(targets).filter(target -> target >= 0).distinct().toArray();
+
+            for (var successor : successors[i])
+                ++predecessorCounts[successor];
+        }
+
+        for (int i = 0; i < n; ++i)
+            predecessors[i] = new int[predecessorCounts[i]];
+
+        for (int i = 0; i < n; ++i)
+            for (var successor : successors[i])
+                predecessors[successor][--predecessorCounts[successor]] = i;
+    }
+
+    private static int indexOf(Instruction instruction, Map<Instruction, Integer> indexes) {
+        return instruction == null ? -1 : indexes.getOrDefault(instruction, -1);
+    }
+
+    /**
+     * @return the instructions in a postorder of the control flow graph, followed by the unreachable ones
+     */
+    private int[] postorder() {
+        int n = instructions.size();
+        int[] order = new int[n];
+        int size = 0;
+
+        if (n > 0) {
+            boolean[] visited = new boolean[n];
+            int[] stack = new int[n];
+            int[] nextSuccessor = new int[n];
+            int top = 0;
+
+            stack[top++] = 0;
+            visited[0] = true;
+
+            while (top > 0) {
+                var instruction = stack[top - 1];
+
+                if (nextSuccessor[instruction] < successors[instruction].length) {
+                    var successor = successors[instruction][nextSuccessor[instruction]++];
+
+                    if (!visited[successor]) {
+                        visited[successor] = true;
+                        stack[top++] = successor;
+                    }
+                } else {
+                    order[size++] = instruction;
+                    --top;
+                }
+            }
+
+            for (int i = n - 1; i >= 0; --i)
+                if (!visited[i])
+                    order[size++] = i;
+        }
+
+        return order;
+    }
+
+    private void solve() {
+        int n = instructions.size();
+        int words = BitSetUtils.words(variables.size());
+        var order = postorder();
+        int[] position = new int[n];
+
+        for (int i = 0; i < n; ++i)
+            position[order[i]] = i;
+
+        var worklist = new BitSet(n);
+        worklist.set(0, n);
+
+        long[] newLiveIn = new long[words];
+
+        for (int p = worklist.nextSetBit(0); p >= 0; p = worklist.nextSetBit(0)) {
+            worklist.clear(p);
+            var instruction = order[p];
+            ++visitedInstructions;
+
+            // out = union of the live-ins of the successors
+            var out = liveOuts[instruction];
+            Arrays.fill(out, 0);
+            for (var successor : successors[instruction])
+                BitSetUtils.or(out, liveIns[successor]);
+
+            // in = uses + (out - defs)
+            var use = uses[instruction];
+            var def = defs[instruction];
+            var in = liveIns[instruction];
+            boolean changed = false;
+
+            for (int w = 0; w < words; ++w) {
+                newLiveIn[w] = use[w] | (out[w] & ~def[w]);
+                changed |= newLiveIn[w] != in[w];
+            }
+
+            if (changed) {
+                System.arraycopy(newLiveIn, 0, in, 0, words);
+
+                for (var predecessor : predecessors[instruction])
+                    worklist.set(position[predecessor]);
+            }
+        }
+    }
+}
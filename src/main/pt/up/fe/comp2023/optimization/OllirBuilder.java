@@ -0,0 +1,309 @@
+package pt.up.fe.comp2023.optimization;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.jmm.analysis.table.Symbol;
+import pt.up.fe.comp2023.JmmType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Builds the {@link ClassUnit} of the code {@link OllirVisitor} generates directly, instead of writing it as OLLIR code
+ * and parsing it back.
+ * <p>
+ * The visitor hands over each operand and expression as an {@link OllirExpression}, which is turned into the elements
+ * and instructions the OLLIR parser would give its code, with the same types and parameter ids.
+ */
+public class OllirBuilder {
+    private final ClassUnit ollirClass = new ClassUnit();
+    private final List<String> labels = new ArrayList<>();
+    private Method method;
+
+    public void addImport(String name) {
+        ollirClass.addImport(name);
+    }
+
+    public void setClass(String className, String superClass) {
+        ollirClass.setClassName(className);
+
+        if (superClass != null)
+            ollirClass.setSuperClass(superClass);
+    }
+
+    public void addField(Symbol symbol) {
+        var field = new Field();
+
+        field.setFieldName(symbol.getName());
+        field.setFieldType(type(JmmType.of(symbol.getType())));
+        ollirClass.addField(field);
+    }
+
+    /**
+     * Starts a method, to which the following instructions are added.
+     */
+    public void addMethod(String name, Collection<String> modifiers, List<Symbol> parameters, JmmType returnType,
+                          boolean constructor) {
+        method = new Method(ollirClass);
+        labels.clear();
+
+        if (constructor)
+            method.setConstructMethod();
+
+        for (var modifier : modifiers) {
+            switch (modifier) {
+                case "public" -> method.setMethodAccessModifier(AccessModifiers.PUBLIC);
+                case "private" -> method.setMethodAccessModifier(AccessModifiers.PRIVATE);
+                case "protected" -> method.setMethodAccessModifier(AccessModifiers.PROTECTED);
+                case "static" -> method.setStaticMethod();
+                case "final" -> method.setFinalMethod();
+                default -> throw new RuntimeException("Unsupported method modifier '" + modifier + "'");
+            }
+        }
+
+        // Parameters are numbered from 1 in instance methods, as `this` comes first
+        var paramId = method.isStaticMethod() ? 0 : 1;
+        for (var parameter : parameters) {
+            var operand = new Operand(parameter.getName(), type(JmmType.of(parameter.getType())));
+
+            operand.setParamId(paramId++);
+            method.addParam(operand);
+        }
+
+        method.setReturnType(type(returnType));
+        method.setMethodName(name);
+        ollirClass.addMethod(method);
+    }
+
+    /**
+     * Marks the next instruction added with `label`.
+     */
+    public void addLabel(String label) {
+        labels.add(label);
+    }
+
+    /**
+     * @param dest a variable or array element
+     */
+    public void addAssign(OllirExpression dest, JmmType type, OllirExpression rhs) {
+        addInstruction(new AssignInstruction(element(dest), type(type), instruction(rhs)));
+    }
+
+    /**
+     * @param condition a boolean operand or operation, such as `!.bool t1.bool`
+     */
+    public void addBranch(OllirExpression condition, String label) {
+        var instruction = instruction(condition);
+        CondBranchInstruction branch;
+
+        if (instruction instanceof SingleOpInstruction singleOp
+                && singleOp.getSingleOperand().getType().getTypeOfElement() == ElementType.BOOLEAN)
+            branch = new SingleOpCondInstruction(singleOp);
+        else if (instruction instanceof OpInstruction op
+                && op.getOperation().getTypeInfo().getTypeOfElement() == ElementType.BOOLEAN)
+            branch = new OpCondInstruction(op);
+        else
+            throw new RuntimeException("Invalid condition '" + condition + "', expected a boolean operand or operation");
+
+        branch.setLabel(label);
+        addInstruction(branch);
+    }
+
+    public void addGoto(String label) {
+        addInstruction(new GotoInstruction(label));
+    }
+
+    /**
+     * @param value the operand returned, or `null` if the method returns nothing
+     */
+    public void addReturn(JmmType type, OllirExpression value) {
+        var instruction = value == null ? new ReturnInstruction() : new ReturnInstruction(element(value));
+        instruction.setReturnType(type(type));
+        addInstruction(instruction);
+    }
+
+    /**
+     * Adds an instruction whose result is not stored, such as a call or a `putfield`.
+     */
+    public void addStatement(OllirExpression statement) {
+        addInstruction(instruction(statement));
+    }
+
+    /**
+     * @return the class built, with the variable tables of its methods
+     */
+    public ClassUnit build() {
+        ollirClass.buildVarTables();
+        return ollirClass;
+    }
+
+    private void addInstruction(Instruction instruction) {
+        for (var label : labels)
+            method.addLabel(label, instruction);
+
+        labels.clear();
+        method.addInstr(instruction);
+    }
+
+    private Instruction instruction(OllirExpression expression) {
+        var type = type(expression.type());
+
+        if (expression instanceof OllirExpression.Call call) {
+            var arguments = elements(call.arguments());
+            var method = new LiteralElement("\"" + call.method() + "\"", new Type(ElementType.STRING));
+
+            return switch (call.invocation()) {
+                case "invokevirtual" -> new CallInstruction(CallType.invokevirtual, object(call.target()), method, arguments, type);
+                case "invokespecial" -> new CallInstruction(CallType.invokespecial, object(call.target()), method, arguments, type);
+                // Like the OLLIR parser, the class called is typed as the class being compiled
+                case "invokestatic" -> new CallInstruction(CallType.invokestatic,
+                        new Operand(call.target().toString(), new ClassType(ElementType.CLASS, ollirClass.getClassName())),
+                        method, arguments, type);
+                default -> throw new RuntimeException("Unsupported OLLIR call '" + expression + "'");
+            };
+        }
+
+        if (expression instanceof OllirExpression.New _new) {
+            var created = _new.type().isArray()
+                    ? new Operand("array", new ArrayType())
+                    : new Operand(_new.type().getOllirType(), new ClassType(ElementType.OBJECTREF, _new.type().getOllirType()));
+
+            return new CallInstruction(CallType.NEW, created, elements(_new.arguments()), type);
+        }
+
+        if (expression instanceof OllirExpression.GetField getField && !getField.isStatic())
+            return new GetFieldInstruction(object(getField.object()), element(getField.field()), type);
+
+        if (expression instanceof OllirExpression.PutField putField && !putField.isStatic())
+            return new PutFieldInstruction(object(putField.object()), element(putField.field()), element(putField.value()), type);
+
+        if (expression instanceof OllirExpression.ArrayLength arrayLength)
+            return new CallInstruction(CallType.arraylength, element(arrayLength.array()), type);
+
+        if (expression instanceof OllirExpression.Ldc ldc)
+            return new CallInstruction(CallType.ldc, element(ldc.value()), type);
+
+        if (expression instanceof OllirExpression.UnaryOp unaryOp)
+            return new UnaryOpInstruction(operation(unaryOp.operator(), unaryOp.type()), element(unaryOp.operand()));
+
+        if (expression instanceof OllirExpression.BinaryOp binaryOp)
+            return new BinaryOpInstruction(element(binaryOp.lhs()), operation(binaryOp.operator(), binaryOp.type()),
+                    element(binaryOp.rhs()));
+
+        return new SingleOpInstruction(element(expression));
+    }
+
+    private static ArrayList<Element> elements(List<OllirExpression> expressions) {
+        var elements = new ArrayList<Element>(expressions.size());
+
+        for (var expression : expressions)
+            elements.add(element(expression));
+
+        return elements;
+    }
+
+    /**
+     * @return the object of a call or field access, where `this` refers to the class itself
+     */
+    private static Element object(OllirExpression expression) {
+        if (expression instanceof OllirExpression.This _this)
+            return new Operand("this", new ClassType(ElementType.THIS, _this.className()));
+
+        return element(expression);
+    }
+
+    /**
+     * @return the literal, variable or array element `expression`
+     */
+    private static Element element(OllirExpression expression) {
+        if (expression instanceof OllirExpression.Literal literal) {
+            var value = literal.value().startsWith("+") ? literal.value().substring(1) : literal.value();
+            return new LiteralElement(value, type(literal.type()));
+        }
+
+        if (expression instanceof OllirExpression.StringLiteral literal)
+            return new LiteralElement(literal.value(), new Type(ElementType.STRING));
+
+        if (expression instanceof OllirExpression.This _this)
+            return new Operand("this", type(_this.type()));
+
+        if (expression instanceof OllirExpression.Variable variable)
+            return paramId(new Operand(variable.name(), type(variable.type())), variable.paramId());
+
+        if (expression instanceof OllirExpression.ArrayAccess access) {
+            var indexes = new ArrayList<Element>(List.of(element(access.index())));
+            var array = access.array();
+
+            return paramId(new ArrayOperand(array.name(), type(access.type()), indexes), array.paramId());
+        }
+
+        throw new RuntimeException("Expected an OLLIR operand, got '" + expression + "'");
+    }
+
+    private static Operand paramId(Operand operand, int paramId) {
+        if (paramId > 0)
+            operand.setParamId(paramId);
+
+        return operand;
+    }
+
+    private static Operation operation(String operator, JmmType type) {
+        var opType = switch (operator) {
+            case "+" -> OperationType.ADD;
+            case "-" -> OperationType.SUB;
+            case "*" -> OperationType.MUL;
+            case "/" -> OperationType.DIV;
+            case "&&" -> OperationType.ANDB;
+            case "||" -> OperationType.ORB;
+            case "&" -> OperationType.AND;
+            case "|" -> OperationType.OR;
+            case "^" -> OperationType.XOR;
+            case "<" -> OperationType.LTH;
+            case "<=" -> OperationType.LTE;
+            case ">" -> OperationType.GTH;
+            case ">=" -> OperationType.GTE;
+            case "==" -> OperationType.EQ;
+            case "!=" -> OperationType.NEQ;
+            case "!" -> OperationType.NOTB;
+            case "~" -> OperationType.NOT;
+            default -> throw new RuntimeException("Unsupported OLLIR operation '" + operator + "'");
+        };
+
+        return new Operation(opType, type(type));
+    }
+
+    /**
+     * @return the OLLIR type of `type`, where like in the OLLIR parser types other than `i32`, `bool`, `String` and `V`
+     * are classes
+     */
+    private static Type type(JmmType type) {
+        var dimensions = 0;
+
+        while (type.isArray()) {
+            ++dimensions;
+            type = type.getElementType();
+        }
+
+        var elementType = switch (type.getOllirType()) {
+            case "i32" -> new Type(ElementType.INT32);
+            case "bool" -> new Type(ElementType.BOOLEAN);
+            case "String" -> new Type(ElementType.STRING);
+            case "V" -> new Type(ElementType.VOID);
+            default -> new ClassType(ElementType.OBJECTREF, type.getOllirType());
+        };
+
+        if (dimensions == 0)
+            return elementType;
+
+        var arrayType = new ArrayType();
+        arrayType.setNumDimensions(dimensions);
+        arrayType.setTypeOfElements(elementType.getTypeOfElement());
+
+        if (elementType instanceof ClassType classType)
+            arrayType.setElementClass(classType.getName());
+        else if (elementType.getTypeOfElement() == ElementType.STRING)
+            arrayType.setElementClass("String");
+
+        return arrayType;
+    }
+}
@@ -0,0 +1,69 @@
+package pt.up.fe.comp2023.optimization;
+
+import org.specs.comp.ollir.ClassUnit;
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.specs.util.SpecsCollections;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An OLLIR result over a class built by {@link OllirBuilder} instead of parsed, whose OLLIR code is only written when
+ * asked for, as the class is when it is asked for.
+ */
+public class OllirClassResult extends OllirResult {
+    // OllirResult can only be created by parsing code, so it parses the smallest class there is, and is otherwise unused
+    private static final String EMPTY_CLASS = "Empty {}";
+
+    private final ClassUnit ollirClass;
+    private final SymbolTable symbolTable;
+    private final List<Report> reports;
+    private final Map<String, String> config;
+
+    public OllirClassResult(JmmSemanticsResult semanticsResult, ClassUnit ollirClass, List<Report> reports) {
+        this(ollirClass, semanticsResult.getSymbolTable(), SpecsCollections.concat(semanticsResult.getReports(), reports),
+                semanticsResult.getConfig());
+    }
+
+    public OllirClassResult(ClassUnit ollirClass, Map<String, String> config) {
+        this(ollirClass, null, new ArrayList<>(), config);
+    }
+
+    private OllirClassResult(ClassUnit ollirClass, SymbolTable symbolTable, List<Report> reports, Map<String, String> config) {
+        super(EMPTY_CLASS, config);
+
+        this.ollirClass = ollirClass;
+        this.symbolTable = symbolTable;
+        this.reports = reports;
+        this.config = config;
+    }
+
+    @Override
+    public String getOllirCode() {
+        return OllirPrinter.print(ollirClass);
+    }
+
+    @Override
+    public ClassUnit getOllirClass() {
+        return ollirClass;
+    }
+
+    @Override
+    public SymbolTable getSymbolTable() {
+        return symbolTable;
+    }
+
+    @Override
+    public List<Report> getReports() {
+        return reports;
+    }
+
+    @Override
+    public Map<String, String> getConfig() {
+        return config;
+    }
+}
@@ -0,0 +1,279 @@
+package pt.up.fe.comp2023.optimization;
+
+import pt.up.fe.comp2023.JmmType;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Operand or expression generated by {@link OllirVisitor}. Its {@link #toString()} is the OLLIR code it is written as,
+ * and {@link OllirBuilder} turns it into the elements and instructions of a class without reading that code.
+ */
+public sealed interface OllirExpression {
+
+    /**
+     * @return the type of the value of the expression
+     */
+    JmmType type();
+
+    /**
+     * @return the same expression with the type written last, that of its value or of its last operand, set to `type`
+     */
+    OllirExpression withType(JmmType type);
+
+    private static String argumentList(List<OllirExpression> arguments) {
+        return arguments.stream().map(argument -> ", " + argument).collect(Collectors.joining());
+    }
+
+    /**
+     * Integer or boolean literal, such as `1.i32`.
+     */
+    record Literal(String value, JmmType type) implements OllirExpression {
+        @Override
+        public Literal withType(JmmType type) {
+            return new Literal(value, type);
+        }
+
+        @Override
+        public String toString() {
+            return value + "." + type.getOllirType();
+        }
+    }
+
+    /**
+     * String literal, with its quotes and escapes as written in the source.
+     */
+    record StringLiteral(String value) implements OllirExpression {
+        @Override
+        public JmmType type() {
+            return JmmType.STRING;
+        }
+
+        @Override
+        public StringLiteral withType(JmmType type) {
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+
+    /**
+     * Local variable, field or parameter, where `paramId` is the position of a parameter from 1 and 0 otherwise.
+     */
+    record Variable(String name, JmmType type, int paramId) implements OllirExpression {
+        public Variable(String name, JmmType type) {
+            this(name, type, 0);
+        }
+
+        @Override
+        public Variable withType(JmmType type) {
+            return new Variable(name, type, paramId);
+        }
+
+        @Override
+        public String toString() {
+            return (paramId > 0 ? "$" + paramId + "." : "") + name + "." + type.getOllirType();
+        }
+    }
+
+    /**
+     * `this`, of the class being compiled.
+     */
+    record This(String className) implements OllirExpression {
+        @Override
+        public JmmType type() {
+            return JmmType.of(className);
+        }
+
+        @Override
+        public This withType(JmmType type) {
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return "this." + className;
+        }
+    }
+
+    /**
+     * Class whose static methods and fields are accessed, such as an imported class.
+     */
+    record ClassName(String name) implements OllirExpression {
+        @Override
+        public JmmType type() {
+            return JmmType.of(name);
+        }
+
+        @Override
+        public ClassName withType(JmmType type) {
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Element of an array variable, such as `a[i.i32].i32`.
+     */
+    record ArrayAccess(Variable array, OllirExpression index, JmmType type) implements OllirExpression {
+        @Override
+        public ArrayAccess withType(JmmType type) {
+            return new ArrayAccess(array, index, type);
+        }
+
+        @Override
+        public String toString() {
+            return (array.paramId() > 0 ? "$" + array.paramId() + "." : "") + array.name() + "[" + index + "]."
+                    + type.getOllirType();
+        }
+    }
+
+    /**
+     * Operation on one operand, such as `!.bool a.bool`, where `operator` is the Java-- operator.
+     */
+    record UnaryOp(String operator, JmmType type, OllirExpression operand) implements OllirExpression {
+        @Override
+        public UnaryOp withType(JmmType type) {
+            return new UnaryOp(operator, this.type, operand.withType(type));
+        }
+
+        @Override
+        public String toString() {
+            return operator + "." + type.getOllirType() + " " + operand;
+        }
+    }
+
+    /**
+     * Operation on two operands, such as `a.i32 +.i32 1.i32`, where `operator` is the Java-- operator.
+     */
+    record BinaryOp(OllirExpression lhs, String operator, JmmType type, OllirExpression rhs) implements OllirExpression {
+        @Override
+        public BinaryOp withType(JmmType type) {
+            return new BinaryOp(lhs, operator, this.type, rhs.withType(type));
+        }
+
+        @Override
+        public String toString() {
+            return lhs + " " + operator + "." + type.getOllirType() + " " + rhs;
+        }
+    }
+
+    /**
+     * Call of `method` on `target`: `invokestatic` on a {@link ClassName}, `invokespecial` for constructors and
+     * `invokevirtual` otherwise.
+     */
+    record Call(String invocation, OllirExpression target, String method, List<OllirExpression> arguments,
+                JmmType type) implements OllirExpression {
+        @Override
+        public Call withType(JmmType type) {
+            return new Call(invocation, target, method, arguments, type);
+        }
+
+        @Override
+        public String toString() {
+            return invocation + "(" + target + ", \"" + method + "\"" + argumentList(arguments) + ")." + type.getOllirType();
+        }
+    }
+
+    /**
+     * Creation of an object of `type`, whose constructor is called separately, or of an array of `type` whose size is
+     * the only argument.
+     */
+    record New(List<OllirExpression> arguments, JmmType type) implements OllirExpression {
+        @Override
+        public New withType(JmmType type) {
+            return new New(arguments, type);
+        }
+
+        @Override
+        public String toString() {
+            var created = type.isArray() ? "array" : type.getOllirType();
+            return "new(" + created + argumentList(arguments) + ")." + type.getOllirType();
+        }
+    }
+
+    /**
+     * Value of `field` of `object`, which is static if `object` is a {@link ClassName}.
+     */
+    record GetField(OllirExpression object, Variable field, JmmType type) implements OllirExpression {
+        public boolean isStatic() {
+            return object instanceof ClassName;
+        }
+
+        @Override
+        public GetField withType(JmmType type) {
+            return new GetField(object, field, type);
+        }
+
+        @Override
+        public String toString() {
+            return (isStatic() ? "getstatic(" : "getfield(") + object + ", " + field + ")." + type.getOllirType();
+        }
+    }
+
+    /**
+     * Store of `value` in `field` of `object`, which is static if `object` is a {@link ClassName}.
+     */
+    record PutField(OllirExpression object, Variable field, OllirExpression value) implements OllirExpression {
+        public boolean isStatic() {
+            return object instanceof ClassName;
+        }
+
+        @Override
+        public JmmType type() {
+            return JmmType.VOID;
+        }
+
+        @Override
+        public PutField withType(JmmType type) {
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return (isStatic() ? "putstatic(" : "putfield(") + object + ", " + field + ", " + value + ").V";
+        }
+    }
+
+    /**
+     * Length of an array.
+     */
+    record ArrayLength(OllirExpression array, JmmType type) implements OllirExpression {
+        @Override
+        public ArrayLength withType(JmmType type) {
+            return new ArrayLength(array, type);
+        }
+
+        @Override
+        public String toString() {
+            return "arraylength(" + array + ")." + type.getOllirType();
+        }
+    }
+
+    /**
+     * Load of a string constant.
+     */
+    record Ldc(StringLiteral value) implements OllirExpression {
+        @Override
+        public JmmType type() {
+            return JmmType.STRING;
+        }
+
+        @Override
+        public Ldc withType(JmmType type) {
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return "ldc(" + value + ").String";
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package pt.up.fe.comp2023.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Writes a {@link ClassUnit} as OLLIR code, which the OLLIR parser reads back into the same class. It is used to show
+ * the code of classes {@link OllirBuilder} builds, which are never written otherwise.
+ */
+public class OllirPrinter {
+    private final StringBuilder code = new StringBuilder();
+
+    public static String print(ClassUnit ollirClass) {
+        var printer = new OllirPrinter();
+        printer.printClass(ollirClass);
+        return printer.code.toString();
+    }
+
+    private void printClass(ClassUnit ollirClass) {
+        for (var _import : ollirClass.getImports())
+            code.append("import ").append(_import).append(";\n");
+
+        if (!ollirClass.getImports().isEmpty())
+            code.append("\n");
+
+        code.append(modifiers(ollirClass.getClassAccessModifier(), ollirClass.isStaticClass(), ollirClass.isFinalClass()))
+                .append(ollirClass.getClassName());
+
+        if (ollirClass.getSuperClass() != null)
+            code.append(" extends ").append(ollirClass.getSuperClass());
+
+        code.append(" {\n");
+
+        for (var field : ollirClass.getFields()) {
+            code.append("    .field ")
+                    .append(modifiers(field.getFieldAccessModifier(), field.isStaticField(), field.isFinalField()))
+                    .append(field.getFieldName()).append(".").append(type(field.getFieldType()));
+
+            if (field.isInitialized())
+                code.append(" := ").append(field.getInitialValue());
+
+            code.append(";\n");
+        }
+
+        for (var method : ollirClass.getMethods())
+            printMethod(method);
+
+        code.append("}\n");
+    }
+
+    private void printMethod(Method method) {
+        code.append("\n    ").append(method.isConstructMethod() ? ".construct " : ".method ")
+                .append(modifiers(method.getMethodAccessModifier(), method.isStaticMethod(), method.isFinalMethod()))
+                .append(method.isConstructMethod() ? method.getOllirClass().getClassName() : method.getMethodName())
+                .append("(")
+                .append(method.getParams().stream()
+                        .map(param -> ((Operand) param).getName() + "." + type(param.getType()))
+                        .collect(Collectors.joining(", ")))
+                .append(").").append(type(method.getReturnType())).append(" {\n");
+
+        Map<Instruction, List<String>> labels = new IdentityHashMap<>();
+        for (var label : method.getLabels().entrySet())
+            labels.computeIfAbsent(label.getValue(), instruction -> new ArrayList<>()).add(label.getKey());
+
+        for (var instruction : method.getInstructions()) {
+            for (var label : labels.getOrDefault(instruction, List.of()))
+                code.append("    ").append(label).append(":\n");
+
+            code.append("        ").append(statement(instruction)).append("\n");
+        }
+
+        code.append("    }\n");
+    }
+
+    private static String modifiers(AccessModifiers accessModifier, boolean isStatic, boolean isFinal) {
+        var modifiers = new StringBuilder();
+
+        if (accessModifier != AccessModifiers.DEFAULT)
+            modifiers.append(accessModifier.name().toLowerCase()).append(" ");
+        if (isStatic)
+            modifiers.append("static ");
+        if (isFinal)
+            modifiers.append("final ");
+
+        return modifiers.toString();
+    }
+
+    private static String statement(Instruction instruction) {
+        if (instruction instanceof AssignInstruction assign)
+            return element(assign.getDest()) + " :=." + type(assign.getTypeOfAssign()) + " " + expression(assign.getRhs()) + ";";
+
+        if (instruction instanceof CondBranchInstruction branch)
+            return "if (" + expression(branch.getCondition()) + ") goto " + branch.getLabel() + ";";
+
+        if (instruction instanceof GotoInstruction _goto)
+            return "goto " + _goto.getLabel() + ";";
+
+        if (instruction instanceof ReturnInstruction _return)
+            return "ret." + type(_return.getReturnType())
+                    + (_return.hasReturnValue() ? " " + element(_return.getOperand()) : "") + ";";
+
+        if (instruction instanceof PutFieldInstruction putField)
+            return "putfield(" + element(putField.getFirstOperand()) + ", " + element(putField.getSecondOperand()) + ", "
+                    + element(putField.getThirdOperand()) + ")." + type(putField.getFieldType()) + ";";
+
+        return expression(instruction) + ";";
+    }
+
+    private static String expression(Instruction instruction) {
+        if (instruction instanceof SingleOpInstruction singleOp)
+            return element(singleOp.getSingleOperand());
+
+        if (instruction instanceof UnaryOpInstruction unaryOp)
+            return operation(unaryOp.getOperation()) + " " + element(unaryOp.getOperand());
+
+        if (instruction instanceof BinaryOpInstruction binaryOp)
+            return element(binaryOp.getLeftOperand()) + " " + operation(binaryOp.getOperation()) + " "
+                    + element(binaryOp.getRightOperand());
+
+        if (instruction instanceof GetFieldInstruction getField)
+            return "getfield(" + element(getField.getFirstOperand()) + ", " + element(getField.getSecondOperand()) + ")."
+                    + type(getField.getFieldType());
+
+        if (instruction instanceof CallInstruction call)
+            return call(call);
+
+        throw new RuntimeException("Unsupported OLLIR instruction " + instruction.getInstType());
+    }
+
+    private static String call(CallInstruction call) {
+        var arguments = new ArrayList<String>();
+
+        // The class of a static call and the class or `array` of a `new` are written without a type
+        if (call.getInvocationType() == CallType.invokestatic || call.getInvocationType() == CallType.NEW)
+            arguments.add(((Operand) call.getFirstArg()).getName());
+        else
+            arguments.add(element(call.getFirstArg()));
+
+        if (call.getSecondArg() != null)
+            arguments.add(element(call.getSecondArg()));
+
+        if (call.getListOfOperands() != null)
+            call.getListOfOperands().forEach(argument -> arguments.add(element(argument)));
+
+        var name = call.getInvocationType() == CallType.NEW ? "new" : call.getInvocationType().name();
+
+        return name + "(" + String.join(", ", arguments) + ")." + type(call.getReturnType());
+    }
+
+    private static String operation(Operation operation) {
+        var operator = switch (operation.getOpType()) {
+            case ADD -> "+";
+            case SUB -> "-";
+            case MUL -> "*";
+            case DIV -> "/";
+            case ANDB -> "&&";
+            case ORB -> "||";
+            case AND -> "&";
+            case OR -> "|";
+            case XOR -> "^";
+            case LTH -> "<";
+            case LTE -> "<=";
+            case GTH -> ">";
+            case GTE -> ">=";
+            case EQ -> "==";
+            case NEQ -> "!=";
+            case NOTB -> "!";
+            case NOT -> "~";
+            default -> throw new RuntimeException("Unsupported OLLIR operation " + operation.getOpType());
+        };
+
+        return operator + "." + type(operation.getTypeInfo());
+    }
+
+    private static String element(Element element) {
+        if (element instanceof LiteralElement literal)
+            return literal.getType().getTypeOfElement() == ElementType.STRING
+                    ? literal.getLiteral()
+                    : literal.getLiteral() + "." + type(literal.getType());
+
+        var operand = (Operand) element;
+        var code = new StringBuilder();
+
+        if (operand.isParameter())
+            code.append("$").append(operand.getParamId()).append(".");
+
+        code.append(operand.getName());
+
+        if (operand instanceof ArrayOperand arrayOperand)
+            for (var index : arrayOperand.getIndexOperands())
+                code.append("[").append(element(index)).append("]");
+
+        return code.append(".").append(type(operand.getType())).toString();
+    }
+
+    private static String type(Type type) {
+        if (type instanceof ArrayType arrayType)
+            return "array.".repeat(arrayType.getNumDimensions()) + type(arrayType.getElementType());
+
+        return switch (type.getTypeOfElement()) {
+            case INT32 -> "i32";
+            case BOOLEAN -> "bool";
+            case STRING -> "String";
+            case VOID -> "V";
+            case OBJECTREF, CLASS, THIS -> ((ClassType) type).getName();
+            default -> throw new RuntimeException("Unsupported OLLIR type " + type.getTypeOfElement());
+        };
+    }
+}
@@ -1,28 +1,49 @@
 package pt.up.fe.comp2023.optimization;
 
+import org.specs.comp.ollir.ClassUnit;
 import pt.up.fe.comp.jmm.ast.AJmmVisitor;
 import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp2023.CompilationContext;
+import pt.up.fe.comp2023.JmmType;
 import pt.up.fe.comp2023.Utils;
 import pt.up.fe.comp2023.analysis.JmmSymbolTable;
+import pt.up.fe.comp2023.optimization.OllirExpression.*;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
-public class OllirVisitor extends AJmmVisitor<Integer, String> {
+/**
+ * Generates the OLLIR code of a class. By default the code is written as text, and with `buildClass` set the
+ * {@link ClassUnit} it describes is built directly by an {@link OllirBuilder} instead, without writing or parsing it.
+ * <p>
+ * Expressions are visited into the {@link OllirExpression} of their value, which is written as its code or handed to
+ * the builder by the instructions that use it.
+ */
+public class OllirVisitor extends AJmmVisitor<Integer, OllirExpression> {
 
     private final StringBuilder code = new StringBuilder();
 
+    private final OllirBuilder builder;
+
     private final List<Report> reports = new ArrayList<>();
 
     private final JmmSymbolTable table;
 
+    private final CompilationContext context;
+
     private boolean visitedConstructor = false;
 
-    public OllirVisitor(JmmSymbolTable table) {
+    public OllirVisitor(JmmSymbolTable table, CompilationContext context) {
+        this(table, context, false);
+    }
+
+    public OllirVisitor(JmmSymbolTable table, CompilationContext context, boolean buildClass) {
         this.table = table;
+        this.context = context;
+        this.builder = buildClass ? new OllirBuilder() : null;
     }
 
     private void emit(String ...code) {
@@ -39,14 +60,63 @@ public class OllirVisitor extends AJmmVisitor<Integer, String> {
         emit("\n");
     }
 
-    private void emitInvokeSpecialInit(int indentation, String symbol) {
-        emitLine(indentation, "invokespecial(" + symbol + ", \"<init>\").V;");
+    private void emitAssign(int indentation, OllirExpression dest, JmmType type, OllirExpression rhs) {
+        if (builder != null)
+            builder.addAssign(dest, type, rhs);
+        else
+            emitLine(indentation, dest.toString(), " :=.", type.getOllirType(), " ", rhs.toString(), ";");
+    }
+
+    private void emitBranch(int indentation, OllirExpression condition, String label) {
+        if (builder != null)
+            builder.addBranch(condition, label);
+        else
+            emitLine(indentation, "if(", condition.toString(), ") goto ", label, ";");
+    }
+
+    private void emitGoto(int indentation, String label) {
+        if (builder != null)
+            builder.addGoto(label);
+        else
+            emitLine(indentation, "goto ", label, ";");
+    }
+
+    private void emitLabel(int indentation, String label) {
+        if (builder != null)
+            builder.addLabel(label);
+        else
+            emitLine(indentation, label, ":");
+    }
+
+    private void emitReturn(int indentation, JmmType type, OllirExpression value) {
+        if (builder != null)
+            builder.addReturn(type, value);
+        else
+            emitLine(indentation, "ret.", type.getOllirType(), value == null ? "" : " " + value, ";");
+    }
+
+    private void emitStatement(int indentation, OllirExpression statement) {
+        if (builder != null)
+            builder.addStatement(statement);
+        else
+            emitLine(indentation, statement.toString(), ";");
+    }
+
+    private void emitInvokeSpecialInit(int indentation, OllirExpression object) {
+        emitStatement(indentation, new Call("invokespecial", object, "<init>", List.of(), JmmType.VOID));
+    }
+
+    /**
+     * @return a new temporary variable of `type`
+     */
+    private Variable newTemp(JmmType type) {
+        return new Variable(context.getNextTemp(), type);
     }
 
-    private String commonType(String type1, String type2) {
-        if (type1.equals("*"))
-            if (type2.equals("*"))
-                return "int";
+    private JmmType commonType(JmmType type1, JmmType type2) {
+        if (type1.isAny())
+            if (type2.isAny())
+                return JmmType.INT;
             else
                 return type2;
         else return type1;
@@ -56,6 +126,13 @@ public class OllirVisitor extends AJmmVisitor<Integer, String> {
         return code.toString();
     }
 
+    /**
+     * @return the class built, if the visitor was created with `buildClass`, which can only be asked for once
+     */
+    public ClassUnit getOllirClass() {
+        return builder.build();
+    }
+
     public List<Report> getReports() {
         return reports;
     }
@@ -72,8 +149,6 @@ public class OllirVisitor extends AJmmVisitor<Integer, String> {
         addVisit("FieldDeclaration", this::visitFieldDeclaration);
         addVisit("ConstructorDeclaration", this::visitConstructorDeclaration);
 
-        addVisit("ArgumentList", this::visitArgumentList);
-
         addVisit("VariableDeclaration", this::visitVariableDeclaration);
 
         // Statement
@@ -107,272 +182,296 @@ public class OllirVisitor extends AJmmVisitor<Integer, String> {
         addVisit("ThisExpression", this::visitThis);
     }
 
-    protected String visitChildren(JmmNode node, Integer indentation) {
-        StringBuilder sb = new StringBuilder();
+    protected OllirExpression visitChildren(JmmNode node, Integer indentation) {
+        for (var child: node.getChildren())
+            visit(child, indentation);
 
-        for (var child: node.getChildren()) {
-            var s = visit(child, indentation);
-            if (s != null)
-                sb.append(s);
-        }
-
-        return sb.toString();
-    }
-
-    protected String doNothing(JmmNode node, Integer indentation) {
         return null;
     }
 
-    protected String visitImportStatement(JmmNode node, Integer indentation) {
-        emit("import ");
+    protected OllirExpression visitImportStatement(JmmNode node, Integer indentation) {
+        var name = new StringBuilder();
 
         var classPackage = node.getObjectAsList("classPackage", String.class);
 
         for (var _package : classPackage) {
-            emit(_package);
-            emit(".");
+            name.append(_package);
+            name.append(".");
         }
 
         var className = node.get("className");
-        emit(className);
-        emit(";\n");
+        name.append(className);
+
+        if (builder != null)
+            builder.addImport(name.toString());
+        else
+            emit("import ", name.toString(), ";\n");
 
         return null;
     }
 
-    protected String visitClassDeclaration(JmmNode node, Integer indentation) {
-        emitIndentation(indentation);
-        emit(table.getClassName());
+    protected OllirExpression visitClassDeclaration(JmmNode node, Integer indentation) {
+        if (builder != null) {
+            builder.setClass(table.getClassName(), table.getSuper());
+
+            for (var field : table.getFields())
+                builder.addField(field);
+        } else {
+            emitIndentation(indentation);
+            emit(table.getClassName());
 
-        if (table.getSuper() != null)
-            emit(" extends ", table.getSuper());
+            if (table.getSuper() != null)
+                emit(" extends ", table.getSuper());
 
-        emit(" {\n");
+            emit(" {\n");
 
-        for (var field : table.getFields())
-            emitLine(indentation + 4, ".field ", OllirUtils.toOllirSymbol(field), ";");
+            for (var field : table.getFields())
+                emitLine(indentation + 4, ".field ", OllirUtils.toOllirSymbol(field), ";");
+        }
 
         visitChildren(node, indentation + 4);
 
         if (!visitedConstructor) {
-            emitLine(indentation + 4, ".construct ", table.getClassName(), "().V {");
-            emitInvokeSpecialInit(indentation + 8, "this");
-            emitLine(indentation + 4, "}");
+            if (builder != null)
+                builder.addMethod(table.getClassName(), List.of(), List.of(), JmmType.VOID, true);
+            else
+                emitLine(indentation + 4, ".construct ", table.getClassName(), "().V {");
+
+            emitInvokeSpecialInit(indentation + 8, new This(table.getClassName()));
+
+            if (builder == null)
+                emitLine(indentation + 4, "}");
         }
 
-        emitLine(indentation, "}");
+        if (builder == null)
+            emitLine(indentation, "}");
 
         return null;
     }
 
-    protected String visitMethodDeclaration(JmmNode node, Integer indentation) {
+    protected OllirExpression visitMethodDeclaration(JmmNode node, Integer indentation) {
         var method = table.getMethod(node.get("methodName"));
-        var returnType = OllirUtils.toOllirType(method.getReturnType());
-        emitLine(indentation,
-                ".method ",
-                String.join(" ", method.getModifiers()), " ",
-                method.getName(),
-                "(", method.getParameters().stream().map(OllirUtils::toOllirSymbol).collect(Collectors.joining(", ")), ").",
-                returnType, " {");
+        var returnType = JmmType.of(method.getReturnType());
+
+        if (builder != null)
+            builder.addMethod(method.getName(), method.getModifiers(), method.getParameters(), returnType, false);
+        else
+            emitLine(indentation,
+                    ".method ",
+                    String.join(" ", method.getModifiers()), " ",
+                    method.getName(),
+                    "(", method.getParameters().stream().map(OllirUtils::toOllirSymbol).collect(Collectors.joining(", ")), ").",
+                    returnType.getOllirType(), " {");
 
         visitChildren(node, indentation + 4);
 
         if (!node.getJmmChild(node.getNumChildren() - 1).getKind().equals("ReturnStatement"))
-            emitLine(indentation + 4, "ret.", returnType, ";");
+            emitReturn(indentation + 4, returnType, null);
 
-        emitLine(indentation, "}");
+        if (builder == null)
+            emitLine(indentation, "}");
 
         return null;
     }
 
-    protected String visitFieldDeclaration(JmmNode node, Integer indentation) {
+    protected OllirExpression visitFieldDeclaration(JmmNode node, Integer indentation) {
         if (indentation != 4)
             visit(node.getJmmChild(0), indentation);
 
         return null;
     }
 
-    protected String visitConstructorDeclaration(JmmNode node, Integer indentation) {
+    protected OllirExpression visitConstructorDeclaration(JmmNode node, Integer indentation) {
         visitedConstructor = true;
 
         var method = table.getMethod("<constructor>");
         var className = node.get("className");
-        emitLine(indentation,
-                ".construct ",
-                String.join(" ", method.getModifiers()), " ",
-                className,
-                "(", method.getParameters().stream().map(OllirUtils::toOllirSymbol).collect(Collectors.joining(", ")), ").",
-                OllirUtils.toOllirType(method.getReturnType()), " {");
-        emitInvokeSpecialInit(indentation + 4, "this");
+        var returnType = JmmType.of(method.getReturnType());
+
+        if (builder != null)
+            builder.addMethod(className, method.getModifiers(), method.getParameters(), returnType, true);
+        else
+            emitLine(indentation,
+                    ".construct ",
+                    String.join(" ", method.getModifiers()), " ",
+                    className,
+                    "(", method.getParameters().stream().map(OllirUtils::toOllirSymbol).collect(Collectors.joining(", ")), ").",
+                    returnType.getOllirType(), " {");
+        emitInvokeSpecialInit(indentation + 4, new This(table.getClassName()));
 
         visitChildren(node, indentation + 4);
 
-        emitLine(indentation, "}");
+        if (builder == null)
+            emitLine(indentation, "}");
 
         return null;
     }
 
-    protected String visitArgumentList(JmmNode node, Integer indentation) {
-        return node.getChildren().stream()
-                .map(child -> {
-                    var type = child.get("type");
-                    if (type.equals("*"))
-                        child.put("type", "int");
-                    return ", " + visit(child, indentation);
-                })
-                .collect(Collectors.joining());
+    private List<OllirExpression> visitArgumentList(JmmNode node, Integer indentation) {
+        List<OllirExpression> arguments = new ArrayList<>();
+
+        for (var child : node.getChildren()) {
+            if (JmmType.of(child).isAny())
+                JmmType.set(child, JmmType.INT);
+            arguments.add(visit(child, indentation));
+        }
+
+        return arguments;
     }
 
-    protected String visitVariableDeclaration(JmmNode node, Integer indentation) {
+    protected OllirExpression visitVariableDeclaration(JmmNode node, Integer indentation) {
         if (node.getNumChildren() < 2)
             return null;
 
-        var type = OllirUtils.toOllirType(node.get("type"));
-        var name = node.get("id") + "." + type;
+        var type = JmmType.of(node);
+        var name = new Variable(node.get("id"), type);
         var rhsNode = node.getJmmChild(1);
         rhsNode.put("topLevel", "true");
         var rhs = visit(rhsNode, indentation);
 
-        if (rhs.endsWith("*"))
-            rhs = rhs.substring(0, rhs.length() - 1) + type;
+        // Calls to imported methods are typed by the variable they are assigned to
+        if (rhs.type().isAny())
+            rhs = rhs.withType(type);
 
-        emitLine(indentation, name, " :=.", type, " ", rhs, ";");
+        emitAssign(indentation, name, type, rhs);
 
-        if (rhs.startsWith("new(") && !rhs.startsWith("new(array,"))
+        if (rhs instanceof New && !rhs.type().isArray())
             emitInvokeSpecialInit(indentation, name);
 
         return null;
     }
 
-    protected String visitIfStatement(JmmNode node, Integer indentation) {
+    protected OllirExpression visitIfStatement(JmmNode node, Integer indentation) {
         var conditionNode = node.getJmmChild(0);
-        conditionNode.put("type", "boolean");
+        JmmType.set(conditionNode, JmmType.BOOLEAN);
         var condition = visit(conditionNode, indentation);
-        var ifLabels = OllirUtils.getNextIfLabels();
+        var ifLabels = context.getNextIfLabels();
 
-        emitLine(indentation, "if(!.bool ", condition, ") goto ", ifLabels[0], ";");
+        emitBranch(indentation, new UnaryOp("!", JmmType.BOOLEAN, condition), ifLabels[0]);
 
         visit(node.getChildren().get(1), indentation + 4);
 
-        emitLine(indentation + 4, "goto ", ifLabels[1], ";");
-        emitLine(indentation, ifLabels[0], ":");
+        emitGoto(indentation + 4, ifLabels[1]);
+        emitLabel(indentation, ifLabels[0]);
 
         visit(node.getChildren().get(2), indentation + 4);
 
-        emitLine(indentation, ifLabels[1], ":");
+        emitLabel(indentation, ifLabels[1]);
 
         return null;
     }
 
-    protected String visitWhileStatement(JmmNode node, Integer indentation) {
-        var whileLabels = OllirUtils.getNextWhileLabels();
+    protected OllirExpression visitWhileStatement(JmmNode node, Integer indentation) {
+        var whileLabels = context.getNextWhileLabels();
 
         node.put("continueLabel", whileLabels[0]);
         node.put("breakLabel", whileLabels[1]);
 
-        emitLine(indentation, whileLabels[0], ":");
+        emitLabel(indentation, whileLabels[0]);
 
         var conditionNode = node.getJmmChild(0);
-        conditionNode.put("type", "boolean");
+        JmmType.set(conditionNode, JmmType.BOOLEAN);
         var condition = visit(conditionNode, indentation + 4);
-        emitLine(indentation + 4, "if(!.bool ", condition, ") goto ", whileLabels[1], ";");
+        emitBranch(indentation + 4, new UnaryOp("!", JmmType.BOOLEAN, condition), whileLabels[1]);
 
         visit(node.getChildren().get(1), indentation + 4);
 
-        emitLine(indentation + 4, "goto ", whileLabels[0], ";");
-        emitLine(indentation, whileLabels[1], ":");
+        emitGoto(indentation + 4, whileLabels[0]);
+        emitLabel(indentation, whileLabels[1]);
 
         return null;
     }
 
-    protected String visitDoWhileStatement(JmmNode node, Integer indentation) {
-        var doWhileLabels = OllirUtils.getNextDoWhileLabels();
+    protected OllirExpression visitDoWhileStatement(JmmNode node, Integer indentation) {
+        var doWhileLabels = context.getNextDoWhileLabels();
 
         node.put("continueLabel", doWhileLabels[0]);
         node.put("breakLabel", doWhileLabels[1]);
 
-        emitLine(indentation, doWhileLabels[0], ":");
+        emitLabel(indentation, doWhileLabels[0]);
 
         visit(node.getChildren().get(0), indentation + 4);
 
         var conditionNode = node.getChildren().get(1);
-        conditionNode.put("type", "boolean");
+        JmmType.set(conditionNode, JmmType.BOOLEAN);
         conditionNode.put("topLevel", "true");
         var condition = visit(conditionNode, indentation);
-        emitLine(indentation + 4, "if(", condition, ") goto ", doWhileLabels[0], ";");
-        emitLine(indentation, doWhileLabels[1], ":");
+        emitBranch(indentation + 4, condition, doWhileLabels[0]);
+        emitLabel(indentation, doWhileLabels[1]);
 
         return null;
     }
 
-    protected String visitForStatement(JmmNode node, Integer indentation) {
-        var forLabels = OllirUtils.getNextForLabels();
+    protected OllirExpression visitForStatement(JmmNode node, Integer indentation) {
+        var forLabels = context.getNextForLabels();
 
         node.put("continueLabel", forLabels[0]);
         node.put("breakLabel", forLabels[1]);
 
         visit(node.getJmmChild(0), indentation);
-        emitLine(indentation, forLabels[0], ":");
+        emitLabel(indentation, forLabels[0]);
 
         var terminal = visit(node.getJmmChild(1), indentation + 4);
-        emitLine(indentation + 4, "if(!.bool ", terminal, ") goto ", forLabels[1], ";");
+        emitBranch(indentation + 4, new UnaryOp("!", JmmType.BOOLEAN, terminal), forLabels[1]);
 
         visit(node.getJmmChild(3), indentation + 4);
 
         visit(node.getJmmChild(2), indentation + 4);
-        emitLine(indentation + 4, "goto ", forLabels[0], ";");
-        emitLine(indentation, forLabels[1], ":");
+        emitGoto(indentation + 4, forLabels[0]);
+        emitLabel(indentation, forLabels[1]);
 
         return null;
     }
 
-    protected String visitForTerminal(JmmNode node, Integer indentation) {
+    protected OllirExpression visitForTerminal(JmmNode node, Integer indentation) {
         if (node.getNumChildren() == 0)
-            return "1.bool";
+            return new Literal("1", JmmType.BOOLEAN);
 
         var child = node.getJmmChild(0);
         child.put("topLevel", node.get("topLevel"));
-        child.put("type", node.get("type"));
+        JmmType.set(child, JmmType.of(node));
 
         return visit(child, indentation);
     }
 
-    protected String visitForEachStatement(JmmNode node, Integer indentation) {
-        var forEachLabels = OllirUtils.getNextForEachLabels();
+    protected OllirExpression visitForEachStatement(JmmNode node, Integer indentation) {
+        var forEachLabels = context.getNextForEachLabels();
 
         node.put("continueLabel", forEachLabels[0]);
         node.put("breakLabel", forEachLabels[1]);
 
-        var type = node.getJmmChild(0).get("type");
-        var id = node.get("id");
-        var ollirType = OllirUtils.toOllirType(type);
-        var arrayType = OllirUtils.toOllirType(type + "[]");
+        var type = JmmType.of(node.getJmmChild(0));
+        var arrayType = type.getArrayType();
 
         var arrayNode = node.getJmmChild(1);
         arrayNode.put("topLevel", "true");
-        arrayNode.put("type", type + "[]");
+        JmmType.set(arrayNode, arrayType);
         var array = visit(arrayNode, indentation);
 
-        emitLine(indentation, forEachLabels[2], ".", arrayType, " :=.", arrayType, " ", array, ";");
-        emitLine(indentation, forEachLabels[3], ".i32 :=.i32 arraylength(", forEachLabels[2], ".", arrayType, ").i32;");
-        emitLine(indentation, forEachLabels[4], ".i32 :=.i32 0.i32;");
+        var arrayVariable = new Variable(forEachLabels[2], arrayType);
+        var length = new Variable(forEachLabels[3], JmmType.INT);
+        var index = new Variable(forEachLabels[4], JmmType.INT);
+
+        emitAssign(indentation, arrayVariable, arrayType, array);
+        emitAssign(indentation, length, JmmType.INT, new ArrayLength(arrayVariable, JmmType.INT));
+        emitAssign(indentation, index, JmmType.INT, new Literal("0", JmmType.INT));
 
-        emitLine(indentation, forEachLabels[0], ":");
-        emitLine(indentation + 4, "if(", forEachLabels[4], ".i32 >=.bool ", forEachLabels[3], ".i32) goto ", forEachLabels[1], ";");
-        emitLine(indentation + 4, id, ".", ollirType, " :=.", ollirType, " ", forEachLabels[2], "[", forEachLabels[4], ".i32].", ollirType, ";");
+        emitLabel(indentation, forEachLabels[0]);
+        emitBranch(indentation + 4, new BinaryOp(index, ">=", JmmType.BOOLEAN, length), forEachLabels[1]);
+        emitAssign(indentation + 4, new Variable(node.get("id"), type), type, new ArrayAccess(arrayVariable, index, type));
 
         visit(node.getJmmChild(2), indentation + 4);
 
-        emitLine(indentation + 4, forEachLabels[4], ".i32 :=.i32 ", forEachLabels[4], ".i32 +.i32 1.i32;");
-        emitLine(indentation + 4, "goto ", forEachLabels[0], ";");
-        emitLine(indentation, forEachLabels[1], ":");
+        emitAssign(indentation + 4, index, JmmType.INT, new BinaryOp(index, "+", JmmType.INT, new Literal("1", JmmType.INT)));
+        emitGoto(indentation + 4, forEachLabels[0]);
+        emitLabel(indentation, forEachLabels[1]);
 
         return null;
     }
 
 
-    protected String visitSwitchStatement(JmmNode node, Integer indentation) {
-        var switchLabels = OllirUtils.getNextSwitchLabels();
+    protected OllirExpression visitSwitchStatement(JmmNode node, Integer indentation) {
+        var switchLabels = context.getNextSwitchLabels();
 
         node.put("breakLabel", switchLabels[1]);
 
@@ -390,62 +489,63 @@ public class OllirVisitor extends AJmmVisitor<Integer, String> {
             }
 
             var value = visitLiteral(_case, indentation);
-            emitLine(indentation, "if(", expression, ".i32 ==.bool ", value, ".i32) goto ", switchLabels[0] + i, ";");
+            emitBranch(indentation, new BinaryOp(expression.withType(JmmType.INT), "==", JmmType.BOOLEAN,
+                    value.withType(JmmType.INT)), switchLabels[0] + i);
         }
 
-        emitLine(indentation, "goto ", defaultCase, ";");
+        emitGoto(indentation, defaultCase);
 
         for (int i = 0; i < cases.size(); i++) {
             var _case = cases.get(i);
 
-            emitLine(indentation, switchLabels[0] + i, ":");
+            emitLabel(indentation, switchLabels[0] + i);
             visit(_case, indentation + 4);
         }
 
-        emitLine(indentation, switchLabels[1], ":");
+        emitLabel(indentation, switchLabels[1]);
 
         return null;
     }
 
-    protected String visitReturnStatement(JmmNode node, Integer indentation) {
+    protected OllirExpression visitReturnStatement(JmmNode node, Integer indentation) {
         if (node.getNumChildren() == 0) {
-            emitLine(indentation, "ret.V;");
+            emitReturn(indentation, JmmType.VOID, null);
             return null;
         }
 
         var child = node.getJmmChild(0);
         var s = visit(child, indentation);
-        var type = OllirUtils.toOllirType(child.get("type"));
+        var type = JmmType.of(child);
 
         if (s != null)
-            emitLine(indentation, "ret.", type, " ", s, ";");
+            emitReturn(indentation, type, s);
 
         return null;
     }
 
-    protected String visitBreakOrContinueStatement(JmmNode node, Integer indentation) {
+    protected OllirExpression visitBreakOrContinueStatement(JmmNode node, Integer indentation) {
         var labelName = (node.getKind().equals("BreakStatement") ? "break" : "continue") + "Label";
         var label = Utils.getFromAncestor(node, labelName);
-        emitLine(indentation, "goto ", label, ";");
+        emitGoto(indentation, label);
         return null;
     }
 
-    protected String visitExpressionStatement(JmmNode node, Integer indentation) {
+    protected OllirExpression visitExpressionStatement(JmmNode node, Integer indentation) {
         var child = node.getJmmChild(0);
-        if (child.get("type").equals("*"))
-            child.put("type", child.getKind().equals("MethodCall") ? "void" : "int");
+        if (JmmType.of(child).isAny())
+            JmmType.set(child, child.getKind().equals("MethodCall") ? JmmType.VOID : JmmType.INT);
         child.put("topLevel", "true");
         var s = visit(child, indentation);
 
         if (s != null)
-            emitLine(indentation, s, ";");
+            emitStatement(indentation, s);
 
         return null;
     }
 
-    protected String visitExplicitPriority(JmmNode node, Integer indentation) {
+    protected OllirExpression visitExplicitPriority(JmmNode node, Integer indentation) {
         var child = node.getChildren().get(0);
-        child.put("type", node.get("type"));
+        JmmType.set(child, JmmType.of(node));
 
         if (node.getOptional("topLevel").isPresent())
             child.put("topLevel", "true");
@@ -453,283 +553,286 @@ public class OllirVisitor extends AJmmVisitor<Integer, String> {
         return visit(child, indentation);
     }
 
-    protected String visitNewObject(JmmNode node, Integer indentation) {
-        var type = node.get("type");
-        var args = "";
+    protected OllirExpression visitNewObject(JmmNode node, Integer indentation) {
+        var type = JmmType.of(node.get("type"));
+        List<OllirExpression> args = List.of();
 
         if (node.getNumChildren() > 0) {
-            if (type.equals(table.getClassName())) {
+            if (type.getName().equals(table.getClassName())) {
                 var params = table.getParameters("<constructor>");
                 var argsNode = node.getJmmChild(0);
                 for (int i = 0; i < argsNode.getNumChildren(); i++) {
                     var arg = argsNode.getJmmChild(i);
                     var param = params.get(i);
-                    arg.put("type", commonType(param.getType().print(), arg.get("type")));
+                    JmmType.set(arg, commonType(JmmType.of(param.getType()), JmmType.of(arg)));
                 }
             }
 
-            args = visit(node.getJmmChild(0), indentation);
+            args = visitArgumentList(node.getJmmChild(0), indentation);
         }
 
-        var line = "new(" + type + args + ")." + type;
+        var line = new New(args, type);
 
         if (node.getOptional("topLevel").isPresent())
             return line;
 
-        var temp = OllirUtils.getNextTemp() + "." + type;
-        emitLine(indentation, temp, " :=.", type, " ", line, ";");
+        var temp = newTemp(type);
+        emitAssign(indentation, temp, type, line);
         emitInvokeSpecialInit(indentation, temp);
 
         return temp;
     }
 
-    protected String visitNewArray(JmmNode node, Integer indentation) {
-        var type = OllirUtils.toOllirType(node.get("type"));
+    protected OllirExpression visitNewArray(JmmNode node, Integer indentation) {
+        var type = JmmType.of(node);
         var size = visit(node.getJmmChild(1), indentation);
 
-        var line = "new(array, " + size + ")." + type;
+        var line = new New(List.of(size), type);
 
         if (node.getOptional("topLevel").isPresent())
             return line;
 
-        var temp = OllirUtils.getNextTemp() + "." + type;
-        emitLine(indentation, temp, " :=." + type + " ", line, ";");
+        var temp = newTemp(type);
+        emitAssign(indentation, temp, type, line);
 
         return temp;
     }
 
-    protected String visitMethodCall(JmmNode node, Integer indentation) {
+    protected OllirExpression visitMethodCall(JmmNode node, Integer indentation) {
         var method = node.get("member");
-        var lhs = "this." + table.getClassName();
-        var args = "";
-        var returnType = OllirUtils.toOllirType(node.get("type"));
+        OllirExpression lhs = new This(table.getClassName());
+        List<OllirExpression> args = List.of();
+        var returnType = JmmType.of(node);
         var fn = "invokevirtual";
 
         if (node.getNumChildren() > 0) {
             var argsNode = node.getJmmChild(0);
 
             if (!argsNode.getKind().equals("ArgumentList")) {
-                if (argsNode.get("type").equals("*"))
-                    argsNode.put("type", "Object");
+                if (JmmType.of(argsNode).isAny())
+                    JmmType.set(argsNode, JmmType.OBJECT);
                 lhs = visit(argsNode, indentation);
 
                 argsNode = node.getNumChildren() > 1 ? node.getJmmChild(1) : null;
             }
 
             if (argsNode != null) {
-                if (lhs.endsWith("." + table.getClassName())) {
+                if (!(lhs instanceof ClassName) && lhs.type().getOllirType().equals(table.getClassName())) {
                     var params = table.getParameters(method);
                     for (int i = 0; i < argsNode.getNumChildren(); i++) {
                         var arg = argsNode.getJmmChild(i);
                         var param = params.get(i);
-                        arg.put("type", commonType(param.getType().print(), arg.get("type")));
+                        JmmType.set(arg, commonType(JmmType.of(param.getType()), JmmType.of(arg)));
                     }
                 }
 
-                args = visit(argsNode, indentation);
+                args = visitArgumentList(argsNode, indentation);
             }
         }
 
-        if (!lhs.contains("."))
+        if (lhs instanceof ClassName)
             fn = "invokestatic";
 
-        var line = fn + "(" + lhs + ", \"" + method + "\"" + args + ")." + returnType;
+        var line = new Call(fn, lhs, method, args, returnType);
 
         if (node.getOptional("topLevel").isPresent())
             return line;
 
-        var temp = OllirUtils.getNextTemp() + "." + returnType;
-        emitLine(indentation, temp, " :=.", returnType, " ", line, ";");
+        var temp = newTemp(returnType);
+        emitAssign(indentation, temp, returnType, line);
         return temp;
     }
 
-    protected String visitPropertyAccess(JmmNode node, Integer indentation) {
+    protected OllirExpression visitPropertyAccess(JmmNode node, Integer indentation) {
         var lhsNode = node.getJmmChild(0);
-        if (lhsNode.get("type").equals("*"))
-            lhsNode.put("type", "Object");
+        if (JmmType.of(lhsNode).isAny())
+            JmmType.set(lhsNode, JmmType.OBJECT);
         var lhs = visit(lhsNode, indentation);
-        var type = OllirUtils.toOllirType(node.get("type"));
+        var type = JmmType.of(node);
         var member = node.get("member");
 
-        var fn = lhs.contains(".") ? "getfield" : "getstatic";
-        var line = fn + "(" + lhs + ", " + member + "." + type + ")." + type;
+        OllirExpression line = new GetField(lhs, new Variable(member, type), type);
 
-        if (lhsNode.get("type").endsWith("[]"))
-            line = "arraylength(" + lhs + ")." + type;
+        if (JmmType.of(lhsNode).isArray())
+            line = new ArrayLength(lhs, type);
 
         if (node.getOptional("topLevel").isPresent())
             return line;
 
-        var temp = OllirUtils.getNextTemp() + "." + type;
-        emitLine(indentation, temp, " :=.", type, " ", line, ";");
+        var temp = newTemp(type);
+        emitAssign(indentation, temp, type, line);
 
         return temp;
     }
 
-    protected String visitArrayAccess(JmmNode node, Integer indentation) {
+    protected OllirExpression visitArrayAccess(JmmNode node, Integer indentation) {
         var lhsNode = node.getJmmChild(0);
         var indexNode = node.getJmmChild(1);
-        lhsNode.put("type", node.get("type") + "[]");
-        indexNode.put("type", "int");
+        JmmType.set(lhsNode, JmmType.of(node).getArrayType());
+        JmmType.set(indexNode, JmmType.INT);
 
         var lhs = visit(lhsNode, indentation);
         var index = visit(indexNode, indentation);
-        var type = OllirUtils.toOllirType(node.get("type"));
+        var type = JmmType.of(node);
 
-        var line = lhs + "[" + index + "]." + type;
+        var line = new ArrayAccess((Variable) lhs, index, type);
 
         if (node.getOptional("topLevel").isPresent())
             return line;
 
-        var temp = OllirUtils.getNextTemp() + "." + type;
-        emitLine(indentation, temp, " :=.", type, " ", line, ";");
+        var temp = newTemp(type);
+        emitAssign(indentation, temp, type, line);
 
         return temp;
     }
 
     // TODO
-    private String visitUnaryPostOp(JmmNode jmmNode, Integer indentation) {
+    private OllirExpression visitUnaryPostOp(JmmNode jmmNode, Integer indentation) {
         var lhsNode = jmmNode.getJmmChild(0);
-        lhsNode.put("type", jmmNode.get("type"));
+        JmmType.set(lhsNode, JmmType.of(jmmNode));
         lhsNode.put("topLevel", "true");
         var lhs = visit(lhsNode, indentation);
 
-        var type = OllirUtils.toOllirType(jmmNode.get("type"));
-        var operator = jmmNode.get("op").charAt(0) + "." + type;
+        var type = JmmType.of(jmmNode);
+        var operator = String.valueOf(jmmNode.get("op").charAt(0));
+        var one = new Literal("1", type);
 
-        var temp = OllirUtils.getNextTemp() + "." + type;
-        emitLine(indentation, temp, " :=.", type, " ", lhs, ";");
+        var temp = newTemp(type);
+        emitAssign(indentation, temp, type, lhs);
 
-        if (lhs.startsWith("getfield(") || lhs.startsWith("getstatic(")) {
-            var temp2 = OllirUtils.getNextTemp() + "." + type;
-            emitLine(indentation, temp2, " :=.", type, " ", temp, " ", operator, " 1.", type, ";");
-            emitLine(indentation, "put", lhs.substring(3, lhs.lastIndexOf(")")), ", ", temp2, ").V;");
+        if (lhs instanceof GetField getField) {
+            var temp2 = newTemp(type);
+            emitAssign(indentation, temp2, type, new BinaryOp(temp, operator, type, one));
+            emitStatement(indentation, new PutField(getField.object(), getField.field(), temp2));
         } else {
-            emitLine(indentation, lhs, " :=.", type, " ", temp, " ", operator, " 1.", type, ";");
+            emitAssign(indentation, lhs, type, new BinaryOp(temp, operator, type, one));
         }
 
         return temp;
     }
 
-    private String visitUnaryPreOp(JmmNode jmmNode, Integer indentation) {
+    private OllirExpression visitUnaryPreOp(JmmNode jmmNode, Integer indentation) {
         var rhsNode = jmmNode.getJmmChild(0);
-        rhsNode.put("type", jmmNode.get("type"));
+        JmmType.set(rhsNode, JmmType.of(jmmNode));
 
-        var type = OllirUtils.toOllirType(jmmNode.get("type"));
-        var operator = jmmNode.get("op") + "." + type;
-        if (operator.matches("[-+]\\..*"))
-            operator = "0.i32 " + operator;
+        var type = JmmType.of(jmmNode);
+        var operator = jmmNode.get("op");
 
         // ++ and -- are special boys
-        else if (operator.charAt(0) == operator.charAt(1)) {
+        if (operator.equals("++") || operator.equals("--")) {
             rhsNode.put("topLevel", "true");
             var rhs = visit(rhsNode, indentation);
 
             operator = operator.substring(1);
+            var one = new Literal("1", type);
 
-            if (rhs.startsWith("getfield(") || rhs.startsWith("getstatic(")) {
-                var temp = OllirUtils.getNextTemp() + "." + type;
-                emitLine(indentation, temp, " :=.", type, " ", rhs, ";");
-                emitLine(indentation, temp, " :=.", type, " ", temp, " ", operator, " 1.", type, ";");
-                emitLine(indentation, "put", rhs.substring(3, rhs.lastIndexOf(")")), ", ", temp, ").V;");
+            if (rhs instanceof GetField getField) {
+                var temp = newTemp(type);
+                emitAssign(indentation, temp, type, rhs);
+                emitAssign(indentation, temp, type, new BinaryOp(temp, operator, type, one));
+                emitStatement(indentation, new PutField(getField.object(), getField.field(), temp));
                 return temp;
             } else {
-                emitLine(indentation, rhs, " :=.", type, " ", rhs, " ", operator, " 1.", type, ";");
+                emitAssign(indentation, rhs, type, new BinaryOp(rhs, operator, type, one));
                 return rhs;
             }
         }
 
         var rhs = visit(rhsNode, indentation);
-        var line = operator + " " + rhs;
+
+        // Unary + and - are written as operations on 0
+        var line = operator.equals("+") || operator.equals("-")
+                ? new BinaryOp(new Literal("0", JmmType.INT), operator, type, rhs)
+                : new UnaryOp(operator, type, rhs);
 
         if (jmmNode.getOptional("topLevel").isPresent())
             return line;
 
-        var temp = OllirUtils.getNextTemp() + "." + type;
-        emitLine(indentation, temp, " :=.", type, " ", line, ";");
+        var temp = newTemp(type);
+        emitAssign(indentation, temp, type, line);
 
         return temp;
     }
 
-    private String visitBinaryOp(JmmNode jmmNode, Integer indentation) {
+    private OllirExpression visitBinaryOp(JmmNode jmmNode, Integer indentation) {
         var lhsNode = jmmNode.getJmmChild(0);
         var rhsNode = jmmNode.getJmmChild(1);
 
-        var type = commonType(lhsNode.get("type"), rhsNode.get("type"));
-        lhsNode.put("type", type);
-        rhsNode.put("type", type);
+        var commonType = commonType(JmmType.of(lhsNode), JmmType.of(rhsNode));
+        JmmType.set(lhsNode, commonType);
+        JmmType.set(rhsNode, commonType);
 
         var lhs = visit(lhsNode, indentation);
         var rhs = visit(rhsNode, indentation);
 
-        type = OllirUtils.toOllirType(jmmNode.get("type"));
-        var operator = jmmNode.get("op") + "." + type;
-
-        var line = lhs + " " + operator + " " + rhs;
+        var type = JmmType.of(jmmNode);
+        var line = new BinaryOp(lhs, jmmNode.get("op"), type, rhs);
 
         if (jmmNode.getOptional("topLevel").isPresent())
             return line;
 
-        var temp = OllirUtils.getNextTemp() + "." + type;
-        emitLine(indentation, temp, " :=.", type, " ", line, ";");
+        var temp = newTemp(type);
+        emitAssign(indentation, temp, type, line);
 
         return temp;
     }
 
-    protected String visitTernaryOp(JmmNode node, Integer indentation) {
+    protected OllirExpression visitTernaryOp(JmmNode node, Integer indentation) {
         var condition = visit(node.getJmmChild(0), indentation);
-        var ifLabels = OllirUtils.getNextIfLabels();
-        var type = OllirUtils.toOllirType(node.get("type"));
-        var temp = OllirUtils.getNextTemp() + "." + type;
+        var ifLabels = context.getNextIfLabels();
+        var type = JmmType.of(node);
+        var temp = newTemp(type);
 
-        emitLine(indentation, "if (!.bool ", condition, ") goto ", ifLabels[0], ";");
+        emitBranch(indentation, new UnaryOp("!", JmmType.BOOLEAN, condition), ifLabels[0]);
 
         var lhsNode = node.getJmmChild(1);
         lhsNode.put("topLevel", "true");
         var lhs = visit(lhsNode, indentation + 4);
-        emitLine(indentation + 4, temp, " :=.", type, " ", lhs, ";");
+        emitAssign(indentation + 4, temp, type, lhs);
 
-        emitLine(indentation + 4, "goto ", ifLabels[1], ";");
-        emitLine(indentation, ifLabels[0], ":");
+        emitGoto(indentation + 4, ifLabels[1]);
+        emitLabel(indentation, ifLabels[0]);
 
         var rhsNode = node.getJmmChild(2);
         rhsNode.put("topLevel", "true");
         var rhs = visit(rhsNode, indentation + 4);
-        emitLine(indentation + 4, temp, " :=.", type, " ", rhs, ";");
+        emitAssign(indentation + 4, temp, type, rhs);
 
-        emitLine(indentation, ifLabels[1], ":");
+        emitLabel(indentation, ifLabels[1]);
 
         return temp;
     }
 
-    protected String visitAssignment(JmmNode node, Integer indentation) {
+    protected OllirExpression visitAssignment(JmmNode node, Integer indentation) {
         var lhsNode = node.getJmmChild(0);
         var rhsNode = node.getJmmChild(1);
         var operator = node.get("op").substring(0, node.get("op").length() - 1);
-        var type = OllirUtils.toOllirType(commonType(lhsNode.get("type"), rhsNode.get("type")));
+        var type = commonType(JmmType.of(lhsNode), JmmType.of(rhsNode));
 
-        lhsNode.put("type", type);
-        rhsNode.put("type", type);
+        // Both sides are typed by their common type from here on
+        JmmType.set(lhsNode, type);
+        JmmType.set(rhsNode, type);
 
         lhsNode.put("topLevel", "true");
         var lhs = visit(lhsNode, indentation);
 
-        if (lhs.startsWith("getfield(") || lhs.startsWith("getstatic(")) {
+        if (lhs instanceof GetField getField) {
+            OllirExpression value;
+
             if (!operator.isEmpty()) {
-                var temp1 = OllirUtils.getNextTemp() + "." + type;
-                emitLine(indentation, temp1, " :=.", type, " ", lhs, ";");
+                var temp1 = newTemp(type);
+                emitAssign(indentation, temp1, type, lhs);
 
-                var temp2 = OllirUtils.getNextTemp() + "." + type;
+                var temp2 = newTemp(type);
                 var rhs = visit(rhsNode, indentation);
-                emitLine(indentation, temp2, " :=.", type, " ", temp1, " ", operator, ".", type, " ", rhs, ";");
+                emitAssign(indentation, temp2, type, new BinaryOp(temp1, operator, type, rhs));
 
-                lhs = "put" + lhs.substring(3, lhs.lastIndexOf(")")) + ", " + temp2 + ").V";
+                value = temp2;
             } else {
-                var rhs = visit(rhsNode, indentation);
-                lhs = "put" + lhs.substring(3, lhs.lastIndexOf(")")) + ", " + rhs + ").V";
+                value = visit(rhsNode, indentation);
             }
 
-            return lhs;
+            return new PutField(getField.object(), getField.field(), value);
         }
 
         if (operator.isEmpty())
@@ -737,44 +840,52 @@ public class OllirVisitor extends AJmmVisitor<Integer, String> {
         var rhs = visit(rhsNode, indentation);
 
         if (operator.isEmpty())
-            emitLine(indentation, lhs, " :=.", type, " ", rhs, ";");
+            emitAssign(indentation, lhs, type, rhs);
         else
-            emitLine(indentation, lhs, " :=.", type, " ", lhs, " ", operator, ".", type, " ", rhs, ";");
+            emitAssign(indentation, lhs, type, new BinaryOp(lhs, operator, type, rhs));
 
-        if (rhs.startsWith("new(") && !rhs.startsWith("new(array,"))
+        if (rhs instanceof New && !rhs.type().isArray())
             emitInvokeSpecialInit(indentation, lhs);
 
         return node.getOptional("topLevel").isPresent() ? null : lhs;
     }
 
-    protected String visitLiteral(JmmNode node, Integer indentation) {
-        var type = OllirUtils.toOllirType(node.get("type"));
-        var value = node.get("value");
+    protected OllirExpression visitLiteral(JmmNode node, Integer indentation) {
+        var type = JmmType.of(node);
+        var constant = ConstantValue.of(node);
 
+        if (constant.isInt() && type.getOllirType().equals("i32"))
+            return new Literal(String.valueOf(constant.asInt()), JmmType.INT);
+        if (constant.isBoolean())
+            return new Literal(constant.asBoolean() ? "1" : "0", JmmType.BOOLEAN);
+
+        var value = constant.toString();
+
+        // Like the OLLIR parser, which reads `null` as a variable
         if (value.equals("null"))
-            return "null." + type;
+            return new Variable("null", type);
 
-        return switch (type) {
+        return switch (type.getOllirType()) {
             case "String" -> {
-                var line = "ldc(" + value + ").String";
+                var line = new Ldc(new StringLiteral(value));
 
                 if (node.getOptional("topLevel").isPresent())
                     yield line;
 
-                var temp = OllirUtils.getNextTemp() + ".String";
-                emitLine(indentation, temp, " :=.String " + line + ";");
+                var temp = newTemp(JmmType.STRING);
+                emitAssign(indentation, temp, JmmType.STRING, line);
                 yield temp;
             }
 
-            case "bool" -> (value.equals("true") ? "1" : "0") + ".bool";
+            case "bool" -> new Literal(value.equals("true") ? "1" : "0", JmmType.BOOLEAN);
 
-            case "char" -> ((int) value.charAt(value.length() - 1)) + ".i32";
+            case "char" -> new Literal(String.valueOf((int) value.charAt(value.length() - 1)), JmmType.INT);
 
-            default -> value.split("\\.")[0] + "." + type;
+            default -> new Literal(value.split("\\.")[0], type);
         };
     }
 
-    protected String visitIdentifier(JmmNode node, Integer indentation) {
+    protected OllirExpression visitIdentifier(JmmNode node, Integer indentation) {
         var method = node.getAncestor("MethodDeclaration");
 
         if (method.isPresent()) {
@@ -782,12 +893,12 @@ public class OllirVisitor extends AJmmVisitor<Integer, String> {
 
             for (var variable : methodTable.getLocalVariables())
                 if (variable.getName().equals(node.get("id")))
-                    return OllirUtils.toOllirSymbol(variable);
+                    return new Variable(variable.getName(), JmmType.of(variable.getType()));
 
             for (int i = 0; i < methodTable.getParameters().size(); i++) {
                 var parameter = methodTable.getParameters().get(i);
                 if (parameter.getName().equals(node.get("id")))
-                    return "$" + (i + 1) + "." + OllirUtils.toOllirSymbol(parameter);
+                    return new Variable(parameter.getName(), JmmType.of(parameter.getType()), i + 1);
             }
         }
 
@@ -798,34 +909,33 @@ public class OllirVisitor extends AJmmVisitor<Integer, String> {
 
             for (var variable : constructorTable.getLocalVariables())
                 if (variable.getName().equals(node.get("id")))
-                    return OllirUtils.toOllirSymbol(variable);
+                    return new Variable(variable.getName(), JmmType.of(variable.getType()));
 
             for (int i = 0; i < constructorTable.getParameters().size(); i++) {
                 var parameter = constructorTable.getParameters().get(i);
                 if (parameter.getName().equals(node.get("id")))
-                    return "$" + (i + 1) + "." + OllirUtils.toOllirSymbol(parameter);
+                    return new Variable(parameter.getName(), JmmType.of(parameter.getType()), i + 1);
             }
         }
 
         for (var variable : table.getFields())
             if (variable.getName().equals(node.get("id"))) {
-                var type = OllirUtils.toOllirType(variable.getType());
-                var symbol = OllirUtils.toOllirSymbol(variable);
-
-                var line = "getfield(this." + table.getClassName() + ", " + symbol + ")." + type;
+                var type = JmmType.of(variable.getType());
+                var line = new GetField(new This(table.getClassName()), new Variable(variable.getName(), type), type);
 
                 if (node.getOptional("topLevel").isPresent())
                     return line;
 
-                var temp = OllirUtils.getNextTemp() + "." + type;
-                emitLine(indentation, temp, " :=.", type, " ", line, ";");
+                var temp = newTemp(type);
+                emitAssign(indentation, temp, type, line);
                 return temp;
             }
 
-        return node.get("id");
+        // Any other name is a class, such as an import
+        return new ClassName(node.get("id"));
     }
 
-    protected String visitThis(JmmNode node, Integer indentation) {
-        return "this." + table.getClassName();
+    protected OllirExpression visitThis(JmmNode node, Integer indentation) {
+        return new This(table.getClassName());
     }
 }
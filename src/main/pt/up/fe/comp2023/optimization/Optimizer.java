@@ -1,23 +1,23 @@
 package pt.up.fe.comp2023.optimization;
 
 import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
-import pt.up.fe.comp.jmm.ast.JmmVisitor;
 import pt.up.fe.comp.jmm.ollir.JmmOptimization;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
-import pt.up.fe.comp.jmm.report.Report;
-import pt.up.fe.comp.jmm.report.ReportType;
 import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2023.CompilationContext;
+import pt.up.fe.comp2023.DebugReport;
 import pt.up.fe.comp2023.analysis.JmmSymbolTable;
 
-import java.util.Collections;
-import java.util.regex.Pattern;
-
 public class Optimizer implements JmmOptimization {
-    private final JmmVisitor<?, Boolean>[] visitors = new JmmVisitor[]{
-            new ASTSimplificationVisitor(),
-            new ConstantFoldingVisitor(),
-            new ConstantPropagationVisitor()
-    };
+    private final CompilationContext context;
+
+    public Optimizer() {
+        this(new CompilationContext());
+    }
+
+    public Optimizer(CompilationContext context) {
+        this.context = context;
+    }
 
     @Override
     public JmmSemanticsResult optimize(JmmSemanticsResult semanticsResult) {
@@ -26,72 +26,80 @@ public class Optimizer implements JmmOptimization {
 
         var node = semanticsResult.getRootNode();
 
-        var cont = true;
-        while (cont) {
-            cont = false;
-            for (var visitor : visitors)
-                cont |= visitor.visit(node);
-        }
+        var astOptimizer = new ASTOptimizer();
+        astOptimizer.optimize(node);
 
-        semanticsResult.getReports().add(new Report(ReportType.DEBUG, Stage.OPTIMIZATION, -1, -1, "Optimized AST:\n" + node.toTree()));
+        // The tree is dumped here, since the OLLIR visitor annotates it before the report is printed
+        DebugReport.addSnapshot(semanticsResult.getReports(), semanticsResult.getConfig(), Stage.OPTIMIZATION,
+                () -> "Optimized AST in " + astOptimizer.getRounds() + " rounds, " + astOptimizer.getPassRuns()
+                        + " passes and " + astOptimizer.getVisitedNodes() + " visited nodes:\n" + node.toTree());
 
         return JmmOptimization.super.optimize(semanticsResult);
     }
 
     @Override
     public OllirResult toOllir(JmmSemanticsResult jmmSemanticsResult) {
-        OllirVisitor ollirVisitor = new OllirVisitor(((JmmSymbolTable) jmmSemanticsResult.getSymbolTable()));
+        var config = jmmSemanticsResult.getConfig();
+        var buildClass = config.getOrDefault("ollir", "text").equals("direct");
+
+        OllirVisitor ollirVisitor = new OllirVisitor(((JmmSymbolTable) jmmSemanticsResult.getSymbolTable()), context, buildClass);
         ollirVisitor.visit(jmmSemanticsResult.getRootNode(), 0);
 
-        String ollirResult = ollirVisitor.getOllirCode();
         var reports = ollirVisitor.getReports();
 
-        reports.add(new Report(ReportType.DEBUG, Stage.OPTIMIZATION, -1, -1, "Generated OLLIR:\n" + ollirResult));
+        if (buildClass) {
+            var ollirClass = ollirVisitor.getOllirClass();
+
+            // The class is never written as code otherwise, and is changed by the optimizations, so it is written here
+            DebugReport.addSnapshot(reports, config, Stage.OPTIMIZATION, () -> "Generated OLLIR:\n" + OllirPrinter.print(ollirClass));
+
+            return new OllirClassResult(jmmSemanticsResult, ollirClass, reports);
+        }
+
+        String ollirResult = ollirVisitor.getOllirCode();
+
+        DebugReport.add(reports, config, Stage.OPTIMIZATION, () -> "Generated OLLIR:\n" + ollirResult);
 
         return new OllirResult(jmmSemanticsResult, ollirResult, reports);
     }
 
     @Override
     public OllirResult optimize(OllirResult ollirResult) {
-        int maxRegsAllowed = Integer.parseInt(ollirResult.getConfig().getOrDefault("registerAllocation", "-1"));
+        var optimize = Boolean.parseBoolean(ollirResult.getConfig().get("optimize"));
 
-        if (maxRegsAllowed >= 0) {
-            try {
-                ollirResult = new RegisterAllocator().optimizeRegisters(ollirResult);
-            } catch (Exception e) {
-                ollirResult.getReports().add(new Report(ReportType.ERROR, Stage.OPTIMIZATION, -1, -1, "Register limit exceeded"));
-            }
-        }
+        if (optimize)
+            ollirResult = optimizeOllir(ollirResult);
 
-        if (!Boolean.parseBoolean(ollirResult.getConfig().get("optimize")))
-            return ollirResult;
+        // Registers are allocated last, so that the other optimizations do not undo the allocation
+        int maxRegsAllowed = Integer.parseInt(ollirResult.getConfig().getOrDefault("registerAllocation", "-1"));
 
-        var code = ollirResult.getOllirCode();
-        var newCode = new StringBuilder();
+        if (maxRegsAllowed >= 0)
+            ollirResult = new RegisterAllocator().optimizeRegisters(ollirResult);
 
-        var ifPattern = Pattern.compile("(\\w+\\.bool)\\s*:=\\.bool\\s*(\\w+\\.\\w+\\s*(<|>|==|!=|<=|>=)\\.bool\\s*\\w+\\.\\w+);\\n\\s*if\\s*\\(!\\.bool\\s*\\1\\)");
-        var ifMatcher = ifPattern.matcher(code);
+        if (optimize || maxRegsAllowed >= 0) {
+            var ollirClass = ollirResult.getOllirClass();
+            DebugReport.add(ollirResult.getReports(), ollirResult.getConfig(), Stage.OPTIMIZATION,
+                    () -> "Optimized OLLIR:\n" + OllirPrinter.print(ollirClass));
+        }
 
-        while (ifMatcher.find()) {
-            var condition = ifMatcher.group(2);
-            var op = ifMatcher.group(3);
+        return ollirResult;
+    }
 
-            condition = switch (op) {
-                case "<" -> condition.replace("<", ">=");
-                case ">" -> condition.replace(">", "<=");
-                case "==" -> condition.replace("==", "!=");
-                case "!=" -> condition.replace("!=", "==");
-                case "<=" -> condition.replace("<=", ">");
-                case ">=" -> condition.replace(">=", "<");
-                default -> condition;
-            };
+    private OllirResult optimizeOllir(OllirResult ollirResult) {
+        var ollirClass = ollirResult.getOllirClass();
 
-            ifMatcher.appendReplacement(newCode, "if (" + condition + ")");
-        }
-        ifMatcher.appendTail(newCode);
+        var branchFusion = new BranchFusion();
+        branchFusion.optimize(ollirClass);
+
+        var constantPropagator = new ConstantPropagator();
+        constantPropagator.optimize(ollirClass);
 
-        ollirResult.getReports().add(new Report(ReportType.DEBUG, Stage.OPTIMIZATION, -1, -1, "Optimized OLLIR:\n" + newCode));
+        DebugReport.add(ollirResult.getReports(), ollirResult.getConfig(), Stage.OPTIMIZATION, () -> "Fused "
+                + branchFusion.getFusedBranches() + " comparisons into branches, propagated "
+                + constantPropagator.getPropagatedConstants() + " constants, folded "
+                + constantPropagator.getFoldedBranches() + " branches and removed "
+                + constantPropagator.getRemovedInstructions() + " instructions in the OLLIR CFG");
 
-        return new OllirResult(new JmmSemanticsResult(null, ollirResult.getSymbolTable(), Collections.emptyList(), ollirResult.getConfig()), newCode.toString(), ollirResult.getReports());
+        return ollirResult;
     }
 }
@@ -2,210 +2,354 @@ package pt.up.fe.comp2023.optimization;
 
 import org.specs.comp.ollir.*;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
-import pt.up.fe.specs.util.graphs.Graph;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2023.DebugReport;
 
-import javax.swing.tree.TreeNode;
 import java.util.*;
 import java.util.stream.Collectors;
 
+/**
+ * Assigns the variables of each method to JVM registers with {@link GraphColoring}, using as few registers as it can,
+ * or at most `registerAllocation` registers when it is positive. With `regalloc` set to `linear`, {@link LinearScan} is
+ * used instead, which is faster on very large methods but may use more registers, so methods it cannot fit in a
+ * positive limit are colored with {@link GraphColoring} instead. Methods with more variables than an
+ * {@link InterferenceGraph} holds are always allocated with {@link LinearScan}.
+ * <p>
+ * Copies between variables that end up in the same register are removed. The JVM has no memory to spill registers to
+ * other than more registers, so when the limit is too low, variables holding a single constant are rematerialized: their
+ * uses are replaced by the constant. If that is not enough, an error reports how many registers the method needs.
+ */
 public class RegisterAllocator {
-    private static class Node {
-        Set<String> defs = new HashSet<>();
-        Set<String> uses = new HashSet<>();
-        Set<String> ins = new HashSet<>();
-        Set<String> outs = new HashSet<>();
-    }
+    private static final double REMATERIALIZATION_COST = 1;
+    private static final double SPILL_COST = 1000;
 
     public OllirResult optimizeRegisters(OllirResult ollirResult) {
         ClassUnit ollirClass = ollirResult.getOllirClass();
+        int maxRegsAllowed = Integer.parseInt(ollirResult.getConfig().get("registerAllocation"));
+        boolean linearScan = ollirResult.getConfig().getOrDefault("regalloc", "graph").equals("linear");
 
-        for (Method method : ollirClass.getMethods()) {
-            var nodes = parseVariables(method);
-            var graph = buildInterferenceGraph(nodes);
-            var colorMap = colorGraph(graph);
-
-            int maxRegsAllowed = Integer.parseInt(ollirResult.getConfig().get("registerAllocation"));
-            var colors = new TreeSet<>(colorMap.values());
-            if (maxRegsAllowed > 0 && colors.size() > maxRegsAllowed)
-                throw new RuntimeException("More regs than supposed");
-
-            replaceWithRegisters(method, colorMap);
-        }
+        for (Method method : ollirClass.getMethods())
+            allocate(method, maxRegsAllowed, linearScan, ollirResult.getReports(), ollirResult.getConfig());
 
         return ollirResult;
     }
 
+    private void allocate(Method method, int maxRegsAllowed, boolean linearScan, List<Report> reports,
+                          Map<String, String> config) {
+        var methodName = method.isConstructMethod() ? "constructor" : method.getMethodName();
+        var rematerialized = 0;
+
+        while (true) {
+            var liveness = new LivenessAnalysis(method);
+            var variables = liveness.getVariables();
+            var precolored = precolored(method, liveness);
+            var fixedRegisters = Arrays.stream(precolored).max().orElse(-1) + 1;
+
+            if (maxRegsAllowed > 0 && fixedRegisters > maxRegsAllowed) {
+                reports.add(new Report(ReportType.ERROR, Stage.OPTIMIZATION, -1, -1, "Method " + methodName
+                        + " needs at least " + fixedRegisters + " registers for this and its parameters, but only "
+                        + maxRegsAllowed + " are allowed"));
+                return;
+            }
 
-    private List<Node> parseVariables(Method method) {
-        List<Node> nodes = new ArrayList<>();
+            var fitsGraph = variables.size() <= InterferenceGraph.MAX_SIZE;
+            var k = maxRegsAllowed > 0 ? maxRegsAllowed : fixedRegisters + variables.size();
+            var coloring = assignRegisters(liveness, precolored, k, linearScan || !fitsGraph);
+            var colored = coloring.color();
 
-        // Create empty sets for live-ins and live-outs of instructions
-        Map<Instruction, Set<String>> liveIns = new HashMap<>();
-        Map<Instruction, Set<String>> liveOuts = new HashMap<>();
+            // Reported once, as later rounds only follow rematerializations
+            if (!fitsGraph && rematerialized == 0)
+                DebugReport.add(reports, config, Stage.OPTIMIZATION, () -> "Method " + methodName + " has "
+                        + variables.size() + " variables, more than graph coloring handles, so it was allocated by linear scan");
 
-        // Initialize live-ins and live-outs with empty sets for all instructions
-        for (Instruction instruction : method.getInstructions()) {
-            liveIns.put(instruction, new HashSet<>());
-            liveOuts.put(instruction, new HashSet<>());
-        }
+            // Linear scan may use more registers than graph coloring, which is only fine while they are not limited
+            if (!colored && linearScan && fitsGraph && maxRegsAllowed > 0) {
+                coloring = colorGraph(liveness, precolored, k);
+                colored = coloring.color();
+            }
+
+            if (colored) {
+                replaceWithRegisters(method, liveness, coloring);
+                var removedMoves = removeCoalescedMoves(method, liveness, coloring);
+
+                var rematerializedConstants = rematerialized;
+                DebugReport.add(reports, config, Stage.OPTIMIZATION, () -> "Allocated " + registerCount(method)
+                        + " registers in method " + methodName + ", removing " + removedMoves + " copies and rematerializing "
+                        + rematerializedConstants + " constants: " + describe(method));
+                return;
+            }
 
-        // Perform the live-in/live-out analysis iteratively until convergence
-        boolean changed;
-        do {
-            changed = false;
-            for (Instruction instruction : method.getInstructions()) {
-                Set<String> oldLiveIn = new HashSet<>(liveIns.get(instruction));
-                Set<String> oldLiveOut = new HashSet<>(liveOuts.get(instruction));
+            var referenced = referencedVariables(liveness);
+            var spilled = false;
 
-                // Compute live-in
-                Set<String> liveIn = new HashSet<>(getUses(instruction));
-                liveIn.addAll(SetUtils.difference(liveOuts.get(instruction), getDefs(instruction)));
+            for (int node = 0; node < variables.size(); node++)
+                if (coloring.getColor(node) < 0 && BitSetUtils.get(referenced, node)
+                        && rematerialize(method, variables.get(node))) {
+                    spilled = true;
+                    ++rematerialized;
+                }
 
-                // Compute live-out
-                Set<String> liveOut = new HashSet<>();
-                for (var successor : instruction.getSuccessors())
-                    liveOut.addAll(liveIns.get((Instruction) successor));
+            if (!spilled) {
+                var unlimited = assignRegisters(liveness, precolored, fixedRegisters + variables.size(), !fitsGraph);
+                unlimited.color();
 
-                liveIns.put(instruction, liveIn);
-                liveOuts.put(instruction, liveOut);
+                var needed = 0;
+                for (int node = 0; node < variables.size(); node++)
+                    needed = Math.max(needed, unlimited.getColor(node) + 1);
 
-                if (!oldLiveIn.equals(liveIn) || !oldLiveOut.equals(liveOut))
-                    changed = true;
+                reports.add(new Report(ReportType.ERROR, Stage.OPTIMIZATION, -1, -1, "Method " + methodName
+                        + " needs " + needed + " registers, but only " + maxRegsAllowed + " are allowed"));
+                return;
             }
-        } while (changed);
-
-        // Create nodes with defs, uses, ins, and outs based on the live-ins and live-outs
-        for (Instruction instruction : method.getInstructions()) {
-            Node node = new Node();
-            node.defs.addAll(getDefs(instruction));
-            node.uses.addAll(getUses(instruction));
-            node.ins.addAll(liveIns.get(instruction));
-            node.outs.addAll(liveOuts.get(instruction));
-            nodes.add(node);
         }
-
-        return nodes;
     }
 
+    private RegisterAssignment assignRegisters(LivenessAnalysis liveness, int[] precolored, int k, boolean linearScan) {
+        if (linearScan)
+            return new LinearScan(liveness, k, referencedVariables(liveness), precolored, spillCosts(liveness));
 
-    private Set<String> getDefs(Instruction instruction) {
-        Set<String> defs = new HashSet<>();
+        return colorGraph(liveness, precolored, k);
+    }
+
+    private GraphColoring colorGraph(LivenessAnalysis liveness, int[] precolored, int k) {
+        var graph = InterferenceGraph.build(liveness);
+        var coloring = new GraphColoring(graph, k, referencedVariables(liveness), precolored, spillCosts(liveness));
 
-        if (instruction instanceof AssignInstruction assign)
-            if (assign.getDest() instanceof Operand op)
-                defs.add(op.getName());
+        for (int i = 0; i < liveness.getInstructions().size(); i++) {
+            var source = liveness.getMoveSource(i);
+            if (source >= 0)
+                coloring.addMove(BitSetUtils.nextSetBit(liveness.getDefs(i), 0), source);
+        }
 
-        return defs;
+        return coloring;
     }
 
-    private Set<String> getUses(Instruction instruction) {
-        Set<String> uses = new HashSet<>();
+    /**
+     * @return the register of each variable that must keep it, as the JVM passes `this` and the parameters in fixed
+     * registers, or -1 for the others
+     */
+    private int[] precolored(Method method, LivenessAnalysis liveness) {
+        var variables = liveness.getVariables();
+        var precolored = new int[variables.size()];
+
+        for (int node = 0; node < variables.size(); node++) {
+            var descriptor = method.getVarTable().get(variables.get(node));
+            var isFixed = variables.get(node).equals("this") || descriptor.getScope() == VarScope.PARAMETER;
+            precolored[node] = isFixed ? descriptor.getVirtualReg() : -1;
+        }
 
-        if (instruction instanceof AssignInstruction assign) {
-            uses.addAll(getUses(assign.getRhs()));
-        } else if (instruction instanceof  CallInstruction call) {
-            if (call.getInvocationType() != CallType.invokestatic && call.getFirstArg() instanceof Operand op)
-                uses.add(op.getName());
-
-            for (Element operand: call.getListOfOperands())
-                if (operand instanceof Operand op)
-                    uses.add(op.getName());
-        } else if (instruction instanceof  ReturnInstruction ret) {
-            if (ret.getOperand() instanceof Operand op)
-                uses.add(op.getName());
-        } else if (instruction instanceof UnaryOpInstruction unop) {
-            if (unop.getOperand() instanceof Operand op)
-                uses.add(op.getName());
+        return precolored;
+    }
 
-        } else if (instruction instanceof BinaryOpInstruction binop) {
-            if (binop.getLeftOperand() instanceof Operand l_op)
-                uses.add(l_op.getName());
-            if (binop.getRightOperand() instanceof Operand r_op)
-                uses.add(r_op.getName());
-        } else if (instruction instanceof OpCondInstruction opcond) {
-            for (Element el: opcond.getOperands())
-                if (el instanceof Operand op)
-                    uses.add(op.getName());
-        } else if (instruction instanceof  PutFieldInstruction put) {
-            if (put.getThirdOperand() instanceof Operand op)
-                uses.add(op.getName());
-
-            if (put.getFirstOperand() instanceof Operand op)
-                uses.add(op.getName());
-        } else if (instruction instanceof SingleOpInstruction sop) {
-            if (sop.getSingleOperand() instanceof Operand op)
-                uses.add(op.getName());
+    /**
+     * @return the variables used or defined by some instruction, which are the ones given a register
+     */
+    private long[] referencedVariables(LivenessAnalysis liveness) {
+        var referenced = new long[BitSetUtils.words(liveness.getVariables().size())];
+
+        for (int i = 0; i < liveness.getInstructions().size(); i++) {
+            BitSetUtils.or(referenced, liveness.getUses(i));
+            BitSetUtils.or(referenced, liveness.getDefs(i));
         }
 
-        return uses;
+        return referenced;
     }
 
+    /**
+     * @return the cost of spilling each variable: the number of instructions referencing it, and much more if it cannot
+     * be rematerialized
+     */
+    private double[] spillCosts(LivenessAnalysis liveness) {
+        var costs = new double[liveness.getVariables().size()];
 
+        for (int i = 0; i < liveness.getInstructions().size(); i++)
+            for (var set : List.of(liveness.getUses(i), liveness.getDefs(i)))
+                for (int v = BitSetUtils.nextSetBit(set, 0); v >= 0; v = BitSetUtils.nextSetBit(set, v + 1))
+                    costs[v] += 1;
 
+        var constants = constantDefinitions(liveness.getInstructions());
+        for (int v = 0; v < costs.length; v++)
+            costs[v] *= constants.containsKey(liveness.getVariables().get(v)) ? REMATERIALIZATION_COST : SPILL_COST;
 
-    private Map<String, Set<String>> buildInterferenceGraph(List<Node> nodes) {
-        Map<String, Set<String>> graph = new HashMap<>();
+        return costs;
+    }
 
-        for (Node node : nodes) {
-            for (var def : SetUtils.union(node.defs, node.uses)) {
-                graph.computeIfAbsent(def, s -> new HashSet<>());
+    /**
+     * @return the literal assigned to each variable whose only definition assigns it a literal
+     */
+    private Map<String, LiteralElement> constantDefinitions(List<Instruction> instructions) {
+        Map<String, LiteralElement> constants = new HashMap<>();
+        Set<String> redefined = new HashSet<>();
+
+        for (var instruction : instructions) {
+            if (!(instruction instanceof AssignInstruction assign) || !(assign.getDest() instanceof Operand dest)
+                    || dest instanceof ArrayOperand)
+                continue;
+
+            if (constants.containsKey(dest.getName()) || redefined.contains(dest.getName())
+                    || !(assign.getRhs() instanceof SingleOpInstruction sop)
+                    || !(sop.getSingleOperand() instanceof LiteralElement literal)) {
+                constants.remove(dest.getName());
+                redefined.add(dest.getName());
+                continue;
             }
 
-            var pairs = SetUtils.generateCombinations(node.ins);
-            pairs.addAll(SetUtils.generateCombinations(SetUtils.union(node.outs, node.defs)));
+            constants.put(dest.getName(), literal);
+        }
 
-            for (var pair : pairs) {
-                var neighbors = graph.get(pair.get(0));
-                neighbors.add(pair.get(1));
+        return constants;
+    }
+
+    /**
+     * Replaces the uses of `variable` by the constant it holds and removes its definition.
+     *
+     * @return `false` if `variable` is not a local variable holding a single constant
+     */
+    private boolean rematerialize(Method method, String variable) {
+        var descriptor = method.getVarTable().get(variable);
+        var literal = constantDefinitions(method.getInstructions()).get(variable);
+
+        if (literal == null || descriptor.getScope() != VarScope.LOCAL)
+            return false;
+
+        var instructions = method.getInstructions();
+        for (int i = instructions.size() - 1; i >= 0; --i) {
+            var instruction = instructions.get(i);
+
+            if (instruction instanceof AssignInstruction assign && assign.getDest() instanceof Operand dest
+                    && !(dest instanceof ArrayOperand) && dest.getName().equals(variable)) {
+                if (!removeInstruction(method, i))
+                    return false;
+            } else {
+                replaceUses(instruction, variable, literal);
             }
         }
 
-        return graph;
+        return true;
     }
 
+    private void replaceUses(Instruction instruction, String variable, LiteralElement literal) {
+        if (instruction instanceof AssignInstruction assign) {
+            if (assign.getDest() instanceof ArrayOperand array)
+                replaceIndexes(array, variable, literal);
+
+            replaceUses(assign.getRhs(), variable, literal);
+        } else if (instruction instanceof CallInstruction call) {
+            var operands = call.getListOfOperands();
+            if (operands != null)
+                for (int i = 0; i < operands.size(); ++i)
+                    operands.set(i, replaceUse(operands.get(i), variable, literal));
+        } else if (instruction instanceof ReturnInstruction ret) {
+            if (ret.hasReturnValue())
+                ret.setOperand(replaceUse(ret.getOperand(), variable, literal));
+        } else if (instruction instanceof UnaryOpInstruction unop) {
+            unop.setOperand(replaceUse(unop.getOperand(), variable, literal));
+        } else if (instruction instanceof BinaryOpInstruction binop) {
+            binop.setLeftOperand(replaceUse(binop.getLeftOperand(), variable, literal));
+            binop.setRightOperand(replaceUse(binop.getRightOperand(), variable, literal));
+        } else if (instruction instanceof SingleOpInstruction sop) {
+            sop.setSingleOperand(replaceUse(sop.getSingleOperand(), variable, literal));
+        } else if (instruction instanceof CondBranchInstruction branch) {
+            replaceUses(branch.getCondition(), variable, literal);
+        } else if (instruction instanceof PutFieldInstruction put) {
+            put.setThirdOperand(replaceUse(put.getThirdOperand(), variable, literal));
+        }
+    }
 
-    private Map<String, Integer> colorGraph(Map<String, Set<String>> graph) {
-        Map<String, Integer> colorMap = new HashMap<>();
-        int numColors = graph.size();
+    private Element replaceUse(Element element, String variable, LiteralElement literal) {
+        if (element instanceof ArrayOperand array) {
+            replaceIndexes(array, variable, literal);
+            return array;
+        }
 
-        Deque<String> stack = new ArrayDeque<>();
+        if (element instanceof Operand operand && operand.getName().equals(variable))
+            return new LiteralElement(literal.getLiteral(), literal.getType());
 
-        for (var node : graph.entrySet())
-            if (node.getValue().size() < numColors)
-                stack.push(node.getKey());
+        return element;
+    }
 
-        while (!stack.isEmpty()) {
-            String node = stack.pop();
-            var neighbors = graph.get(node);
+    private void replaceIndexes(ArrayOperand array, String variable, LiteralElement literal) {
+        var indexes = array.getIndexOperands();
+        for (int i = 0; i < indexes.size(); ++i)
+            indexes.set(i, replaceUse(indexes.get(i), variable, literal));
+    }
 
-            boolean[] usedColors = new boolean[numColors];
-            for (String neighbor : neighbors) {
-                Integer neighborColor = colorMap.get(neighbor);
-                if (neighborColor != null)
-                    usedColors[neighborColor] = true;
-            }
+    /**
+     * Removes the `i`-th instruction of `method`, moving its labels to the next instruction.
+     *
+     * @return `false` if the instruction has labels but is the last one, in which case it is kept
+     */
+    private boolean removeInstruction(Method method, int i) {
+        var instructions = method.getInstructions();
+        var instruction = instructions.get(i);
+        var labels = method.getLabels();
+
+        if (labels.containsValue(instruction)) {
+            if (i + 1 == instructions.size())
+                return false;
+
+            for (var label : labels.entrySet())
+                if (label.getValue() == instruction)
+                    label.setValue(instructions.get(i + 1));
+        }
 
-            for (int color = 0; color < numColors; color++) {
-                if (!usedColors[color]) {
-                    colorMap.put(node, color);
-                    break;
-                }
-            }
+        instructions.remove(i);
+        return true;
+    }
 
-            for (var neighbor : neighbors) {
-                neighbors.remove(node);
-                if (neighbors.size() < numColors)
-                    stack.push(neighbor);
-            }
+    /**
+     * Removes the copies whose source and destination got the same register.
+     *
+     * @return the number of copies removed
+     */
+    private int removeCoalescedMoves(Method method, LivenessAnalysis liveness, RegisterAssignment coloring) {
+        var removed = 0;
+
+        for (int i = liveness.getInstructions().size() - 1; i >= 0; i--) {
+            var source = liveness.getMoveSource(i);
+            if (source < 0)
+                continue;
+
+            var destination = BitSetUtils.nextSetBit(liveness.getDefs(i), 0);
+            if (coloring.getColor(destination) == coloring.getColor(source) && removeInstruction(method, i))
+                ++removed;
         }
 
-        return colorMap;
+        return removed;
     }
 
-    private void replaceWithRegisters(Method method, Map<String, Integer> colorMap) {
+    private void replaceWithRegisters(Method method, LivenessAnalysis liveness, RegisterAssignment coloring) {
         var varTable = method.getVarTable();
+        var referenced = referencedVariables(liveness);
+        var variables = liveness.getVariables();
+
+        for (int node = 0; node < variables.size(); node++) {
+            var descriptor = varTable.get(variables.get(node));
+
+            // Variables no longer referenced anywhere share register 0, so they do not count as another local
+            if (BitSetUtils.get(referenced, node))
+                descriptor.setVirtualReg(coloring.getColor(node));
+            else if (descriptor.getScope() == VarScope.LOCAL && !variables.get(node).equals("this"))
+                descriptor.setVirtualReg(0);
+        }
+    }
+
+    private int registerCount(Method method) {
+        return (int) method.getVarTable().values().stream()
+                .filter(descriptor -> descriptor.getScope() != VarScope.FIELD)
+                .map(Descriptor::getVirtualReg)
+                .distinct()
+                .count();
+    }
 
-        for (var key : colorMap.keySet())
-            varTable.get(key).setVirtualReg(colorMap.get(key));
+    private String describe(Method method) {
+        return method.getVarTable().entrySet().stream()
+                .filter(entry -> entry.getValue().getScope() != VarScope.FIELD)
+                .sorted(Comparator.comparingInt((Map.Entry<String, Descriptor> entry) -> entry.getValue().getVirtualReg())
+                        .thenComparing(Map.Entry::getKey))
+                .map(entry -> entry.getKey() + " -> " + entry.getValue().getVirtualReg())
+                .collect(Collectors.joining(", "));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,18 @@
+package pt.up.fe.comp2023.optimization;
+
+/**
+ * Assignment of registers to the variables of a method, numbered as in {@link LivenessAnalysis}.
+ */
+public interface RegisterAssignment {
+    /**
+     * Assigns the registers.
+     *
+     * @return `true` if every variable got a register, `false` if some had to be spilled
+     */
+    boolean color();
+
+    /**
+     * @return the register of `node`, or -1 if it did not get one
+     */
+    int getColor(int node);
+}
@@ -0,0 +1,584 @@
+package pt.up.fe.comp2023.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Static single assignment form of the integer and boolean local variables of an OLLIR method.
+ * <p>
+ * The instructions themselves are not renamed. Instead, every definition and every use of a tracked variable is mapped
+ * to the SSA value it defines or reads, and phi functions are kept in the basic blocks of the CFG built here. Analyses
+ * can then work sparsely on the SSA values, and transformations still edit the original instructions.
+ * <p>
+ * Construction follows Cytron et al.: dominators are computed with the algorithm of Cooper, Harvey and Kennedy, phi
+ * functions are placed at the iterated dominance frontiers of the definitions, and variables are renamed in a walk of
+ * the dominator tree.
+ */
+public class SSAForm {
+    private final Method method;
+
+    private final List<Block> blocks = new ArrayList<>();
+    private final Map<Instruction, Block> blockOf = new IdentityHashMap<>();
+    private final Map<String, Integer> variables = new HashMap<>();
+
+    private final List<Value> values = new ArrayList<>();
+    private final Map<Element, Value> useValues = new IdentityHashMap<>();
+    private final Map<Instruction, Value> definedValues = new IdentityHashMap<>();
+
+    /**
+     * Basic block of the CFG. The first block is an empty entry block, where parameters and uninitialized variables
+     * get their first value.
+     */
+    public static class Block {
+        private final int id;
+        private final List<Instruction> instructions = new ArrayList<>();
+        private final List<Block> successors = new ArrayList<>();
+        private final List<Block> predecessors = new ArrayList<>();
+        private final List<Phi> phis = new ArrayList<>();
+        private final List<Block> dominated = new ArrayList<>();
+        private Block idom;
+        private int order = -1;
+
+        private Block(int id) {
+            this.id = id;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public List<Instruction> getInstructions() {
+            return instructions;
+        }
+
+        public List<Block> getSuccessors() {
+            return successors;
+        }
+
+        /**
+         * @return the predecessors of this block, in the order of the operands of its phi functions
+         */
+        public List<Block> getPredecessors() {
+            return predecessors;
+        }
+
+        public List<Phi> getPhis() {
+            return phis;
+        }
+
+        /**
+         * @return `true` if this block can be reached from the entry of the method
+         */
+        public boolean isReachable() {
+            return order >= 0;
+        }
+
+        public Instruction getLastInstruction() {
+            return instructions.isEmpty() ? null : instructions.get(instructions.size() - 1);
+        }
+    }
+
+    public static class Phi {
+        private final String variable;
+        private final Block block;
+        private final Value[] operands;
+        private Value value;
+
+        private Phi(String variable, Block block) {
+            this.variable = variable;
+            this.block = block;
+            this.operands = new Value[block.predecessors.size()];
+        }
+
+        public Block getBlock() {
+            return block;
+        }
+
+        public Value getValue() {
+            return value;
+        }
+
+        /**
+         * @return the value coming from the i-th predecessor of the block, or `null` if that predecessor is unreachable
+         */
+        public Value getOperand(int i) {
+            return operands[i];
+        }
+    }
+
+    /**
+     * Value of a variable, defined by an assignment, by a phi function, or on entry to the method.
+     */
+    public static class Value {
+        private final int id;
+        private final String variable;
+        private final Block block;
+        private final AssignInstruction assignment;
+        private final Phi phi;
+        private final List<Instruction> users = new ArrayList<>();
+        private final List<Phi> phiUsers = new ArrayList<>();
+
+        private Value(int id, String variable, Block block, AssignInstruction assignment, Phi phi) {
+            this.id = id;
+            this.variable = variable;
+            this.block = block;
+            this.assignment = assignment;
+            this.phi = phi;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getVariable() {
+            return variable;
+        }
+
+        public Block getBlock() {
+            return block;
+        }
+
+        /**
+         * @return the assignment defining this value, or `null` if it is defined by a phi function or on entry
+         */
+        public AssignInstruction getAssignment() {
+            return assignment;
+        }
+
+        /**
+         * @return the phi function defining this value, or `null` if it is not defined by one
+         */
+        public Phi getPhi() {
+            return phi;
+        }
+
+        public boolean isEntryValue() {
+            return assignment == null && phi == null;
+        }
+
+        /**
+         * @return the instructions reading this value
+         */
+        public List<Instruction> getUsers() {
+            return users;
+        }
+
+        public List<Phi> getPhiUsers() {
+            return phiUsers;
+        }
+    }
+
+    /**
+     * @param method a method whose jump labels all exist, see {@link Method#checkLabels()}
+     */
+    public SSAForm(Method method) {
+        this.method = method;
+
+        findVariables();
+        buildBlocks();
+        computeDominators();
+        placePhis();
+        rename();
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the basic blocks of the method, starting with the entry block and then in instruction order
+     */
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+
+    public Block getBlock(Instruction instruction) {
+        return blockOf.get(instruction);
+    }
+
+    public List<Value> getValues() {
+        return values;
+    }
+
+    /**
+     * @return the value read by the operand `element`, or `null` if it is not a use of a tracked variable
+     */
+    public Value getUseValue(Element element) {
+        return useValues.get(element);
+    }
+
+    /**
+     * @return the value defined by `instruction`, or `null` if it does not assign a tracked variable
+     */
+    public Value getDefinedValue(Instruction instruction) {
+        return definedValues.get(instruction);
+    }
+
+    public boolean isTracked(String variable) {
+        return variables.containsKey(variable);
+    }
+
+    /**
+     * @return the elements read by `instruction` as values, including array indexes but excluding field names and
+     * the object or class a method is called on
+     */
+    public static List<Element> getUsedElements(Instruction instruction) {
+        List<Element> elements = new ArrayList<>();
+        addUsedElements(instruction, elements);
+        return elements;
+    }
+
+    private static void addUsedElements(Instruction instruction, List<Element> elements) {
+        if (instruction instanceof AssignInstruction assign) {
+            if (assign.getDest() instanceof ArrayOperand array)
+                for (var index : array.getIndexOperands())
+                    addUsedElement(index, elements);
+
+            addUsedElements(assign.getRhs(), elements);
+        } else if (instruction instanceof CallInstruction call) {
+            if (call.getListOfOperands() != null)
+                for (var operand : call.getListOfOperands())
+                    addUsedElement(operand, elements);
+        } else if (instruction instanceof ReturnInstruction ret) {
+            if (ret.hasReturnValue())
+                addUsedElement(ret.getOperand(), elements);
+        } else if (instruction instanceof UnaryOpInstruction unop) {
+            addUsedElement(unop.getOperand(), elements);
+        } else if (instruction instanceof BinaryOpInstruction binop) {
+            addUsedElement(binop.getLeftOperand(), elements);
+            addUsedElement(binop.getRightOperand(), elements);
+        } else if (instruction instanceof SingleOpInstruction sop) {
+            addUsedElement(sop.getSingleOperand(), elements);
+        } else if (instruction instanceof CondBranchInstruction branch) {
+            addUsedElements(branch.getCondition(), elements);
+        } else if (instruction instanceof PutFieldInstruction put) {
+            addUsedElement(put.getThirdOperand(), elements);
+        }
+    }
+
+    private static void addUsedElement(Element element, List<Element> elements) {
+        elements.add(element);
+
+        if (element instanceof ArrayOperand array)
+            for (var index : array.getIndexOperands())
+                addUsedElement(index, elements);
+    }
+
+    /**
+     * @return `true` if `element` reads a local variable or parameter by name, rather than an array element
+     */
+    private static boolean isScalarOperand(Element element) {
+        return element instanceof Operand operand && !(operand instanceof ArrayOperand)
+                && !operand.getName().equals("this") && !operand.getName().equals("true") && !operand.getName().equals("false");
+    }
+
+    private static boolean isIntegerType(Type type) {
+        return type.getTypeOfElement() == ElementType.INT32 || type.getTypeOfElement() == ElementType.BOOLEAN;
+    }
+
+    /**
+     * Tracks the local variables and parameters that only ever hold integers or booleans.
+     */
+    private void findVariables() {
+        Map<String, Boolean> candidates = new HashMap<>();
+
+        for (var param : method.getParams())
+            if (isScalarOperand(param))
+                candidates.merge(((Operand) param).getName(), isIntegerType(param.getType()), Boolean::logicalAnd);
+
+        for (var instruction : method.getInstructions()) {
+            var elements = getUsedElements(instruction);
+            if (instruction instanceof AssignInstruction assign)
+                elements.add(assign.getDest());
+
+            for (var element : elements) {
+                if (element instanceof ArrayOperand array)
+                    candidates.put(array.getName(), false);
+                else if (isScalarOperand(element))
+                    candidates.merge(((Operand) element).getName(), isIntegerType(element.getType()), Boolean::logicalAnd);
+            }
+        }
+
+        var varTable = method.getVarTable();
+        for (var candidate : candidates.entrySet()) {
+            var descriptor = varTable.get(candidate.getKey());
+            if (candidate.getValue() && descriptor != null && descriptor.getScope() != VarScope.FIELD)
+                variables.put(candidate.getKey(), variables.size());
+        }
+    }
+
+    private void buildBlocks() {
+        var instructions = method.getInstructions();
+        var entry = new Block(0);
+        blocks.add(entry);
+
+        if (instructions.isEmpty())
+            return;
+
+        Set<Instruction> labeled = Collections.newSetFromMap(new IdentityHashMap<>());
+        labeled.addAll(method.getLabels().values());
+
+        Block current = null;
+        for (var instruction : instructions) {
+            if (current == null || labeled.contains(instruction) || endsBlock(current.getLastInstruction())) {
+                current = new Block(blocks.size());
+                blocks.add(current);
+            }
+
+            current.instructions.add(instruction);
+            blockOf.put(instruction, current);
+        }
+
+        addEdge(entry, blocks.get(1));
+
+        for (int i = 1; i < blocks.size(); ++i) {
+            var block = blocks.get(i);
+            var last = block.getLastInstruction();
+            var next = i + 1 < blocks.size() ? blocks.get(i + 1) : null;
+
+            if (last instanceof GotoInstruction jump) {
+                addEdge(block, blockOf.get(method.getLabels().get(jump.getLabel())));
+            } else if (last instanceof CondBranchInstruction branch) {
+                addEdge(block, blockOf.get(method.getLabels().get(branch.getLabel())));
+                if (next != null)
+                    addEdge(block, next);
+            } else if (!(last instanceof ReturnInstruction) && next != null) {
+                addEdge(block, next);
+            }
+        }
+    }
+
+    private static boolean endsBlock(Instruction instruction) {
+        return instruction instanceof GotoInstruction || instruction instanceof CondBranchInstruction
+                || instruction instanceof ReturnInstruction;
+    }
+
+    private static void addEdge(Block from, Block to) {
+        from.successors.add(to);
+        to.predecessors.add(from);
+    }
+
+    private void computeDominators() {
+        var entry = blocks.get(0);
+
+        // Reverse postorder of the reachable blocks, with an explicit stack so large methods cannot overflow it
+        List<Block> postorder = new ArrayList<>();
+        Set<Block> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Iterator<Block>> stack = new ArrayDeque<>();
+        Deque<Block> path = new ArrayDeque<>();
+
+        visited.add(entry);
+        stack.push(entry.successors.iterator());
+        path.push(entry);
+
+        while (!stack.isEmpty()) {
+            var successors = stack.peek();
+
+            if (successors.hasNext()) {
+                var successor = successors.next();
+                if (visited.add(successor)) {
+                    stack.push(successor.successors.iterator());
+                    path.push(successor);
+                }
+            } else {
+                stack.pop();
+                postorder.add(path.pop());
+            }
+        }
+
+        Collections.reverse(postorder);
+        for (int i = 0; i < postorder.size(); ++i)
+            postorder.get(i).order = i;
+
+        entry.idom = entry;
+
+        var changed = true;
+        while (changed) {
+            changed = false;
+
+            for (var block : postorder) {
+                if (block == entry)
+                    continue;
+
+                Block idom = null;
+                for (var predecessor : block.predecessors)
+                    if (predecessor.idom != null)
+                        idom = idom == null ? predecessor : intersect(predecessor, idom);
+
+                if (idom != block.idom) {
+                    block.idom = idom;
+                    changed = true;
+                }
+            }
+        }
+
+        for (var block : postorder)
+            if (block != entry)
+                block.idom.dominated.add(block);
+    }
+
+    private static Block intersect(Block a, Block b) {
+        while (a != b) {
+            while (a.order > b.order)
+                a = a.idom;
+            while (b.order > a.order)
+                b = b.idom;
+        }
+
+        return a;
+    }
+
+    private Map<Block, Set<Block>> computeDominanceFrontiers() {
+        Map<Block, Set<Block>> frontiers = new IdentityHashMap<>();
+
+        for (var block : blocks) {
+            if (!block.isReachable() || block.predecessors.size() < 2)
+                continue;
+
+            for (var predecessor : block.predecessors) {
+                var runner = predecessor;
+                while (runner.isReachable() && runner != block.idom) {
+                    frontiers.computeIfAbsent(runner, b -> Collections.newSetFromMap(new IdentityHashMap<>())).add(block);
+                    runner = runner.idom;
+                }
+            }
+        }
+
+        return frontiers;
+    }
+
+    private void placePhis() {
+        var frontiers = computeDominanceFrontiers();
+
+        Map<String, List<Block>> definitions = new HashMap<>();
+        for (var variable : variables.keySet())
+            definitions.computeIfAbsent(variable, v -> new ArrayList<>()).add(blocks.get(0));
+
+        for (var block : blocks)
+            if (block.isReachable())
+                for (var instruction : block.instructions)
+                    if (getAssignedVariable(instruction) != null)
+                        definitions.get(getAssignedVariable(instruction)).add(block);
+
+        for (var definition : definitions.entrySet()) {
+            Set<Block> hasPhi = Collections.newSetFromMap(new IdentityHashMap<>());
+            Deque<Block> worklist = new ArrayDeque<>(definition.getValue());
+
+            while (!worklist.isEmpty()) {
+                var block = worklist.pop();
+
+                for (var frontier : frontiers.getOrDefault(block, Collections.emptySet())) {
+                    if (hasPhi.add(frontier)) {
+                        frontier.phis.add(new Phi(definition.getKey(), frontier));
+                        worklist.push(frontier);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the tracked variable assigned by `instruction`, or `null` if there is none
+     */
+    private String getAssignedVariable(Instruction instruction) {
+        if (instruction instanceof AssignInstruction assign && isScalarOperand(assign.getDest())
+                && variables.containsKey(((Operand) assign.getDest()).getName()))
+            return ((Operand) assign.getDest()).getName();
+
+        return null;
+    }
+
+    private Value newValue(String variable, Block block, AssignInstruction assignment, Phi phi) {
+        var value = new Value(values.size(), variable, block, assignment, phi);
+        values.add(value);
+        return value;
+    }
+
+    private void rename() {
+        var entry = blocks.get(0);
+
+        List<Deque<Value>> stacks = new ArrayList<>();
+        for (int i = 0; i < variables.size(); ++i)
+            stacks.add(new ArrayDeque<>());
+        for (var variable : variables.entrySet())
+            stacks.get(variable.getValue()).push(newValue(variable.getKey(), entry, null, null));
+
+        // Walk the dominator tree, popping the values defined in a block once all the blocks it dominates are done
+        Deque<Block> worklist = new ArrayDeque<>();
+        Deque<List<Integer>> pushed = new ArrayDeque<>();
+        Deque<Iterator<Block>> children = new ArrayDeque<>();
+
+        worklist.push(entry);
+        while (!worklist.isEmpty()) {
+            var block = worklist.peek();
+
+            if (children.size() < worklist.size()) {
+                pushed.push(renameBlock(block, stacks));
+                children.push(block.dominated.iterator());
+            }
+
+            if (children.peek().hasNext()) {
+                worklist.push(children.peek().next());
+            } else {
+                worklist.pop();
+                children.pop();
+                for (var variable : pushed.pop())
+                    stacks.get(variable).pop();
+            }
+        }
+    }
+
+    /**
+     * @return the variables whose stack got a new value
+     */
+    private List<Integer> renameBlock(Block block, List<Deque<Value>> stacks) {
+        List<Integer> pushed = new ArrayList<>();
+
+        for (var phi : block.phis) {
+            var variable = variables.get(phi.variable);
+            phi.value = newValue(phi.variable, block, null, phi);
+            stacks.get(variable).push(phi.value);
+            pushed.add(variable);
+        }
+
+        for (var instruction : block.instructions) {
+            for (var element : getUsedElements(instruction)) {
+                if (!isScalarOperand(element) || !variables.containsKey(((Operand) element).getName()))
+                    continue;
+
+                var value = stacks.get(variables.get(((Operand) element).getName())).peek();
+                useValues.put(element, value);
+                if (value.users.isEmpty() || value.users.get(value.users.size() - 1) != instruction)
+                    value.users.add(instruction);
+            }
+
+            var assigned = getAssignedVariable(instruction);
+            if (assigned != null) {
+                var variable = variables.get(assigned);
+                var value = newValue(assigned, block, (AssignInstruction) instruction, null);
+                definedValues.put(instruction, value);
+                stacks.get(variable).push(value);
+                pushed.add(variable);
+            }
+        }
+
+        Set<Block> successors = Collections.newSetFromMap(new IdentityHashMap<>());
+        successors.addAll(block.successors);
+
+        for (var successor : successors) {
+            for (int i = 0; i < successor.predecessors.size(); ++i) {
+                if (successor.predecessors.get(i) != block)
+                    continue;
+
+                for (var phi : successor.phis) {
+                    var value = stacks.get(variables.get(phi.variable)).peek();
+                    phi.operands[i] = value;
+                    value.phiUsers.add(phi);
+                }
+            }
+        }
+
+        return pushed;
+    }
+}
@@ -0,0 +1,158 @@
+package pt.up.fe.comp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp2023.BatchCompiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the batch compiler finds its units in directories, globs and manifests, and that it writes the class of
+ * every unit that compiles, whatever the number of jobs and whether other units fail.
+ */
+public class BatchCompilerTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private static Map<String, String> config(Path outputDir, int jobs) {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", "false");
+        config.put("registerAllocation", "-1");
+        config.put("outputDir", outputDir.toString());
+        config.put("jobs", String.valueOf(jobs));
+        return config;
+    }
+
+    private static Path write(Path file, String code) throws IOException {
+        Files.createDirectories(file.getParent());
+        return Files.writeString(file, code);
+    }
+
+    /**
+     * @return a unit with class `name`, whose main method prints `value`
+     */
+    private static String unit(String name, int value) {
+        return "import ioPlus;\nclass " + name + " {\n    public static void main(String[] args) {\n"
+                + "        ioPlus.printResult(" + value + ");\n    }\n}\n";
+    }
+
+    private static String name(int i) {
+        return String.format("Unit%02d", i);
+    }
+
+    private static List<String> names(List<File> files, Path root) {
+        return files.stream().map(file -> root.relativize(file.toPath()).toString().replace(File.separatorChar, '/')).toList();
+    }
+
+    /**
+     * @return a directory with two units, one of them nested, and a file that is not a unit
+     */
+    private Path sources() throws IOException {
+        var dir = temp.newFolder().toPath().toRealPath();
+        write(dir.resolve("A.jmm"), unit("A", 1));
+        write(dir.resolve("sub/B.jmm"), unit("B", 2));
+        write(dir.resolve("sub/notes.txt"), "not a unit");
+        return dir;
+    }
+
+    @Test
+    public void collectsDirectory() throws IOException {
+        var dir = sources();
+
+        assertEquals(List.of("A.jmm", "sub/B.jmm"), names(BatchCompiler.collectInputs(dir.toString()), dir));
+    }
+
+    @Test
+    public void collectsGlob() throws IOException {
+        var dir = sources();
+
+        assertEquals(List.of("A.jmm"), names(BatchCompiler.collectInputs(dir + "/*.jmm"), dir));
+        assertEquals(List.of("sub/B.jmm"), names(BatchCompiler.collectInputs(dir + "/*/*.jmm"), dir));
+        assertEquals(List.of("A.jmm", "sub/B.jmm"), names(BatchCompiler.collectInputs(dir + "/**.jmm"), dir));
+    }
+
+    @Test
+    public void collectsManifest() throws IOException {
+        var dir = sources();
+        // Paths are relative to the manifest and kept in its order, skipping blank lines and comments
+        var manifest = write(dir.resolve("lists/units.txt"), "# units\n../sub/B.jmm\n\n  ../A.jmm  \n");
+
+        assertEquals(List.of("sub/B.jmm", "A.jmm"), names(BatchCompiler.collectInputs(manifest.toString()), dir));
+        assertEquals(List.of("A.jmm"), names(BatchCompiler.collectInputs(dir.resolve("A.jmm").toString()), dir));
+    }
+
+    @Test
+    public void refusesMissingInput() throws IOException {
+        var missing = sources().resolve("missing");
+
+        try {
+            BatchCompiler.collectInputs(missing.toString());
+            fail("Expected missing inputs to be refused");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("Expected a directory, a glob or a manifest file"));
+        }
+    }
+
+    @Test
+    public void parallelJobsWriteEveryClass() throws IOException {
+        var dir = temp.newFolder().toPath();
+        var outputDir = temp.newFolder().toPath();
+
+        List<File> files = new ArrayList<>();
+        // Padded, so that the input order, which is sorted by path, is the order they are created in
+        for (int i = 0; i < 12; ++i)
+            files.add(write(dir.resolve(name(i) + ".jmm"), unit(name(i), i)).toFile());
+
+        var summary = new BatchCompiler(config(outputDir, 4)).compile(dir.toString());
+
+        assertFalse(summary.hasErrors());
+        assertEquals(12, summary.units().size());
+        for (int i = 0; i < 12; ++i) {
+            var unit = summary.units().get(i);
+            assertEquals("Units are reported in input order", files.get(i), unit.file());
+            assertEquals(outputDir.resolve(name(i) + ".class").toFile(), unit.classFile());
+            assertTrue(unit.classFile().isFile());
+        }
+    }
+
+    @Test
+    public void failingUnitKeepsOtherOutputs() throws IOException {
+        var dir = temp.newFolder().toPath();
+        var outputDir = temp.newFolder().toPath();
+        write(dir.resolve("A.jmm"), unit("A", 1));
+        write(dir.resolve("B.jmm"), "class B { public static void main(String[] args) { int x = ; } }");
+        write(dir.resolve("C.jmm"), unit("C", 3));
+
+        var summary = new BatchCompiler(config(outputDir, 2)).compile(dir.toString());
+        var units = summary.units();
+
+        assertTrue(summary.hasErrors());
+        assertTrue(units.get(0).succeeded());
+        assertTrue(units.get(2).succeeded());
+
+        var failed = units.get(1);
+        assertFalse(failed.succeeded());
+        assertNull(failed.classFile());
+        assertTrue(failed.reports().stream().anyMatch(report -> report.getType() == ReportType.ERROR));
+
+        assertTrue(outputDir.resolve("A.class").toFile().isFile());
+        assertTrue(outputDir.resolve("C.class").toFile().isFile());
+        assertFalse(outputDir.resolve("B.class").toFile().exists());
+    }
+}
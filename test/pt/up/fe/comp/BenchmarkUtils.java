@@ -0,0 +1,42 @@
+package pt.up.fe.comp;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Times the tasks of the benchmarks, as the best of a few runs after some warmup runs.
+ */
+public class BenchmarkUtils {
+
+    public static final int WARMUP = 3;
+    public static final int RUNS = 5;
+
+    /**
+     * @return the best time, in nanoseconds, of `RUNS` runs of `task`, after `WARMUP` runs
+     */
+    public static long bestTime(Runnable task) {
+        return bestTime(() -> null, input -> task.run());
+    }
+
+    /**
+     * Times `task` on a new input from `setup` in each run, for tasks that change their input, without timing `setup`.
+     *
+     * @return the best time, in nanoseconds, of `RUNS` runs of `task`, after `WARMUP` runs
+     */
+    public static <T> long bestTime(Supplier<T> setup, Consumer<T> task) {
+        long best = Long.MAX_VALUE;
+
+        for (int i = 0; i < WARMUP + RUNS; ++i) {
+            var input = setup.get();
+
+            var start = System.nanoTime();
+            task.accept(input);
+            var time = System.nanoTime() - start;
+
+            if (i >= WARMUP)
+                best = Math.min(best, time);
+        }
+
+        return best;
+    }
+}
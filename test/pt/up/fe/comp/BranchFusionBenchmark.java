@@ -0,0 +1,28 @@
+package pt.up.fe.comp;
+
+import org.junit.Test;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2023.optimization.BranchFusion;
+
+
+/**
+ * Prints the time fusing comparisons into the branches of a generated class takes next to the time a parse of its OLLIR
+ * code takes, which rewriting the text would need.
+ */
+public class BranchFusionBenchmark {
+
+    private static final int METHODS = 200;
+
+    @Test
+    public void fusionVersusParse() {
+        var code = BranchFusionTest.generateProgram(METHODS);
+
+        // The fusion changes the class, so it is parsed again for each run, outside the time taken
+        var fusion = BenchmarkUtils.bestTime(() -> new OllirResult(code, BranchFusionTest.config(true)).getOllirClass(),
+                ollirClass -> new BranchFusion().optimize(ollirClass));
+        var parse = BenchmarkUtils.bestTime(() -> new OllirResult(code, BranchFusionTest.config(true)));
+
+        System.out.printf("Fused the branches of %d methods in %.2f ms, parsing them takes %.2f ms%n",
+                METHODS, fusion / 1e6, parse / 1e6);
+    }
+}
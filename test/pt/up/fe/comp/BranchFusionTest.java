@@ -0,0 +1,131 @@
+package pt.up.fe.comp;
+
+import org.junit.Test;
+import org.specs.comp.ollir.AssignInstruction;
+import org.specs.comp.ollir.Method;
+import org.specs.comp.ollir.Operand;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2023.optimization.BranchFusion;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fuses comparisons into the branches that test them, checking that only the temporaries of those branches are gone
+ * and that the optimized code behaves the same.
+ */
+public class BranchFusionTest {
+
+    private static final String MIXED_PROGRAM = """
+            import ioPlus;
+            Mixed {
+                .construct Mixed().V {
+                    invokespecial(this, "<init>").V;
+                }
+
+                .method public static main(args.array.String).V {
+                    i.i32 :=.i32 0.i32;
+                    Loop:
+                      again.bool   :=.bool   i.i32   <.bool   3.i32;
+                    if(!.bool again.bool) goto End;
+                    i.i32 :=.i32 i.i32 +.i32 1.i32;
+                    goto Loop;
+                    End:
+                    kept.bool :=.bool i.i32 ==.bool 3.i32;
+                    if (kept.bool) goto Reused;
+                    Reused:
+                    invokestatic(ioPlus, "printResult", i.i32).V;
+                    other.bool :=.bool i.i32 !=.bool 3.i32;
+                    Target:
+                    if (!.bool other.bool) goto Done;
+                    goto Target;
+                    Done:
+                    ret.V;
+                }
+            }
+            """;
+
+    static Map<String, String> config(boolean optimize) {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", String.valueOf(optimize));
+        return config;
+    }
+
+    /**
+     * @return a class with `methods` methods, each with a loop and an if whose conditions are stored in temporaries and
+     * tested negated, and a main method printing their results
+     */
+    static String generateProgram(int methods) {
+        var code = new StringBuilder("import ioPlus;\nGenerated {\n\n");
+        code.append("    .construct Generated().V {\n        invokespecial(this, \"<init>\").V;\n    }\n\n");
+
+        for (int m = 0; m < methods; ++m) {
+            code.append("    .method public static method").append(m).append("(n.i32).i32 {\n");
+            code.append("sum.i32 :=.i32 0.i32;\n");
+            code.append("i.i32 :=.i32 0.i32;\n");
+            code.append("loop_").append(m).append(":\n");
+            code.append("t1.bool :=.bool i.i32 <.bool n.i32;\n");
+            code.append("if (!.bool t1.bool) goto end_").append(m).append(";\n");
+            code.append("t2.bool :=.bool i.i32 >=.bool ").append(m % 5 + 1).append(".i32;\n");
+            code.append("if (!.bool t2.bool) goto skip_").append(m).append(";\n");
+            code.append("sum.i32 :=.i32 sum.i32 +.i32 i.i32;\n");
+            code.append("skip_").append(m).append(":\n");
+            code.append("i.i32 :=.i32 i.i32 +.i32 1.i32;\n");
+            code.append("goto loop_").append(m).append(";\n");
+            code.append("end_").append(m).append(":\n");
+            code.append("ret.i32 sum.i32;\n");
+            code.append("    }\n\n");
+        }
+
+        code.append("    .method public static main(args.array.String).V {\n");
+        for (int m = 0; m < methods; m += methods / 10)
+            code.append("r.i32 :=.i32 invokestatic(Generated, \"method").append(m).append("\", ").append(m % 7 + 3)
+                    .append(".i32).i32;\ninvokestatic(ioPlus, \"printResult\", r.i32).V;\n");
+        code.append("ret.V;\n    }\n\n}\n");
+
+        return code.toString();
+    }
+
+    private static boolean assigns(Method method, String name) {
+        return method.getInstructions().stream().anyMatch(instruction -> instruction instanceof AssignInstruction assign
+                && assign.getDest() instanceof Operand dest && dest.getName().equals(name));
+    }
+
+    @Test
+    public void onlyFusesTemporariesOfTheBranch() {
+        var ollirResult = new OllirResult(MIXED_PROGRAM, config(true));
+        var branchFusion = new BranchFusion();
+        branchFusion.optimize(ollirResult.getOllirClass());
+
+        var main = ollirResult.getOllirClass().getMethod(1);
+
+        // `kept` is tested directly instead of negated, and fused as well; `other` is not, since its branch is jumped to
+        assertEquals(2, branchFusion.getFusedBranches());
+        assertFalse(assigns(main, "again"));
+        assertFalse(assigns(main, "kept"));
+        assertTrue(assigns(main, "other"));
+        assertFalse(main.getVarTable().containsKey("again"));
+
+        var original = TestUtils.backend(new OllirResult(MIXED_PROGRAM, config(false)));
+        var optimized = TestUtils.backend(TestUtils.getJmmOptimization().optimize(new OllirResult(MIXED_PROGRAM, config(true))));
+        TestUtils.noErrors(optimized);
+        assertEquals(original.run(), optimized.run());
+    }
+
+    @Test
+    public void generatedLoops() {
+        var code = generateProgram(20);
+
+        var original = TestUtils.backend(new OllirResult(code, config(false)));
+        var optimized = TestUtils.backend(TestUtils.getJmmOptimization().optimize(new OllirResult(code, config(true))));
+        TestUtils.noErrors(optimized);
+
+        // Every condition becomes a single compare-and-jump, without materializing the boolean
+        assertFalse(optimized.getJasminCode().contains("__comparison_if_body__"));
+        assertEquals(original.run(), optimized.run());
+    }
+}
@@ -0,0 +1,225 @@
+package pt.up.fe.comp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pt.up.fe.comp2023.BuildCache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the build cache misses whenever the code, the configuration, the compiler or its libraries change, that
+ * it evicts old and least recently used entries, and that concurrent compilations sharing it never see partial entries
+ * or fail.
+ */
+public class BuildCacheTest {
+
+    private static final String CODE = "class A {}";
+    private static final long MB = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private static Map<String, String> config(String... keysAndValues) {
+        Map<String, String> config = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2)
+            config.put(keysAndValues[i], keysAndValues[i + 1]);
+        return config;
+    }
+
+    private static BuildCache.Entry entry(int size) {
+        var classFile = new byte[size];
+        Arrays.fill(classFile, (byte) size);
+        return new BuildCache.Entry("A", null, classFile);
+    }
+
+    private static void setLastUsed(Path dir, String key, Duration ago) throws IOException {
+        Files.setLastModifiedTime(dir.resolve(key), FileTime.fromMillis(System.currentTimeMillis() - ago.toMillis()));
+    }
+
+    private static List<String> listNames(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.list(dir)) {
+            return paths.map(path -> path.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    @Test
+    public void keyDependsOnCodeConfigAndCompiler() {
+        var key = BuildCache.key("v1", CODE, config());
+
+        assertEquals(key, BuildCache.key("v1", CODE, config()));
+        assertEquals("A missing option is its default", key, BuildCache.key("v1", CODE, config("optimize", "false")));
+
+        assertNotEquals(key, BuildCache.key("v1", CODE + " ", config()));
+        assertNotEquals(key, BuildCache.key("v2", CODE, config()));
+        assertNotEquals(key, BuildCache.key("v1", CODE, config("optimize", "true")));
+        assertNotEquals(key, BuildCache.key("v1", CODE, config("registerAllocation", "2")));
+        assertNotEquals(key, BuildCache.key("v1", CODE, config("regalloc", "linear")));
+        assertNotEquals(key, BuildCache.key("v1", CODE, config("ollir", "direct")));
+        assertNotEquals(key, BuildCache.key("v1", CODE, config("jasmin", "true")));
+        assertNotEquals(key, BuildCache.key("v1", CODE, config("inputFile", "A.jmm")));
+
+        // The parts are separated, so moving text between them changes the key
+        assertNotEquals(BuildCache.key("v1", CODE, config("inputFile", "ab")),
+                BuildCache.key("v1", "b" + CODE, config("inputFile", "a")));
+    }
+
+    @Test
+    public void versionDependsOnLibraries() throws Exception {
+        var dir = temp.newFolder().toPath();
+        var classes = Files.createDirectories(dir.resolve("classes"));
+        Files.writeString(classes.resolve("A.class"), "compiler");
+        var library = Files.writeString(dir.resolve("ollir.jar"), "ollir 1");
+
+        var version = BuildCache.compilerVersion(List.of(classes, library));
+        assertEquals(version, BuildCache.compilerVersion(List.of(classes, library, dir.resolve("missing.jar"))));
+
+        // Upgrading a library invalidates the entries, like changing the compiler does
+        Files.writeString(library, "ollir 2");
+        assertNotEquals(version, BuildCache.compilerVersion(List.of(classes, library)));
+
+        Files.writeString(library, "ollir 1");
+        Files.writeString(classes.resolve("A.class"), "changed compiler");
+        assertNotEquals(version, BuildCache.compilerVersion(List.of(classes, library)));
+    }
+
+    @Test
+    public void storesEntries() throws IOException {
+        var dir = temp.newFolder().toPath();
+        var cache = new BuildCache(dir, MB, Duration.ofDays(1));
+
+        assertNull(cache.get("missing"));
+
+        cache.put("with-jasmin", new BuildCache.Entry("A", ".class A", new byte[] { 1, 2, 3 }));
+        cache.put("without-jasmin", entry(3));
+
+        var withJasmin = cache.get("with-jasmin");
+        assertEquals("A", withJasmin.className());
+        assertEquals(".class A", withJasmin.jasminCode());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, withJasmin.classFile());
+        assertNull(cache.get("without-jasmin").jasminCode());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        var dir = temp.newFolder().toPath();
+        var cache = new BuildCache(dir, 2500, Duration.ofDays(1));
+
+        for (var key : List.of("a", "b", "c"))
+            cache.put(key, entry(1000));
+
+        setLastUsed(dir, "a", Duration.ofMinutes(3));
+        setLastUsed(dir, "b", Duration.ofMinutes(2));
+        setLastUsed(dir, "c", Duration.ofMinutes(1));
+
+        // Reading an entry makes it the most recently used
+        assertNotNull(cache.get("a"));
+        cache.evict();
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void evictsOldEntries() throws IOException {
+        var dir = temp.newFolder().toPath();
+        var cache = new BuildCache(dir, MB, Duration.ofDays(1));
+
+        cache.put("old", entry(10));
+        cache.put("new", entry(10));
+        setLastUsed(dir, "old", Duration.ofDays(2));
+
+        cache.evict();
+
+        assertNull(cache.get("old"));
+        assertNotNull(cache.get("new"));
+    }
+
+    @Test
+    public void removesAbandonedTemporaryDirectories() throws IOException {
+        var dir = temp.newFolder().toPath();
+        var cache = new BuildCache(dir, MB, Duration.ofDays(1));
+
+        // Left by compilations that stopped while writing an entry, and by one that is still writing it
+        Files.writeString(Files.createDirectory(dir.resolve(".tmp-abandoned")).resolve("class-name"), "A");
+        Files.createDirectory(dir.resolve(".tmp-writing"));
+        setLastUsed(dir, ".tmp-abandoned", Duration.ofDays(2));
+
+        cache.evict();
+
+        assertEquals(List.of(".tmp-writing"), listNames(dir));
+    }
+
+    @Test
+    public void concurrentPutsGetsAndEvictions() throws Exception {
+        var dir = temp.newFolder().toPath();
+        // Fits only two entries, so that evictions keep removing entries being read, written and evicted
+        var cache = new BuildCache(dir, 2500, Duration.ofDays(1));
+
+        int threads = 16;
+        int rounds = 200;
+        int keys = 8;
+        var executor = Executors.newFixedThreadPool(threads);
+        var start = new CountDownLatch(1);
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; ++i) {
+                int thread = i;
+                Callable<?> task = () -> {
+                    start.await();
+
+                    for (int round = 0; round < rounds; ++round) {
+                        // Every thread stores the same few keys, racing to move its entry into place
+                        cache.put("key-" + round % keys, entry(1000 + round % keys));
+
+                        var read = (round + thread) % keys;
+                        var entry = cache.get("key-" + read);
+                        if (entry != null)
+                            assertArrayEquals("Read a partial or mixed entry", entry(1000 + read).classFile(), entry.classFile());
+
+                        if (round % 2 == thread % 2)
+                            cache.evict();
+                    }
+                    return null;
+                };
+                futures.add(executor.submit(task));
+            }
+
+            // Release every thread at once to maximize interleaving
+            start.countDown();
+
+            for (var future : futures)
+                future.get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        cache.evict();
+        assertFalse("A temporary directory was left behind", listNames(dir).stream().anyMatch(name -> name.startsWith(".tmp-")));
+        assertTrue(listNames(dir).size() <= 2);
+    }
+}
@@ -0,0 +1,50 @@
+package pt.up.fe.comp;
+
+import org.junit.Test;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2023.backend.Backend;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+
+/**
+ * Prints the time writing class files directly and assembling them from the Jasmin code take to produce the class file
+ * of generated classes of growing size.
+ */
+public class ClassFileBenchmark {
+
+    private static final int[] METHODS = { 10, 50, 200 };
+
+    @Test
+    public void classFileVersusJasmin() throws IOException {
+        var outputDir = Files.createTempDirectory("jmm-class-files-").toFile();
+
+        try {
+            for (var methods : METHODS) {
+                var code = ClassFileTest.generateProgram(methods);
+                var backend = new Backend();
+                var config = ClassFileTest.config("false");
+
+                var jasminTime = BenchmarkUtils.bestTime(() -> backend.toJasmin(new OllirResult(code, config)).compile(outputDir));
+                var classFileTime = BenchmarkUtils.bestTime(() -> write(backend.toClassFile(new OllirResult(code, config)).getClassFile(),
+                        new File(outputDir, "Generated.class")));
+
+                System.out.printf("%d methods: Jasmin and assembler %.2f ms, class file %.2f ms%n",
+                        methods, jasminTime / 1e6, classFileTime / 1e6);
+            }
+        } finally {
+            SpecsIo.deleteFolder(outputDir);
+        }
+    }
+
+    private static void write(byte[] classFile, File file) {
+        try {
+            Files.write(file.toPath(), classFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package pt.up.fe.comp;
+
+import org.junit.Test;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2023.backend.Backend;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that class files written directly behave the same as the classes assembled from the Jasmin code.
+ */
+public class ClassFileTest {
+
+    private static final List<String> PROGRAMS = List.of(
+            "pt/up/fe/comp/cp2/apps/example_ollir/HelloWorld.ollir",
+            "pt/up/fe/comp/cp2/apps/example_ollir/Simple.ollir",
+            "pt/up/fe/comp/cpf/4_jasmin/arrays/ComplexArrayAccess.ollir",
+            "pt/up/fe/comp/cpf/4_jasmin/calls/ConditionArgsFuncCall.ollir",
+            "pt/up/fe/comp/cpf/4_jasmin/control_flow/IfWhileNested.ollir",
+            "pt/up/fe/comp/cpf/4_jasmin/control_flow/SwitchStat.ollir");
+
+    static Map<String, String> config(String optimize) {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", optimize);
+        return config;
+    }
+
+    /**
+     * @return a class with `methods` static methods, each summing the multiples of its index in a loop, and a main
+     * method printing the result of each
+     */
+    static String generateProgram(int methods) {
+        var code = new StringBuilder("import ioPlus;\nGenerated {\n\n");
+        code.append("    .construct Generated().V {\n        invokespecial(this, \"<init>\").V;\n    }\n\n");
+
+        for (int m = 0; m < methods; ++m) {
+            code.append("    .method public static m").append(m).append("(n.i32).i32 {\n");
+            code.append("i.i32 :=.i32 0.i32;\nsum.i32 :=.i32 0.i32;\n");
+            code.append("Loop:\nif (i.i32 >=.bool n.i32) goto End;\n");
+            code.append("t.i32 :=.i32 i.i32 *.i32 ").append(m).append(".i32;\n");
+            code.append("sum.i32 :=.i32 sum.i32 +.i32 t.i32;\n");
+            code.append("i.i32 :=.i32 i.i32 +.i32 1.i32;\ngoto Loop;\n");
+            code.append("End:\nret.i32 sum.i32;\n    }\n\n");
+        }
+
+        code.append("    .method public static main(args.array.String).V {\n");
+        for (int m = 0; m < methods; ++m) {
+            code.append("r").append(m).append(".i32 :=.i32 invokestatic(Generated, \"m").append(m).append("\", 10.i32).i32;\n");
+            code.append("invokestatic(ioPlus, \"printResult\", r").append(m).append(".i32).V;\n");
+        }
+        code.append("ret.V;\n    }\n\n}\n");
+
+        return code.toString();
+    }
+
+    @Test
+    public void sameOutputAsJasmin() {
+        for (var program : PROGRAMS) {
+            for (var optimize : List.of("false", "true")) {
+                var code = SpecsIo.getResource(program);
+
+                var jasminResult = new Backend().toJasmin(new OllirResult(code, config(optimize)));
+                var classFileResult = new Backend().toClassFile(new OllirResult(code, config(optimize)));
+                TestUtils.noErrors(jasminResult);
+                TestUtils.noErrors(classFileResult);
+
+                assertEquals(program, jasminResult.run(), classFileResult.run());
+            }
+        }
+    }
+
+    @Test
+    public void generatedClass() {
+        var code = generateProgram(10);
+        var backend = new Backend();
+
+        var jasminResult = backend.toJasmin(new OllirResult(code, config("false")));
+        var classFileResult = backend.toClassFile(new OllirResult(code, config("false")));
+        TestUtils.noErrors(classFileResult);
+
+        assertEquals(jasminResult.run(), classFileResult.run());
+    }
+
+    @Test
+    public void stringConstantEscapes() {
+        // The OLLIR parser does not read `\\s`, so the class is built directly from the Java-- code
+        var code = """
+                import io;
+                class Escapes {
+                    public static void main(String[] args) {
+                        io.println("a\\tb\\sc\\\\d\\"e\\'f\\bg\\fh\\ri\\nj\\u0041\\101\\0\\477");
+                    }
+                }
+                """;
+
+        Map<String, String> config = config("false");
+        config.put("ollir", "direct");
+
+        var ollirResult = TestUtils.optimize(code, config);
+        TestUtils.noErrors(ollirResult);
+        var classFileResult = new Backend().toClassFile(ollirResult);
+        TestUtils.noErrors(classFileResult);
+
+        assertEquals("a\tb c\\d\"e'f\bg\fh\ri\njAA\0'7" + System.lineSeparator(), classFileResult.run());
+    }
+}
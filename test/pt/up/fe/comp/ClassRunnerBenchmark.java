@@ -0,0 +1,36 @@
+package pt.up.fe.comp;
+
+import org.junit.Test;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2023.backend.Backend;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Prints the time running a compiled class takes in a new JVM and inside the benchmark JVM.
+ */
+public class ClassRunnerBenchmark {
+
+    private static final String PROGRAM = "pt/up/fe/comp/cp2/apps/example_ollir/Simple.ollir";
+
+    private static Map<String, String> config() {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", "false");
+        return config;
+    }
+
+    @Test
+    public void newJvmVersusInProcess() {
+        var simple = SpecsIo.getResource(PROGRAM);
+        var jasminResult = new Backend().toJasmin(new OllirResult(simple, config()));
+        var classFileResult = new Backend().toClassFile(new OllirResult(simple, config()));
+        TestUtils.noErrors(classFileResult);
+
+        var forkedTime = BenchmarkUtils.bestTime(jasminResult::run);
+        var inProcessTime = BenchmarkUtils.bestTime(classFileResult::run);
+
+        System.out.printf("Run in a new JVM in %.2f ms, in process in %.3f ms%n", forkedTime / 1e6, inProcessTime / 1e6);
+    }
+}
@@ -0,0 +1,188 @@
+package pt.up.fe.comp;
+
+import org.junit.Test;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2023.backend.Backend;
+import pt.up.fe.comp2023.backend.ClassFileResult;
+import pt.up.fe.comp2023.backend.ClassRunner;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs generated classes inside the test JVM, checking that they print the same as when run in a new JVM, that their
+ * input, output, errors and library state are not shared between runs, that runaway programs are stopped and that too
+ * many of them refuse new runs.
+ */
+public class ClassRunnerTest {
+
+    private static final List<String> PROGRAMS = List.of(
+            "pt/up/fe/comp/cp2/apps/example_ollir/HelloWorld.ollir",
+            "pt/up/fe/comp/cp2/apps/example_ollir/Simple.ollir",
+            "pt/up/fe/comp/cpf/4_jasmin/arrays/ComplexArrayAccess.ollir",
+            "pt/up/fe/comp/cpf/4_jasmin/calls/ConditionArgsFuncCall.ollir",
+            "pt/up/fe/comp/cpf/4_jasmin/control_flow/IfWhileNested.ollir",
+            "pt/up/fe/comp/cpf/4_jasmin/control_flow/SwitchStat.ollir");
+
+    private static final String READ_PROGRAM = """
+            import io;
+            import ioPlus;
+            Reader {
+                .construct Reader().V {
+                    invokespecial(this, "<init>").V;
+                }
+
+                .method public static main(args.array.String).V {
+                    a.i32 :=.i32 invokestatic(io, "read").i32;
+                    invokestatic(ioPlus, "printResult", a.i32).V;
+                    ret.V;
+                }
+            }
+            """;
+
+    private static final String LOOP_PROGRAM = """
+            Looper {
+                .construct Looper().V {
+                    invokespecial(this, "<init>").V;
+                }
+
+                .method public static main(args.array.String).V {
+                    Loop:
+                    goto Loop;
+                    ret.V;
+                }
+            }
+            """;
+
+    private static final String THROW_PROGRAM = """
+            import io;
+            import ioPlus;
+            Thrower {
+                .construct Thrower().V {
+                    invokespecial(this, "<init>").V;
+                }
+
+                .method public static main(args.array.String).V {
+                    n.i32 :=.i32 invokestatic(io, "read").i32;
+                    invokestatic(ioPlus, "printResult", n.i32).V;
+                    a.array.i32 :=.array.i32 new(array, 1.i32).array.i32;
+                    b.i32 :=.i32 a[n.i32].i32;
+                    ret.V;
+                }
+            }
+            """;
+
+    private static Map<String, String> config() {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", "false");
+        return config;
+    }
+
+    private static ClassFileResult classFile(String code) {
+        var result = new Backend().toClassFile(new OllirResult(code, config()));
+        TestUtils.noErrors(result);
+        return result;
+    }
+
+    @Test
+    public void sameOutputAsNewJvm() {
+        for (var program : PROGRAMS) {
+            var code = SpecsIo.getResource(program);
+            var jasminResult = new Backend().toJasmin(new OllirResult(code, config()));
+
+            assertEquals(program, jasminResult.run(), classFile(code).run());
+        }
+    }
+
+    @Test
+    public void separateInputAndLibraries() {
+        var reader = classFile(READ_PROGRAM);
+
+        // `io` keeps the rest of the line it read, which the second run must not see
+        assertEquals("Result: 7", reader.run("7 1\n").trim());
+        assertEquals("Result: 9", reader.run("9 2\n").trim());
+    }
+
+    @Test
+    public void timeout() {
+        var looper = classFile(LOOP_PROGRAM);
+
+        try {
+            ClassRunner.getLibsRunner().run(looper.getClassName(), looper.getClassFile(), "", 200);
+            fail("Expected the program to time out");
+        } catch (RuntimeException e) {
+            assertEquals("Program Looper did not finish within 200 ms", e.getMessage());
+        }
+
+        var hello = classFile(SpecsIo.getResource(PROGRAMS.get(0)));
+        assertEquals("Hello, World!", hello.run().trim());
+    }
+
+    @Test
+    public void refusesRunsWhileTooManyTimedOut() {
+        var looper = classFile(LOOP_PROGRAM);
+        var hello = classFile(SpecsIo.getResource(PROGRAMS.get(0)));
+        var runner = new ClassRunner(new File(TestUtils.getLibsClasspath()), 1);
+
+        assertEquals("Hello, World!", runner.run(hello.getClassName(), hello.getClassFile(), "", 0).trim());
+
+        try {
+            runner.run(looper.getClassName(), looper.getClassFile(), "", 200);
+            fail("Expected the program to time out");
+        } catch (RuntimeException e) {
+            assertEquals("Program Looper did not finish within 200 ms", e.getMessage());
+        }
+
+        try {
+            runner.run(hello.getClassName(), hello.getClassFile(), "", 0);
+            fail("Expected the run to be refused");
+        } catch (IllegalStateException e) {
+            assertEquals("Cannot run program HelloWorld: 1 programs that timed out are still running", e.getMessage());
+        }
+    }
+
+    @Test
+    public void separateErrors() throws Exception {
+        var thrower = classFile(THROW_PROGRAM);
+        var originalErr = System.err;
+        var err = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(err, true));
+
+        var executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> outputs = new ArrayList<>();
+            for (int i = 2; i < 10; ++i) {
+                var input = i + "\n";
+                Callable<String> run = () -> thrower.run(input);
+                outputs.add(executor.submit(run));
+            }
+
+            // Each run returns its own uncaught exception after its output, like a program run in a new JVM
+            for (int i = 2; i < 10; ++i) {
+                var output = outputs.get(i - 2).get();
+                assertTrue(output, output.startsWith("Result: " + i + System.lineSeparator()
+                        + "Exception in thread \"main\" java.lang.ArrayIndexOutOfBoundsException"));
+                assertEquals(output, 1, output.split("Exception in thread", -1).length - 1);
+                assertTrue(output, output.contains("Index " + i + " out of bounds"));
+            }
+        } finally {
+            executor.shutdownNow();
+            System.setErr(originalErr);
+        }
+
+        assertEquals("Nothing should reach the standard error of the JVM", "", err.toString());
+    }
+}
@@ -0,0 +1,276 @@
+package pt.up.fe.comp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pt.up.fe.comp2023.CompileDaemon;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Starts compile daemons on Unix domain sockets and TCP ports, checking that only their owner can send them requests
+ * and that they never replace a socket of a running daemon or a file that is not a socket.
+ */
+public class CompileDaemonTest {
+
+    private static final long TIMEOUT_MS = 30_000;
+
+    private static final String PASSING = """
+            import ioPlus;
+            class Pass {
+                public static void main(String[] args) {
+                    ioPlus.printResult(1);
+                }
+            }
+            """;
+
+    private static final String FAILING = "class Fail { public static void main(String[] args) { int x = ; } }";
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private static Thread start(CompileDaemon daemon) {
+        var thread = new Thread(daemon::serve);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Waits until something accepts connections on `address`.
+     */
+    private static void awaitListening(SocketAddress address) throws Exception {
+        var deadline = System.currentTimeMillis() + TIMEOUT_MS;
+
+        while (true) {
+            try {
+                SocketChannel.open(address).close();
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline)
+                    throw e;
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    /**
+     * @return the lines the daemon on `address` responds to a request made of `lines`
+     */
+    private static List<String> request(SocketAddress address, String... lines) throws IOException {
+        try (var channel = SocketChannel.open(address);
+             var reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), UTF_8));
+             var writer = new PrintWriter(new OutputStreamWriter(Channels.newOutputStream(channel), UTF_8), true)) {
+            for (var line : lines)
+                writer.println(line);
+
+            return reader.lines().toList();
+        }
+    }
+
+    private static String status(List<String> response) {
+        return response.get(response.size() - 1);
+    }
+
+    private Path ownerOnlyDirectory() throws IOException {
+        return Files.setPosixFilePermissions(temp.newFolder().toPath(), PosixFilePermissions.fromString("rwx------"));
+    }
+
+    /**
+     * Sends a request to compile `input`, relative to `clientDir`, into `clientDir/out`.
+     */
+    private static List<String> compile(SocketAddress address, Path clientDir, String input, String... token)
+            throws IOException {
+        List<String> lines = new ArrayList<>(List.of(token));
+        lines.addAll(List.of(clientDir.toString(), "-i=" + input, "--output=out", ""));
+        return request(address, lines.toArray(String[]::new));
+    }
+
+    /**
+     * Compiles a passing and a failing file, given relative to the client's directory, through the daemon on
+     * `address`, checking its response lines and the class file it writes.
+     */
+    private static void testCompileRequests(SocketAddress address, Path clientDir, String... token) throws IOException {
+        Files.writeString(Files.createDirectories(clientDir.resolve("src")).resolve("Pass.jmm"), PASSING);
+        Files.writeString(clientDir.resolve("src/Fail.jmm"), FAILING);
+        var classFile = clientDir.resolve("out/Pass.class");
+
+        var passed = compile(address, clientDir, "src/Pass.jmm", token);
+        assertEquals(passed.toString(), "X 0", status(passed));
+        assertTrue(passed.toString(), passed.contains("A " + classFile));
+        assertTrue(passed.toString(), passed.stream().anyMatch(line -> line.startsWith("O Compiled 1/1 units")));
+        assertTrue(passed.stream().allMatch(line -> line.matches("[OEAX] .*")));
+
+        var bytes = Files.readAllBytes(classFile);
+        assertEquals(0xCAFEBABE, ByteBuffer.wrap(bytes).getInt());
+        // Relative paths are resolved against the client's directory, not the daemon's
+        assertFalse(Files.exists(Path.of("out", "Pass.class")));
+
+        var failed = compile(address, clientDir, "src/Fail.jmm", token);
+        assertEquals(failed.toString(), "X 1", status(failed));
+        assertTrue(failed.toString(), failed.stream().anyMatch(line -> line.startsWith("E ")));
+        assertTrue(failed.toString(), failed.stream().anyMatch(line -> line.startsWith("O Compiled 0/1 units")));
+        assertTrue(failed.toString(), failed.stream().noneMatch(line -> line.startsWith("A ")));
+        assertFalse(Files.exists(clientDir.resolve("out/Fail.class")));
+    }
+
+    private static void shutdown(SocketAddress address, Thread thread, String... token) throws Exception {
+        var lines = new String[token.length + 3];
+        System.arraycopy(token, 0, lines, 0, token.length);
+        lines[token.length] = ".";
+        lines[token.length + 1] = "--shutdown";
+        lines[token.length + 2] = "";
+
+        assertEquals("X 0", status(request(address, lines)));
+        thread.join(TIMEOUT_MS);
+        assertFalse("The daemon did not stop", thread.isAlive());
+    }
+
+    private static void assertRefused(String address, String message) {
+        try {
+            new CompileDaemon(address).serve();
+            fail("Expected the daemon to refuse to listen on " + address);
+        } catch (RuntimeException e) {
+            assertTrue("Unexpected error: " + e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    @Test
+    public void servesUnixSocket() throws Exception {
+        var socket = ownerOnlyDirectory().resolve("daemon.sock");
+        var address = UnixDomainSocketAddress.of(socket);
+        var thread = start(new CompileDaemon(socket.toString()));
+        awaitListening(address);
+
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(socket)));
+        assertEquals("X 0", status(request(address, ".", "--parser-cache-stats", "")));
+
+        shutdown(address, thread);
+        assertFalse("The daemon did not remove its socket", Files.exists(socket));
+    }
+
+    @Test
+    public void compilesOnUnixSocket() throws Exception {
+        var socket = ownerOnlyDirectory().resolve("daemon.sock");
+        var address = UnixDomainSocketAddress.of(socket);
+        var thread = start(new CompileDaemon(socket.toString()));
+        awaitListening(address);
+
+        testCompileRequests(address, ownerOnlyDirectory());
+        shutdown(address, thread);
+    }
+
+    @Test
+    public void replacesStaleSocket() throws Exception {
+        var socket = ownerOnlyDirectory().resolve("daemon.sock");
+        var address = UnixDomainSocketAddress.of(socket);
+
+        // Closing a Unix domain socket leaves its file behind, like a daemon that did not exit cleanly
+        try (var stale = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            stale.bind(address);
+        }
+        assertTrue(Files.exists(socket));
+
+        var thread = start(new CompileDaemon(socket.toString()));
+        awaitListening(address);
+
+        assertEquals("X 0", status(request(address, ".", "--parser-cache-stats", "")));
+        shutdown(address, thread);
+    }
+
+    @Test
+    public void leavesSocketOfRunningDaemon() throws Exception {
+        var socket = ownerOnlyDirectory().resolve("daemon.sock");
+        var address = UnixDomainSocketAddress.of(socket);
+        var thread = start(new CompileDaemon(socket.toString()));
+        awaitListening(address);
+
+        assertRefused(socket.toString(), "Another daemon is already listening");
+
+        // The running daemon still owns its socket and answers on it
+        assertTrue(Files.exists(socket));
+        assertEquals("X 0", status(request(address, ".", "--parser-cache-stats", "")));
+        shutdown(address, thread);
+    }
+
+    @Test
+    public void refusesNonSocketPath() throws Exception {
+        var file = ownerOnlyDirectory().resolve("daemon.sock");
+        Files.writeString(file, "not a socket");
+
+        assertRefused(file.toString(), "is not a socket");
+        assertEquals("not a socket", Files.readString(file));
+    }
+
+    @Test
+    public void refusesSharedDirectory() throws Exception {
+        var directory = ownerOnlyDirectory();
+        Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString("rwxr-xr-x"));
+        var socket = directory.resolve("daemon.sock");
+
+        assertRefused(socket.toString(), "other users can access");
+        assertFalse(Files.exists(socket));
+    }
+
+    @Test
+    public void servesTcpPortWithToken() throws Exception {
+        int port;
+        try (var socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        // The daemon writes its token under the home directory, which is kept out of the real one
+        var home = System.getProperty("user.home");
+        System.setProperty("user.home", ownerOnlyDirectory().toString());
+
+        try {
+            var address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+            var tokenFile = Path.of(System.getProperty("user.home"), ".jmm", "daemon-" + port + ".token");
+            var thread = start(new CompileDaemon(String.valueOf(port)));
+            awaitListening(address);
+
+            // The token is written before the port accepts connections
+            var token = Files.readString(tokenFile).strip();
+            assertEquals(64, token.length());
+            assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(tokenFile)));
+
+            // A request without the token, or with another one, compiles nothing
+            assertEquals("X 2", status(request(address, ".", "--parser-cache-stats", "")));
+            assertEquals("X 2", status(request(address, "0".repeat(token.length()), ".", "--parser-cache-stats", "")));
+            assertEquals("X 2", status(request(address, ".", "--shutdown", "")));
+            assertTrue(thread.isAlive());
+
+            assertEquals("X 0", status(request(address, token, ".", "--parser-cache-stats", "")));
+            testCompileRequests(address, ownerOnlyDirectory(), token);
+            shutdown(address, thread, token);
+            assertFalse("The daemon did not remove its token", Files.exists(tokenFile));
+        } finally {
+            System.setProperty("user.home", home);
+        }
+    }
+}
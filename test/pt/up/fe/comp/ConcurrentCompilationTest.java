@@ -0,0 +1,88 @@
+package pt.up.fe.comp;
+
+import org.junit.Test;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compiles the same units serially and on many threads at once, and checks that every unit generates exactly the
+ * same code in both cases.
+ */
+public class ConcurrentCompilationTest {
+
+    private static final String[] UNITS = {
+            "pt/up/fe/comp/cpf/3_ollir/arithmetic/Arithmetic_and.jmm",
+            "pt/up/fe/comp/cpf/3_ollir/arithmetic/Arithmetic_less.jmm",
+            "pt/up/fe/comp/cpf/3_ollir/arrays/ArrayAccess.jmm",
+            "pt/up/fe/comp/cpf/3_ollir/arrays/ArrayInit.jmm",
+            "pt/up/fe/comp/cpf/3_ollir/arrays/ComplexArrayAccess.jmm",
+            "pt/up/fe/comp/cpf/3_ollir/basic/BasicMethodsArray.jmm",
+            "pt/up/fe/comp/cpf/3_ollir/control_flow/SimpleIfElseStat.jmm",
+            "pt/up/fe/comp/cpf/3_ollir/control_flow/SimpleWhileStat.jmm",
+            "pt/up/fe/comp/cpf/3_ollir/control_flow/SwitchStat.jmm",
+            "pt/up/fe/comp/cpf/5_optimizations/const_prop/PropWithLoop.jmm",
+            "pt/up/fe/comp/cpf/5_optimizations/reg_alloc/regalloc.jmm"
+    };
+
+    private static final int ROUNDS = 8;
+
+    private static String compile(String resource, boolean optimize) {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", String.valueOf(optimize));
+        config.put("registerAllocation", "-1");
+
+        var jasminResult = TestUtils.backend(SpecsIo.getResource(resource), config);
+        return jasminResult.getJasminCode();
+    }
+
+    private static void testConcurrentCompilation(boolean optimize) throws Exception {
+        List<String> expected = new ArrayList<>();
+        for (var unit : UNITS)
+            expected.add(compile(unit, optimize));
+
+        int threads = UNITS.length * ROUNDS;
+        var executor = Executors.newFixedThreadPool(threads);
+        var start = new CountDownLatch(1);
+
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; ++i) {
+                var unit = UNITS[i % UNITS.length];
+                Callable<String> task = () -> {
+                    start.await();
+                    return compile(unit, optimize);
+                };
+                futures.add(executor.submit(task));
+            }
+
+            // Release every thread at once to maximize interleaving
+            start.countDown();
+
+            for (int i = 0; i < threads; ++i)
+                assertEquals("Concurrent compilation of " + UNITS[i % UNITS.length] + " differs from serial compilation",
+                        expected.get(i % UNITS.length), futures.get(i).get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void concurrentCompilationMatchesSerial() throws Exception {
+        testConcurrentCompilation(false);
+    }
+
+    @Test
+    public void concurrentOptimizedCompilationMatchesSerial() throws Exception {
+        testConcurrentCompilation(true);
+    }
+}
@@ -0,0 +1,40 @@
+package pt.up.fe.comp;
+
+import org.junit.Test;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.specs.util.SpecsIo;
+
+
+/**
+ * Prints the time the OLLIR optimizations, including sparse conditional constant propagation, take on the constant
+ * propagation test programs and on a large generated loop-heavy class.
+ */
+public class ConstantPropagationBenchmark {
+
+    private static final String[] CONST_PROP_PROGRAMS = {
+            "pt/up/fe/comp/cpf/5_optimizations/const_prop/PropSimple.jmm",
+            "pt/up/fe/comp/cpf/5_optimizations/const_prop/PropWithLoop.jmm"
+    };
+
+    private static final int METHODS = 200;
+
+    @Test
+    public void constPropPrograms() {
+        for (var program : CONST_PROP_PROGRAMS) {
+            var code = SpecsIo.getResource(program);
+
+            var time = BenchmarkUtils.bestTime(() -> TestUtils.backend(code, ConstantPropagationTest.config(true)));
+            System.out.printf("Compiled %s with optimizations in %.1f ms%n", program, time / 1e6);
+        }
+    }
+
+    @Test
+    public void loopHeavyOllir() {
+        var code = ConstantPropagationTest.generateProgram(METHODS);
+
+        // The optimizations change the class, so it is parsed again for each run, outside the time taken
+        var time = BenchmarkUtils.bestTime(() -> new OllirResult(code, ConstantPropagationTest.config(true)),
+                ollirResult -> TestUtils.getJmmOptimization().optimize(ollirResult));
+        System.out.printf("Optimized %d loop-heavy OLLIR methods in %.1f ms%n", METHODS, time / 1e6);
+    }
+}
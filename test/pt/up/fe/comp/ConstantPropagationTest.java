@@ -0,0 +1,98 @@
+package pt.up.fe.comp;
+
+import org.junit.Test;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks that the OLLIR optimizations, including sparse conditional constant propagation, keep the behaviour of the
+ * constant propagation test programs and of a generated class whose loops only have constant steps when branches on
+ * constants are followed.
+ */
+public class ConstantPropagationTest {
+
+    private static final String[] CONST_PROP_PROGRAMS = {
+            "pt/up/fe/comp/cpf/5_optimizations/const_prop/PropSimple.jmm",
+            "pt/up/fe/comp/cpf/5_optimizations/const_prop/PropWithLoop.jmm"
+    };
+
+    static Map<String, String> config(boolean optimize) {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", String.valueOf(optimize));
+        return config;
+    }
+
+    /**
+     * @return a class with `methods` methods, each with nested loops whose step is only constant when branches on
+     * constants are followed, and a main method printing their results
+     */
+    static String generateProgram(int methods) {
+        var code = new StringBuilder("import ioPlus;\nGenerated {\n\n");
+        code.append("    .construct Generated().V {\n        invokespecial(this, \"<init>\").V;\n    }\n\n");
+
+        for (int m = 0; m < methods; ++m) {
+            code.append("    .method public static method").append(m).append("(n.i32).i32 {\n");
+            code.append("step.i32 :=.i32 1.i32;\n");
+            code.append("limit.i32 :=.i32 ").append(m % 7 + 3).append(".i32;\n");
+            code.append("sum.i32 :=.i32 0.i32;\n");
+            code.append("i.i32 :=.i32 0.i32;\n");
+            code.append("if (i.i32 <.bool n.i32) goto outer_").append(m).append(";\n");
+            code.append("goto end_").append(m).append(";\n");
+            code.append("outer_").append(m).append(":\n");
+            code.append("j.i32 :=.i32 0.i32;\n");
+            code.append("inner_").append(m).append(":\n");
+            code.append("sum.i32 :=.i32 sum.i32 +.i32 limit.i32;\n");
+            code.append("j.i32 :=.i32 j.i32 +.i32 step.i32;\n");
+            code.append("if (j.i32 <.bool limit.i32) goto inner_").append(m).append(";\n");
+            code.append("small.bool :=.bool step.i32 <.bool limit.i32;\n");
+            code.append("if (small.bool) goto same_").append(m).append(";\n");
+            code.append("step.i32 :=.i32 step.i32 *.i32 2.i32;\n");
+            code.append("same_").append(m).append(":\n");
+            code.append("i.i32 :=.i32 i.i32 +.i32 step.i32;\n");
+            code.append("if (i.i32 <.bool n.i32) goto outer_").append(m).append(";\n");
+            code.append("end_").append(m).append(":\n");
+            code.append("ret.i32 sum.i32;\n");
+            code.append("    }\n\n");
+        }
+
+        code.append("    .method public static main(args.array.String).V {\n");
+        for (int m = 0; m < methods; m += methods / 10)
+            code.append("r.i32 :=.i32 invokestatic(Generated, \"method").append(m).append("\", ").append(m % 5 + 1)
+                    .append(".i32).i32;\ninvokestatic(ioPlus, \"printResult\", r.i32).V;\n");
+        code.append("ret.V;\n    }\n\n}\n");
+
+        return code.toString();
+    }
+
+    @Test
+    public void constPropPrograms() {
+        for (var program : CONST_PROP_PROGRAMS) {
+            var code = SpecsIo.getResource(program);
+
+            var original = TestUtils.backend(code, config(false));
+            var optimized = TestUtils.backend(code, config(true));
+            TestUtils.noErrors(optimized);
+
+            assertEquals(program, original.run(), optimized.run());
+        }
+    }
+
+    @Test
+    public void loopStepsFollowConstantBranches() {
+        var code = generateProgram(20);
+
+        var original = TestUtils.backend(new OllirResult(code, config(false)));
+        var optimized = TestUtils.backend(TestUtils.getJmmOptimization().optimize(new OllirResult(code, config(true))));
+        TestUtils.noErrors(optimized);
+
+        // The step of every loop is constant, so the unreachable doubling is gone
+        assertFalse(optimized.getJasminCode().contains("imul"));
+        assertEquals(original.run(), optimized.run());
+    }
+}
@@ -0,0 +1,76 @@
+package pt.up.fe.comp;
+
+import org.junit.Test;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp2023.backend.Backend;
+import pt.up.fe.comp2023.backend.JasminOptimizer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static pt.up.fe.comp.DebugReportTest.config;
+import static pt.up.fe.comp.DebugReportTest.quietly;
+
+/**
+ * Prints the heap the reports of a batch of generated classes retain with debug output enabled and disabled.
+ */
+public class DebugReportBenchmark {
+
+    private static final int CLASSES = 20;
+    private static final int METHODS = 200;
+    private static final int RUNS = 3;
+
+    /**
+     * @return the reports of generating and optimizing the class of `code` `CLASSES` times, with their messages read as
+     * if they were printed, as a batch compilation keeps them until it prints them
+     */
+    private static List<Report> compile(String code, boolean debug) {
+        List<Report> reports = new ArrayList<>();
+
+        for (int i = 0; i < CLASSES; ++i) {
+            var classFileResult = quietly(() -> new Backend().toClassFile(new OllirResult(code, config(debug))));
+            reports.addAll(classFileResult.getReports());
+            reports.addAll(new JasminOptimizer().optimize(classFileResult).getReports());
+        }
+
+        if (debug)
+            reports.forEach(Report::getMessage);
+
+        return reports;
+    }
+
+    private static long usedHeap() {
+        var runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; ++i)
+            System.gc();
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    public void retainedHeap() {
+        var code = ClassFileTest.generateProgram(METHODS);
+        long enabled = Long.MAX_VALUE, disabled = Long.MAX_VALUE;
+
+        for (int i = 0; i < RUNS; ++i) {
+            var before = usedHeap();
+            var reports = compile(code, true);
+            enabled = Math.min(enabled, usedHeap() - before);
+            assertEquals(2 * CLASSES, reports.size());
+
+            reports = null;
+
+            before = usedHeap();
+            reports = compile(code, false);
+            disabled = Math.min(disabled, usedHeap() - before);
+            assertTrue(reports.isEmpty());
+        }
+
+        System.out.printf("Reports of %d classes of %d methods retain %.2f MB with debug output and %.2f MB without%n",
+                CLASSES, METHODS, enabled / 1e6, Math.max(disabled, 0) / 1e6);
+    }
+}
@@ -0,0 +1,106 @@
+package pt.up.fe.comp;
+
+import org.junit.Test;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2023.DebugReport;
+import pt.up.fe.comp2023.backend.Backend;
+import pt.up.fe.comp2023.backend.JasminOptimizer;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that DEBUG reports are only created with debug output enabled and that their messages are computed when read,
+ * and that the OLLIR is dumped after the optimizations.
+ */
+public class DebugReportTest {
+
+    static Map<String, String> config(boolean debug) {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", "true");
+        config.put("debug", String.valueOf(debug));
+        return config;
+    }
+
+    /**
+     * @return the result of `task`, without the method tables the backend prints with debug output enabled
+     */
+    static <T> T quietly(Supplier<T> task) {
+        var out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        try {
+            return task.get();
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    @Test
+    public void onlyCreatedWithDebugEnabled() {
+        var calls = new AtomicInteger();
+        List<Report> reports = new ArrayList<>();
+
+        DebugReport.add(reports, config(false), Stage.GENERATION, () -> "Disabled " + calls.incrementAndGet());
+        assertTrue(reports.isEmpty());
+
+        DebugReport.add(reports, config(true), Stage.GENERATION, () -> "Enabled " + calls.incrementAndGet());
+        assertEquals(1, reports.size());
+        assertEquals(ReportType.DEBUG, reports.get(0).getType());
+        assertEquals(0, calls.get());
+
+        assertEquals("Enabled 1", reports.get(0).getMessage());
+        assertEquals("Enabled 1", reports.get(0).getMessage());
+        assertEquals(1, calls.get());
+
+        DebugReport.addSnapshot(reports, config(false), Stage.GENERATION, () -> "Disabled " + calls.incrementAndGet());
+        assertEquals(1, reports.size());
+
+        DebugReport.addSnapshot(reports, config(true), Stage.GENERATION, () -> "Snapshot " + calls.incrementAndGet());
+        assertEquals(2, calls.get());
+        assertEquals("Snapshot 2", reports.get(1).getMessage());
+    }
+
+    @Test
+    public void backendReports() {
+        var code = ClassFileTest.generateProgram(5);
+
+        var disabled = new Backend().toClassFile(new OllirResult(code, config(false)));
+        assertFalse(disabled.getReports().stream().anyMatch(report -> report.getType() == ReportType.DEBUG));
+        assertTrue(new JasminOptimizer().optimize(disabled).getReports().isEmpty());
+
+        var enabled = quietly(() -> new Backend().toClassFile(new OllirResult(code, config(true))));
+        var jasmin = enabled.getReports().stream().filter(report -> report.getType() == ReportType.DEBUG).findFirst();
+        assertTrue(jasmin.isPresent());
+        assertTrue(jasmin.get().getMessage().startsWith("Generated Jasmin:\n"));
+    }
+
+    @Test
+    public void optimizedOllir() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cpf/4_jasmin/control_flow/IfWhileNested.jmm");
+
+        var disabled = TestUtils.optimize(code, config(false));
+        assertFalse(disabled.getReports().stream().anyMatch(report -> report.getType() == ReportType.DEBUG));
+
+        var enabled = quietly(() -> TestUtils.optimize(code, config(true)));
+        var optimized = enabled.getReports().stream()
+                .filter(report -> report.getType() == ReportType.DEBUG && report.getMessage().startsWith("Optimized OLLIR:\n"))
+                .findFirst();
+        assertTrue(optimized.isPresent());
+        assertTrue(optimized.get().getMessage().contains(".method public static main("));
+    }
+}
@@ -0,0 +1,36 @@
+package pt.up.fe.comp;
+
+import org.junit.Test;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+
+/**
+ * Compares the time and registers of graph coloring and linear scan on generated methods with many simultaneously live
+ * locals, up to very large ones.
+ */
+public class LinearScanBenchmark {
+
+    private static final int[] LIVE_LOCALS = { 100, 500, 2000, 5000 };
+
+    @Test
+    public void graphColoringVersusLinearScan() {
+        for (var live : LIVE_LOCALS) {
+            var code = RegisterAllocationTest.generateProgram(live);
+            var graphConfig = RegisterAllocationTest.config(0, "graph");
+            var linearConfig = RegisterAllocationTest.config(0, "linear");
+
+            var graph = TestUtils.backend(TestUtils.getJmmOptimization().optimize(new OllirResult(code, graphConfig)));
+            var linear = TestUtils.backend(TestUtils.getJmmOptimization().optimize(new OllirResult(code, linearConfig)));
+            TestUtils.noErrors(graph);
+            TestUtils.noErrors(linear);
+
+            var graphLocals = RegisterAllocationTest.localsLimit(graph.getJasminCode());
+            var linearLocals = RegisterAllocationTest.localsLimit(linear.getJasminCode());
+
+            var graphTime = RegisterAllocationBenchmark.timeAllocation(code, graphConfig);
+            var linearTime = RegisterAllocationBenchmark.timeAllocation(code, linearConfig);
+
+            System.out.printf("%d live locals: graph coloring %.2f ms and %d locals, linear scan %.2f ms and %d locals%n",
+                    live, graphTime / 1e6, graphLocals, linearTime / 1e6, linearLocals);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package pt.up.fe.comp;
+
+import org.junit.Test;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2023.optimization.OllirPrinter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Prints the time building a large generated OLLIR class directly takes next to the time writing its code and parsing
+ * it back takes.
+ */
+public class OllirBuilderBenchmark {
+
+    private static final int METHODS = 200;
+
+    private static Map<String, String> config() {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", "false");
+        return config;
+    }
+
+    @Test
+    public void buildVersusWriteAndParse() {
+        var build = BenchmarkUtils.bestTime(() -> OllirBuilderTest.buildProgram(METHODS));
+        var writeAndParse = BenchmarkUtils.bestTime(() -> OllirBuilderTest.buildProgram(METHODS),
+                ollirClass -> new OllirResult(OllirPrinter.print(ollirClass), config()));
+
+        System.out.printf("Built a class of %d methods in %.2f ms, writing and parsing its code takes %.2f ms%n",
+                METHODS, build / 1e6, writeAndParse / 1e6);
+    }
+}
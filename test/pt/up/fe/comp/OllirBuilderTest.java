@@ -0,0 +1,213 @@
+package pt.up.fe.comp;
+
+import org.junit.Test;
+import org.specs.comp.ollir.ClassUnit;
+import pt.up.fe.comp.jmm.analysis.table.Symbol;
+import pt.up.fe.comp.jmm.analysis.table.Type;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2023.JmmType;
+import pt.up.fe.comp2023.backend.Backend;
+import pt.up.fe.comp2023.optimization.OllirBuilder;
+import pt.up.fe.comp2023.optimization.OllirClassResult;
+import pt.up.fe.comp2023.optimization.OllirExpression.*;
+import pt.up.fe.comp2023.optimization.OllirPrinter;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that OLLIR classes built directly by the OLLIR visitor compile and run like the OLLIR code it writes, and that
+ * classes written by the OLLIR printer parse back into the same code.
+ */
+public class OllirBuilderTest {
+
+    private static final List<String> OLLIR_PROGRAMS = List.of(
+            "cp2/apps/example_ollir/HelloWorld.ollir",
+            "cp2/apps/example_ollir/Simple.ollir",
+            "cp2/jasmin/OllirToJasminFields.ollir",
+            "cp2/jasmin/OllirToJasminInvoke.ollir",
+            "cpf/4_jasmin/arrays/ComplexArrayAccess.ollir",
+            "cpf/4_jasmin/calls/ConditionArgsFuncCall.ollir",
+            "cpf/4_jasmin/control_flow/IfWhileNested.ollir",
+            "cpf/4_jasmin/control_flow/SwitchStat.ollir");
+
+    private static final List<String> JMM_PROGRAMS = List.of(
+            "cp2/apps/HelloWorld.jmm",
+            "cp2/apps/Simple.jmm",
+            "cp2/jasmin/OllirToJasminArithmetics.jmm",
+            "cp2/jasmin/OllirToJasminBasic.jmm",
+            "cp2/jasmin/OllirToJasminInvoke.jmm",
+            "cpf/4_jasmin/arithmetic/Arithmetic_and.jmm",
+            "cpf/4_jasmin/arithmetic/Arithmetic_less.jmm",
+            "cpf/4_jasmin/arithmetic/ByteCodeIndexes1.jmm",
+            "cpf/4_jasmin/arithmetic/ByteCodeIndexes2.jmm",
+            "cpf/4_jasmin/arrays/ArrayAccess.jmm",
+            "cpf/4_jasmin/arrays/ArrayAsArg.jmm",
+            "cpf/4_jasmin/arrays/ArrayAsArgCode.jmm",
+            "cpf/4_jasmin/arrays/ArrayInit.jmm",
+            "cpf/4_jasmin/arrays/ComplexArrayAccess.jmm",
+            "cpf/4_jasmin/basic/BasicMethodsArray.jmm",
+            "cpf/4_jasmin/calls/ConditionArgsFuncCall.jmm",
+            "cpf/4_jasmin/control_flow/IfWhileNested.jmm",
+            "cpf/4_jasmin/control_flow/SimpleControlFlow.jmm",
+            "cpf/4_jasmin/control_flow/SimpleIfElseNot.jmm",
+            "cpf/4_jasmin/control_flow/SimpleIfElseStat.jmm",
+            "cpf/4_jasmin/control_flow/SimpleWhileStat.jmm",
+            "cpf/4_jasmin/control_flow/SwitchStat.jmm",
+            "cpf/4_jasmin/limits/LocalLimits.jmm",
+            "cpf/5_optimizations/const_prop/PropSimple.jmm",
+            "cpf/5_optimizations/const_prop/PropWithLoop.jmm",
+            "cpf/5_optimizations/inst_selection/InstSelection_if_lt.jmm",
+            "cpf/5_optimizations/inst_selection/InstSelection_iinc.jmm",
+            "cpf/5_optimizations/reg_alloc/regalloc.jmm");
+
+    private static Map<String, String> config() {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", "false");
+        return config;
+    }
+
+    private static Map<String, String> config(String ollir, boolean optimize, int registers) {
+        Map<String, String> config = new HashMap<>();
+        config.put("ollir", ollir);
+        config.put("optimize", String.valueOf(optimize));
+        config.put("registerAllocation", String.valueOf(registers));
+        return config;
+    }
+
+    private static String jasmin(OllirResult ollirResult) {
+        var jasminResult = new Backend().toJasmin(ollirResult);
+        TestUtils.noErrors(jasminResult);
+        return jasminResult.getJasminCode();
+    }
+
+    /**
+     * @return a class with `methods` methods, each summing the numbers up to its argument in a loop and adding them to
+     * a field, and a main method printing some of their results, built the way the OLLIR visitor builds it
+     */
+    static ClassUnit buildProgram(int methods) {
+        var generated = JmmType.of("Generated");
+        var intArray = JmmType.INT.getArrayType();
+        var self = new This("Generated");
+        var io = new ClassName("ioPlus");
+
+        var n = new Variable("n", JmmType.INT, 1);
+        var sum = new Variable("sum", JmmType.INT);
+        var i = new Variable("i", JmmType.INT);
+        var total = new Variable("total", JmmType.INT);
+        var t1 = new Variable("t1", JmmType.BOOLEAN);
+        var t2 = new Variable("t2", JmmType.INT);
+        var t3 = new Variable("t3", JmmType.INT);
+        var g = new Variable("g", generated);
+        var results = new Variable("results", intArray);
+        var r = new Variable("r", JmmType.INT);
+        var length = new Variable("length", JmmType.INT);
+        var first = new Variable("first", JmmType.INT);
+
+        var builder = new OllirBuilder();
+        builder.addImport("ioPlus");
+        builder.setClass("Generated", null);
+        builder.addField(new Symbol(new Type("int", false), "total"));
+
+        builder.addMethod("Generated", List.of(), List.of(), JmmType.VOID, true);
+        builder.addStatement(new Call("invokespecial", self, "<init>", List.of(), JmmType.VOID));
+
+        for (int m = 0; m < methods; ++m) {
+            builder.addMethod("method" + m, List.of("public"), List.of(new Symbol(new Type("int", false), "n")), JmmType.INT, false);
+            builder.addAssign(sum, JmmType.INT, literal(0));
+            builder.addAssign(i, JmmType.INT, literal(0));
+            builder.addLabel("loop_" + m);
+            builder.addAssign(t1, JmmType.BOOLEAN, new BinaryOp(i, "<", JmmType.BOOLEAN, n));
+            builder.addBranch(new UnaryOp("!", JmmType.BOOLEAN, t1), "end_" + m);
+            builder.addAssign(sum, JmmType.INT, new BinaryOp(sum, "+", JmmType.INT, i));
+            builder.addAssign(t2, JmmType.INT, new GetField(self, total, JmmType.INT));
+            builder.addAssign(t3, JmmType.INT, new BinaryOp(t2, "+", JmmType.INT, i));
+            builder.addStatement(new PutField(self, total, t3));
+            builder.addAssign(i, JmmType.INT, new BinaryOp(i, "+", JmmType.INT, literal(1)));
+            builder.addGoto("loop_" + m);
+            builder.addLabel("end_" + m);
+            builder.addReturn(JmmType.INT, sum);
+        }
+
+        builder.addMethod("main", List.of("public", "static"), List.of(new Symbol(new Type("String", true), "args")),
+                JmmType.VOID, false);
+        builder.addAssign(g, generated, new New(List.of(), generated));
+        builder.addStatement(new Call("invokespecial", g, "<init>", List.of(), JmmType.VOID));
+        builder.addAssign(results, intArray, new New(List.of(literal(10)), intArray));
+        for (int m = 0; m < methods; m += methods / 10) {
+            builder.addAssign(r, JmmType.INT, new Call("invokevirtual", g, "method" + m, List.of(literal(m % 7 + 3)), JmmType.INT));
+            builder.addAssign(new ArrayAccess(results, literal(m / (methods / 10)), JmmType.INT), JmmType.INT, r);
+            builder.addStatement(new Call("invokestatic", io, "printResult", List.of(r), JmmType.VOID));
+        }
+        builder.addAssign(length, JmmType.INT, new ArrayLength(results, JmmType.INT));
+        builder.addStatement(new Call("invokestatic", io, "printResult", List.of(length), JmmType.VOID));
+        builder.addAssign(first, JmmType.INT, new ArrayAccess(results, literal(0), JmmType.INT));
+        builder.addStatement(new Call("invokestatic", io, "printResult", List.of(first), JmmType.VOID));
+        builder.addAssign(total, JmmType.INT, new GetField(g, total, JmmType.INT));
+        builder.addStatement(new Call("invokestatic", io, "printResult", List.of(total), JmmType.VOID));
+        builder.addReturn(JmmType.VOID, null);
+
+        return builder.build();
+    }
+
+    private static Literal literal(int value) {
+        return new Literal(String.valueOf(value), JmmType.INT);
+    }
+
+    /**
+     * Compiles `program` with the OLLIR visitor writing OLLIR code and building the class directly, checking that both
+     * give the same Jasmin code and, for programs with a main method, the same output.
+     */
+    private static void testDirectLikeText(String program, boolean optimize, int registers) {
+        var code = SpecsIo.getResource("pt/up/fe/comp/" + program);
+        var text = TestUtils.optimize(code, config("text", optimize, registers));
+        var direct = TestUtils.optimize(code, config("direct", optimize, registers));
+        TestUtils.noErrors(text);
+        TestUtils.noErrors(direct);
+
+        var message = program + (optimize ? " with -o" : "") + " with -r=" + registers;
+        assertEquals(message, jasmin(text), jasmin(direct));
+
+        if (code.contains("void main("))
+            assertEquals(message, new Backend().toClassFile(text).run(), new Backend().toClassFile(direct).run());
+    }
+
+    @Test
+    public void directLikeText() {
+        for (var program : JMM_PROGRAMS)
+            testDirectLikeText(program, false, -1);
+    }
+
+    @Test
+    public void directLikeTextOptimized() {
+        for (var program : JMM_PROGRAMS)
+            testDirectLikeText(program, true, 0);
+    }
+
+    @Test
+    public void printedCodeParsesBack() {
+        for (var program : OLLIR_PROGRAMS) {
+            var ollirResult = new OllirResult(SpecsIo.getResource("pt/up/fe/comp/" + program), config());
+            var printed = OllirPrinter.print(ollirResult.getOllirClass());
+
+            assertEquals(program, jasmin(ollirResult), jasmin(new OllirResult(printed, config())));
+        }
+    }
+
+    @Test
+    public void builtClassRunsLikeParsedCode() {
+        var built = new OllirClassResult(buildProgram(20), config());
+        var parsed = new OllirResult(built.getOllirCode(), config());
+
+        assertEquals(jasmin(parsed), jasmin(built));
+
+        var output = new Backend().toClassFile(built).run();
+        assertTrue(output.contains("Result: 3"));
+        assertEquals(new Backend().toClassFile(parsed).run(), output);
+    }
+}
@@ -0,0 +1,32 @@
+package pt.up.fe.comp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Parses a large generated program with two-stage SLL/LL parsing and with full LL only, printing the time each one
+ * takes.
+ */
+public class ParserBenchmark {
+
+    private static final int METHODS = 200;
+
+    @Test
+    public void twoStageVersusFullLL() {
+        var code = ParserTest.generateProgram(METHODS);
+
+        var sllResult = TestUtils.parse(code, ParserTest.config(true));
+        var llResult = TestUtils.parse(code, ParserTest.config(false));
+        TestUtils.noErrors(sllResult);
+        TestUtils.noErrors(llResult);
+
+        assertEquals(llResult.getRootNode().toTree(), sllResult.getRootNode().toTree());
+
+        var llTime = BenchmarkUtils.bestTime(() -> TestUtils.parse(code, ParserTest.config(false)));
+        var sllTime = BenchmarkUtils.bestTime(() -> TestUtils.parse(code, ParserTest.config(true)));
+
+        System.out.printf("Parsed %d lines: LL %.1f ms, SLL/LL %.1f ms (%.2fx)%n", code.lines().count(),
+                llTime / 1e6, sllTime / 1e6, (double) llTime / sllTime);
+    }
+}
@@ -0,0 +1,100 @@
+package pt.up.fe.comp;
+
+import org.junit.Test;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that parsing with SLL prediction first, falling back to full LL, gives the same trees and errors as parsing
+ * with full LL only.
+ */
+public class ParserTest {
+
+    private static final List<String> PROGRAMS = List.of(
+            "cp2/apps/HelloWorld.jmm",
+            "cp2/apps/Simple.jmm",
+            "cp2/semanticanalysis/ObjectAssignmentPassImports.jmm",
+            "cp2/semanticanalysis/SymbolTable.jmm",
+            "cpf/1_parser_and_tree/AddMultConstants.jmm",
+            "cpf/2_semantic_analysis/symboltable/MethodsAndFields.jmm",
+            "cpf/3_ollir/arrays/ComplexArrayAccess.jmm",
+            "cpf/4_jasmin/arithmetic/Arithmetic_and.jmm",
+            "cpf/4_jasmin/calls/ConditionArgsFuncCall.jmm",
+            "cpf/4_jasmin/control_flow/IfWhileNested.jmm",
+            "cpf/4_jasmin/control_flow/SwitchStat.jmm",
+            "cpf/4_jasmin/limits/LocalLimits.jmm",
+            "cpf/5_optimizations/const_prop/PropWithLoop.jmm");
+
+    static Map<String, String> config(boolean sll) {
+        Map<String, String> config = new HashMap<>();
+        config.put("sllParsing", String.valueOf(sll));
+        return config;
+    }
+
+    /**
+     * @return a class with `methods` methods, each with nested control flow and long left-recursive expressions
+     */
+    static String generateProgram(int methods) {
+        var code = new StringBuilder("import io;\n\nclass Generated {\n    int[] values;\n\n");
+
+        for (int m = 0; m < methods; ++m) {
+            code.append("    public int method").append(m).append("(int a, int b, int[] c) {\n");
+            code.append("        int i;\n        int sum;\n        sum = 0;\n        i = 0;\n");
+            code.append("        while (i < c.length && !(sum > ").append(m).append(")) {\n");
+            code.append("            if (a * (b + i) - c[i] / 2 < sum + this.method").append(m)
+                    .append("(a - 1, b, c) * 3 && true || a < b) {\n");
+            code.append("                sum = sum + (a * b + c[i] * (i + 1) - (b - a) / 3) * 2 + c[c[i] - 1];\n");
+            code.append("            } else {\n");
+            code.append("                sum = sum - new Generated().method").append(m)
+                    .append("(a, b + 1, new int[i + 2]) + values[i] * values.length;\n");
+            code.append("            }\n");
+            code.append("            io.println(sum + a * b - (a + b) * (a - b) / (i + 1));\n");
+            code.append("            i = i + 1;\n");
+            code.append("        }\n");
+            code.append("        return sum * (a + b) - c[0] + c[c.length - 1];\n");
+            code.append("    }\n\n");
+        }
+
+        return code.append("}\n").toString();
+    }
+
+    @Test
+    public void twoStageParsingMatchesFullLL() {
+        for (var program : PROGRAMS) {
+            var code = SpecsIo.getResource("pt/up/fe/comp/" + program);
+
+            var sllResult = TestUtils.parse(code, config(true));
+            var llResult = TestUtils.parse(code, config(false));
+            TestUtils.noErrors(sllResult);
+            TestUtils.noErrors(llResult);
+
+            assertEquals(program, llResult.getRootNode().toTree(), sllResult.getRootNode().toTree());
+        }
+    }
+
+    @Test
+    public void syntaxErrorsAreReportedAfterFallback() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cpf/4_jasmin/control_flow/IfWhileNested.jmm");
+        code = code.replaceFirst("i = i \\+ 1;", "i = i + ;");
+
+        TestUtils.mustFail(TestUtils.parse(code, config(true)));
+        TestUtils.mustFail(TestUtils.parse(code, config(false)));
+    }
+
+    @Test
+    public void generatedProgram() {
+        var code = generateProgram(5);
+
+        var sllResult = TestUtils.parse(code, config(true));
+        var llResult = TestUtils.parse(code, config(false));
+        TestUtils.noErrors(sllResult);
+        TestUtils.noErrors(llResult);
+
+        assertEquals(llResult.getRootNode().toTree(), sllResult.getRootNode().toTree());
+    }
+}
@@ -0,0 +1,48 @@
+package pt.up.fe.comp;
+
+import org.junit.Test;
+import pt.up.fe.comp2023.backend.JvmInstruction;
+import pt.up.fe.comp2023.backend.JvmInstruction.Jump;
+import pt.up.fe.comp2023.backend.JvmInstruction.Label;
+import pt.up.fe.comp2023.backend.JvmInstruction.Local;
+import pt.up.fe.comp2023.backend.JvmInstruction.Simple;
+
+import java.util.ArrayList;
+
+import static pt.up.fe.comp.PeepholeTest.optimize;
+
+/**
+ * Prints the time the peephole optimizer takes on methods of growing size, which should grow linearly.
+ */
+public class PeepholeBenchmark {
+
+    private static final int[] BLOCKS = { 1_000, 10_000, 100_000 };
+
+    @Test
+    public void linearTime() {
+        for (var blocks : BLOCKS) {
+            var code = new ArrayList<JvmInstruction>();
+
+            // Every block has a load followed by a store, a store followed by a load, a constant branch and a jump
+            // through another block's label
+            for (int b = 0; b < blocks; ++b) {
+                code.add(new Label("L" + b));
+                code.add(new Local("iload", 1));
+                code.add(new Local("istore", 1));
+                code.add(new Local("istore", 2));
+                code.add(new Local("iload", 2));
+                code.add(new Simple("iconst_1"));
+                code.add(new Jump("ifeq", "L" + b));
+                code.add(new Jump("goto", "J" + b));
+                code.add(new Label("J" + b));
+                code.add(new Jump("goto", "L" + (b + 1)));
+            }
+            code.add(new Label("L" + blocks));
+            code.add(new Simple("ireturn"));
+
+            // The optimizer does not change the code it is given, so each run optimizes the same code
+            var best = BenchmarkUtils.bestTime(() -> optimize(code));
+            System.out.printf("Optimized %d instructions in %.2f ms%n", code.size(), best / 1e6);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package pt.up.fe.comp;
+
+import org.junit.Test;
+import pt.up.fe.comp2023.backend.ClassFileResult;
+import pt.up.fe.comp2023.backend.JasminOptimizer;
+import pt.up.fe.comp2023.backend.JvmClass;
+import pt.up.fe.comp2023.backend.JvmInstruction;
+import pt.up.fe.comp2023.backend.JvmInstruction.Jump;
+import pt.up.fe.comp2023.backend.JvmInstruction.Label;
+import pt.up.fe.comp2023.backend.JvmInstruction.Local;
+import pt.up.fe.comp2023.backend.JvmInstruction.Simple;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks each pattern of the peephole optimizer on small methods.
+ */
+public class PeepholeTest {
+
+    private static JvmClass.Method method(List<JvmInstruction> code) {
+        return new JvmClass.Method(List.of("public", "static"), "method", "(I)I", 4, 2, true, code);
+    }
+
+    static JvmClass.Method optimize(List<JvmInstruction> code) {
+        var jvmClass = new JvmClass("Peephole", "java/lang/Object", null, List.of("public"), List.of(), List.of(method(code)));
+        var result = new JasminOptimizer().optimize(new ClassFileResult(jvmClass, new ArrayList<>(), new HashMap<>()));
+
+        return result.getJvmClass().methods().get(0);
+    }
+
+    @Test
+    public void loadThenStore() {
+        var optimized = optimize(List.of(new Local("iload", 1), new Local("istore", 1), new Local("iload", 1), new Simple("ireturn")));
+
+        assertEquals(List.of(new Local("iload", 1), new Simple("ireturn")), optimized.code());
+    }
+
+    @Test
+    public void storeThenLoad() {
+        var optimized = optimize(List.of(new Local("iload", 0), new Local("istore", 2), new Local("iload", 2), new Simple("ireturn")));
+
+        assertEquals(List.of(new Local("iload", 0), new Simple("dup"), new Local("istore", 2), new Simple("ireturn")), optimized.code());
+        assertEquals(3, optimized.maxStack());
+    }
+
+    @Test
+    public void jumpThreading() {
+        var optimized = optimize(List.of(
+                new Local("iload", 0), new Jump("ifne", "A"),
+                new Simple("iconst_0"), new Simple("ireturn"),
+                new Label("A"), new Jump("goto", "B"),
+                new Label("B"), new Jump("goto", "C"),
+                new Label("C"), new Simple("iconst_1"), new Simple("ireturn")));
+
+        assertEquals(new Jump("ifne", "C"), optimized.code().get(1));
+    }
+
+    @Test
+    public void deadCode() {
+        var optimized = optimize(List.of(
+                new Jump("goto", "End"), new Simple("iconst_0"), new Simple("ireturn"),
+                new Label("End"), new Simple("iconst_1"), new Simple("ireturn"), new Simple("nop")));
+
+        assertEquals(List.of(new Label("End"), new Simple("iconst_1"), new Simple("ireturn")), optimized.code());
+    }
+
+    @Test
+    public void constantBranches() {
+        var optimized = optimize(List.of(
+                new Simple("iconst_0"), new Jump("ifne", "Then"),
+                new Simple("iconst_2"), new Simple("iconst_3"), new Jump("if_icmplt", "Then"),
+                new Simple("iconst_0"), new Simple("ireturn"),
+                new Label("Then"), new Simple("iconst_1"), new Simple("ireturn")));
+
+        // The first branch is never taken and the second always is, which leaves the code before `Then` unreachable
+        assertEquals(List.of(new Label("Then"), new Simple("iconst_1"), new Simple("ireturn")), optimized.code());
+    }
+}
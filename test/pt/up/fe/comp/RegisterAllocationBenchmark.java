@@ -0,0 +1,32 @@
+package pt.up.fe.comp;
+
+import org.junit.Test;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2023.optimization.RegisterAllocator;
+
+import java.util.Map;
+
+/**
+ * Prints the time allocating registers for generated methods with many simultaneously live locals takes for each size.
+ */
+public class RegisterAllocationBenchmark {
+
+    private static final int[] LIVE_LOCALS = { 50, 100, 250, 500 };
+
+    /**
+     * @return the best time, in nanoseconds, to allocate the registers of `code` with `config`, parsed again for each
+     * run since the allocation changes it
+     */
+    static long timeAllocation(String code, Map<String, String> config) {
+        var allocator = new RegisterAllocator();
+        return BenchmarkUtils.bestTime(() -> new OllirResult(code, config), allocator::optimizeRegisters);
+    }
+
+    @Test
+    public void manyLiveLocals() {
+        for (var live : LIVE_LOCALS) {
+            var best = timeAllocation(RegisterAllocationTest.generateProgram(live), RegisterAllocationTest.config(0));
+            System.out.printf("Allocated registers for %d live locals in %.2f ms%n", live, best / 1e6);
+        }
+    }
+}
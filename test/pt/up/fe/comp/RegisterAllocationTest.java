@@ -0,0 +1,231 @@
+package pt.up.fe.comp;
+
+import org.junit.Test;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp2023.optimization.InterferenceGraph;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that graph coloring and linear scan allocate registers for methods with many simultaneously live locals
+ * reusing registers and keeping their behaviour, and that linear scan fits the register limits graph coloring fits.
+ * Also checks that copies are coalesced, that constants are rematerialized to fit a register limit and that methods
+ * that still do not fit are reported, and that interference graphs index pairs of tens of thousands of variables.
+ */
+public class RegisterAllocationTest {
+
+    private static final int[] LIVE_LOCALS = { 50, 250 };
+
+    private static final String COPY_PROGRAM = program("""
+            a.i32 :=.i32 n.i32 +.i32 1.i32;
+            b.i32 :=.i32 a.i32;
+            c.i32 :=.i32 b.i32 *.i32 2.i32;
+            ret.i32 c.i32;
+            """);
+
+    // `k` is live along with `n` and `a`, which only fit in two registers if its uses are replaced by its constant
+    private static final String CONSTANT_PROGRAM = program("""
+            k.i32 :=.i32 5.i32;
+            a.i32 :=.i32 n.i32 +.i32 1.i32;
+            b.i32 :=.i32 a.i32 *.i32 k.i32;
+            c.i32 :=.i32 b.i32 +.i32 k.i32;
+            d.i32 :=.i32 c.i32 +.i32 n.i32;
+            ret.i32 d.i32;
+            """);
+
+    // `n`, `a` and `b` are live at the same time, and none of them holds a constant
+    private static final String NO_CONSTANT_PROGRAM = program("""
+            a.i32 :=.i32 n.i32 +.i32 1.i32;
+            b.i32 :=.i32 n.i32 +.i32 2.i32;
+            c.i32 :=.i32 a.i32 +.i32 b.i32;
+            d.i32 :=.i32 c.i32 +.i32 n.i32;
+            ret.i32 d.i32;
+            """);
+
+    static Map<String, String> config(int registers) {
+        Map<String, String> config = new HashMap<>();
+        config.put("registerAllocation", String.valueOf(registers));
+        return config;
+    }
+
+    static Map<String, String> config(int registers, String regalloc) {
+        var config = config(registers);
+        config.put("regalloc", regalloc);
+        return config;
+    }
+
+    static Map<String, String> config(boolean optimize, int registers, String regalloc) {
+        var config = config(registers, regalloc);
+        config.put("optimize", String.valueOf(optimize));
+        return config;
+    }
+
+    /**
+     * @return a class whose method keeps `live` locals live at the same time, each also copied to a short-lived temporary,
+     * and a main method printing its result
+     */
+    static String generateProgram(int live) {
+        var code = new StringBuilder("import ioPlus;\nGenerated {\n\n");
+        code.append("    .construct Generated().V {\n        invokespecial(this, \"<init>\").V;\n    }\n\n");
+
+        code.append("    .method public static method(n.i32).i32 {\n");
+        for (int v = 0; v < live; ++v)
+            code.append("v").append(v).append(".i32 :=.i32 n.i32 +.i32 ").append(v).append(".i32;\n");
+
+        code.append("sum.i32 :=.i32 0.i32;\n");
+        for (int v = 0; v < live; ++v) {
+            code.append("t").append(v).append(".i32 :=.i32 v").append(v).append(".i32 *.i32 2.i32;\n");
+            code.append("sum.i32 :=.i32 sum.i32 +.i32 t").append(v).append(".i32;\n");
+        }
+        code.append("ret.i32 sum.i32;\n    }\n\n");
+
+        code.append("    .method public static main(args.array.String).V {\n");
+        code.append("r.i32 :=.i32 invokestatic(Generated, \"method\", 1.i32).i32;\n");
+        code.append("invokestatic(ioPlus, \"printResult\", r.i32).V;\n");
+        code.append("ret.V;\n    }\n\n}\n");
+
+        return code.toString();
+    }
+
+    /**
+     * @return a class whose static method with parameter `n` has the code `body`, and a main method printing its result
+     */
+    private static String program(String body) {
+        return "import ioPlus;\nGenerated {\n\n"
+                + "    .construct Generated().V {\n        invokespecial(this, \"<init>\").V;\n    }\n\n"
+                + "    .method public static method(n.i32).i32 {\n" + body + "    }\n\n"
+                + "    .method public static main(args.array.String).V {\n"
+                + "r.i32 :=.i32 invokestatic(Generated, \"method\", 4.i32).i32;\n"
+                + "invokestatic(ioPlus, \"printResult\", r.i32).V;\n"
+                + "ret.V;\n    }\n\n}\n";
+    }
+
+    private static OllirResult allocate(String code, int registers) {
+        return TestUtils.getJmmOptimization().optimize(new OllirResult(code, config(registers)));
+    }
+
+    /**
+     * @return the number of stores to local variables in the method named `method`
+     */
+    private static long stores(String jasminCode) {
+        var method = jasminCode.substring(jasminCode.indexOf(".method public static method"));
+        method = method.substring(0, method.indexOf(".end method"));
+
+        return method.lines().filter(line -> line.trim().matches("[ia]store[ _].*")).count();
+    }
+
+    static int localsLimit(String jasminCode) {
+        var method = jasminCode.substring(jasminCode.indexOf(".method public static method"));
+        var matcher = Pattern.compile("\\.limit\\s+locals\\s+(\\d+)").matcher(method);
+        assertTrue(matcher.find());
+        return Integer.parseInt(matcher.group(1));
+    }
+
+    /**
+     * Checks that `resource` fits in `registers` registers with linear scan, as it does with graph coloring, and that
+     * it still behaves the same.
+     */
+    private static void testLinearScanFits(String resource, boolean optimize, int registers) {
+        var code = SpecsIo.getResource("pt/up/fe/comp/" + resource);
+        var original = TestUtils.backend(TestUtils.optimize(code, config(optimize, -1, "graph")));
+
+        for (var regalloc : new String[] { "graph", "linear" }) {
+            var ollirResult = TestUtils.optimize(code, config(optimize, registers, regalloc));
+            TestUtils.noErrors(ollirResult);
+
+            assertEquals(resource + " with " + regalloc, original.run(), TestUtils.backend(ollirResult).run());
+        }
+    }
+
+    @Test
+    public void manyLiveLocals() {
+        for (var live : LIVE_LOCALS) {
+            var code = generateProgram(live);
+            var original = TestUtils.backend(new OllirResult(code, config(-1)));
+
+            for (var regalloc : new String[] { "graph", "linear" }) {
+                var allocated = TestUtils.backend(
+                        TestUtils.getJmmOptimization().optimize(new OllirResult(code, config(0, regalloc))));
+                TestUtils.noErrors(allocated);
+
+                // The temporaries and the original locals die one by one, so they share registers
+                assertTrue(localsLimit(allocated.getJasminCode()) <= live + 3);
+                assertEquals(original.run(), allocated.run());
+            }
+        }
+    }
+
+    @Test
+    public void linearScanFitsLimitOfGraphColoring() {
+        testLinearScanFits("cpf/4_jasmin/control_flow/SwitchStat.jmm", false, 2);
+        testLinearScanFits("cpf/4_jasmin/control_flow/IfWhileNested.jmm", true, 3);
+        testLinearScanFits("cpf/5_optimizations/inst_selection/InstSelection_if_lt.jmm", false, 1);
+    }
+
+    @Test
+    public void copiesAreCoalesced() {
+        var original = TestUtils.backend(new OllirResult(COPY_PROGRAM, config(-1)));
+        var allocated = TestUtils.backend(allocate(COPY_PROGRAM, 0));
+        TestUtils.noErrors(allocated);
+
+        // `a` dies at the copy to `b`, so both get the same register and the copy is gone
+        assertEquals(stores(original.getJasminCode()) - 1, stores(allocated.getJasminCode()));
+        assertTrue(localsLimit(allocated.getJasminCode()) < localsLimit(original.getJasminCode()));
+        assertEquals(original.run(), allocated.run());
+    }
+
+    @Test
+    public void constantsAreRematerialized() {
+        var original = TestUtils.backend(new OllirResult(CONSTANT_PROGRAM, config(-1)));
+
+        var colored = TestUtils.backend(allocate(CONSTANT_PROGRAM, 0));
+        assertEquals(3, localsLimit(colored.getJasminCode()));
+
+        var rematerialized = TestUtils.backend(allocate(CONSTANT_PROGRAM, 2));
+        TestUtils.noErrors(rematerialized);
+        assertEquals(2, localsLimit(rematerialized.getJasminCode()));
+        assertEquals(original.run(), rematerialized.run());
+    }
+
+    @Test
+    public void tooFewRegisters() {
+        var ollirResult = allocate(NO_CONSTANT_PROGRAM, 2);
+
+        assertEquals(1, TestUtils.getNumErrors(ollirResult.getReports()));
+        assertTrue(ollirResult.getReports().stream().anyMatch(report -> report.getType() == ReportType.ERROR
+                && report.getMessage().equals("Method method needs 3 registers, but only 2 are allowed")));
+
+        TestUtils.noErrors(allocate(NO_CONSTANT_PROGRAM, 3));
+    }
+
+    @Test
+    public void largeInterferenceGraph() {
+        // The pairs of the last variables are past the bits an `int` can index
+        int size = 46_343;
+        var graph = new InterferenceGraph(size);
+
+        graph.addEdge(size - 1, size - 2);
+        graph.addEdge(0, size - 1);
+
+        assertTrue(graph.interferes(size - 2, size - 1));
+        assertTrue(graph.interferes(size - 1, 0));
+        assertFalse(graph.interferes(size - 2, 0));
+        assertEquals(2, graph.getDegree(size - 1));
+
+        try {
+            new InterferenceGraph(InterferenceGraph.MAX_SIZE + 1);
+            fail("Expected a graph larger than its bit matrix holds to be refused");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("as its bit matrix holds at most " + InterferenceGraph.MAX_SIZE));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package pt.up.fe.comp;
+
+import org.junit.Test;
+
+/**
+ * Analyses a large generated class with many imports and expressions, checking that it has no semantic errors and
+ * printing the time the analysis takes.
+ */
+public class SemanticAnalysisBenchmark {
+
+    private static final int IMPORTS = 200;
+    private static final int METHODS = 100;
+    private static final int STATEMENTS = 25;
+
+    /**
+     * @return a class with `imports` imports and `methods` methods, each with `statements` statements of about four
+     * expressions each
+     */
+    private static String generateProgram(int imports, int methods, int statements) {
+        var code = new StringBuilder();
+
+        for (int i = 0; i < imports; ++i)
+            code.append("import lib").append(i).append(".Imported").append(i).append(";\n");
+
+        code.append("\nclass Generated {\n    int[] values;\n\n");
+
+        for (int m = 0; m < methods; ++m) {
+            code.append("    public int method").append(m).append("(int a, boolean b) {\n");
+            code.append("        int sum;\n        Imported").append(m % imports).append(" object;\n");
+            code.append("        sum = 0;\n");
+            code.append("        object = new Imported").append(m % imports).append("();\n");
+
+            for (int s = 0; s < statements; ++s) {
+                var imported = "Imported" + ((m + s) % imports);
+                switch (s % 3) {
+                    case 0 -> code.append("        sum = sum + a * ").append(s).append(" - values[sum];\n");
+                    case 1 -> code.append("        b = b && sum < a || !b;\n");
+                    default -> code.append("        object = ").append(imported).append(".create(object, sum + 1);\n");
+                }
+            }
+
+            code.append("        return sum;\n    }\n\n");
+        }
+
+        return code.append("}\n").toString();
+    }
+
+    @Test
+    public void analyseLargeClass() {
+        var code = generateProgram(IMPORTS, METHODS, STATEMENTS);
+
+        TestUtils.noErrors(TestUtils.analyse(code));
+
+        var best = BenchmarkUtils.bestTime(() -> TestUtils.analyse(code));
+
+        System.out.printf("Parsed and analysed %d imports and %d methods in %.1f ms%n", IMPORTS, METHODS, best / 1e6);
+    }
+}